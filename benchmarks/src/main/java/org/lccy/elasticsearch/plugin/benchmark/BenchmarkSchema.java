@@ -0,0 +1,170 @@
+package org.lccy.elasticsearch.plugin.benchmark;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractLatLonPointDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedNumericDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The schema of the README example scaled by the benchmark params: a keyword category field, [rules] numeric fields
+ * scored with log1p, a geo field scored with decaygeoexp and the sort rules on three keyword fields.
+ * Categories are configured by groups of 3 like the README, a fifth of the docs have a category that is not configured.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+final class BenchmarkSchema {
+
+    static final String CATEGORY_FIELD = "categoryCode";
+    static final String GEO_FIELD = "location";
+    static final String[] SORT_FIELDS = {"cornerMark", "sourceProvCode", "iopType"};
+
+    private BenchmarkSchema() {
+    }
+
+    static String numericField(int rule) {
+        return "f" + rule;
+    }
+
+    static String category(int category) {
+        return String.format("C%04d", category);
+    }
+
+    /**
+     * @return the complex_field_score params as json.
+     */
+    static String config(int categories, int rules, String execution) {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < rules; i++) {
+            fields.append("{\"field\":\"").append(numericField(i)).append("\",\"factor\":").append(i % 2 == 0 ? "0.125" : "-0.2")
+                    .append(",\"modifier\":\"log1p\",\"weight\":\"50\",\"add_num\":1");
+            if (i % 3 == 1) {
+                fields.append(",\"missing\":0");
+            }
+            fields.append("},");
+        }
+        fields.append("{\"field\":\"").append(GEO_FIELD).append("\",\"factor\":1,\"modifier\":\"decaygeoexp\",\"weight\":\"50\"")
+                .append(",\"origin\":\"31,121\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6}");
+        String sorts = "{\"weight\":1,\"field\":\"cornerMark\",\"value\":\"1\"},"
+                + "{\"weight\":2,\"field\":\"cornerMark\",\"value\":\"2\"},"
+                + "{\"weight\":3,\"field\":\"sourceProvCode\",\"value\":\"9999\"},"
+                + "{\"weight\":4,\"field\":\"sourceProvCode\",\"type\":\"not\",\"value\":\"9999\"},"
+                + "{\"weight\":5,\"field\":\"iopType\",\"value\":\"1\"},"
+                + "{\"weight\":6,\"field\":\"iopType\",\"value\":\"2\"},"
+                + "{\"weight\":9,\"field\":\"cornerMark&_&iopType\",\"type\":\"equal&_&not_in\",\"value\":\"1&_&2,3\"}";
+
+        StringBuilder fieldsScore = new StringBuilder();
+        StringBuilder sortScore = new StringBuilder();
+        for (int i = 0; i < categories; i += 3) {
+            StringBuilder key = new StringBuilder();
+            for (int c = i; c < Math.min(i + 3, categories); c++) {
+                key.append(key.length() == 0 ? "" : ",").append(category(c));
+            }
+            String sep = i == 0 ? "" : ",";
+            fieldsScore.append(sep).append('"').append(key).append("\":[").append(fields).append(']');
+            sortScore.append(sep).append('"').append(key).append("\":[").append(sorts).append(']');
+        }
+        return "{\"category_field\":\"" + CATEGORY_FIELD + "\",\"field_mode\":\"sum\",\"execution\":\"" + execution + "\""
+                + ",\"fields_score\":{" + fieldsScore + "},\"sort_base_score\":20000,\"sort_score\":{" + sortScore + "}"
+                + ",\"func_score_factor\":0.7,\"original_score_factor\":0.3}";
+    }
+
+    static Map<String, Object> configMap(String config) {
+        return XContentHelper.convertToMap(new BytesArray(config), true, XContentType.JSON).v2();
+    }
+
+    static ScorePlan plan(String config) {
+        return ScorePlan.compile(new CategoryScoreWapper(null, configMap(config)));
+    }
+
+    /**
+     * @return one segment of [docs] docs, [values] values per numeric and sort field.
+     */
+    static DirectoryReader index(int docs, int categories, int rules, int values) throws IOException {
+        Random random = new Random(42);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setRAMBufferSizeMB(256))) {
+            for (int doc = 0; doc < docs; doc++) {
+                Document document = new Document();
+                document.add(new SortedSetDocValuesField(CATEGORY_FIELD, new BytesRef(category(random.nextInt(categories + categories / 4 + 1)))));
+                for (int i = 0; i < rules; i++) {
+                    // a tenth of the docs miss each field
+                    if (random.nextInt(10) == 0) {
+                        continue;
+                    }
+                    for (int v = 0; v < values; v++) {
+                        document.add(new SortedNumericDocValuesField(numericField(i), NumericUtils.doubleToSortableLong(random.nextInt(100_000))));
+                    }
+                }
+                document.add(new LatLonDocValuesField(GEO_FIELD, 30 + random.nextDouble() * 2, 120 + random.nextDouble() * 2));
+                for (String sortField : SORT_FIELDS) {
+                    for (int v = 0; v < values; v++) {
+                        String value = sortField.equals("sourceProvCode") && random.nextBoolean() ? "9999" : String.valueOf(random.nextInt(4));
+                        document.add(new SortedSetDocValuesField(sortField, new BytesRef(value)));
+                    }
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        return DirectoryReader.open(directory);
+    }
+
+    /**
+     * @return the field data of the schema, the same as built from the mapping on a shard.
+     */
+    static Map<String, IndexFieldData> fieldData(int rules) {
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("benchmark").settings(settings).build(), Settings.EMPTY);
+        Index index = indexSettings.getIndex();
+
+        Map<String, IndexFieldData> fieldData = new HashMap<>();
+        fieldData.put(CATEGORY_FIELD, keyword(indexSettings, CATEGORY_FIELD));
+        for (String sortField : SORT_FIELDS) {
+            fieldData.put(sortField, keyword(indexSettings, sortField));
+        }
+        for (int i = 0; i < rules; i++) {
+            fieldData.put(numericField(i), new SortedNumericDVIndexFieldData(index, numericField(i), IndexNumericFieldData.NumericType.DOUBLE));
+        }
+        fieldData.put(GEO_FIELD, new AbstractLatLonPointDVIndexFieldData.LatLonPointDVIndexFieldData(index, GEO_FIELD));
+        return fieldData;
+    }
+
+    private static IndexFieldData keyword(IndexSettings indexSettings, String field) {
+        return new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, field, new NoneCircuitBreakerService(),
+                AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION);
+    }
+}
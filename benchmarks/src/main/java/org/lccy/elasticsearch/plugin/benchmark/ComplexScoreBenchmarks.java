@@ -0,0 +1,28 @@
+package org.lccy.elasticsearch.plugin.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so [gc.alloc.rate.norm] reports the bytes allocated per doc next to the ns per doc.
+ * Takes the JMH command line options, {@code java -jar target/benchmarks.jar ScoreBenchmark -p rules=8}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreBenchmarks {
+
+    private ComplexScoreBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,54 @@
+package org.lccy.elasticsearch.plugin.benchmark;
+
+import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SortScoreComputeWapper#matchNew} on the values of a doc, the string matching of a sort_score rule.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchNewBenchmark {
+
+    @Param({"equal", "not", "in", "not_in", "exists"})
+    public String type;
+
+    @Param({"1", "3"})
+    public int values;
+
+    private String expectVal;
+    private String[] docValues;
+
+    @Setup
+    public void setup() {
+        expectVal = type.endsWith("in") ? "2,3,9999" : "9999";
+        docValues = new String[values];
+        for (int i = 0; i < values; i++) {
+            docValues[i] = String.valueOf(i);
+        }
+    }
+
+    @Benchmark
+    public boolean matchNew() {
+        return SortScoreComputeWapper.matchNew(type, expectVal, docValues);
+    }
+}
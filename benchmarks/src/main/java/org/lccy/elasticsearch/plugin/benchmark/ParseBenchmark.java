@@ -0,0 +1,94 @@
+package org.lccy.elasticsearch.plugin.benchmark;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a complex_field_score config from a request body and from the transport stream, without the node's plan cache.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"12", "300"})
+    public int categories;
+
+    @Param({"2", "8"})
+    public int rules;
+
+    private byte[] json;
+    private BytesReference serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String config = BenchmarkSchema.config(categories, rules, "interpreted");
+        json = config.getBytes("UTF-8");
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            new ComplexFieldFunctionBuilder(BenchmarkSchema.plan(config)).writeTo(out);
+            serialized = out.bytes();
+        }
+    }
+
+    private XContentParser parser() throws IOException {
+        XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+        parser.nextToken();
+        return parser;
+    }
+
+    /**
+     * the token stream parsed into typed rules, as the search request is parsed.
+     */
+    @Benchmark
+    public ComplexFieldFunctionBuilder fromXContent() throws IOException {
+        try (XContentParser parser = parser()) {
+            return ComplexFieldFunctionBuilder.fromXContent(parser);
+        }
+    }
+
+    /**
+     * the generic map of the body, as a profile or an ingest config is built.
+     */
+    @Benchmark
+    public CategoryScoreWapper fromXContentMap() throws IOException {
+        try (XContentParser parser = parser()) {
+            return new CategoryScoreWapper(parser, parser.map());
+        }
+    }
+
+    @Benchmark
+    public ComplexFieldFunctionBuilder fromStreamInput() throws IOException {
+        try (StreamInput in = serialized.streamInput()) {
+            return new ComplexFieldFunctionBuilder(in);
+        }
+    }
+}
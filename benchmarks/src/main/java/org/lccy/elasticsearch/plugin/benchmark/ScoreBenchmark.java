@@ -0,0 +1,104 @@
+package org.lccy.elasticsearch.plugin.benchmark;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Explanation;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LeafScoreFunction#score} and {@link LeafScoreFunction#explainScore} over an in memory segment. <br>
+ * An invocation binds the function to the segment and scores {@value #SCORED_DOCS} docs spread evenly over it, like the
+ * matches of a query, so the results are per doc and include the per segment setup.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreBenchmark {
+
+    static final int SCORED_DOCS = 10_000;
+    static final int EXPLAINED_DOCS = 100;
+
+    @Param({"12", "300"})
+    public int categories;
+
+    @Param({"2", "8"})
+    public int rules;
+
+    @Param({"1", "3"})
+    public int values;
+
+    @Param({"10000", "1000000"})
+    public int docs;
+
+    @Param({"interpreted", "specialized"})
+    public String execution;
+
+    private DirectoryReader reader;
+    private LeafReaderContext leaf;
+    private ComplexFieldFunction function;
+    private int[] scoredDocs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        reader = BenchmarkSchema.index(docs, categories, rules, values);
+        leaf = reader.leaves().get(0);
+        function = new ComplexFieldFunction(BenchmarkSchema.plan(BenchmarkSchema.config(categories, rules, execution)),
+                BenchmarkSchema.fieldData(rules));
+        scoredDocs = new int[SCORED_DOCS];
+        for (int i = 0; i < SCORED_DOCS; i++) {
+            scoredDocs[i] = (int) ((long) i * docs / SCORED_DOCS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCORED_DOCS)
+    public double score() throws IOException {
+        LeafScoreFunction leafFunction = function.getLeafScoreFunction(leaf);
+        double total = 0;
+        for (int doc : scoredDocs) {
+            total += leafFunction.score(doc, 1.5f);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EXPLAINED_DOCS)
+    public void explainScore(Blackhole blackhole) throws IOException {
+        LeafScoreFunction leafFunction = function.getLeafScoreFunction(leaf);
+        Explanation subQueryScore = Explanation.match(1.5f, "sub query");
+        int step = SCORED_DOCS / EXPLAINED_DOCS;
+        for (int i = 0; i < SCORED_DOCS; i += step) {
+            blackhole.consume(leafFunction.explainScore(scoredDocs[i], subQueryScore));
+        }
+    }
+}
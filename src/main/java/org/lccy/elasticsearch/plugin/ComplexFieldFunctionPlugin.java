@@ -1,11 +1,75 @@
 package org.lccy.elasticsearch.plugin;
 
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.NamedDiff;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
+import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.lccy.elasticsearch.plugin.aggregation.InternalTopHitsPerCategory;
+import org.lccy.elasticsearch.plugin.aggregation.TopHitsPerCategoryAggregationBuilder;
+import org.lccy.elasticsearch.plugin.fetch.ScoreBreakdownFetchSubPhase;
+import org.lccy.elasticsearch.plugin.fetch.ScoreBreakdownSearchExt;
 import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreCircuitBreaker;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+import org.lccy.elasticsearch.plugin.function.plan.CompactPlanFormat;
+import org.lccy.elasticsearch.plugin.ingest.ComplexScoreProcessor;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper;
+import org.lccy.elasticsearch.plugin.profile.DeleteScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.PutScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.RestDeleteScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.RestGetScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.RestPutScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfileMetaData;
+import org.lccy.elasticsearch.plugin.profile.TransportDeleteScoringProfileAction;
+import org.lccy.elasticsearch.plugin.profile.TransportPutScoringProfileAction;
+import org.lccy.elasticsearch.plugin.query.ComplexScoreQueryBuilder;
+import org.lccy.elasticsearch.plugin.rescore.CategoryDiversityRescorerBuilder;
+import org.lccy.elasticsearch.plugin.rescore.ComplexScoreRescorerBuilder;
+import org.lccy.elasticsearch.plugin.stats.ComplexScoreSlowLog;
+import org.lccy.elasticsearch.plugin.stats.ComplexScoreStatsAction;
+import org.lccy.elasticsearch.plugin.stats.RestComplexScoreStatsAction;
+import org.lccy.elasticsearch.plugin.stats.TransportComplexScoreStatsAction;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 
 /**
@@ -14,10 +78,168 @@ import java.util.List;
  * @author liuchen <br>
  * @date 2023-07-08
  */
-public class ComplexFieldFunctionPlugin extends Plugin implements SearchPlugin {
+public class ComplexFieldFunctionPlugin extends Plugin implements SearchPlugin, ActionPlugin, IngestPlugin, MapperPlugin {
+
+    private final ComplexScoreServices services;
+
+    public ComplexFieldFunctionPlugin(Settings settings) {
+        this.services = new ComplexScoreServices(settings);
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+        // compile the profiles of every applied cluster state
+        clusterService.addListener(services.getProfiles());
+        // requests are written with the compact plan format once every node reads it
+        clusterService.addListener(event -> {
+            if (event.nodesChanged()) {
+                services.setCompactPlanFormat(CompactPlanFormat.readByEveryNode(event.state().nodes()));
+            }
+        });
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(ComplexScoreCircuitBreaker.LIMIT, services.getBreaker()::setLimit);
+        return Arrays.asList(services, services.getProfiles());
+    }
+
+    @Override
+    public Settings additionalSettings() {
+        return CompactPlanFormat.nodeAttribute();
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return ComplexScoreServices.getSettings();
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addSearchOperationListener(new ComplexScoreSlowLog(indexModule.getSettings()));
+        // the ordinal tables built by a query or fetch phase are charged to the breaker until it ends
+        indexModule.addSearchOperationListener(new SearchOperationListener() {
+            @Override
+            public void onPreQueryPhase(SearchContext searchContext) {
+                services.getBreaker().startRequest();
+            }
+
+            @Override
+            public void onFailedQueryPhase(SearchContext searchContext) {
+                ComplexScoreCircuitBreaker.endRequest();
+            }
+
+            @Override
+            public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+                ComplexScoreCircuitBreaker.endRequest();
+            }
+
+            @Override
+            public void onPreFetchPhase(SearchContext searchContext) {
+                services.getBreaker().startRequest();
+            }
+
+            @Override
+            public void onFailedFetchPhase(SearchContext searchContext) {
+                ComplexScoreCircuitBreaker.endRequest();
+            }
+
+            @Override
+            public void onFetchPhase(SearchContext searchContext, long tookInNanos) {
+                ComplexScoreCircuitBreaker.endRequest();
+            }
+        });
+        // drop the scoring counters and the field bindings of an index when it leaves the node
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings,
+                                          IndicesClusterStateService.AllocatedIndices.IndexRemovalReason reason) {
+                services.getStats().remove(index.getName());
+                services.getFieldBindingCache().removeIndex(index.getUUID());
+            }
+        });
+    }
 
     @Override
     public List<ScoreFunctionSpec<?>> getScoreFunctions() {
-        return Collections.singletonList(new ScoreFunctionSpec<>(ComplexFieldFunctionBuilder.NAME, ComplexFieldFunctionBuilder::new, ComplexFieldFunctionBuilder::fromXContent));
+        return Collections.singletonList(new ScoreFunctionSpec<ComplexFieldFunctionBuilder>(ComplexFieldFunctionBuilder.NAME,
+                in -> new ComplexFieldFunctionBuilder(in, services),
+                parser -> ComplexFieldFunctionBuilder.fromXContent(parser, services)));
+    }
+
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        return Collections.singletonList(new QuerySpec<ComplexScoreQueryBuilder>(ComplexScoreQueryBuilder.NAME,
+                in -> new ComplexScoreQueryBuilder(in, services),
+                parser -> ComplexScoreQueryBuilder.fromXContent(parser, services)));
+    }
+
+    @Override
+    public List<RescorerSpec<?>> getRescorers() {
+        return Arrays.asList(
+                new RescorerSpec<ComplexScoreRescorerBuilder>(ComplexScoreRescorerBuilder.NAME,
+                        in -> new ComplexScoreRescorerBuilder(in, services),
+                        parser -> ComplexScoreRescorerBuilder.fromXContent(parser, services)),
+                new RescorerSpec<CategoryDiversityRescorerBuilder>(CategoryDiversityRescorerBuilder.NAME,
+                        CategoryDiversityRescorerBuilder::new, CategoryDiversityRescorerBuilder::fromXContent));
+    }
+
+    @Override
+    public List<AggregationSpec> getAggregations() {
+        return Collections.singletonList(new AggregationSpec(TopHitsPerCategoryAggregationBuilder.NAME,
+                TopHitsPerCategoryAggregationBuilder::new, TopHitsPerCategoryAggregationBuilder::parse)
+                .addResultReader(InternalTopHitsPerCategory::new));
+    }
+
+    @Override
+    public List<FetchSubPhase> getFetchSubPhases(FetchPhaseConstructionContext context) {
+        return Collections.singletonList(new ScoreBreakdownFetchSubPhase());
+    }
+
+    @Override
+    public List<SearchExtSpec<?>> getSearchExts() {
+        return Collections.singletonList(new SearchExtSpec<ScoreBreakdownSearchExt>(ScoreBreakdownSearchExt.NAME,
+                ScoreBreakdownSearchExt::new, ScoreBreakdownSearchExt::fromXContent));
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        return Collections.singletonMap(ComplexScoreProcessor.TYPE, new ComplexScoreProcessor.Factory(services));
+    }
+
+    @Override
+    public Map<String, Mapper.TypeParser> getMappers() {
+        return Collections.singletonMap(ComplexFeaturesFieldMapper.CONTENT_TYPE, new ComplexFeaturesFieldMapper.TypeParser());
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Arrays.asList(
+                new ActionHandler<>(PutScoringProfileAction.INSTANCE, TransportPutScoringProfileAction.class),
+                new ActionHandler<>(DeleteScoringProfileAction.INSTANCE, TransportDeleteScoringProfileAction.class),
+                new ActionHandler<>(ComplexScoreStatsAction.INSTANCE, TransportComplexScoreStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver, Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(
+                new RestPutScoringProfileAction(restController),
+                new RestDeleteScoringProfileAction(restController),
+                new RestGetScoringProfileAction(restController),
+                new RestComplexScoreStatsAction(restController));
+    }
+
+    @Override
+    public List<NamedWriteableRegistry.Entry> getNamedWriteables() {
+        return Arrays.asList(
+                new NamedWriteableRegistry.Entry(MetaData.Custom.class, ScoringProfileMetaData.TYPE, ScoringProfileMetaData::new),
+                new NamedWriteableRegistry.Entry(NamedDiff.class, ScoringProfileMetaData.TYPE, ScoringProfileMetaData::readDiffFrom));
+    }
+
+    @Override
+    public List<NamedXContentRegistry.Entry> getNamedXContent() {
+        return Collections.singletonList(new NamedXContentRegistry.Entry(MetaData.Custom.class,
+                new ParseField(ScoringProfileMetaData.TYPE), ScoringProfileMetaData::fromXContent));
     }
-}
\ No newline at end of file
+}
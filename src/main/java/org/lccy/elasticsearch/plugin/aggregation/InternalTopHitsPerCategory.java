@@ -0,0 +1,257 @@
+package org.lccy.elasticsearch.plugin.aggregation;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The result of {@link TopHitsPerCategoryAggregationBuilder top_hits_per_category}, one bucket per category sorted by key:
+ * <pre>
+ * "by_category": {
+ *     "buckets": [
+ *         {"key": "F1001", "doc_count": 120, "hits": [{"_index": "...", "_id": "...", "_score": 1.2, "_source": {...}}]}
+ *     ]
+ * }
+ * </pre>
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class InternalTopHitsPerCategory extends InternalAggregation {
+
+    private static final Comparator<Hit> HIT_ORDER = Comparator.comparing((Hit hit) -> hit.score).reversed()
+            .thenComparing(hit -> hit.index).thenComparing(hit -> hit.id);
+
+    private final int size;
+    private final List<Bucket> buckets;
+
+    InternalTopHitsPerCategory(String name, int size, List<Bucket> buckets, List<PipelineAggregator> pipelineAggregators,
+                               Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.size = size;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public InternalTopHitsPerCategory(StreamInput in) throws IOException {
+        super(in);
+        this.size = in.readVInt();
+        this.buckets = in.readList(Bucket::new);
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeVInt(size);
+        out.writeList(buckets);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return TopHitsPerCategoryAggregationBuilder.NAME;
+    }
+
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        TreeMap<String, List<Bucket>> byKey = new TreeMap<>();
+        for (InternalAggregation aggregation : aggregations) {
+            for (Bucket bucket : ((InternalTopHitsPerCategory) aggregation).buckets) {
+                byKey.computeIfAbsent(bucket.key, key -> new ArrayList<>()).add(bucket);
+            }
+        }
+        List<Bucket> reduced = new ArrayList<>(byKey.size());
+        for (Map.Entry<String, List<Bucket>> entry : byKey.entrySet()) {
+            long docCount = 0;
+            List<Hit> hits = new ArrayList<>();
+            for (Bucket bucket : entry.getValue()) {
+                docCount += bucket.docCount;
+                hits.addAll(bucket.hits);
+            }
+            hits.sort(HIT_ORDER);
+            reduced.add(new Bucket(entry.getKey(), docCount, new ArrayList<>(hits.subList(0, Math.min(size, hits.size())))));
+        }
+        return new InternalTopHitsPerCategory(name, size, reduced, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("buckets");
+        for (Bucket bucket : buckets) {
+            builder.startObject();
+            builder.field("key", bucket.key);
+            builder.field("doc_count", bucket.docCount);
+            builder.startArray("hits");
+            for (Hit hit : bucket.hits) {
+                builder.startObject();
+                builder.field("_index", hit.index);
+                builder.field("_id", hit.id);
+                builder.field("_score", hit.score);
+                if (hit.source != null) {
+                    XContentHelper.writeRawField("_source", hit.source, builder, params);
+                }
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), size, buckets);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        InternalTopHitsPerCategory other = (InternalTopHitsPerCategory) obj;
+        return size == other.size && Objects.equals(buckets, other.buckets);
+    }
+
+    /**
+     * The top hits of a category.
+     */
+    public static final class Bucket implements Writeable {
+        private final String key;
+        private final long docCount;
+        private final List<Hit> hits;
+
+        Bucket(String key, long docCount, List<Hit> hits) {
+            this.key = key;
+            this.docCount = docCount;
+            this.hits = hits;
+        }
+
+        Bucket(StreamInput in) throws IOException {
+            this.key = in.readString();
+            this.docCount = in.readVLong();
+            this.hits = in.readList(Hit::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(key);
+            out.writeVLong(docCount);
+            out.writeList(hits);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getDocCount() {
+            return docCount;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Bucket other = (Bucket) obj;
+            return key.equals(other.key) && docCount == other.docCount && hits.equals(other.hits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, docCount, hits);
+        }
+    }
+
+    /**
+     * A hit of a category, the _source is null when not fetched.
+     */
+    public static final class Hit implements Writeable {
+        private final String index;
+        private final String id;
+        private final float score;
+        private final BytesReference source;
+
+        Hit(String index, String id, float score, BytesReference source) {
+            this.index = index;
+            this.id = id;
+            this.score = score;
+            this.source = source;
+        }
+
+        Hit(StreamInput in) throws IOException {
+            this.index = in.readString();
+            this.id = in.readString();
+            this.score = in.readFloat();
+            this.source = in.readBoolean() ? in.readBytesReference() : null;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeString(id);
+            out.writeFloat(score);
+            out.writeBoolean(source != null);
+            if (source != null) {
+                out.writeBytesReference(source);
+            }
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public BytesReference getSource() {
+            return source;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Hit other = (Hit) obj;
+            return index.equals(other.index) && id.equals(other.id) && score == other.score && Objects.equals(source, other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, id, score, source);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.lccy.elasticsearch.plugin.aggregation;
+
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationInitializationException;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@code top_hits_per_category} aggregation, the best hits of each value of a keyword field in one pass:
+ * <pre>
+ * "by_category": {
+ *     "top_hits_per_category": {
+ *         "field": "categoryCode",
+ *         "size": 10,
+ *         "include": ["F1001", "F1005"],
+ *         "_source": true
+ *     }
+ * }
+ * </pre>
+ * Replaces a [filters] aggregation with one bucket per category and a [top_hits] sub aggregation,
+ * the hits are ranked by score like the sort of the top hits. A doc belongs to the category of its first value,
+ * the category complex_field_score scores it with.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class TopHitsPerCategoryAggregationBuilder extends AbstractAggregationBuilder<TopHitsPerCategoryAggregationBuilder> {
+    public static final String NAME = "top_hits_per_category";
+
+    public static final String FIELD = "field";
+    public static final String SIZE = "size";
+    public static final String INCLUDE = "include";
+    public static final String SOURCE = "_source";
+
+    private String field;
+    private int size = 3;
+    private List<String> include;
+    private boolean fetchSource = true;
+
+    public TopHitsPerCategoryAggregationBuilder(String name) {
+        super(name);
+    }
+
+    protected TopHitsPerCategoryAggregationBuilder(TopHitsPerCategoryAggregationBuilder clone,
+                                                   AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        super(clone, factoriesBuilder, metaData);
+        this.field = clone.field;
+        this.size = clone.size;
+        this.include = clone.include;
+        this.fetchSource = clone.fetchSource;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public TopHitsPerCategoryAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.size = in.readVInt();
+        this.include = in.readBoolean() ? in.readStringList() : null;
+        this.fetchSource = in.readBoolean();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeVInt(size);
+        out.writeBoolean(include != null);
+        if (include != null) {
+            out.writeStringCollection(include);
+        }
+        out.writeBoolean(fetchSource);
+    }
+
+    @Override
+    protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        return new TopHitsPerCategoryAggregationBuilder(this, factoriesBuilder, metaData);
+    }
+
+    /**
+     * the keyword field of the categories.
+     */
+    public TopHitsPerCategoryAggregationBuilder field(String field) {
+        if (field == null) {
+            throw new IllegalArgumentException("[" + FIELD + "] must not be null: [" + name + "]");
+        }
+        this.field = field;
+        return this;
+    }
+
+    /**
+     * the number of hits kept per category.
+     */
+    public TopHitsPerCategoryAggregationBuilder size(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("[" + SIZE + "] must be greater than 0. Found [" + size + "] in [" + name + "]");
+        }
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * only these categories get a bucket, null for every category.
+     */
+    public TopHitsPerCategoryAggregationBuilder include(List<String> include) {
+        this.include = include;
+        return this;
+    }
+
+    public TopHitsPerCategoryAggregationBuilder fetchSource(boolean fetchSource) {
+        this.fetchSource = fetchSource;
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> include() {
+        return include;
+    }
+
+    public boolean fetchSource() {
+        return fetchSource;
+    }
+
+    @Override
+    public TopHitsPerCategoryAggregationBuilder subAggregations(AggregatorFactories.Builder subFactories) {
+        throw new AggregationInitializationException("Aggregator [" + name + "] of type [" + getType() + "] cannot accept sub-aggregations");
+    }
+
+    @Override
+    protected AggregatorFactory doBuild(QueryShardContext queryShardContext, AggregatorFactory parent,
+                                        AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        return new TopHitsPerCategoryAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder, metaData,
+                field, size, include, fetchSource);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(FIELD, field);
+        builder.field(SIZE, size);
+        if (include != null) {
+            builder.field(INCLUDE, include);
+        }
+        builder.field(SOURCE, fetchSource);
+        builder.endObject();
+        return builder;
+    }
+
+    public static TopHitsPerCategoryAggregationBuilder parse(String aggregationName, XContentParser parser) throws IOException {
+        TopHitsPerCategoryAggregationBuilder builder = new TopHitsPerCategoryAggregationBuilder(aggregationName);
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && INCLUDE.equals(currentName)) {
+                List<String> include = new ArrayList<>();
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    include.add(parser.text());
+                }
+                builder.include(include);
+            } else if (token.isValue()) {
+                if (FIELD.equals(currentName)) {
+                    builder.field(parser.text());
+                } else if (SIZE.equals(currentName)) {
+                    builder.size(parser.intValue());
+                } else if (SOURCE.equals(currentName)) {
+                    builder.fetchSource(parser.booleanValue());
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown param [" + currentName + "] in [" + aggregationName + "].");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unexpected token [" + token + "] for [" + currentName + "] in [" + aggregationName + "].");
+            }
+        }
+        if (builder.field == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [" + FIELD + "] in [" + aggregationName + "].");
+        }
+        return builder;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), field, size, include, fetchSource);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        TopHitsPerCategoryAggregationBuilder other = (TopHitsPerCategoryAggregationBuilder) obj;
+        return Objects.equals(field, other.field) && size == other.size && Objects.equals(include, other.include)
+                && fetchSource == other.fetchSource;
+    }
+}
@@ -0,0 +1,235 @@
+package org.lccy.elasticsearch.plugin.aggregation;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.LongObjectPagedHashMap;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.mapper.IdFieldMapper;
+import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the top hits of each category in a single pass: the category is the first global ordinal of the doc and
+ * each ordinal keeps a heap bounded by [size], so a doc costs one ordinal read and at most one heap update. <br>
+ * The stored fields are only read for the hits left in the heaps once the shard is collected.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+final class TopHitsPerCategoryAggregator extends MetricsAggregator {
+
+    private final IndexOrdinalsFieldData globalFieldData;
+    private final int size;
+    private final List<String> include;
+    private final boolean fetchSource;
+    // global ordinal to the hits of the category
+    private final LongObjectPagedHashMap<CategoryHits> categories;
+    // the included global ordinals sorted, null when every category is collected
+    private long[] includeOrds;
+    // any segment's global ordinals, to look the terms of the buckets up
+    private SortedSetDocValues lookup;
+
+    TopHitsPerCategoryAggregator(String name, SearchContext context, Aggregator parent, List<PipelineAggregator> pipelineAggregators,
+                                 Map<String, Object> metaData, IndexOrdinalsFieldData fieldData, int size, List<String> include,
+                                 boolean fetchSource) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.globalFieldData = fieldData == null ? null : fieldData.loadGlobal((DirectoryReader) context.searcher().getIndexReader());
+        this.size = size;
+        this.include = include;
+        this.fetchSource = fetchSource;
+        this.categories = new LongObjectPagedHashMap<>(1, context.bigArrays());
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE;
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (globalFieldData == null) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        final SortedSetDocValues ords = globalFieldData.load(ctx).getOrdinalsValues();
+        if (lookup == null) {
+            lookup = globalFieldData.load(ctx).getOrdinalsValues();
+            includeOrds = includeOrds(lookup, include);
+        }
+        final int docBase = ctx.docBase;
+        return new LeafBucketCollectorBase(sub, null) {
+            private Scorable scorer;
+
+            @Override
+            public void setScorer(Scorable scorer) {
+                this.scorer = scorer;
+            }
+
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                if (!ords.advanceExact(doc)) {
+                    return;
+                }
+                long ord = ords.nextOrd();
+                if (includeOrds != null && Arrays.binarySearch(includeOrds, ord) < 0) {
+                    return;
+                }
+                CategoryHits hits = categories.get(ord);
+                if (hits == null) {
+                    hits = new CategoryHits(size);
+                    categories.put(ord, hits);
+                }
+                hits.collect(docBase + doc, scorer.score());
+            }
+        };
+    }
+
+    /**
+     * @return the global ordinals of the included terms found on the shard, sorted, null when every category is collected.
+     */
+    static long[] includeOrds(SortedSetDocValues values, List<String> include) throws IOException {
+        if (include == null) {
+            return null;
+        }
+        long[] ords = new long[include.size()];
+        int count = 0;
+        for (String term : include) {
+            long ord = values.lookupTerm(new BytesRef(term));
+            if (ord >= 0) {
+                ords[count++] = ord;
+            }
+        }
+        ords = Arrays.copyOf(ords, count);
+        Arrays.sort(ords);
+        return ords;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) throws IOException {
+        List<InternalTopHitsPerCategory.Bucket> buckets = new ArrayList<>((int) categories.size());
+        String index = context.indexShard().shardId().getIndexName();
+        for (LongObjectPagedHashMap.Cursor<CategoryHits> cursor : categories) {
+            CategoryHits hits = cursor.value;
+            ScoreDoc[] top = new ScoreDoc[hits.queue.size()];
+            // the heap pops the lowest hit first
+            for (int i = top.length - 1; i >= 0; i--) {
+                top[i] = hits.queue.pop();
+            }
+            List<InternalTopHitsPerCategory.Hit> loaded = new ArrayList<>(top.length);
+            for (ScoreDoc hit : top) {
+                loaded.add(load(index, hit));
+            }
+            String key = lookup.lookupOrd(cursor.key).utf8ToString();
+            buckets.add(new InternalTopHitsPerCategory.Bucket(key, hits.docCount, loaded));
+        }
+        return new InternalTopHitsPerCategory(name, size, buckets, pipelineAggregators(), metaData());
+    }
+
+    private InternalTopHitsPerCategory.Hit load(String index, ScoreDoc hit) throws IOException {
+        HitFieldsVisitor visitor = new HitFieldsVisitor(fetchSource);
+        context.searcher().doc(hit.doc, visitor);
+        return new InternalTopHitsPerCategory.Hit(index, visitor.id, hit.score, visitor.source);
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalTopHitsPerCategory(name, size, Collections.emptyList(), pipelineAggregators(), metaData());
+    }
+
+    @Override
+    protected void doClose() {
+        Releasables.close(categories);
+    }
+
+    /**
+     * The hits of a category, the heap's top is the lowest hit kept.
+     */
+    private static final class CategoryHits {
+        private final PriorityQueue<ScoreDoc> queue;
+        private final int size;
+        private long docCount;
+
+        private CategoryHits(int size) {
+            this.size = size;
+            this.queue = new PriorityQueue<ScoreDoc>(size) {
+                @Override
+                protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+                    // same order as the top hits, by score then by doc
+                    return a.score == b.score ? a.doc > b.doc : a.score < b.score;
+                }
+            };
+        }
+
+        private void collect(int doc, float score) {
+            docCount++;
+            if (queue.size() < size) {
+                queue.add(new ScoreDoc(doc, score));
+                return;
+            }
+            ScoreDoc lowest = queue.top();
+            // docs are collected in order, a tie keeps the earlier doc
+            if (score > lowest.score) {
+                lowest.doc = doc;
+                lowest.score = score;
+                queue.updateTop();
+            }
+        }
+    }
+
+    /**
+     * Reads the _id and, when asked, the _source of a hit.
+     */
+    private static final class HitFieldsVisitor extends StoredFieldVisitor {
+        private final boolean fetchSource;
+        private String id;
+        private BytesReference source;
+
+        private HitFieldsVisitor(boolean fetchSource) {
+            this.fetchSource = fetchSource;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (IdFieldMapper.NAME.equals(fieldInfo.name)) {
+                return Status.YES;
+            }
+            if (fetchSource && SourceFieldMapper.NAME.equals(fieldInfo.name)) {
+                return Status.YES;
+            }
+            return id != null && (!fetchSource || source != null) ? Status.STOP : Status.NO;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            if (IdFieldMapper.NAME.equals(fieldInfo.name)) {
+                id = Uid.decodeId(value);
+            } else {
+                source = new BytesArray(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.lccy.elasticsearch.plugin.aggregation;
+
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the category field of {@link TopHitsPerCategoryAggregationBuilder} on the shard.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class TopHitsPerCategoryAggregatorFactory extends AggregatorFactory {
+
+    // null when the field has no mapping on the shard
+    private final IndexOrdinalsFieldData fieldData;
+    private final int size;
+    private final List<String> include;
+    private final boolean fetchSource;
+
+    TopHitsPerCategoryAggregatorFactory(String name, QueryShardContext queryShardContext, AggregatorFactory parent,
+                                        AggregatorFactories.Builder subFactoriesBuilder, Map<String, Object> metaData,
+                                        String field, int size, List<String> include, boolean fetchSource) throws IOException {
+        super(name, queryShardContext, parent, subFactoriesBuilder, metaData);
+        MappedFieldType fieldType = queryShardContext.fieldMapper(field);
+        if (fieldType == null) {
+            this.fieldData = null;
+        } else {
+            IndexFieldData<?> indexFieldData = queryShardContext.getForField(fieldType);
+            if (!(indexFieldData instanceof IndexOrdinalsFieldData)) {
+                throw new IllegalArgumentException("[" + TopHitsPerCategoryAggregationBuilder.NAME + "] field [" + field
+                        + "] must be a keyword field, found [" + fieldType.typeName() + "].");
+            }
+            this.fieldData = (IndexOrdinalsFieldData) indexFieldData;
+        }
+        this.size = size;
+        this.include = include;
+        this.fetchSource = fetchSource;
+    }
+
+    @Override
+    protected Aggregator createInternal(SearchContext searchContext, Aggregator parent, boolean collectsFromSingleBucket,
+                                        List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+        if (!collectsFromSingleBucket) {
+            return asMultiBucketAggregator(this, searchContext, parent);
+        }
+        return new TopHitsPerCategoryAggregator(name, searchContext, parent, pipelineAggregators, metaData,
+                fieldData, size, include, fetchSource);
+    }
+}
@@ -0,0 +1,152 @@
+package org.lccy.elasticsearch.plugin.fetch;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.common.lucene.search.function.ScoreFunction;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunction;
+import org.lccy.elasticsearch.plugin.query.ComplexScoreQuery;
+import org.lccy.elasticsearch.plugin.rescore.ComplexScoreRescorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Adds the {@code _score_breakdown} field to the returned hits when the request has the {@link ScoreBreakdownSearchExt}. <br>
+ * The breakdown is computed by the scorer of the complex_field_score function for the returned hits only,
+ * so it's cheap enough for production traffic, unlike [explain: true] which explains the whole query.
+ * The function is the complex_score rescorer when it's the first rescorer, else the first complex_field_score function
+ * or complex_score query found in the scoring clauses of the query. The sub score is recomputed with the sub query,
+ * a hit the sub query doesn't match has no breakdown.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ScoreBreakdownFetchSubPhase implements FetchSubPhase {
+    public static final String FIELD = "_score_breakdown";
+
+    @Override
+    public void hitsExecute(SearchContext context, SearchHit[] hits) throws IOException {
+        ScoreBreakdownSearchExt ext = (ScoreBreakdownSearchExt) context.getSearchExt(ScoreBreakdownSearchExt.NAME);
+        if (ext == null || !ext.isEnabled() || hits.length == 0) {
+            return;
+        }
+        Target target = rescoreTarget(context);
+        if (target == null) {
+            target = queryTarget(context.query());
+        }
+        if (target == null) {
+            return;
+        }
+
+        IndexSearcher searcher = context.searcher();
+        Weight subWeight = searcher.createWeight(searcher.rewrite(target.subQuery), ScoreMode.COMPLETE, 1f);
+        // walk the hits in doc order, so the sub scorer and the doc values of each segment are read forward
+        SearchHit[] sorted = hits.clone();
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.docId(), b.docId()));
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        Scorer subScorer = null;
+        ComplexFieldFunction.BreakdownLeafScoreFunction leafFunction = null;
+        for (SearchHit hit : sorted) {
+            if (leaf == null || hit.docId() >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(hit.docId(), leaves));
+                subScorer = subWeight.scorer(leaf);
+                leafFunction = target.function.getLeafBreakdownFunction(leaf);
+            }
+            int docId = hit.docId() - leaf.docBase;
+            if (subScorer == null) {
+                continue;
+            }
+            DocIdSetIterator iterator = subScorer.iterator();
+            if (iterator.docID() < docId) {
+                iterator.advance(docId);
+            }
+            if (iterator.docID() != docId) {
+                continue;
+            }
+            if (hit.fieldsOrNull() == null) {
+                hit.fields(new HashMap<>());
+            }
+            hit.getFields().put(FIELD, new DocumentField(FIELD,
+                    Collections.singletonList(leafFunction.breakdown(docId, subScorer.score()).asMap())));
+        }
+    }
+
+    /**
+     * the complex_score rescorer, only when it's the first rescorer so its sub score is the score of the query.
+     */
+    private static Target rescoreTarget(SearchContext context) {
+        List<RescoreContext> rescore = context.rescore();
+        if (rescore == null || rescore.isEmpty() || !(rescore.get(0) instanceof ComplexScoreRescorer.Context)) {
+            return null;
+        }
+        return new Target(((ComplexScoreRescorer.Context) rescore.get(0)).getFunction(), context.query());
+    }
+
+    /**
+     * the first complex_field_score function of the scoring clauses of the query.
+     */
+    private static Target queryTarget(Query query) {
+        if (query instanceof ComplexScoreQuery) {
+            ComplexScoreQuery complexScoreQuery = (ComplexScoreQuery) query;
+            return new Target(complexScoreQuery.getFunction(), complexScoreQuery.getSubQuery());
+        }
+        if (query instanceof FunctionScoreQuery) {
+            FunctionScoreQuery functionScoreQuery = (FunctionScoreQuery) query;
+            for (ScoreFunction function : functionScoreQuery.getFunctions()) {
+                if (function instanceof FunctionScoreQuery.FilterScoreFunction) {
+                    function = ((FunctionScoreQuery.FilterScoreFunction) function).function;
+                }
+                if (function instanceof ComplexFieldFunction) {
+                    return new Target((ComplexFieldFunction) function, functionScoreQuery.getSubQuery());
+                }
+            }
+            return queryTarget(functionScoreQuery.getSubQuery());
+        }
+        if (query instanceof BoostQuery) {
+            return queryTarget(((BoostQuery) query).getQuery());
+        }
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.isScoring()) {
+                    Target target = queryTarget(clause.getQuery());
+                    if (target != null) {
+                        return target;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the function to break down and the query giving its sub score.
+     */
+    private static final class Target {
+        private final ComplexFieldFunction function;
+        private final Query subQuery;
+
+        private Target(ComplexFieldFunction function, Query subQuery) {
+            this.function = function;
+            this.subQuery = subQuery;
+        }
+    }
+}
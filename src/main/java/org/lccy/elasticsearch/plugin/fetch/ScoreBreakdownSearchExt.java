@@ -0,0 +1,81 @@
+package org.lccy.elasticsearch.plugin.fetch;
+
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchExtBuilder;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * {@code score_breakdown} search ext, asks the score breakdown of the returned hits:
+ * <pre>
+ * "ext": {
+ *     "score_breakdown": true
+ * }
+ * </pre>
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ScoreBreakdownSearchExt extends SearchExtBuilder {
+    public static final String NAME = "score_breakdown";
+
+    private final boolean enabled;
+
+    public ScoreBreakdownSearchExt(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public ScoreBreakdownSearchExt(StreamInput in) throws IOException {
+        this.enabled = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeBoolean(enabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        return builder.field(NAME, enabled);
+    }
+
+    public static ScoreBreakdownSearchExt fromXContent(XContentParser parser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.VALUE_BOOLEAN) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be a boolean, got [" + parser.currentToken() + "].");
+        }
+        return new ScoreBreakdownSearchExt(parser.booleanValue());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return enabled == ((ScoreBreakdownSearchExt) obj).enabled;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(enabled);
+    }
+}
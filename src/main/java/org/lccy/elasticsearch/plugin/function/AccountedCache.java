@@ -0,0 +1,164 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Node level LRU cache whose entries are charged to the {@link ComplexScoreCircuitBreaker} while they are cached. <br>
+ * An entry is charged an estimate before it's loaded and settled against its size once loaded, the settled bytes
+ * are kept with the entry and released when it's removed, however it's removed. When the breaker needs memory the
+ * least recently used entries are invalidated without being read, they count as evictions.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class AccountedCache<K, V extends Accountable> implements ComplexScoreCircuitBreaker.Evictor {
+
+    private final Cache<K, Entry<K, V>> cache;
+    private final ComplexScoreCircuitBreaker breaker;
+    // the breaker label of the entries
+    private final String label;
+    private final LongAdder breakerEvictions = new LongAdder();
+
+    /**
+     * @param maxWeight  the max weight of the entries, 0 disables the cache
+     * @param weighBytes true if an entry weighs its bytes, false if every entry weighs 1
+     */
+    public AccountedCache(long maxWeight, boolean weighBytes, ComplexScoreCircuitBreaker breaker, String label) {
+        this.breaker = breaker;
+        this.label = label;
+        if (maxWeight <= 0) {
+            this.cache = null;
+            return;
+        }
+        CacheBuilder<K, Entry<K, V>> builder = CacheBuilder.<K, Entry<K, V>>builder()
+                .setMaximumWeight(maxWeight)
+                .removalListener(notification -> breaker.release(notification.getValue().bytes));
+        if (weighBytes) {
+            builder.weigher((key, entry) -> entry.bytes);
+        }
+        this.cache = builder.build();
+        breaker.addEvictor(this);
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @param estimate bytes charged before the loader runs, so a value too large for the breaker is never built
+     * @param loader   builds the value, only called on a cache miss
+     * @return the cached value, the cache must be enabled.
+     * @throws ExecutionException wrapping the {@link CircuitBreakingException} of an entry the breaker can't hold,
+     *                            or the failure of the loader. Nothing is cached or charged then.
+     */
+    public V computeIfAbsent(K key, long estimate, CacheLoader<K, V> loader) throws ExecutionException {
+        return cache.computeIfAbsent(key, k -> {
+            breaker.charge(estimate, label);
+            V value;
+            try {
+                value = loader.load(k);
+            } catch (Exception e) {
+                breaker.release(estimate);
+                throw e;
+            }
+            long bytes = value.ramBytesUsed();
+            if (bytes > estimate) {
+                try {
+                    breaker.charge(bytes - estimate, label);
+                } catch (CircuitBreakingException e) {
+                    breaker.release(estimate);
+                    throw e;
+                }
+            } else {
+                breaker.release(estimate - bytes);
+            }
+            return new Entry<>(k, value, bytes);
+        }).value;
+    }
+
+    /**
+     * invalidate the entries whose key matches.
+     */
+    public void invalidateIf(Predicate<K> stale) {
+        if (cache == null) {
+            return;
+        }
+        List<K> keys = new ArrayList<>();
+        for (K key : cache.keys()) {
+            if (stale.test(key)) {
+                keys.add(key);
+            }
+        }
+        keys.forEach(cache::invalidate);
+    }
+
+    /**
+     * evict the least recently used entries until [bytes] are freed, the entries are not read so they are not promoted.
+     */
+    @Override
+    public long evict(long bytes) {
+        List<Entry<K, V>> entries = new ArrayList<>();
+        for (Entry<K, V> entry : cache.values()) {
+            entries.add(entry);
+        }
+        long freed = 0;
+        // the values come most recently used first
+        for (int i = entries.size() - 1; i >= 0 && freed < bytes; i--) {
+            Entry<K, V> entry = entries.get(i);
+            // a no-op if the entry was replaced since it was listed
+            cache.invalidate(entry.key, entry);
+            freed += entry.bytes;
+            breakerEvictions.increment();
+        }
+        return freed;
+    }
+
+    public long count() {
+        return cache == null ? 0 : cache.count();
+    }
+
+    /**
+     * @return the total weight of the entries, their bytes when the entries weigh their bytes.
+     */
+    public long weight() {
+        return cache == null ? 0 : cache.weight();
+    }
+
+    public long hits() {
+        return cache == null ? 0 : cache.stats().getHits();
+    }
+
+    public long misses() {
+        return cache == null ? 0 : cache.stats().getMisses();
+    }
+
+    /**
+     * @return the entries evicted above the max weight of the cache or for the breaker.
+     */
+    public long evictions() {
+        return cache == null ? 0 : cache.stats().getEvictions() + breakerEvictions.sum();
+    }
+
+    private static final class Entry<K, V> {
+        private final K key;
+        private final V value;
+        // the bytes charged to the breaker
+        private final long bytes;
+
+        private Entry(K key, V value, long bytes) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.CheckedFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Segment level dispatch table from category ordinal to the rules resolved for the segment. <br>
+ * The configured category codes are resolved with {@link KeywordOrdinals#lookupTerm} once per segment,
+ * so the per doc dispatch is an array access instead of a string lookup. The other tables of the segment are
+ * derived with {@link #map} without looking the codes up again.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class CategoryOrdTable<T> {
+
+    // above this ordinal the table switches to a sorted ordinal array to keep memory bounded
+    private static final int MAX_DENSE_SIZE = 1 << 16;
+
+    private final Object[] dense;
+    private final long[] sparseOrds;
+    private final Object[] sparseRules;
+
+    private CategoryOrdTable(Object[] dense, long[] sparseOrds, Object[] sparseRules) {
+        this.dense = dense;
+        this.sparseOrds = sparseOrds;
+        this.sparseRules = sparseRules;
+    }
+
+    /**
+     * @param values        the category field of the segment
+     * @param categoryRules configured category codes with their rules
+     * @param resolver      resolves the rules of a category present in the segment, called once per distinct rules
+     */
+    public static <S, T> CategoryOrdTable<T> build(KeywordOrdinals values, Map<String, S> categoryRules,
+                                                   CheckedFunction<S, T, IOException> resolver) throws IOException {
+        if (values == null || categoryRules == null || categoryRules.isEmpty()) {
+            return new CategoryOrdTable<>(new Object[0], null, null);
+        }
+        long[] ords = new long[categoryRules.size()];
+        Object[] rules = new Object[categoryRules.size()];
+        Map<S, T> resolved = new IdentityHashMap<>();
+        int size = 0;
+        long maxOrd = -1;
+        for (Map.Entry<String, S> entry : categoryRules.entrySet()) {
+            long ord = values.lookupTerm(new BytesRef(entry.getKey()));
+            if (ord >= 0) {
+                T rule = resolved.get(entry.getValue());
+                if (rule == null) {
+                    rule = resolver.apply(entry.getValue());
+                    resolved.put(entry.getValue(), rule);
+                }
+                ords[size] = ord;
+                rules[size] = rule;
+                maxOrd = Math.max(maxOrd, ord);
+                size++;
+            }
+        }
+        if (size == 0) {
+            return new CategoryOrdTable<>(new Object[0], null, null);
+        }
+        if (maxOrd < MAX_DENSE_SIZE) {
+            Object[] dense = newDense((int) maxOrd + 1);
+            for (int i = 0; i < size; i++) {
+                dense[(int) ords[i]] = rules[i];
+            }
+            return new CategoryOrdTable<>(dense, null, null);
+        }
+
+        // sort ordinals with their rules for binary search
+        Integer[] index = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            index[i] = i;
+        }
+        Arrays.sort(index, (a, b) -> Long.compare(ords[a], ords[b]));
+        long[] sparseOrds = new long[size];
+        Object[] sparseRules = new Object[size];
+        for (int i = 0; i < size; i++) {
+            sparseOrds[i] = ords[index[i]];
+            sparseRules[i] = rules[index[i]];
+        }
+        return new CategoryOrdTable<>(null, sparseOrds, sparseRules);
+    }
+
+    /**
+     * @param mapper maps the rules of a category present in the segment, called once per distinct rules
+     * @return the table of the same ordinals with the mapped rules.
+     */
+    public <R> CategoryOrdTable<R> map(CheckedFunction<T, R, IOException> mapper) throws IOException {
+        Map<Object, Object> mapped = new IdentityHashMap<>();
+        if (dense != null) {
+            if (dense.length == 0) {
+                return new CategoryOrdTable<>(dense, null, null);
+            }
+            Object[] mappedDense = newDense(dense.length);
+            for (int i = 0; i < dense.length; i++) {
+                if (dense[i] != null) {
+                    mappedDense[i] = mapRule(dense[i], mapped, mapper);
+                }
+            }
+            return new CategoryOrdTable<>(mappedDense, null, null);
+        }
+        Object[] mappedRules = new Object[sparseRules.length];
+        for (int i = 0; i < sparseRules.length; i++) {
+            mappedRules[i] = mapRule(sparseRules[i], mapped, mapper);
+        }
+        return new CategoryOrdTable<>(null, sparseOrds, mappedRules);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, R> Object mapRule(Object rule, Map<Object, Object> mapped, CheckedFunction<T, R, IOException> mapper) throws IOException {
+        Object result = mapped.get(rule);
+        if (result == null) {
+            result = mapper.apply((T) rule);
+            mapped.put(rule, result);
+        }
+        return result;
+    }
+
+    private static Object[] newDense(int length) {
+        // charged to the query phase before it's allocated, released when the query phase ends
+        ComplexScoreCircuitBreaker.chargeRequest(RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * length), "category_ord_table");
+        return new Object[length];
+    }
+
+    /**
+     * @return the rules of the category ordinal, null if the ordinal is not configured.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long ord) {
+        if (ord < 0) {
+            return null;
+        }
+        if (dense != null) {
+            return ord < dense.length ? (T) dense[(int) ord] : null;
+        }
+        int idx = Arrays.binarySearch(sparseOrds, ord);
+        return idx >= 0 ? (T) sparseRules[idx] : null;
+    }
+
+    /**
+     * @return true if none of the configured category codes exists in the segment.
+     */
+    public boolean isEmpty() {
+        return dense != null && dense.length == 0;
+    }
+}
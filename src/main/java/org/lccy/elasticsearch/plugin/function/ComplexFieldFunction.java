@@ -1,26 +1,23 @@
 package org.lccy.elasticsearch.plugin.function;
 
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.search.Explanation;
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.lucene.search.function.CombineFunction;
 import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
 import org.elasticsearch.common.lucene.search.function.ScoreFunction;
 import org.elasticsearch.index.fielddata.IndexFieldData;
-import org.elasticsearch.index.fielddata.IndexNumericFieldData;
-import org.elasticsearch.index.fielddata.MultiGeoPointValues;
 import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
-import org.elasticsearch.index.fielddata.plain.AbstractLatLonPointDVIndexFieldData;
-import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
-import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
-import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
-import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
-import org.lccy.elasticsearch.plugin.util.CommonUtil;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.FieldMergeMode;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+import org.lccy.elasticsearch.plugin.stats.ScoringCounters;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * A complex_field_score function that multiplies the score with the param settings.
@@ -30,361 +27,547 @@ import java.util.*;
  */
 public class ComplexFieldFunction extends ScoreFunction {
 
-    private final CategoryScoreWapper categorys;
-    private final Map<String, IndexFieldData> fieldMap;
+    private static final LeafFieldRule[] NO_FIELD_RULES = new LeafFieldRule[0];
+    private static final SortOrdMatcher[] NO_SORT_MATCHERS = new SortOrdMatcher[0];
+    // where explain and breakdown say the cached scores are read from
+    private static final String FIELD_SCORE_CACHE = "_field_score_cache";
+    private static final String SORT_TIER_CACHE = "_sort_tier_cache";
+
+    private final ScorePlan plan;
+    private final FieldBindings bindings;
+    private final ComplexScoreServices services;
+    // the scoring counters of the index, null when not counted
+    private final ScoringCounters counters;
+    // the hit counters of the plan's category codes, resolved once for every segment
+    private final Map<String, LongAdder> categoryHits;
+
+    public ComplexFieldFunction(ScorePlan plan, Map<String, IndexFieldData> fieldMap) {
+        this(plan, fieldMap, Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param pointDecoders decode the points of the numeric fields, fields without decoder are not bounded
+     * @param services      the node's segment caches, null to compute every rule per doc
+     */
+    public ComplexFieldFunction(ScorePlan plan, Map<String, IndexFieldData> fieldMap, Map<String, Function<byte[], Number>> pointDecoders,
+                                ComplexScoreServices services) {
+        this(plan, fieldMap, Collections.emptyMap(), pointDecoders, services);
+    }
+
+    /**
+     * @param features the rule fields that are features of a complex_features field, read with one seek per doc
+     */
+    public ComplexFieldFunction(ScorePlan plan, Map<String, IndexFieldData> fieldMap, Map<String, PackedFeatures.Feature> features,
+                                Map<String, Function<byte[], Number>> pointDecoders, ComplexScoreServices services) {
+        this(plan, new FieldBindings(fieldMap, features, pointDecoders), services, null);
+    }
 
-    public ComplexFieldFunction(CategoryScoreWapper categorys, Map<String, IndexFieldData> fieldMap) {
+    /**
+     * @param bindings the fields of the plan resolved on the index
+     * @param counters the scoring counters of the index
+     */
+    public ComplexFieldFunction(ScorePlan plan, FieldBindings bindings, ComplexScoreServices services, ScoringCounters counters) {
         super(CombineFunction.MULTIPLY);
-        this.categorys = categorys;
-        this.fieldMap = fieldMap;
+        this.plan = plan;
+        this.bindings = bindings;
+        this.services = services;
+        this.counters = counters;
+        this.categoryHits = LeafScoreStats.categoryHits(counters, plan);
+    }
+
+    public ScorePlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the upper bound of the function scores of the segment, see {@link ScoreBounds}.
+     */
+    public ScoreBounds getScoreBounds(LeafReaderContext ctx) throws IOException {
+        LeafDocValues docValues = new LeafDocValues(ctx, bindings);
+        DocOrdinals categoryOrdinals = docValues.ordinals(plan.getCategoryField());
+        double[] blockMaxTiers = null;
+        SortTiers tiers = sortTiers(ctx);
+        if (tiers != null) {
+            blockMaxTiers = tiers.getBlockMax();
+        } else if (categoryOrdinals.getValues() != null && plan.getFuncScoreFactor() >= 0 && !plan.isPrecomputed() && SortTiers.supports(plan)) {
+            // the tiers aren't cached, one pass over the segment for this query, the bounds only look up terms of the category field
+            blockMaxTiers = SortTiers.buildBlockMax(plan, ctx.reader().maxDoc(), categoryOrdinals, docValues);
+        }
+        return ScoreBounds.of(plan, ctx.reader(), categoryOrdinals.getValues(), bindings, blockMaxTiers);
     }
 
     @Override
-    public LeafScoreFunction getLeafScoreFunction(LeafReaderContext ctx) {
-        final Map<String, Object> fieldDataMap = new HashMap<>();
-        for (Map.Entry<String, IndexFieldData> entry : fieldMap.entrySet()) {
-            IndexFieldData val = entry.getValue();
-            String field = entry.getKey();
-            if (val == null) {
-                fieldDataMap.put(field, null);
-            } else {
-                if (val instanceof SortedSetDVOrdinalsIndexFieldData) {
-                    // string type
-                    fieldDataMap.put(field, ((SortedSetDVOrdinalsIndexFieldData) val).load(ctx).getOrdinalsValues());
-                } else if (val instanceof IndexNumericFieldData) {
-                    // int、float、double type
-                    fieldDataMap.put(field, ((IndexNumericFieldData) val).load(ctx).getDoubleValues());
-                } else if (val instanceof AbstractLatLonPointDVIndexFieldData) {
-                    // geo type
-                    fieldDataMap.put(field, ((AbstractLatLonPointDVIndexFieldData) val).load(ctx).getGeoPointValues());
-                } else {
-                    throw new ElasticsearchException("Not support mapping type for field [" + field + "], type:" + val.getClass());
-                }
+    public LeafScoreFunction getLeafScoreFunction(LeafReaderContext ctx) throws IOException {
+        final long bindStart = System.nanoTime();
+        final LeafDocValues docValues = new LeafDocValues(ctx, bindings);
+        final DocOrdinals categoryOrdinals = docValues.ordinals(plan.getCategoryField());
+        final CategoryOrdTable<CategoryPlan> categoryPlans = categoryPlans(categoryOrdinals);
+        final LeafScoreStats stats = LeafScoreStats.of(counters, categoryHits, plan, categoryPlans, bindStart);
+        if (categoryPlans.isEmpty()) {
+            // no doc of the segment has a configured category, no other doc values are read
+            return stats.wrap(originalScoreFunction());
+        }
+        if (plan.isPrecomputed()) {
+            return stats.wrap(precomputedLeafScoreFunction(docValues, categoryOrdinals, categoryPlans, stats));
+        }
+        final FieldScores fieldScores = fieldScores(ctx);
+        final SortTiers tiers = sortTiers(ctx);
+        if (plan.isSpecialized()) {
+            SpecializedScorer scorer = services == null ? new SpecializedScorer(plan) : services.getSpecializedScorerCache().getOrBuild(plan);
+            return stats.wrap(scorer.bind(plan, categoryOrdinals, categoryPlans, docValues, fieldScores, tiers, stats,
+                    () -> interpretedLeafScoreFunction(docValues, categoryOrdinals, categoryPlans, fieldScores, tiers, LeafScoreStats.DISABLED)));
+        }
+        return stats.wrap(interpretedLeafScoreFunction(docValues, categoryOrdinals, categoryPlans, fieldScores, tiers, stats));
+    }
+
+    /**
+     * @return the scorer of the segment that also reports the score breakdown of a doc, with the rules and the segment
+     * caches of the query, without the stats.
+     */
+    public BreakdownLeafScoreFunction getLeafBreakdownFunction(LeafReaderContext ctx) throws IOException {
+        final LeafDocValues docValues = new LeafDocValues(ctx, bindings);
+        final DocOrdinals categoryOrdinals = docValues.ordinals(plan.getCategoryField());
+        final CategoryOrdTable<CategoryPlan> categoryPlans = categoryPlans(categoryOrdinals);
+        if (categoryPlans.isEmpty()) {
+            return originalScoreFunction();
+        }
+        if (plan.isPrecomputed()) {
+            return precomputedLeafScoreFunction(docValues, categoryOrdinals, categoryPlans, LeafScoreStats.DISABLED);
+        }
+        // the specialized scorer explains with the interpreted one too
+        return interpretedLeafScoreFunction(docValues, categoryOrdinals, categoryPlans, fieldScores(ctx), sortTiers(ctx), LeafScoreStats.DISABLED);
+    }
+
+    /**
+     * A segment scorer that also reports how the score of a doc is built.
+     */
+    public abstract static class BreakdownLeafScoreFunction extends LeafScoreFunction {
+
+        /**
+         * @return the parts of the score of the doc, computed with the rules of {@link #score(int, float)}.
+         */
+        public abstract ScoreBreakdown breakdown(int docId, float subQueryScore) throws IOException;
+    }
+
+    /**
+     * @return the configured categories of the segment by ordinal, empty if no configured category code is in its
+     * terms dictionary. The codes are only looked up here, the rule tables of the segment are mapped from it.
+     */
+    private CategoryOrdTable<CategoryPlan> categoryPlans(DocOrdinals categoryOrdinals) throws IOException {
+        return CategoryOrdTable.build(categoryOrdinals.getValues(), plan.getCategoryPlans(), categoryPlan -> categoryPlan);
+    }
+
+    /**
+     * the scorer of a segment without configured category, every doc keeps [original_score_factor * subQueryScore].
+     */
+    private BreakdownLeafScoreFunction originalScoreFunction() {
+        final double originalScoreFactor = plan.getOriginalScoreFactor();
+        return new BreakdownLeafScoreFunction() {
+            @Override
+            public double score(int docId, float subQueryScore) {
+                return originalScoreFactor * subQueryScore;
+            }
+
+            @Override
+            public Explanation explainScore(int docId, Explanation subQueryScore) {
+                return Explanation.match(originalScoreFactor * subQueryScore.getValue().floatValue()
+                        , String.format("category is empty. subQueryScore:[%f], expression:[%f * subScore]", subQueryScore.getValue().floatValue(), originalScoreFactor), subQueryScore);
+            }
+
+            @Override
+            public ScoreBreakdown breakdown(int docId, float subQueryScore) {
+                // the category is not read, no doc of the segment has a configured one
+                ScoreBreakdown breakdown = new ScoreBreakdown();
+                breakdown.blend(0, 0, originalScoreFactor, subQueryScore, 0);
+                return breakdown;
             }
+        };
+    }
+
+    /**
+     * the numeric field scores of the segment from the node's cache, built on the first query of the segment with these field rules.
+     */
+    private FieldScores fieldScores(LeafReaderContext ctx) throws IOException {
+        if (services == null || plan.isPrecomputed() || !FieldScores.supports(plan)) {
+            return null;
         }
-        final CategoryScoreWapper csw = this.categorys;
+        return services.getFieldScoreCache().getOrBuild(ctx, plan.getFieldFingerprint(), FieldScores.estimate(ctx.reader().maxDoc()), () -> {
+            // the build walks every doc of the segment, so it reads its own doc values
+            LeafDocValues docValues = new LeafDocValues(ctx, bindings);
+            return FieldScores.build(plan, ctx.reader().maxDoc(), docValues.ordinals(plan.getCategoryField()), docValues);
+        });
+    }
 
-        return new LeafScoreFunction() {
+    /**
+     * the sort tiers of the segment from the node's cache, built on the first query of the segment with these sort rules.
+     */
+    private SortTiers sortTiers(LeafReaderContext ctx) throws IOException {
+        if (services == null || plan.isPrecomputed() || !SortTiers.supports(plan)) {
+            return null;
+        }
+        return services.getSortTierCache().getOrBuild(ctx, plan.getSortFingerprint(), SortTiers.estimate(plan, ctx.reader().maxDoc()), () -> {
+            // the build walks every doc of the segment, so it reads its own doc values
+            LeafDocValues docValues = new LeafDocValues(ctx, bindings);
+            return SortTiers.build(plan, ctx.reader().maxDoc(), docValues.ordinals(plan.getCategoryField()), docValues);
+        });
+    }
+
+    /**
+     * the generic scorer walking the plan's rules of the doc's category.
+     *
+     * @param fieldScores the cached numeric field scores of the segment, null to compute every field rule per doc
+     * @param tiers       the cached sort tiers of the segment, null to match the sort rules per doc
+     * @param stats       times the phases of the sampled docs
+     */
+    private BreakdownLeafScoreFunction interpretedLeafScoreFunction(LeafDocValues docValues, DocOrdinals categoryOrdinals,
+                                                           CategoryOrdTable<CategoryPlan> categoryPlans, FieldScores fieldScores,
+                                                           SortTiers tiers, LeafScoreStats stats) throws IOException {
+        final ScorePlan plan = this.plan;
+        final Map<FieldRule[], LeafFieldRule[]> resolvedFields = new IdentityHashMap<>();
+        final Map<SortRule[], SortOrdMatcher[]> resolvedSorts = new IdentityHashMap<>();
+        final CategoryOrdTable<LeafCategoryRules> categoryOrdTable = categoryPlans.map(categoryPlan -> {
+            FieldRule[] fieldRules = categoryPlan.getFieldRules();
+            LeafFieldRule[] leafFieldRules = resolvedFields.get(fieldRules);
+            if (leafFieldRules == null) {
+                leafFieldRules = fieldRules.length == 0 ? NO_FIELD_RULES : new LeafFieldRule[fieldRules.length];
+                for (int i = 0; i < fieldRules.length; i++) {
+                    leafFieldRules[i] = new LeafFieldRule(fieldRules[i], docValues.get(fieldRules[i].getField()));
+                }
+                resolvedFields.put(fieldRules, leafFieldRules);
+            }
+            SortRule[] sortRules = categoryPlan.getSortRules();
+            SortOrdMatcher[] matchers = resolvedSorts.get(sortRules);
+            if (matchers == null) {
+                matchers = sortRules.length == 0 ? NO_SORT_MATCHERS : new SortOrdMatcher[sortRules.length];
+                for (int i = 0; i < sortRules.length; i++) {
+                    matchers[i] = SortOrdMatcher.resolve(sortRules[i], docValues);
+                }
+                resolvedSorts.put(sortRules, matchers);
+            }
+            return new LeafCategoryRules(leafFieldRules, fieldScores == null ? leafFieldRules : liveFieldRules(leafFieldRules), matchers);
+        });
+
+        return new BreakdownLeafScoreFunction() {
 
             @Override
             public double score(int docId, float subQueryScore) throws IOException {
-//                long start = System.currentTimeMillis();
+                return evaluate(docId, subQueryScore, null);
+            }
 
-                String categoryCode = getStrVal(docId, (SortedSetDocValues) fieldDataMap.get(csw.getCategoryField()));
-                if (CommonUtil.isEmpty(categoryCode)) {
-                    return csw.getOriginalScoreFactor() * subQueryScore;
+            @Override
+            public Explanation explainScore(int docId, Explanation subQueryScore) throws IOException {
+                ScoreExplanation explanation = new ScoreExplanation(plan, subQueryScore);
+                evaluate(docId, subQueryScore.getValue().floatValue(), explanation);
+                return explanation.result();
+            }
+
+            @Override
+            public ScoreBreakdown breakdown(int docId, float subQueryScore) throws IOException {
+                ScoreBreakdown breakdown = new ScoreBreakdown();
+                evaluate(docId, subQueryScore, breakdown);
+                return breakdown;
+            }
+
+            /**
+             * @param sink receives the parts of the score, null when scoring
+             */
+            private double evaluate(int docId, float subQueryScore, ScoreSink sink) throws IOException {
+                categoryOrdinals.advance(docId);
+                long categoryOrd = categoryOrdinals.firstOrd();
+                LeafCategoryRules rules = categoryOrdTable.get(categoryOrd);
+                if (sink == null) {
+                    stats.scored(categoryOrd);
+                } else {
+                    sink.category(categoryOrdinals, rules != null);
+                }
+                if (rules == null) {
+                    if (sink != null) {
+                        sink.blend(0, 0, plan.getOriginalScoreFactor(), subQueryScore, 0);
+                    }
+                    return plan.getOriginalScoreFactor() * subQueryScore;
                 }
-//                System.out.println("categoryCode:" + categoryCode + ", sub socre:" +  subQueryScore);
-                List<FieldScoreComputeWapper> fieldScores = csw.getFieldScoreWappers(categoryCode);
-                List<SortScoreComputeWapper> sortScores = csw.getScoreComputeWappers(categoryCode);
 
+                // explain and breakdown are not timed
+                final boolean sampling = sink == null && stats.sampling();
+                long start = sampling ? System.nanoTime() : 0;
                 double fieldScoreTotal = 0;
-                if (!CommonUtil.isEmpty(fieldScores)) {
-                    String fieldMode = csw.getFieldMode();
-                    for (FieldScoreComputeWapper fbo : fieldScores) {
-//                        System.out.println("field:" + fbo.getField() + ", fieldMode:" +  fieldMode + ", values class:" + fieldDataMap.get(fbo.getField()));
-
-                        // get field value.
-                        Object fVal;
-                        if (FieldScoreComputeWapper.Modifier.DECAYGEOEXP.equals(fbo.getModifier())) {
-                            fVal = getGeoPoint(docId, (MultiGeoPointValues) fieldDataMap.get(fbo.getField()));
-                            if (fVal == null) {
-                                if (!fbo.getRequire()) {
-                                    continue;
-                                } else if (fbo.getRequire() && CommonUtil.isEmpty(fbo.getMissing())) {
-                                    throw new IllegalArgumentException("require field " + fbo.getField() + "must has a value or has a missing value");
-                                } else {
-                                    GeoPoint missing = new GeoPoint();
-                                    missing.resetFromString(fbo.getMissing());
-                                    fVal = missing;
-                                }
-                            }
-                        } else {
-                            fVal = getDoubleVal(docId, (SortedNumericDoubleValues) fieldDataMap.get(fbo.getField()));
-                            if (fVal == null) {
-                                if (!fbo.getRequire()) {
-                                    continue;
-                                } else if (fbo.getRequire() && CommonUtil.isEmpty(fbo.getMissing())) {
-                                    throw new IllegalArgumentException("require field " + fbo.getField() + "must has a value or has a missing value");
-                                } else {
-                                    fVal = Double.parseDouble(fbo.getMissing());
-                                }
-                            }
+                if (fieldScores != null) {
+                    fieldScoreTotal = fieldScores.score(docId);
+                    if (sink != null && rules.liveFieldRules.length < rules.fieldRules.length) {
+                        sink.fieldScores(FIELD_SCORE_CACHE, fieldScoreTotal);
+                    }
+                    if (sampling) {
+                        long end = System.nanoTime();
+                        stats.fieldScoring(false, end - start);
+                        start = end;
+                    }
+                }
+                FieldMergeMode fieldMode = plan.getFieldMode();
+                for (LeafFieldRule fieldRule : rules.liveFieldRules) {
+                    if (fieldRule.advance(docId)) {
+                        double fieldScore = fieldRule.score();
+                        fieldScoreTotal = fieldMode.merge(fieldScoreTotal, fieldScore);
+                        if (sink != null) {
+                            sink.field(fieldRule, fieldScore);
                         }
-//                        System.out.println("field:" + fbo.getField() + ", value:" +  fVal.toString());
-                        fieldScoreTotal = mergeFieldScore(fieldMode, fieldScoreTotal, fbo.computeScore(fVal));
+                    }
+                    if (sampling) {
+                        long end = System.nanoTime();
+                        stats.fieldScoring(fieldRule.getRule().isGeo(), end - start);
+                        start = end;
                     }
                 }
-//                System.out.println("fieldScoreTotal:" + fieldScoreTotal);
+                if (sink != null && rules.fieldRules.length > 0) {
+                    sink.fieldScoreTotal(fieldScoreTotal);
+                }
 
                 double sortScoreTotal = 0;
-                if (!CommonUtil.isEmpty(sortScores)) {
-                    double sortBaseScore = csw.getSortBaseScore();
-                    for (SortScoreComputeWapper sbo : sortScores) {
-                        if(Constants.SortValueType.ANY.equals(sbo.getType())) {
-//                            System.out.println("sortType any.");
-                            sortScoreTotal = mergeSortScore(Constants.SortMode.MAX, sortScoreTotal, sbo.getWeight() * sortBaseScore);
-                            break;
-                        }
-//                        System.out.println("sortField:" + sbo.getField() + ", sortBaseScore:" +  sortBaseScore + ", values class:" + fieldDataMap.get(sbo.getField()));
-                        String field = sbo.getField();
-                        boolean match = false;
-                        if(field.indexOf(Constants.SPLIT) > 0) {
-                            // 多个字段时，按照Constants.SPLIT后处理
-                            String[] fields = field.split(Constants.SPLIT);
-                            String[] types = sbo.getType().split(Constants.SPLIT);
-                            String[] values = sbo.getValue().split(Constants.SPLIT);
-                            for(int i = 0; i < fields.length; i++) {
-                                String f = fields[i];
-                                String type = types.length > i ? types[i] : null;
-                                String value = values.length > i ? values[i] : null;
-                                String[] val = getStrValArray(docId, (SortedSetDocValues) fieldDataMap.get(f));
-                                match = SortScoreComputeWapper.matchNew(type, value, val);
-//                                System.out.println("split分类名:" + categoryCode + "字段名:" + f + ",期待值:" + value + ",实际值:" + Arrays.toString(val) + ",是否匹配:" + match);
-                                if(!match) {
-                                    break;
-                                }
+                if (tiers != null) {
+                    sortScoreTotal = tiers.score(docId);
+                    if (sink != null && rules.sortMatchers.length > 0) {
+                        sink.sortTier(SORT_TIER_CACHE, sortScoreTotal);
+                    }
+                } else {
+                    for (int i = 0; i < rules.sortMatchers.length; i++) {
+                        SortOrdMatcher matcher = rules.sortMatchers[i];
+                        if (matcher.match(docId)) {
+                            sortScoreTotal = matcher.getRule().getTierScore();
+                            if (sink != null) {
+                                sink.sortRule(i, matcher, docId);
                             }
-                        } else {
-                            String[] fVal = getStrValArray(docId, (SortedSetDocValues) fieldDataMap.get(field));
-                            match = sbo.match(fVal);
-//                            System.out.println("分类名:" + categoryCode + "字段名:" + field + ",期待值:" + sbo.getValue() + ",实际值:" + Arrays.toString(fVal) + ",是否匹配:" + match);
-                        }
-                        if (match) {
-                            sortScoreTotal = mergeSortScore(Constants.SortMode.MAX, sortScoreTotal, sbo.getWeight() * sortBaseScore);
                             break;
                         }
                     }
                 }
-//                System.out.println("sortScoreTotal:" + sortScoreTotal);
-//                long end = System.currentTimeMillis();
-//                System.out.println("compute score cost:" + (end - start));
+                if (sampling) {
+                    stats.sortMatching(System.nanoTime() - start);
+                }
+                if (sink != null) {
+                    if (rules.sortMatchers.length > 0) {
+                        sink.sortScoreTotal(sortScoreTotal);
+                    }
+                    sink.blend(plan.getFuncScoreFactor(), fieldScoreTotal, plan.getOriginalScoreFactor(), subQueryScore, sortScoreTotal);
+                }
 
-                return csw.getFuncScoreFactor() * fieldScoreTotal + csw.getOriginalScoreFactor() * subQueryScore + sortScoreTotal;
+                return plan.getFuncScoreFactor() * fieldScoreTotal + plan.getOriginalScoreFactor() * subQueryScore + sortScoreTotal;
             }
+        };
+    }
 
-            @Override
-            public Explanation explainScore(int docId, Explanation subQueryScore) throws IOException {
-
-                String categoryCode = getStrVal(docId, (SortedSetDocValues) fieldDataMap.get(csw.getCategoryField()));
-                if (CommonUtil.isEmpty(categoryCode)) {
-                    return Explanation.match(csw.getOriginalScoreFactor() * subQueryScore.getValue().floatValue()
-                            , String.format("category is empty. subQueryScore:[%f], expression:[%f * subScore]", subQueryScore.getValue().floatValue(), csw.getOriginalScoreFactor()), subQueryScore);
+    /**
+     * the scorer reading the numeric field score and the sort tier written at index time, only geo rules are computed per doc.
+     */
+    private BreakdownLeafScoreFunction precomputedLeafScoreFunction(LeafDocValues docValues, DocOrdinals categoryOrdinals,
+                                                           CategoryOrdTable<CategoryPlan> categoryPlans, LeafScoreStats stats) throws IOException {
+        final ScorePlan plan = this.plan;
+        final SortedNumericDoubleValues fieldScores = (SortedNumericDoubleValues) docValues.get(Constants.PrecomputedField.FIELD_SCORE);
+        final SortedNumericDoubleValues sortTiers = (SortedNumericDoubleValues) docValues.get(Constants.PrecomputedField.SORT_TIER);
+        final Map<FieldRule[], LeafFieldRule[]> resolved = new IdentityHashMap<>();
+        final CategoryOrdTable<LeafFieldRule[]> geoRules = categoryPlans.map(categoryPlan -> {
+            FieldRule[] fieldRules = categoryPlan.getFieldRules();
+            LeafFieldRule[] leafFieldRules = resolved.get(fieldRules);
+            if (leafFieldRules == null) {
+                List<LeafFieldRule> geo = new ArrayList<>();
+                for (FieldRule fieldRule : fieldRules) {
+                    if (fieldRule.isGeo()) {
+                        geo.add(new LeafFieldRule(fieldRule, docValues.get(fieldRule.getField())));
+                    }
                 }
-                List<FieldScoreComputeWapper> fieldScores = csw.getFieldScoreWappers(categoryCode);
-                List<SortScoreComputeWapper> sortScores = csw.getScoreComputeWappers(categoryCode);
+                leafFieldRules = geo.isEmpty() ? NO_FIELD_RULES : geo.toArray(NO_FIELD_RULES);
+                resolved.put(fieldRules, leafFieldRules);
+            }
+            return leafFieldRules;
+        });
 
-                double fieldScoreTotal = 0;
-                Explanation fieldsExplain = null;
-                if (!CommonUtil.isEmpty(fieldScores)) {
-                    String fieldMode = csw.getFieldMode();
-                    List<Explanation> fieldExplanList = new ArrayList<>();
-                    for (FieldScoreComputeWapper fbo : fieldScores) {
-
-                        // get field value.
-                        Object fVal;
-                        boolean useMissing = false;
-                        if (FieldScoreComputeWapper.Modifier.DECAYGEOEXP.equals(fbo.getModifier())) {
-                            fVal = getGeoPoint(docId, (MultiGeoPointValues) fieldDataMap.get(fbo.getField()));
-                            if (fVal == null) {
-                                if (!fbo.getRequire()) {
-                                    continue;
-                                } else if (fbo.getRequire() && CommonUtil.isEmpty(fbo.getMissing())) {
-                                    throw new IllegalArgumentException("require field " + fbo.getField() + "must has a value or has a missing value");
-                                } else {
-                                    GeoPoint missing = new GeoPoint();
-                                    missing.resetFromString(fbo.getMissing());
-                                    fVal = missing;
-                                    useMissing = true;
-                                }
-                            }
-                        } else {
-                            fVal = getDoubleVal(docId, (SortedNumericDoubleValues) fieldDataMap.get(fbo.getField()));
-                            if (fVal == null) {
-                                if (!fbo.getRequire()) {
-                                    continue;
-                                } else if (fbo.getRequire() && CommonUtil.isEmpty(fbo.getMissing())) {
-                                    throw new IllegalArgumentException("require field " + fbo.getField() + "must has a value or has a missing value");
-                                } else {
-                                    fVal = Double.parseDouble(fbo.getMissing());
-                                    useMissing = true;
-                                }
-                            }
-                        }
+        return new BreakdownLeafScoreFunction() {
 
-                        double fieldScore = fbo.computeScore(fVal);
+            @Override
+            public double score(int docId, float subQueryScore) throws IOException {
+                return evaluate(docId, subQueryScore, null);
+            }
 
-                        fieldScoreTotal = mergeFieldScore(fieldMode, fieldScoreTotal, fieldScore);
+            @Override
+            public Explanation explainScore(int docId, Explanation subQueryScore) throws IOException {
+                ScoreExplanation explanation = new ScoreExplanation(plan, subQueryScore);
+                evaluate(docId, subQueryScore.getValue().floatValue(), explanation);
+                return explanation.result();
+            }
 
-                        Explanation fex = Explanation.match(fieldScore, String.format(Locale.ROOT, "Compute field:[%s], using missing:[%s], expression:[%s].",
-                                fbo.getField(), useMissing, fbo.getExpression(fVal)));
-                        fieldExplanList.add(fex);
-                    }
+            @Override
+            public ScoreBreakdown breakdown(int docId, float subQueryScore) throws IOException {
+                ScoreBreakdown breakdown = new ScoreBreakdown();
+                evaluate(docId, subQueryScore, breakdown);
+                return breakdown;
+            }
 
-                    fieldsExplain = Explanation.match(fieldScoreTotal, String.format(Locale.ROOT, "Compute fieldScoreTotal, filed_mode:[%s].", fieldMode), fieldExplanList);
+            /**
+             * @param sink receives the parts of the score, null when scoring
+             */
+            private double evaluate(int docId, float subQueryScore, ScoreSink sink) throws IOException {
+                categoryOrdinals.advance(docId);
+                long categoryOrd = categoryOrdinals.firstOrd();
+                LeafFieldRule[] rules = geoRules.get(categoryOrd);
+                if (sink == null) {
+                    stats.scored(categoryOrd);
+                } else {
+                    sink.category(categoryOrdinals, rules != null);
+                }
+                if (rules == null) {
+                    // the processor writes no score for a category that isn't configured
+                    if (sink != null) {
+                        sink.blend(0, 0, plan.getOriginalScoreFactor(), subQueryScore, 0);
+                    }
+                    return plan.getOriginalScoreFactor() * subQueryScore;
                 }
 
-                double sortScoreTotal = 0;
-                Explanation sortExplain = null;
-                if (!CommonUtil.isEmpty(sortScores)) {
-                    double sortBaseScore = csw.getSortBaseScore();
-                    List<Explanation> sortExplanList = new ArrayList<>();
-                    for (SortScoreComputeWapper sbo : sortScores) {
-                        if(Constants.SortValueType.ANY.equals(sbo.getType())) {
-                            double sortScore = sbo.getWeight() * sortBaseScore;
-                            sortScoreTotal = mergeSortScore(Constants.SortMode.MAX, sortScoreTotal, sortScore);
-                            Explanation sortEx = Explanation.match(sortScore, "Compute sort type:[any], expression:[it's always true].");
-                            sortExplanList.add(sortEx);
-                            break;
-                        }
-
-                        String field = sbo.getField();
-                        boolean match = false;
-                        StringBuilder fVals = new StringBuilder();
-                        if(field.indexOf(Constants.SPLIT) > 0) {
-                            // 多个字段时，按照Constants.SPLIT后处理
-                            String[] fields = field.split(Constants.SPLIT);
-                            String[] types = sbo.getType().split(Constants.SPLIT);
-                            String[] values = sbo.getValue().split(Constants.SPLIT);
-                            for(int i = 0; i < fields.length; i++) {
-                                String f = fields[i];
-                                String type = types.length > i ? types[i] : null;
-                                String value = values.length > i ? values[i] : null;
-                                String[] val = getStrValArray(docId, (SortedSetDocValues) fieldDataMap.get(f));
-                                if(fVals.length() != 0) {
-                                    fVals.append(Constants.SPLIT);
-                                }
-                                fVals.append(Arrays.toString(val));
-                                match = SortScoreComputeWapper.matchNew(type, value, val);
-//                                System.out.println("split分类名:" + categoryCode + "字段名:" + f + ",期待值:" + value + ",实际值:" + Arrays.toString(val) + ",是否匹配:" + match);
-                                if(!match) {
-                                    break;
-                                }
-                            }
-                        } else {
-                            String[] fVal = getStrValArray(docId, (SortedSetDocValues) fieldDataMap.get(field));
-                            fVals.append(Arrays.toString(fVal));
-                            match = sbo.match(fVal);
-//                            System.out.println("分类名:" + categoryCode + "字段名:" + field + ",期待值:" + sbo.getValue() + ",实际值:" + Arrays.toString(fVal) + ",是否匹配:" + match);
-                        }
-
-                        if (match) {
-                            double sortScore = sbo.getWeight() * sortBaseScore;
-                            sortScoreTotal = mergeSortScore(Constants.SortMode.MAX, sortScoreTotal, sbo.getWeight() * sortBaseScore);
-                            Explanation sortEx = Explanation.match(sortScore, String.format(Locale.ROOT, "Compute sort field:[%s], value:[%s], expression:[%s].",
-                                    sbo.getField(), fVals, sbo.getExpression(sortBaseScore)));
-                            sortExplanList.add(sortEx);
-                            break;
+                // explain and breakdown are not timed
+                final boolean sampling = sink == null && stats.sampling();
+                long start = sampling ? System.nanoTime() : 0;
+                double fieldScoreTotal = fieldScores != null && fieldScores.advanceExact(docId) ? fieldScores.nextValue() : 0;
+                if (sink != null) {
+                    sink.fieldScores(Constants.PrecomputedField.FIELD_SCORE, fieldScoreTotal);
+                }
+                if (sampling) {
+                    long end = System.nanoTime();
+                    stats.fieldScoring(false, end - start);
+                    start = end;
+                }
+                FieldMergeMode fieldMode = plan.getFieldMode();
+                for (LeafFieldRule fieldRule : rules) {
+                    if (fieldRule.advance(docId)) {
+                        double fieldScore = fieldRule.score();
+                        fieldScoreTotal = fieldMode.merge(fieldScoreTotal, fieldScore);
+                        if (sink != null) {
+                            sink.field(fieldRule, fieldScore);
                         }
                     }
-                    sortExplain = Explanation.match(sortScoreTotal, String.format(Locale.ROOT, "Compute sortScoreTotal, sort_mode:[max], sort_base_score:[%f] ", sortBaseScore), sortExplanList);
+                }
+                if (sampling) {
+                    long end = System.nanoTime();
+                    stats.fieldScoring(true, end - start);
+                    start = end;
                 }
 
-                float subScore = subQueryScore.getValue().floatValue();
-                double score = csw.getFuncScoreFactor() * fieldScoreTotal + csw.getOriginalScoreFactor() * subScore + sortScoreTotal;
-                List<Explanation> resList = new ArrayList<>();
-                if (fieldsExplain != null) {
-                    resList.add(fieldsExplain);
+                double sortScoreTotal = sortTiers != null && sortTiers.advanceExact(docId) ? sortTiers.nextValue() : 0;
+                if (sampling) {
+                    stats.sortMatching(System.nanoTime() - start);
                 }
-                if (sortExplain != null) {
-                    resList.add(sortExplain);
+                if (sink != null) {
+                    sink.fieldScoreTotal(fieldScoreTotal);
+                    sink.sortTier(Constants.PrecomputedField.SORT_TIER, sortScoreTotal);
+                    sink.sortScoreTotal(sortScoreTotal);
+                    sink.blend(plan.getFuncScoreFactor(), fieldScoreTotal, plan.getOriginalScoreFactor(), subQueryScore, sortScoreTotal);
                 }
-                resList.add(subQueryScore);
-                Explanation result = Explanation.match(
-                        (float) score,
-                        String.format(Locale.ROOT,
-                                "Compute complex_field_score, subScore:[%f] expression: [%f * fieldScoreTotal + %f * subScore + sortScoreTotal]",
-                                subScore, csw.getFuncScoreFactor(), csw.getOriginalScoreFactor()), resList);
-                return result;
+                return plan.getFuncScoreFactor() * fieldScoreTotal + plan.getOriginalScoreFactor() * subQueryScore + sortScoreTotal;
             }
         };
     }
 
-    public String getStrVal(int docId, SortedSetDocValues values) throws IOException {
-        if (values == null) {
-            return null;
+    /**
+     * Builds the explanation of a doc from the parts reported by the evaluation.
+     */
+    private static final class ScoreExplanation implements ScoreSink {
+        private final ScorePlan plan;
+        private final Explanation subQueryScore;
+        private final List<Explanation> fields = new ArrayList<>();
+        private final List<Explanation> sorts = new ArrayList<>();
+        private final List<Explanation> details = new ArrayList<>();
+        private boolean configured;
+        private Explanation result;
+
+        private ScoreExplanation(ScorePlan plan, Explanation subQueryScore) {
+            this.plan = plan;
+            this.subQueryScore = subQueryScore;
         }
-        long next;
-        if (values.advanceExact(docId) && (next = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
-            return values.lookupOrd(next).utf8ToString();
-        } else {
-            return null;
-        }
-    }
 
-    public String[] getStrValArray(int docId, SortedSetDocValues values) throws IOException {
-        if (values == null || !values.advanceExact(docId)) {
-            return null;
+        @Override
+        public void category(DocOrdinals categoryOrdinals, boolean configured) {
+            this.configured = configured;
         }
-        List<String> result = new ArrayList<>();
-        long next;
-        while ((next = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
-            result.add(values.lookupOrd(next).utf8ToString());
+
+        @Override
+        public void field(LeafFieldRule fieldRule, double score) {
+            fields.add(Explanation.match(score, String.format(Locale.ROOT, "Compute field:[%s], using missing:[%s], expression:[%s].",
+                    fieldRule.getRule().getField(), fieldRule.isUsingMissing(), fieldRule.getRule().getSource().getExpression(fieldRule.currentValue()))));
         }
 
-        return result.toArray(new String[result.size()]);
-    }
+        @Override
+        public void fieldScores(String source, double score) {
+            fields.add(Explanation.match(score, String.format(Locale.ROOT, "Read the merged numeric fields from [%s].", source)));
+        }
 
-    public Double getDoubleVal(int docId, SortedNumericDoubleValues values) throws IOException {
-        if (values == null) {
-            return null;
+        @Override
+        public void fieldScoreTotal(double fieldScoreTotal) {
+            details.add(Explanation.match(fieldScoreTotal, String.format(Locale.ROOT, "Compute fieldScoreTotal, filed_mode:[%s].",
+                    plan.getSource().getFieldMode()), fields));
         }
-        if (values.advanceExact(docId)) {
-            return values.nextValue();
-        } else {
-            return null;
+
+        @Override
+        public void sortRule(int index, SortOrdMatcher matcher, int docId) throws IOException {
+            SortRule sortRule = matcher.getRule();
+            double sortBaseScore = plan.getSortBaseScore();
+            if (sortRule.isAny()) {
+                sorts.add(Explanation.match(sortRule.getWeight() * sortBaseScore, "Compute sort type:[any], expression:[it's always true]."));
+                return;
+            }
+            sorts.add(Explanation.match(sortRule.getWeight() * sortBaseScore, String.format(Locale.ROOT, "Compute sort field:[%s], value:[%s], expression:[%s].",
+                    sortRule.getSource().getField(), matcher.describeValues(docId), sortRule.getSource().getExpression(sortBaseScore))));
         }
-    }
 
-    public GeoPoint getGeoPoint(int docId, MultiGeoPointValues values) throws IOException {
-        if (values == null) {
-            return null;
+        @Override
+        public void sortTier(String source, double tierScore) {
+            sorts.add(Explanation.match(tierScore, String.format(Locale.ROOT, "Read the sort tier from [%s].", source)));
         }
-        if (values.advanceExact(docId)) {
-            return values.nextValue();
-        } else {
-            return null;
+
+        @Override
+        public void sortScoreTotal(double sortScoreTotal) {
+            details.add(Explanation.match(sortScoreTotal, String.format(Locale.ROOT, "Compute sortScoreTotal, sort_mode:[max], sort_base_score:[%f] ",
+                    plan.getSortBaseScore()), sorts));
         }
-    }
 
-    public double mergeFieldScore(String fieldMode, double total, double target) {
-        if (target < 0) {
-            return total;
+        @Override
+        public void blend(double funcScoreFactor, double fieldScoreTotal, double originalScoreFactor, float subScore, double sortScoreTotal) {
+            double score = funcScoreFactor * fieldScoreTotal + originalScoreFactor * subScore + sortScoreTotal;
+            if (!configured) {
+                result = Explanation.match((float) score, String.format("category is empty. subQueryScore:[%f], expression:[%f * subScore]",
+                        subScore, originalScoreFactor), subQueryScore);
+                return;
+            }
+            details.add(subQueryScore);
+            result = Explanation.match((float) score, String.format(Locale.ROOT,
+                    "Compute complex_field_score, subScore:[%f] expression: [%f * fieldScoreTotal + %f * subScore + sortScoreTotal]",
+                    subScore, funcScoreFactor, originalScoreFactor), details);
         }
-        switch (fieldMode) {
-            case Constants.FieldMode.SUM:
-                total += target;
-                break;
-            case Constants.FieldMode.MULT:
-                total *= target;
-                break;
-            case Constants.SortMode.MAX:
-                total = total < target ? target : total;
-                break;
-            case Constants.SortMode.MIN:
-                total = total > target ? target : total;
-                break;
-            default:
-                total += target;
+
+        private Explanation result() {
+            return result;
         }
-        return total;
     }
 
-    public double mergeSortScore(String sortMode, double total, double target) {
-        if (target < 0) {
-            return total;
+    /**
+     * the rules of one category resolved against a segment.
+     */
+    private static final class LeafCategoryRules {
+        private final LeafFieldRule[] fieldRules;
+        // the rules computed per doc, only the geo rules when the numeric ones are cached
+        private final LeafFieldRule[] liveFieldRules;
+        private final SortOrdMatcher[] sortMatchers;
+
+        private LeafCategoryRules(LeafFieldRule[] fieldRules, LeafFieldRule[] liveFieldRules, SortOrdMatcher[] sortMatchers) {
+            this.fieldRules = fieldRules;
+            this.liveFieldRules = liveFieldRules;
+            this.sortMatchers = sortMatchers;
         }
-        switch (sortMode) {
-            case Constants.SortMode.MAX:
-                total = total < target ? target : total;
-                break;
-            case Constants.SortMode.MIN:
-                total = total > target ? target : total;
-                break;
-            default:
-                total = total < target ? target : total;
+    }
+
+    private static LeafFieldRule[] liveFieldRules(LeafFieldRule[] leafFieldRules) {
+        List<LeafFieldRule> geoRules = new ArrayList<>();
+        for (LeafFieldRule fieldRule : leafFieldRules) {
+            if (fieldRule.getRule().isGeo()) {
+                geoRules.add(fieldRule);
+            }
         }
-        return total;
+        return geoRules.isEmpty() ? NO_FIELD_RULES : geoRules.toArray(NO_FIELD_RULES);
     }
 
     @Override
@@ -396,7 +579,7 @@ public class ComplexFieldFunction extends ScoreFunction {
     protected boolean doEquals(ScoreFunction other) {
         if(other instanceof ComplexFieldFunction) {
             ComplexFieldFunction complexFieldFunction = (ComplexFieldFunction) other;
-            return Objects.equals(this.categorys, complexFieldFunction.categorys);
+            return Objects.equals(this.plan, complexFieldFunction.plan);
         } else {
             return false;
         }
@@ -404,7 +587,7 @@ public class ComplexFieldFunction extends ScoreFunction {
 
     @Override
     protected int doHashCode() {
-        return Objects.hash(categorys);
+        return Objects.hash(plan);
     }
 
 }
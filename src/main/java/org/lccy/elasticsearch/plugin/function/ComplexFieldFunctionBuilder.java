@@ -1,23 +1,26 @@
 package org.lccy.elasticsearch.plugin.function;
 
-import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.lucene.search.function.ScoreFunction;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentLocation;
 import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.index.fielddata.IndexFieldData;
-import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.query.QueryShardContext;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilder;
 import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
 import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.function.plan.CompactPlanFormat;
+import org.lccy.elasticsearch.plugin.function.plan.PlanFingerprint;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfile;
 import org.lccy.elasticsearch.plugin.util.CommonUtil;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Builder to construct {@code complex_field_score} functions for a function
@@ -29,31 +32,142 @@ import java.util.stream.Collectors;
 public class ComplexFieldFunctionBuilder extends ScoreFunctionBuilder<ComplexFieldFunctionBuilder> {
     public static final String NAME = "complex_field_score";
 
-    private final CategoryScoreWapper categorys;
+    private final ScorePlan plan;
+    // {"profile": name, "version": n} plus overrides, resolved on the shard from the cluster state
+    private final Map<String, Object> profileRequest;
+    private final ComplexScoreServices services;
+    // the request encoded once, shared by every shard request
+    private BytesReference compact;
 
     public ComplexFieldFunctionBuilder(CategoryScoreWapper categorys) {
         if (categorys == null) {
             throw new IllegalArgumentException("require param is not set, please check.");
         }
-        this.categorys = categorys;
+        this.plan = ScorePlan.compile(categorys);
+        this.profileRequest = null;
+        this.services = null;
+    }
+
+    public ComplexFieldFunctionBuilder(ScorePlan plan) {
+        this(plan, null);
+    }
+
+    /**
+     * @param services the node's services, null when built by a client
+     */
+    public ComplexFieldFunctionBuilder(ScorePlan plan, ComplexScoreServices services) {
+        if (plan == null) {
+            throw new IllegalArgumentException("require param is not set, please check.");
+        }
+        this.plan = plan;
+        this.profileRequest = null;
+        this.services = services;
+    }
+
+    /**
+     * refer to a scoring profile registered in the cluster state.
+     *
+     * @param profileRequest {@code {"profile": name, "version": n}} plus the overrides
+     * @param services       the node's services, null when built by a client
+     */
+    public ComplexFieldFunctionBuilder(Map<String, Object> profileRequest, ComplexScoreServices services) {
+        if (CommonUtil.isEmpty(profileRequest)) {
+            throw new IllegalArgumentException("require param is not set, please check.");
+        }
+        ScoringProfile.checkReference(profileRequest);
+        this.plan = null;
+        this.profileRequest = profileRequest;
+        this.services = services;
     }
 
     /**
      * Read from a stream.
      */
     public ComplexFieldFunctionBuilder(StreamInput in) throws IOException {
+        this(in, null);
+    }
+
+    /**
+     * Read from a stream, the plan is taken from the node's plan cache when its config is known.
+     */
+    public ComplexFieldFunctionBuilder(StreamInput in, ComplexScoreServices services) throws IOException {
         super(in);
-        Map<String, Object> request = in.readMap();
+        this.services = services;
+        // the size of the map format, 0 starts the compact format, an empty request is never written as a map
+        int size = in.readVInt();
+        if (size > 0) {
+            Map<String, Object> request = new HashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                request.put(in.readString(), in.readGenericValue());
+            }
+            if (ScoringProfile.isReference(request)) {
+                this.profileRequest = request;
+                this.plan = null;
+            } else {
+                this.profileRequest = null;
+                this.plan = compile(request, services);
+            }
+            return;
+        }
+        if (in.readBoolean()) {
+            this.profileRequest = in.readMap();
+            this.plan = null;
+            return;
+        }
+        this.profileRequest = null;
+        BytesReference compact = in.readBytesReference();
+        Map<String, Object> request;
+        try (StreamInput requestIn = compact.streamInput()) {
+            request = CompactPlanFormat.decode(requestIn);
+        }
         if (request == null || request.isEmpty()) {
             throw new IllegalArgumentException(NAME + " query is empty.");
         }
-        CategoryScoreWapper categorys = new CategoryScoreWapper(null, request);
-        this.categorys = categorys;
+        this.plan = compile(request, services);
+        this.compact = compact;
+    }
+
+    private static ScorePlan compile(Map<String, Object> request, ComplexScoreServices services) throws IOException {
+        if (services == null) {
+            return ScorePlan.compile(new CategoryScoreWapper(null, request));
+        }
+        // keyed by the config read here, not by a fingerprint from the sender, so the key always matches the cached plan
+        return services.getPlanCache().getOrCompile(PlanFingerprint.of(request), () -> ScorePlan.compile(new CategoryScoreWapper(null, request)));
     }
 
     @Override
     protected void doWriteTo(StreamOutput out) throws IOException {
-        out.writeMap(categorys.unwrap());
+        if (services == null || !services.isCompactPlanFormat()) {
+            // read by every plugin build, a client or a node in a cluster with older builds writes the request as a map
+            out.writeMap(profileRequest != null ? profileRequest : plan.getSource().unwrap());
+            return;
+        }
+        // an empty map to the older builds, which reject it
+        out.writeVInt(0);
+        out.writeBoolean(profileRequest != null);
+        if (profileRequest != null) {
+            out.writeMap(profileRequest);
+            return;
+        }
+        out.writeBytesReference(compact());
+    }
+
+    private BytesReference compact() throws IOException {
+        if (compact == null) {
+            compact = CompactPlanFormat.encode(plan.getSource());
+        }
+        return compact;
+    }
+
+    /**
+     * @return the inline plan, null when the builder refers to a profile.
+     */
+    public ScorePlan getPlan() {
+        return plan;
+    }
+
+    public Map<String, Object> getProfileRequest() {
+        return profileRequest;
     }
 
     @Override
@@ -61,10 +175,18 @@ public class ComplexFieldFunctionBuilder extends ScoreFunctionBuilder<ComplexFie
         return NAME;
     }
 
+    /**
+     * @return the params of the function as written in a request, an inline config is rendered from its typed rules.
+     */
+    public Map<String, Object> getParams() {
+        return profileRequest != null ? profileRequest : plan.getSource().toMap();
+    }
+
     @Override
     public void doXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject(getName());
-        for(Map.Entry<String, Object> entry : categorys.unwrap().entrySet()) {
+        Map<String, Object> request = getParams();
+        for(Map.Entry<String, Object> entry : request.entrySet()) {
             builder.field(entry.getKey(), entry.getValue());
         }
         builder.endObject();
@@ -72,50 +194,129 @@ public class ComplexFieldFunctionBuilder extends ScoreFunctionBuilder<ComplexFie
 
     @Override
     protected boolean doEquals(ComplexFieldFunctionBuilder functionBuilder) {
-        return Objects.equals(this.categorys, functionBuilder.categorys);
+        if (this.profileRequest != null || functionBuilder.profileRequest != null) {
+            return Objects.equals(this.profileRequest, functionBuilder.profileRequest);
+        }
+        return Objects.equals(this.plan.getFingerprint(), functionBuilder.plan.getFingerprint());
     }
 
     @Override
     protected int doHashCode() {
-        return Objects.hash(this.categorys);
+        return profileRequest != null ? profileRequest.hashCode() : this.plan.getFingerprint().hashCode();
     }
 
     @Override
     protected ScoreFunction doToFunction(QueryShardContext context) {
-        Map<String, IndexFieldData> fieldDataMap = new HashMap<>();
-        for (Map.Entry<String, Boolean> entry : this.categorys.getAllFiled().entrySet()) {
-            MappedFieldType fieldType = context.getMapperService().fullName(entry.getKey());
-            if (fieldType == null) {
-                // require field's mapping must exists
-                if (entry.getValue()) {
-                    throw new ElasticsearchException("Unable to find a field mapper for field [" + entry.getKey() + "]. No 'missing' value defined.");
-                }
-            } else {
-                IndexFieldData fieldData = context.getForField(fieldType);
-                if (fieldData == null) {
-                    // require field's mapping must exists
-                    if (entry.getValue()) {
-                        throw new ElasticsearchException("Unable to find a field mapper for field [" + entry.getKey() + "]. No 'missing' value defined.");
-                    }
-                } else {
-                    fieldDataMap.put(entry.getKey(), fieldData);
-                }
+        ScorePlan plan = this.plan;
+        if (plan == null) {
+            if (services == null) {
+                throw new IllegalStateException(NAME + " profile [" + profileRequest.get(ScoringProfile.PROFILE) + "] can't be resolved without the node's profiles.");
             }
+            plan = services.getProfiles().resolve(profileRequest);
         }
+        FieldBindings bindings = services == null ? FieldBindings.resolve(plan, context) : services.getFieldBindingCache().getOrResolve(plan, context);
+        return new ComplexFieldFunction(plan, bindings, services,
+                services == null ? null : services.getStats().forIndex(context.index().getName()));
+    }
 
-        return new ComplexFieldFunction(categorys, fieldDataMap);
+    /**
+     * @return the function of the shard, the weight of the builder is not applied.
+     */
+    public ComplexFieldFunction toComplexFieldFunction(QueryShardContext context) {
+        return (ComplexFieldFunction) doToFunction(context);
     }
 
     public static ComplexFieldFunctionBuilder fromXContent(XContentParser parser)
             throws IOException, ParsingException {
-        CategoryScoreWapper categorys;
-        Map<String, Object> request = parser.map();
-        if (CommonUtil.isEmpty(request)) {
-            throw new ParsingException(parser.getTokenLocation(), NAME + " query is empty.");
+        return fromXContent(parser, null);
+    }
+
+    /**
+     * Parse the function from the token stream into typed rules, the plan is taken from the node's plan cache
+     * when the same config was seen before.
+     * A reference to a scoring profile is kept as it is and resolved on the shard.
+     */
+    public static ComplexFieldFunctionBuilder fromXContent(XContentParser parser, ComplexScoreServices services)
+            throws IOException, ParsingException {
+        XContentLocation location = parser.getTokenLocation();
+        Double funcScoreFactor = null, originalScoreFactor = null, sortBaseScore = null;
+        String categoryField = null, fieldMode = null, execution = null;
+        Map<String, List<FieldScoreComputeWapper>> fieldsScore = null;
+        Map<String, List<SortScoreComputeWapper>> sortScore = null;
+        // every param as written, only kept when the function refers to a profile
+        Map<String, Object> reference = new HashMap<>();
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                reference.put(currentName, Boolean.TRUE);
+                if (CategoryScoreWapper.FIELDS_SCORE.equals(currentName)) {
+                    fieldsScore = CategoryScoreWapper.parseRules(parser, currentName, FieldScoreComputeWapper::fromXContent);
+                } else if (CategoryScoreWapper.SORT_SCORE.equals(currentName)) {
+                    sortScore = CategoryScoreWapper.parseRules(parser, currentName, SortScoreComputeWapper::fromXContent);
+                } else {
+                    parser.skipChildren();
+                }
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                reference.put(currentName, Boolean.TRUE);
+                parser.skipChildren();
+            } else {
+                if (token != XContentParser.Token.VALUE_NULL) {
+                    reference.put(currentName, parser.objectText());
+                }
+                switch (currentName) {
+                    case CategoryScoreWapper.FUNC_SCORE_FACTOR:
+                        funcScoreFactor = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case CategoryScoreWapper.ORIGINAL_SCORE_FACTOR:
+                        originalScoreFactor = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case CategoryScoreWapper.SORT_BASE_SCORE:
+                        sortBaseScore = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case CategoryScoreWapper.CATEGORY_FIELD:
+                        categoryField = parser.textOrNull();
+                        break;
+                    case CategoryScoreWapper.FIELD_MODE:
+                        fieldMode = parser.textOrNull();
+                        break;
+                    case CategoryScoreWapper.EXECUTION:
+                        execution = parser.textOrNull();
+                        break;
+                    default:
+                        // profile params, unknown params were always ignored by an inline config
+                        break;
+                }
+            }
+        }
+        if (currentName == null) {
+            throw new ParsingException(location, NAME + " query is empty.");
+        }
+
+        if (ScoringProfile.isReference(reference)) {
+            try {
+                ScoringProfile.checkReference(reference);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException(location, e.getMessage());
+            }
+            if (services != null && !services.getProfiles().exists(CommonUtil.toString(reference.get(ScoringProfile.PROFILE)))) {
+                throw new ParsingException(location, NAME + " profile [" + reference.get(ScoringProfile.PROFILE) + "] does not exist.");
+            }
+            return new ComplexFieldFunctionBuilder(reference, services);
+        }
+
+        CategoryScoreWapper categorys = new CategoryScoreWapper(location, funcScoreFactor, originalScoreFactor, categoryField,
+                fieldMode, sortBaseScore, execution, fieldsScore, sortScore);
+        ScorePlan plan;
+        if (services == null) {
+            plan = ScorePlan.compile(categorys);
+        } else {
+            plan = services.getPlanCache().getOrCompile(categorys.fingerprint(), () -> ScorePlan.compile(categorys));
         }
-        categorys = new CategoryScoreWapper(parser, request);
 
-        ComplexFieldFunctionBuilder complexFieldFunctionBuilder = new ComplexFieldFunctionBuilder(categorys);
+        ComplexFieldFunctionBuilder complexFieldFunctionBuilder = new ComplexFieldFunctionBuilder(plan, services);
         return complexFieldFunctionBuilder;
     }
 }
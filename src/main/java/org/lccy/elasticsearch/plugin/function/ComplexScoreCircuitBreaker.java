@@ -0,0 +1,159 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.CircuitBreakerStats;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code complex_score} circuit breaker, accounts the memory the plugin holds on a node:
+ * the entries of the node caches while they are cached (see {@link AccountedCache}), the compiled scoring profiles,
+ * and the per segment ordinal tables while the query or fetch phase that built them runs, the fetch phase covers
+ * explain and score_breakdown. <br>
+ * Above the limit the caches are asked to evict first, the breaker only trips when they can't free enough.
+ * Search phase allocations below {@link #MIN_CHARGE} are not charged.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreCircuitBreaker {
+
+    public static final String NAME = "complex_score";
+
+    public static final Setting<ByteSizeValue> LIMIT = Setting.memorySizeSetting("complex_score.breaker.limit", "5%",
+            Setting.Property.Dynamic, Setting.Property.NodeScope);
+
+    // smaller search phase allocations are not worth the accounting
+    public static final long MIN_CHARGE = 16 * 1024;
+
+    // the bytes charged by the search phase running on the thread, null outside of a search phase
+    private static final ThreadLocal<RequestCharges> REQUEST = new ThreadLocal<>();
+
+    /**
+     * A cache that frees memory when the breaker is over its limit.
+     */
+    public interface Evictor {
+        /**
+         * @return the bytes freed, the evicted entries release their charge themselves.
+         */
+        long evict(long bytes);
+    }
+
+    private final AtomicLong used = new AtomicLong();
+    private final LongAdder tripped = new LongAdder();
+    private final List<Evictor> evictors = new CopyOnWriteArrayList<>();
+    private volatile long limit;
+
+    public ComplexScoreCircuitBreaker(Settings settings) {
+        this.limit = LIMIT.get(settings).getBytes();
+    }
+
+    public void setLimit(ByteSizeValue limit) {
+        this.limit = limit.getBytes();
+    }
+
+    public void addEvictor(Evictor evictor) {
+        evictors.add(evictor);
+    }
+
+    /**
+     * charge [bytes] held until {@link #release} is called with the same bytes.
+     *
+     * @param label what the bytes are for, reported when the breaker trips
+     */
+    public void charge(long bytes, String label) {
+        if (bytes <= 0) {
+            return;
+        }
+        long newUsed = used.addAndGet(bytes);
+        if (limit < 0 || newUsed <= limit) {
+            return;
+        }
+        // evict rather than trip
+        for (Evictor evictor : evictors) {
+            evictor.evict(newUsed - limit);
+            newUsed = used.get();
+            if (newUsed <= limit) {
+                return;
+            }
+        }
+        used.addAndGet(-bytes);
+        tripped.increment();
+        throw new CircuitBreakingException("[" + NAME + "] Data too large, data for [" + label + "] would be [" + newUsed + "/"
+                + new ByteSizeValue(newUsed) + "], which is larger than the limit of [" + limit + "/" + new ByteSizeValue(limit) + "]",
+                bytes, limit, CircuitBreaker.Durability.TRANSIENT);
+    }
+
+    public void release(long bytes) {
+        if (bytes > 0) {
+            used.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * charge [bytes] that are already held and can't be refused, released with {@link #release}.
+     */
+    public void addWithoutBreaking(long bytes) {
+        if (bytes > 0) {
+            used.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * bind a query or fetch phase to the thread, its charges are released by {@link #endRequest()}.
+     */
+    public void startRequest() {
+        // the charges of a phase whose end wasn't reported are released, not leaked
+        endRequest();
+        REQUEST.set(new RequestCharges(this));
+    }
+
+    public static void endRequest() {
+        RequestCharges charges = REQUEST.get();
+        if (charges != null) {
+            REQUEST.remove();
+            charges.breaker.release(charges.bytes);
+        }
+    }
+
+    /**
+     * charge [bytes] to the search phase running on the thread, no-op outside of a query or fetch phase.
+     */
+    static void chargeRequest(long bytes, String label) {
+        RequestCharges charges = REQUEST.get();
+        if (charges == null || bytes < MIN_CHARGE) {
+            return;
+        }
+        charges.breaker.charge(bytes, label);
+        // every charge is over the minimum, so their sum is released as one
+        charges.bytes += bytes;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public CircuitBreakerStats stats() {
+        return new CircuitBreakerStats(NAME, limit, used.get(), 1.0, tripped.sum());
+    }
+
+    private static final class RequestCharges {
+        private final ComplexScoreCircuitBreaker breaker;
+        private long bytes;
+
+        private RequestCharges(ComplexScoreCircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+}
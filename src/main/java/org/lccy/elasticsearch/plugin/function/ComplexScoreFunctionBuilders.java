@@ -2,8 +2,10 @@ package org.lccy.elasticsearch.plugin.function;
 
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
 import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfile;
 import org.lccy.elasticsearch.plugin.util.CommonUtil;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -21,4 +23,19 @@ public class ComplexScoreFunctionBuilders extends ScoreFunctionBuilders {
         CategoryScoreWapper categoryScoreWapper = new CategoryScoreWapper(null, categorys);
         return new ComplexFieldFunctionBuilder(categoryScoreWapper);
     }
+
+    /**
+     * refer to a registered scoring profile, overrides such as [origin] may be added to the map.
+     */
+    public static ComplexFieldFunctionBuilder complexFieldFunction(String profile, Long version, Map<String, Object> overrides) {
+        Map<String, Object> request = new HashMap<>();
+        if (overrides != null) {
+            request.putAll(overrides);
+        }
+        request.put(ScoringProfile.PROFILE, profile);
+        if (version != null) {
+            request.put(ScoringProfile.VERSION, version);
+        }
+        return new ComplexFieldFunctionBuilder(request, null);
+    }
 }
@@ -0,0 +1,97 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.lccy.elasticsearch.plugin.function.plan.CompactPlanFormat;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlanCache;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfileService;
+import org.lccy.elasticsearch.plugin.stats.ComplexScoreSlowLog;
+import org.lccy.elasticsearch.plugin.stats.ComplexScoreStats;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The node level caches and registries used by complex_field_score, created once by the plugin. <br>
+ * Builders made by a client have none of them and fall back to compiling and scoring without caches.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreServices {
+
+    private final ComplexScoreCircuitBreaker breaker;
+    private final ScorePlanCache planCache;
+    private final ScoringProfileService profiles;
+    private final SegmentScoreCache<SortTiers> sortTierCache;
+    private final SegmentScoreCache<FieldScores> fieldScoreCache;
+    private final FieldBindingCache fieldBindingCache;
+    private final SpecializedScorerCache specializedScorerCache;
+    private final ComplexScoreStats stats;
+    // true once every node of the cluster reads the compact plan format
+    private volatile boolean compactPlanFormat;
+
+    public ComplexScoreServices(Settings settings) {
+        this.breaker = new ComplexScoreCircuitBreaker(settings);
+        this.planCache = new ScorePlanCache(settings, breaker);
+        this.profiles = new ScoringProfileService(planCache, breaker);
+        this.sortTierCache = new SegmentScoreCache<>(SortTiers.SORT_TIER_CACHE_SIZE, settings, breaker, "sort_tiers");
+        this.fieldScoreCache = new SegmentScoreCache<>(FieldScores.FIELD_SCORE_CACHE_SIZE, settings, breaker, "field_scores");
+        this.fieldBindingCache = new FieldBindingCache(settings, breaker);
+        this.specializedScorerCache = new SpecializedScorerCache(settings, breaker);
+        this.stats = new ComplexScoreStats();
+    }
+
+    /**
+     * @return the node settings of the services.
+     */
+    public static List<Setting<?>> getSettings() {
+        return Arrays.asList(ScorePlanCache.PLAN_CACHE_SIZE, SortTiers.SORT_TIER_CACHE_SIZE, FieldScores.FIELD_SCORE_CACHE_SIZE,
+                FieldBindingCache.FIELD_BINDING_CACHE_SIZE, SpecializedScorerCache.SPECIALIZED_CACHE_SIZE, ComplexScoreSlowLog.THRESHOLD_WARN,
+                ComplexScoreSlowLog.THRESHOLD_INFO, ComplexScoreSlowLog.THRESHOLD_DEBUG, ComplexScoreSlowLog.THRESHOLD_TRACE,
+                ComplexScoreCircuitBreaker.LIMIT);
+    }
+
+    /**
+     * @return true if the requests sent by this node can be written with the {@link CompactPlanFormat}.
+     */
+    public boolean isCompactPlanFormat() {
+        return compactPlanFormat;
+    }
+
+    public void setCompactPlanFormat(boolean compactPlanFormat) {
+        this.compactPlanFormat = compactPlanFormat;
+    }
+
+    public ComplexScoreCircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public ScorePlanCache getPlanCache() {
+        return planCache;
+    }
+
+    public ScoringProfileService getProfiles() {
+        return profiles;
+    }
+
+    public SegmentScoreCache<SortTiers> getSortTierCache() {
+        return sortTierCache;
+    }
+
+    public SegmentScoreCache<FieldScores> getFieldScoreCache() {
+        return fieldScoreCache;
+    }
+
+    public FieldBindingCache getFieldBindingCache() {
+        return fieldBindingCache;
+    }
+
+    public SpecializedScorerCache getSpecializedScorerCache() {
+        return specializedScorerCache;
+    }
+
+    public ComplexScoreStats getStats() {
+        return stats;
+    }
+}
@@ -31,5 +31,21 @@ public interface Constants {
         String NOT_EXISTS = "not_exists"; //不存在时为true
         String IN = "in"; //包含时为true
         String NOT_IN = "not_in"; //不包含为true
+        String GT = "gt"; //大于时为true（数值、日期字段）
+        String GTE = "gte"; //大于等于时为true
+        String LT = "lt"; //小于时为true
+        String LTE = "lte"; //小于等于时为true
+        String BETWEEN = "between"; //在[from,to]之间时为true
+    }
+
+    interface ExecutionMode {
+        String INTERPRETED = "interpreted"; //遍历规则计算（默认）
+        String SPECIALIZED = "specialized"; //按规则生成专用的计算函数
+        String PRECOMPUTED = "precomputed"; //读取写入时预计算的分数字段
+    }
+
+    interface PrecomputedField {
+        String FIELD_SCORE = "complex_field_score"; //数值字段规则的合并分数
+        String SORT_TIER = "complex_sort_tier"; //排序档位分数
     }
 }
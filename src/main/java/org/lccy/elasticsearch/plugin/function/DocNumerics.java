@@ -0,0 +1,76 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+
+import java.io.IOException;
+
+/**
+ * Reads the values of a numeric or date field once per doc, so every range sort rule testing the field shares them. <br>
+ * Not thread safe, one instance per field and segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class DocNumerics {
+
+    private final SortedNumericDoubleValues values;
+    private double[] doubles = new double[4];
+    private int count;
+    private int docId = -1;
+
+    public DocNumerics(SortedNumericDoubleValues values) {
+        this.values = values;
+    }
+
+    /**
+     * position on the doc, the values are only read on the first call for a doc.
+     */
+    public void advance(int docId) throws IOException {
+        if (this.docId == docId) {
+            return;
+        }
+        this.docId = docId;
+        this.count = 0;
+        if (values != null && values.advanceExact(docId)) {
+            int valueCount = values.docValueCount();
+            if (valueCount > doubles.length) {
+                doubles = new double[ArrayUtil.oversize(valueCount, Double.BYTES)];
+            }
+            for (int i = 0; i < valueCount; i++) {
+                doubles[i] = values.nextValue();
+            }
+            count = valueCount;
+        }
+    }
+
+    public boolean exists() {
+        return count > 0;
+    }
+
+    /**
+     * @return true if any value of the current doc is in [min, max].
+     */
+    public boolean anyBetween(double min, double max) {
+        for (int i = 0; i < count; i++) {
+            if (doubles[i] >= min && doubles[i] <= max) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the values of the current doc, null if the doc has no value. Only used by explain.
+     */
+    public String[] toStrings() {
+        if (count == 0) {
+            return null;
+        }
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = String.valueOf(doubles[i]);
+        }
+        return result;
+    }
+}
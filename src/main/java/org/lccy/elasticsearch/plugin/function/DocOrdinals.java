@@ -0,0 +1,104 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the ordinals of a keyword field once per doc, so every rule testing the field shares them. <br>
+ * Not thread safe, one instance per field and segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class DocOrdinals {
+
+    private final KeywordOrdinals values;
+    private long[] ords = new long[4];
+    private int count;
+    private int docId = -1;
+    private boolean exists;
+
+    public DocOrdinals(KeywordOrdinals values) {
+        this.values = values;
+    }
+
+    /**
+     * @return the ordinals of the field, null if the field has no mapping.
+     */
+    public KeywordOrdinals getValues() {
+        return values;
+    }
+
+    /**
+     * position on the doc, the ordinals are only read on the first call for a doc.
+     */
+    public void advance(int docId) throws IOException {
+        if (this.docId == docId) {
+            return;
+        }
+        this.docId = docId;
+        this.count = 0;
+        this.exists = values != null && values.advanceExact(docId);
+        if (exists) {
+            long ord;
+            while ((ord = values.nextOrd()) != KeywordOrdinals.NO_MORE_ORDS) {
+                if (count == ords.length) {
+                    ords = ArrayUtil.grow(ords, count + 1);
+                }
+                ords[count++] = ord;
+            }
+        }
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * @return the first ordinal of the current doc, -1 if the doc has no value.
+     */
+    public long firstOrd() {
+        return count > 0 ? ords[0] : -1;
+    }
+
+    /**
+     * @param sortedOrds expected ordinals in ascending order
+     * @return true if any ordinal of the current doc is expected.
+     */
+    public boolean containsAny(long[] sortedOrds) {
+        if (sortedOrds.length == 0) {
+            return false;
+        }
+        if (sortedOrds.length == 1) {
+            long expect = sortedOrds[0];
+            for (int i = 0; i < count; i++) {
+                if (ords[i] == expect) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (Arrays.binarySearch(sortedOrds, ords[i]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the terms of the current doc, null if the doc has no value. Only used by explain.
+     */
+    public String[] toStrings() throws IOException {
+        if (!exists) {
+            return null;
+        }
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = values.lookupOrd(ords[i]).utf8ToString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level cache of the {@link FieldBindings} of a plan on an index, keyed by index uuid, mapping version and base plan fingerprint. <br>
+ * The overrides of a request don't change the fields or their require flag, so they share the bindings of the plan they override,
+ * see {@link ScorePlan#getBaseFingerprint()}.
+ * A shard request with a known plan skips the mapping lookups and the require validation.
+ * The entries of an older mapping version are dropped when a newer one is seen, and all the entries of an index when it's removed.
+ * Cached bindings are charged to the {@link ComplexScoreCircuitBreaker}, see {@link AccountedCache}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class FieldBindingCache {
+
+    /**
+     * max number of bindings kept by the node, 0 disables the cache.
+     */
+    public static final Setting<Integer> FIELD_BINDING_CACHE_SIZE = Setting.intSetting("complex_score.field_binding_cache.size", 1024, 0, Setting.Property.NodeScope);
+
+    private final AccountedCache<Key, FieldBindings> cache;
+    // the latest mapping version seen by index uuid
+    private final ConcurrentMap<String, Long> mappingVersions = new ConcurrentHashMap<>();
+
+    public FieldBindingCache(Settings settings, ComplexScoreCircuitBreaker breaker) {
+        this.cache = new AccountedCache<>(FIELD_BINDING_CACHE_SIZE.get(settings), false, breaker, "field_bindings");
+    }
+
+    /**
+     * @return the bindings of the plan on the index of the shard, resolved on a cache miss.
+     */
+    public FieldBindings getOrResolve(ScorePlan plan, QueryShardContext context) {
+        if (!cache.isEnabled()) {
+            return FieldBindings.resolve(plan, context);
+        }
+        String indexUUID = context.index().getUUID();
+        long mappingVersion = context.getIndexSettings().getIndexMetaData().getMappingVersion();
+        boolean[] changed = new boolean[1];
+        mappingVersions.compute(indexUUID, (uuid, latest) -> {
+            if (latest != null && latest >= mappingVersion) {
+                return latest;
+            }
+            changed[0] = latest != null;
+            return mappingVersion;
+        });
+        if (changed[0]) {
+            // the mapping changed, the bindings of the older mapping are never read again
+            invalidate(indexUUID, mappingVersion);
+        }
+        try {
+            return cache.computeIfAbsent(new Key(indexUUID, mappingVersion, plan.getBaseFingerprint()), 0,
+                    key -> FieldBindings.resolve(plan, context));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                // keep the validation errors as they are, they are not cached
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchException("Failed to resolve the fields of " + ComplexFieldFunctionBuilder.NAME, cause);
+        }
+    }
+
+    /**
+     * drop the bindings of the index, called when the index is removed from the node.
+     */
+    public void removeIndex(String indexUUID) {
+        mappingVersions.remove(indexUUID);
+        invalidate(indexUUID, Long.MAX_VALUE);
+    }
+
+    /**
+     * drop the bindings of the index resolved before the mapping version.
+     */
+    private void invalidate(String indexUUID, long beforeMappingVersion) {
+        cache.invalidateIf(key -> key.indexUUID.equals(indexUUID) && key.mappingVersion < beforeMappingVersion);
+    }
+
+    public long count() {
+        return cache.count();
+    }
+
+    private static final class Key {
+        private final String indexUUID;
+        private final long mappingVersion;
+        private final String fingerprint;
+
+        private Key(String indexUUID, long mappingVersion, String fingerprint) {
+            this.indexUUID = indexUUID;
+            this.mappingVersion = mappingVersion;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return mappingVersion == key.mappingVersion && indexUUID.equals(key.indexUUID) && Objects.equals(fingerprint, key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexUUID, mappingVersion, fingerprint);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractLatLonPointDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.index.mapper.DateFieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.NumberFieldMapper;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The fields of a plan resolved against the mapping of an index: the field data of each field and its kind,
+ * the features of complex_features fields and the point decoders used by the score bounds. <br>
+ * Immutable, shared by the shards of the index until the mapping changes, see {@link FieldBindingCache}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class FieldBindings implements Accountable {
+
+    // sizes for the breaker estimate, the base counts the four maps and their unmodifiable views
+    private static final long BASE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(FieldBindings.class)
+            + 4 * (RamUsageEstimator.shallowSizeOfInstance(HashMap.class) + RamUsageEstimator.NUM_BYTES_OBJECT_HEADER);
+    // a hash map entry: hash, key, value, next and the slot of the table
+    private static final long ENTRY_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + Integer.BYTES + 3L * RamUsageEstimator.NUM_BYTES_OBJECT_REF) + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    private static final long FEATURE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(PackedFeatures.Feature.class);
+    private static final long DECODER_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+
+    /**
+     * How the doc values of a field are read.
+     */
+    public enum FieldKind {
+        ORDINALS, NUMERIC, GEO;
+
+        /**
+         * @return the kind of the field data, null if the type is not supported.
+         */
+        static FieldKind of(IndexFieldData fieldData) {
+            if (fieldData instanceof SortedSetDVOrdinalsIndexFieldData) {
+                // string type
+                return ORDINALS;
+            } else if (fieldData instanceof IndexNumericFieldData) {
+                // int、float、double type
+                return NUMERIC;
+            } else if (fieldData instanceof AbstractLatLonPointDVIndexFieldData) {
+                // geo type
+                return GEO;
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, IndexFieldData> fieldData;
+    private final Map<String, FieldKind> kinds;
+    private final Map<String, PackedFeatures.Feature> features;
+    private final Map<String, Function<byte[], Number>> pointDecoders;
+
+    public FieldBindings(Map<String, IndexFieldData> fieldData, Map<String, PackedFeatures.Feature> features,
+                         Map<String, Function<byte[], Number>> pointDecoders) {
+        Map<String, FieldKind> kinds = new HashMap<>();
+        for (Map.Entry<String, IndexFieldData> entry : fieldData.entrySet()) {
+            FieldKind kind = FieldKind.of(entry.getValue());
+            if (kind != null) {
+                kinds.put(entry.getKey(), kind);
+            }
+        }
+        this.fieldData = fieldData;
+        this.kinds = kinds;
+        this.features = features;
+        this.pointDecoders = pointDecoders;
+    }
+
+    /**
+     * Resolve the fields of the plan, a required field must have a mapping.
+     */
+    public static FieldBindings resolve(ScorePlan plan, QueryShardContext context) {
+        Map<String, IndexFieldData> fieldDataMap = new HashMap<>();
+        Map<String, PackedFeatures.Feature> features = new HashMap<>();
+        Map<String, Function<byte[], Number>> pointDecoders = new HashMap<>();
+        for (Map.Entry<String, Boolean> entry : plan.getAllFields().entrySet()) {
+            MappedFieldType fieldType = context.getMapperService().fullName(entry.getKey());
+            PackedFeatures.Feature feature = fieldType == null ? packedFeature(context, entry.getKey()) : null;
+            if (feature != null) {
+                features.put(entry.getKey(), feature);
+            } else if (fieldType == null) {
+                // require field's mapping must exists
+                if (entry.getValue()) {
+                    throw new ElasticsearchException("Unable to find a field mapper for field [" + entry.getKey() + "]. No 'missing' value defined.");
+                }
+            } else {
+                IndexFieldData fieldData = context.getForField(fieldType);
+                if (fieldData == null) {
+                    // require field's mapping must exists
+                    if (entry.getValue()) {
+                        throw new ElasticsearchException("Unable to find a field mapper for field [" + entry.getKey() + "]. No 'missing' value defined.");
+                    }
+                } else {
+                    fieldDataMap.put(entry.getKey(), fieldData);
+                }
+                if (fieldType instanceof NumberFieldMapper.NumberFieldType) {
+                    pointDecoders.put(entry.getKey(), ((NumberFieldMapper.NumberFieldType) fieldType)::parsePoint);
+                } else if (fieldType.getClass() == DateFieldMapper.DateFieldType.class) {
+                    pointDecoders.put(entry.getKey(), point -> LongPoint.decodeDimension(point, 0));
+                }
+            }
+        }
+        return new FieldBindings(Collections.unmodifiableMap(fieldDataMap), Collections.unmodifiableMap(features),
+                Collections.unmodifiableMap(pointDecoders));
+    }
+
+    /**
+     * @return the feature of a complex_features field the path refers to, {@code features.price} is the feature [price]
+     * of the field [features], null if it's not a feature.
+     */
+    private static PackedFeatures.Feature packedFeature(QueryShardContext context, String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        MappedFieldType fieldType = context.getMapperService().fullName(path.substring(0, dot));
+        if (!(fieldType instanceof ComplexFeaturesFieldMapper.FeaturesFieldType)) {
+            return null;
+        }
+        ComplexFeaturesFieldMapper.FeaturesFieldType featuresType = (ComplexFeaturesFieldMapper.FeaturesFieldType) fieldType;
+        int index = featuresType.featureIndex(path.substring(dot + 1));
+        if (index < 0) {
+            return null;
+        }
+        return new PackedFeatures.Feature(featuresType.name(), index, featuresType.featureType(index), featuresType.featureCount());
+    }
+
+    /**
+     * @return the estimated heap held by the bindings, the field data belongs to the index and the field names to the plan.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES + ENTRY_RAM_BYTES * (fieldData.size() + kinds.size() + features.size() + pointDecoders.size())
+                + FEATURE_RAM_BYTES * features.size() + DECODER_RAM_BYTES * pointDecoders.size();
+    }
+
+    public Map<String, IndexFieldData> getFieldData() {
+        return fieldData;
+    }
+
+    /**
+     * @return the kind of the field, null if the field has no field data or its type is not supported.
+     */
+    public FieldKind getKind(String field) {
+        return kinds.get(field);
+    }
+
+    public Map<String, PackedFeatures.Feature> getFeatures() {
+        return features;
+    }
+
+    public Map<String, Function<byte[], Number>> getPointDecoders() {
+        return pointDecoders;
+    }
+}
@@ -0,0 +1,112 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.lccy.elasticsearch.plugin.function.plan.FieldMergeMode;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The merged score of the numeric fields_score rules of every doc of a segment. <br>
+ * Numeric rules only depend on doc values, so the total is computed in one pass over the segment and shared by
+ * every query with the same field rules, see {@link SegmentScoreCache}. Geo rules are merged into it at query time.
+ * The totals are kept as floats, so the cache is opt-in.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class FieldScores implements Accountable {
+
+    /**
+     * memory used by the cached field scores of a node, 0 (the default) disables the cache.
+     */
+    public static final Setting<ByteSizeValue> FIELD_SCORE_CACHE_SIZE = Setting.memorySizeSetting("complex_score.field_score_cache.size", "0b", Setting.Property.NodeScope);
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(FieldScores.class);
+
+    private final float[] totals;
+
+    private FieldScores(float[] totals) {
+        this.totals = totals;
+    }
+
+    /**
+     * @return true if the plan has numeric rules and none of them can fail on a doc.
+     */
+    public static boolean supports(ScorePlan plan) {
+        return plan.getFieldFingerprint() != null;
+    }
+
+    /**
+     * @return the merged numeric score of the doc, geo rules are merged into it.
+     */
+    public double score(int docId) {
+        return totals[docId];
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(totals);
+    }
+
+    /**
+     * @return the bytes of the field scores of a segment, charged before they are built.
+     */
+    public static long estimate(int maxDoc) {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Float.BYTES * maxDoc);
+    }
+
+    /**
+     * merge the numeric rules of every doc of the segment.
+     *
+     * @param maxDoc           the segment's max doc
+     * @param categoryOrdinals the category field of the segment, not shared with a scorer
+     * @param docValues        the doc values of the segment, not shared with a scorer
+     */
+    public static FieldScores build(ScorePlan plan, int maxDoc, DocOrdinals categoryOrdinals, LeafDocValues docValues) throws IOException {
+        final Map<FieldRule[], LeafFieldRule[]> resolved = new IdentityHashMap<>();
+        CategoryOrdTable<LeafFieldRule[]> table = CategoryOrdTable.build(categoryOrdinals.getValues(), plan.getCategoryPlans(), categoryPlan -> {
+            FieldRule[] fieldRules = categoryPlan.getFieldRules();
+            LeafFieldRule[] leafFieldRules = resolved.get(fieldRules);
+            if (leafFieldRules == null) {
+                List<LeafFieldRule> numericRules = new ArrayList<>(fieldRules.length);
+                for (FieldRule fieldRule : fieldRules) {
+                    if (!fieldRule.isGeo()) {
+                        numericRules.add(new LeafFieldRule(fieldRule, docValues.get(fieldRule.getField())));
+                    }
+                }
+                leafFieldRules = numericRules.toArray(new LeafFieldRule[0]);
+                resolved.put(fieldRules, leafFieldRules);
+            }
+            return leafFieldRules;
+        });
+
+        float[] totals = new float[maxDoc];
+        if (!table.isEmpty()) {
+            FieldMergeMode fieldMode = plan.getFieldMode();
+            for (int docId = 0; docId < maxDoc; docId++) {
+                categoryOrdinals.advance(docId);
+                LeafFieldRule[] leafFieldRules = table.get(categoryOrdinals.firstOrd());
+                if (leafFieldRules == null) {
+                    continue;
+                }
+                double total = 0;
+                for (LeafFieldRule fieldRule : leafFieldRules) {
+                    if (fieldRule.advance(docId)) {
+                        total = fieldMode.merge(total, fieldRule.score());
+                    }
+                }
+                totals[docId] = (float) total;
+            }
+        }
+        return new FieldScores(totals);
+    }
+}
@@ -0,0 +1,70 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * The ordinals of a keyword field of one segment, as the rules read them through {@link DocOrdinals}. <br>
+ * Only the part of {@link SortedSetDocValues} the rules use, so a keyword without a terms dictionary, like a packed
+ * feature, is read like a keyword field without pretending to be one.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public interface KeywordOrdinals {
+
+    long NO_MORE_ORDS = SortedSetDocValues.NO_MORE_ORDS;
+
+    /**
+     * @return true if the doc has a value, the ordinals of the doc are then read with {@link #nextOrd()}.
+     */
+    boolean advanceExact(int docId) throws IOException;
+
+    /**
+     * @return the next ordinal of the current doc, {@link #NO_MORE_ORDS} after the last one.
+     */
+    long nextOrd() throws IOException;
+
+    /**
+     * @return the ordinal of the term, negative if no doc of the segment has it. Without a terms dictionary only
+     * a field absent from the segment is known not to have the term.
+     */
+    long lookupTerm(BytesRef key) throws IOException;
+
+    /**
+     * @return the term of the ordinal.
+     */
+    BytesRef lookupOrd(long ord) throws IOException;
+
+    /**
+     * @return the ordinals of the keyword doc values, null if the field has no mapping.
+     */
+    static KeywordOrdinals of(SortedSetDocValues values) {
+        if (values == null) {
+            return null;
+        }
+        return new KeywordOrdinals() {
+            @Override
+            public boolean advanceExact(int docId) throws IOException {
+                return values.advanceExact(docId);
+            }
+
+            @Override
+            public long nextOrd() throws IOException {
+                return values.nextOrd();
+            }
+
+            @Override
+            public long lookupTerm(BytesRef key) throws IOException {
+                return values.lookupTerm(key);
+            }
+
+            @Override
+            public BytesRef lookupOrd(long ord) throws IOException {
+                return values.lookupOrd(ord);
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.elasticsearch.index.fielddata.plain.AbstractLatLonPointDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The doc values of one segment, a field is only loaded when a rule of a category present in the segment reads it. <br>
+ * Not thread safe, one instance per segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class LeafDocValues {
+
+    private final LeafReaderContext ctx;
+    private final FieldBindings bindings;
+    // loaded values by field, null when the field has no mapping
+    private final Map<String, Object> loaded = new HashMap<>();
+    // keyword fields share one ordinals reader per segment, so each field is read once per doc
+    private final Map<String, DocOrdinals> ordinals = new HashMap<>();
+    // numeric fields of range sort rules share one reader per segment, apart from the field rules' reader
+    private final Map<String, DocNumerics> numerics = new HashMap<>();
+    // the features of a complex_features field share one reader per segment, so the field is read once per doc
+    private final Map<String, PackedFeatures> packed = new HashMap<>();
+
+    public LeafDocValues(LeafReaderContext ctx, Map<String, IndexFieldData> fieldMap) {
+        this(ctx, fieldMap, Collections.emptyMap());
+    }
+
+    public LeafDocValues(LeafReaderContext ctx, Map<String, IndexFieldData> fieldMap, Map<String, PackedFeatures.Feature> features) {
+        this(ctx, new FieldBindings(fieldMap, features, Collections.emptyMap()));
+    }
+
+    public LeafDocValues(LeafReaderContext ctx, FieldBindings bindings) {
+        this.ctx = ctx;
+        this.bindings = bindings;
+    }
+
+    /**
+     * @return the doc values of the field, null if the field has no mapping.
+     */
+    public Object get(String field) {
+        if (loaded.containsKey(field)) {
+            return loaded.get(field);
+        }
+        Object values = read(field);
+        loaded.put(field, values);
+        return values;
+    }
+
+    private Object read(String field) {
+        PackedFeatures.Feature feature = bindings.getFeatures().get(field);
+        return feature != null ? packed(feature).view(feature) : load(field, bindings.getFieldData().get(field));
+    }
+
+    /**
+     * @return the shared ordinals of a keyword field.
+     */
+    public DocOrdinals ordinals(String field) {
+        DocOrdinals docOrdinals = ordinals.get(field);
+        if (docOrdinals == null) {
+            Object values = get(field);
+            // a packed keyword feature has no terms dictionary, it's only read through the narrower view
+            docOrdinals = new DocOrdinals(values instanceof KeywordOrdinals ? (KeywordOrdinals) values : KeywordOrdinals.of((SortedSetDocValues) values));
+            ordinals.put(field, docOrdinals);
+        }
+        return docOrdinals;
+    }
+
+    /**
+     * @return the shared values of a numeric or date field tested by range sort rules.
+     */
+    public DocNumerics numerics(String field) {
+        DocNumerics docNumerics = numerics.get(field);
+        if (docNumerics == null) {
+            // a reader of its own, a field rule of the same field advances the loaded one
+            Object values = read(field);
+            if (values != null && !(values instanceof SortedNumericDoubleValues)) {
+                throw new ElasticsearchException("Range sort rules require a numeric or date field, field [" + field + "] is not.");
+            }
+            docNumerics = new DocNumerics((SortedNumericDoubleValues) values);
+            numerics.put(field, docNumerics);
+        }
+        return docNumerics;
+    }
+
+    private PackedFeatures packed(PackedFeatures.Feature feature) {
+        PackedFeatures packedFeatures = packed.get(feature.getField());
+        if (packedFeatures == null) {
+            try {
+                packedFeatures = new PackedFeatures(ctx.reader().getBinaryDocValues(feature.getField()), feature.getFeatureCount());
+            } catch (IOException e) {
+                throw new ElasticsearchException("Failed to load complex_features field [" + feature.getField() + "]", e);
+            }
+            packed.put(feature.getField(), packedFeatures);
+        }
+        return packedFeatures;
+    }
+
+    private Object load(String field, IndexFieldData val) {
+        if (val == null) {
+            return null;
+        }
+        FieldBindings.FieldKind kind = bindings.getKind(field);
+        if (kind == FieldBindings.FieldKind.ORDINALS) {
+            return ((SortedSetDVOrdinalsIndexFieldData) val).load(ctx).getOrdinalsValues();
+        } else if (kind == FieldBindings.FieldKind.NUMERIC) {
+            return ((IndexNumericFieldData) val).load(ctx).getDoubleValues();
+        } else if (kind == FieldBindings.FieldKind.GEO) {
+            return ((AbstractLatLonPointDVIndexFieldData) val).load(ctx).getGeoPointValues();
+        }
+        throw new ElasticsearchException("Not support mapping type for field [" + field + "], type:" + val.getClass());
+    }
+}
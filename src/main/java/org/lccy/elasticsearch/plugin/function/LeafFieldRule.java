@@ -0,0 +1,83 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.index.fielddata.MultiGeoPointValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+
+import java.io.IOException;
+
+/**
+ * A fields_score rule bound to the doc values of one segment. <br>
+ * Not thread safe, one instance per rule and segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class LeafFieldRule {
+
+    private final FieldRule rule;
+    private final SortedNumericDoubleValues numericValues;
+    private final MultiGeoPointValues geoValues;
+
+    private double value;
+    private GeoPoint point;
+    private boolean usingMissing;
+
+    public LeafFieldRule(FieldRule rule, Object values) {
+        this.rule = rule;
+        this.numericValues = rule.isGeo() ? null : (SortedNumericDoubleValues) values;
+        this.geoValues = rule.isGeo() ? (MultiGeoPointValues) values : null;
+    }
+
+    public FieldRule getRule() {
+        return rule;
+    }
+
+    /**
+     * position on the doc and read its value, fall back to the missing value of a required field.
+     *
+     * @return false if the doc has no value and the rule is not required, the rule is skipped then.
+     */
+    public boolean advance(int docId) throws IOException {
+        if (rule.isGeo()) {
+            if (geoValues != null && geoValues.advanceExact(docId)) {
+                point = geoValues.nextValue();
+                usingMissing = false;
+                return true;
+            }
+        } else if (numericValues != null && numericValues.advanceExact(docId)) {
+            value = numericValues.nextValue();
+            usingMissing = false;
+            return true;
+        }
+        if (!rule.isRequire()) {
+            return false;
+        }
+        if (!rule.hasMissing()) {
+            throw new IllegalArgumentException("require field " + rule.getField() + "must has a value or has a missing value");
+        }
+        value = rule.getMissingValue();
+        point = rule.getMissingPoint();
+        usingMissing = true;
+        return true;
+    }
+
+    /**
+     * @return the score of the current doc's value
+     */
+    public double score() {
+        return rule.isGeo() ? rule.score(point) : rule.score(value);
+    }
+
+    public boolean isUsingMissing() {
+        return usingMissing;
+    }
+
+    /**
+     * @return the current value, only used by explain.
+     */
+    public Object currentValue() {
+        return rule.isGeo() ? point : (Object) value;
+    }
+}
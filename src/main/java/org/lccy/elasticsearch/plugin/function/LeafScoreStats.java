@@ -0,0 +1,162 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.search.Explanation;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.stats.ScoringCounters;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feeds the index's {@link ScoringCounters} from the scorer of one segment. <br>
+ * The scorers report each scored doc with the category ordinal they dispatched on, see {@link #scored(long)}, and time
+ * their phases when {@link #sampling()} is true. A scored doc increments a single counter.
+ * The phases are reported to the {@link ScoringTrace} of the thread too when the slow log traces the query phase.
+ * Not thread safe, one instance per segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+final class LeafScoreStats {
+
+    static final LeafScoreStats DISABLED = new LeafScoreStats(null, null, null, null, 0);
+
+    private final ScoringCounters counters;
+    // null when the query phase is not traced
+    private final ScoringTrace trace;
+    // category ordinal to its hit counter, parallel to the rule table of the segment, null when no configured category is in the segment
+    private final CategoryOrdTable<LongAdder> categoryHits;
+    private final LongAdder uncountedDocs;
+    private final String fingerprint;
+    private final long bindStart;
+    private int docs;
+    private boolean sampling;
+
+    private LeafScoreStats(ScoringCounters counters, ScoringTrace trace, CategoryOrdTable<LongAdder> categoryHits,
+                           String fingerprint, long bindStart) {
+        this.counters = counters;
+        this.trace = trace;
+        this.categoryHits = categoryHits;
+        this.uncountedDocs = counters == null ? null : counters.uncountedDocs();
+        this.fingerprint = fingerprint;
+        this.bindStart = bindStart;
+    }
+
+    /**
+     * @param counters      the counters of the index, null when the function is used without the node's services
+     * @param hitsByCode    the hit counters of the plan's category codes, resolved once per plan, see {@link #categoryHits(ScoringCounters, ScorePlan)}
+     * @param categoryPlans the configured categories of the segment by ordinal
+     * @param bindStart     when the function started binding the segment, in {@link System#nanoTime()}
+     */
+    static LeafScoreStats of(ScoringCounters counters, Map<String, LongAdder> hitsByCode, ScorePlan plan,
+                             CategoryOrdTable<CategoryPlan> categoryPlans, long bindStart) throws IOException {
+        if (counters == null) {
+            return DISABLED;
+        }
+        counters.segmentVisited();
+        CategoryOrdTable<LongAdder> categoryHits = categoryPlans.isEmpty() ? null
+                : categoryPlans.map(categoryPlan -> hitsByCode.get(categoryPlan.getCategoryCode()));
+        return new LeafScoreStats(counters, ScoringTrace.current(), categoryHits, plan.getFingerprint(), bindStart);
+    }
+
+    /**
+     * @return the hit counters of the plan's category codes, a code above {@link ScoringCounters#MAX_CATEGORIES} has none.
+     */
+    static Map<String, LongAdder> categoryHits(ScoringCounters counters, ScorePlan plan) {
+        if (counters == null) {
+            return null;
+        }
+        Map<String, LongAdder> hitsByCode = new HashMap<>();
+        for (String categoryCode : plan.getCategoryPlans().keySet()) {
+            LongAdder hits = counters.categoryHits(categoryCode);
+            if (hits != null) {
+                hitsByCode.put(categoryCode, hits);
+            }
+        }
+        return hitsByCode;
+    }
+
+    boolean isEnabled() {
+        return counters != null;
+    }
+
+    /**
+     * counts a scored doc, called by the scorer before the rules of the doc are computed.
+     *
+     * @param categoryOrd the category ordinal the scorer dispatched on, -1 when the doc has none
+     */
+    void scored(long categoryOrd) {
+        if (counters == null) {
+            return;
+        }
+        sampling = (++docs & (ScoringCounters.SAMPLE_INTERVAL - 1)) == 0;
+        LongAdder hits = categoryHits == null ? null : categoryHits.get(categoryOrd);
+        (hits == null ? uncountedDocs : hits).increment();
+    }
+
+    /**
+     * @return true when the phases of the current doc are timed.
+     */
+    boolean sampling() {
+        return sampling;
+    }
+
+    void fieldScoring(boolean geo, long nanos) {
+        if (trace != null) {
+            trace.fieldScoring(geo, nanos);
+        }
+        if (geo) {
+            counters.geoDecay(nanos);
+        } else {
+            counters.fieldScoring(nanos);
+        }
+    }
+
+    void sortMatching(long nanos) {
+        if (trace != null) {
+            trace.sortMatching(nanos);
+        }
+        counters.sortMatching(nanos);
+    }
+
+    /**
+     * @return the docs scored on the segment so far.
+     */
+    int docsScored() {
+        return docs;
+    }
+
+    /**
+     * @return the scorer counting the explains, and the scored docs of a segment without configured category.
+     */
+    LeafScoreFunction wrap(LeafScoreFunction function) {
+        if (counters == null) {
+            return function;
+        }
+        if (trace != null) {
+            // the segment is bound once its scorer is built
+            trace.segmentBound(fingerprint, this, System.nanoTime() - bindStart);
+        }
+        // the scorer of a segment with configured categories reports its docs itself
+        final boolean countDocs = categoryHits == null;
+        return new LeafScoreFunction() {
+            @Override
+            public double score(int docId, float subQueryScore) throws IOException {
+                if (countDocs) {
+                    scored(-1);
+                }
+                return function.score(docId, subQueryScore);
+            }
+
+            @Override
+            public Explanation explainScore(int docId, Explanation subQueryScore) throws IOException {
+                counters.explained();
+                return function.explainScore(docId, subQueryScore);
+            }
+        };
+    }
+}
@@ -0,0 +1,246 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.geo.GeoEncodingUtils;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.index.fielddata.MultiGeoPointValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper.FeatureType;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The {@link ComplexFeaturesFieldMapper complex_features} field of one segment. <br>
+ * A doc is read with one seek and its features are located once, every feature of the doc is then served from the bytes
+ * through the usual doc values views, so the rules read a packed feature like a field of its own. <br>
+ * Not thread safe, one instance per field and segment.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class PackedFeatures {
+
+    /**
+     * A feature of a complex_features field a rule reads, resolved from the mapping on the shard.
+     */
+    public static final class Feature {
+        private final String field;
+        private final int index;
+        private final FeatureType type;
+        private final int featureCount;
+
+        public Feature(String field, int index, FeatureType type, int featureCount) {
+            this.field = field;
+            this.index = index;
+            this.type = type;
+            this.featureCount = featureCount;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public int getFeatureCount() {
+            return featureCount;
+        }
+    }
+
+    private final BinaryDocValues values;
+    private final ByteArrayDataInput in = new ByteArrayDataInput();
+    // per feature, the position of the first value in the doc's bytes and the value count, 0 when absent
+    private final int[] offsets;
+    private final int[] counts;
+    private BytesRef bytes;
+    private int docId = -1;
+
+    public PackedFeatures(BinaryDocValues values, int featureCount) {
+        this.values = values;
+        this.offsets = new int[featureCount];
+        this.counts = new int[featureCount];
+    }
+
+    /**
+     * @return the doc values view of the feature.
+     */
+    public Object view(Feature feature) {
+        switch (feature.type) {
+            case DOUBLE:
+                return new NumericView(feature.index);
+            case KEYWORD:
+                return new KeywordView(feature.index);
+            case GEO_POINT:
+            default:
+                return new GeoView(feature.index);
+        }
+    }
+
+    /**
+     * position on the doc, the doc is only read on the first call for a doc.
+     */
+    private void advance(int docId) throws IOException {
+        if (this.docId == docId) {
+            return;
+        }
+        this.docId = docId;
+        Arrays.fill(counts, 0);
+        if (values == null || !values.advanceExact(docId)) {
+            return;
+        }
+        bytes = values.binaryValue();
+        in.reset(bytes.bytes, bytes.offset, bytes.length);
+        // at most 63 features, the mask is never negative
+        long mask = in.readVLong();
+        for (int i = 0; i < counts.length && mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) == 0) {
+                continue;
+            }
+            int count = in.readVInt();
+            counts[i] = count;
+            offsets[i] = in.getPosition();
+            in.skipBytes((long) count * Long.BYTES);
+        }
+    }
+
+    private long readLong(int feature, int i) {
+        int pos = offsets[feature] + i * Long.BYTES;
+        return ((long) readInt(pos) << 32) | (readInt(pos + Integer.BYTES) & 0xFFFFFFFFL);
+    }
+
+    private int readInt(int pos) {
+        byte[] b = bytes.bytes;
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private final class NumericView extends SortedNumericDoubleValues {
+        private final int feature;
+        private int next;
+
+        private NumericView(int feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            advance(target);
+            next = 0;
+            return counts[feature] > 0;
+        }
+
+        @Override
+        public double nextValue() {
+            return Double.longBitsToDouble(readLong(feature, next++));
+        }
+
+        @Override
+        public int docValueCount() {
+            return counts[feature];
+        }
+    }
+
+    private final class GeoView extends MultiGeoPointValues {
+        private final int feature;
+        private final GeoPoint point = new GeoPoint();
+        private int next;
+
+        private GeoView(int feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            advance(target);
+            next = 0;
+            return counts[feature] > 0;
+        }
+
+        @Override
+        public int docValueCount() {
+            return counts[feature];
+        }
+
+        @Override
+        public GeoPoint nextValue() {
+            int pos = offsets[feature] + next++ * Long.BYTES;
+            return point.reset(GeoEncodingUtils.decodeLatitude(readInt(pos)), GeoEncodingUtils.decodeLongitude(readInt(pos + Integer.BYTES)));
+        }
+    }
+
+    /**
+     * Keyword values are packed as hashes, so the terms dictionary only knows the terms that were looked up:
+     * a looked up term gets the next ordinal, the other values of a doc get an ordinal above {@link #UNKNOWN_ORD}
+     * built from their hash. The ordinals of a doc come in term order, the first one is the smallest term,
+     * but they are not ascending, it's only read through {@link DocOrdinals}. <br>
+     * The known hashes are kept sorted, a value of a doc is resolved with a binary search.
+     */
+    private final class KeywordView implements KeywordOrdinals {
+        private static final long UNKNOWN_ORD = 1L << 62;
+
+        private final int feature;
+        // sorted known hashes and their ordinals, the terms by ordinal
+        private long[] knownHashes = new long[4];
+        private int[] knownOrds = new int[4];
+        private BytesRef[] knownTerms = new BytesRef[4];
+        private int knownCount;
+        private int next;
+
+        private KeywordView(int feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            advance(target);
+            next = 0;
+            return counts[feature] > 0;
+        }
+
+        @Override
+        public long nextOrd() {
+            if (next >= counts[feature]) {
+                return NO_MORE_ORDS;
+            }
+            long hash = readLong(feature, next++);
+            int idx = Arrays.binarySearch(knownHashes, 0, knownCount, hash);
+            return idx >= 0 ? knownOrds[idx] : UNKNOWN_ORD | (hash >>> 2);
+        }
+
+        @Override
+        public long lookupTerm(BytesRef key) {
+            if (values == null) {
+                // no doc of the segment has the field
+                return -1;
+            }
+            long hash = ComplexFeaturesFieldMapper.hash(key);
+            int idx = Arrays.binarySearch(knownHashes, 0, knownCount, hash);
+            if (idx >= 0) {
+                return knownOrds[idx];
+            }
+            if (knownCount == knownHashes.length) {
+                knownHashes = ArrayUtil.grow(knownHashes, knownCount + 1);
+                knownOrds = ArrayUtil.grow(knownOrds, knownCount + 1);
+                knownTerms = ArrayUtil.grow(knownTerms, knownCount + 1);
+            }
+            int insert = -idx - 1;
+            System.arraycopy(knownHashes, insert, knownHashes, insert + 1, knownCount - insert);
+            System.arraycopy(knownOrds, insert, knownOrds, insert + 1, knownCount - insert);
+            knownHashes[insert] = hash;
+            knownOrds[insert] = knownCount;
+            knownTerms[knownCount] = BytesRef.deepCopyOf(key);
+            return knownCount++;
+        }
+
+        @Override
+        public BytesRef lookupOrd(long ord) {
+            if (ord < knownCount) {
+                return knownTerms[(int) ord];
+            }
+            // only the hash of a value that wasn't looked up is known
+            return new BytesRef("#" + Long.toHexString(ord & ~UNKNOWN_ORD));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.util.BytesRef;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.FieldMergeMode;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Upper bound of {@code func_score_factor * fieldScoreTotal + sortScoreTotal} of the docs of one segment. <br>
+ * The field score of a category is bounded by its rules applied to the min and max value of each field in the segment,
+ * read from the points of the field, and the sort score by the highest tier of the category. With the max tier of
+ * every block of docs the bound is refined per block. A packed feature of a complex_features field has no points, its rules are unbounded.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoreBounds {
+
+    /**
+     * no usable bound, every doc is scored.
+     */
+    public static final ScoreBounds UNBOUNDED = new ScoreBounds(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, null);
+
+    private final double maxFieldScore;
+    private final double maxFunctionScore;
+    private final double[] blockMaxTiers;
+
+    private ScoreBounds(double maxFieldScore, double maxFunctionScore, double[] blockMaxTiers) {
+        this.maxFieldScore = maxFieldScore;
+        this.maxFunctionScore = maxFunctionScore;
+        this.blockMaxTiers = blockMaxTiers;
+    }
+
+    /**
+     * @return the max function score of the docs between the two docs, both included.
+     */
+    public double maxFunctionScore(int fromDoc, int toDoc) {
+        if (blockMaxTiers == null) {
+            return maxFunctionScore;
+        }
+        return Math.min(maxFunctionScore, maxFieldScore + SortTiers.maxScore(blockMaxTiers, fromDoc, toDoc));
+    }
+
+    /**
+     * @param categoryValues the category field of the segment
+     * @param bindings       the fields of the plan, the numeric fields without point decoder are unbounded
+     * @param blockMaxTiers  the max sort tier of every block of the segment, see {@link SortTiers#getBlockMax()}, null if unknown
+     */
+    public static ScoreBounds of(ScorePlan plan, LeafReader reader, KeywordOrdinals categoryValues,
+                                 FieldBindings bindings, double[] blockMaxTiers) throws IOException {
+        if (plan.getFuncScoreFactor() < 0) {
+            return UNBOUNDED;
+        }
+        double maxFieldScore = 0;
+        double maxFunctionScore = 0;
+        if (categoryValues != null) {
+            Map<String, double[]> ranges = new HashMap<>();
+            for (Map.Entry<String, CategoryPlan> entry : plan.getCategoryPlans().entrySet()) {
+                if (categoryValues.lookupTerm(new BytesRef(entry.getKey())) < 0) {
+                    continue;
+                }
+                double fieldScore = 0;
+                if (plan.getFuncScoreFactor() > 0) {
+                    fieldScore = plan.getFuncScoreFactor() * maxFieldScore(plan, entry.getValue().getFieldRules(), reader, bindings, ranges);
+                }
+                double sortScore = 0;
+                if (plan.isPrecomputed()) {
+                    // the tier written at index time
+                    sortScore = maxValue(reader, Constants.PrecomputedField.SORT_TIER, bindings, ranges);
+                } else {
+                    for (SortRule sortRule : entry.getValue().getSortRules()) {
+                        sortScore = Math.max(sortScore, sortRule.getTierScore());
+                    }
+                }
+                maxFieldScore = Math.max(maxFieldScore, fieldScore);
+                maxFunctionScore = Math.max(maxFunctionScore, fieldScore + sortScore);
+            }
+        }
+        if (Double.isNaN(maxFunctionScore) || Double.isInfinite(maxFunctionScore)) {
+            return UNBOUNDED;
+        }
+        return new ScoreBounds(maxFieldScore, maxFunctionScore, blockMaxTiers);
+    }
+
+    private static double maxFieldScore(ScorePlan plan, FieldRule[] fieldRules, LeafReader reader,
+                                        FieldBindings bindings, Map<String, double[]> ranges) throws IOException {
+        // every merge mode is non decreasing in both scores, so merging the max rule scores bounds the total
+        FieldMergeMode fieldMode = plan.getFieldMode();
+        double total = 0;
+        if (plan.isPrecomputed()) {
+            // the numeric rules merged at index time
+            total = maxValue(reader, Constants.PrecomputedField.FIELD_SCORE, bindings, ranges);
+        }
+        for (FieldRule fieldRule : fieldRules) {
+            double ruleScore;
+            if (plan.isPrecomputed() && !fieldRule.isGeo()) {
+                continue;
+            } else if (fieldRule.isGeo()) {
+                // the decay is in [0, 1]
+                ruleScore = Math.max(fieldRule.getAddNum() * fieldRule.getWeight(),
+                        (fieldRule.getAddNum() + fieldRule.getFactor()) * fieldRule.getWeight());
+            } else {
+                ruleScore = maxRuleScore(fieldRule, range(reader, fieldRule.getField(), bindings, ranges));
+            }
+            if (Double.isNaN(ruleScore)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            total = fieldMode.merge(total, Math.max(0, ruleScore));
+        }
+        return Double.isNaN(total) ? Double.POSITIVE_INFINITY : total;
+    }
+
+    private static double maxRuleScore(FieldRule fieldRule, double[] range) {
+        double min = range[0];
+        double max = range[1];
+        if (fieldRule.isRequire() && fieldRule.hasMissing()) {
+            min = Math.min(min, fieldRule.getMissingValue());
+            max = Math.max(max, fieldRule.getMissingValue());
+        }
+        if (min > max) {
+            // no value in the segment and no missing value, the rule is skipped
+            return 0;
+        }
+        FieldScoreComputeWapper.Modifier modifier = fieldRule.getModifier();
+        if (FieldScoreComputeWapper.Modifier.RECIPROCAL == modifier && min <= 0 && max >= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double score = Math.max(fieldRule.score(min), fieldRule.score(max));
+        if (FieldScoreComputeWapper.Modifier.SQUARE == modifier && min < 0 && max > 0) {
+            score = Math.max(score, fieldRule.score(0d));
+        }
+        return score;
+    }
+
+    /**
+     * @return the max of a precomputed field in the segment, 0 if no doc has a value.
+     */
+    private static double maxValue(LeafReader reader, String field, FieldBindings bindings, Map<String, double[]> ranges) throws IOException {
+        double[] range = range(reader, field, bindings, ranges);
+        return range[0] > range[1] ? 0 : Math.max(0, range[1]);
+    }
+
+    private static double[] range(LeafReader reader, String field, FieldBindings bindings, Map<String, double[]> ranges) throws IOException {
+        double[] range = ranges.get(field);
+        if (range == null) {
+            range = range(reader, field, bindings);
+            ranges.put(field, range);
+        }
+        return range;
+    }
+
+    /**
+     * @return {min, max} of the field in the segment, {+inf, -inf} if no doc has a value.
+     */
+    private static double[] range(LeafReader reader, String field, FieldBindings bindings) throws IOException {
+        if (bindings.getFeatures().containsKey(field)) {
+            // a packed feature is read from the binary doc values of its complex_features field, it has no field info of its own
+            return new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        }
+        Function<byte[], Number> pointDecoder = bindings.getPointDecoders().get(field);
+        FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+        if (fieldInfo == null) {
+            return new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        }
+        PointValues points = fieldInfo.getPointDataDimensionCount() == 1 ? reader.getPointValues(field) : null;
+        if (points == null || pointDecoder == null) {
+            // doc values without points can't be bounded
+            return new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        }
+        return new double[]{pointDecoder.apply(points.getMinPackedValue()).doubleValue(),
+                pointDecoder.apply(points.getMaxPackedValue()).doubleValue()};
+    }
+}
@@ -0,0 +1,110 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.common.geo.GeoPoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How the complex_field_score of one doc is built: the category, the value and score of each field rule,
+ * the matched sort rule and the final blend. <br>
+ * Filled by the segment scorer while it scores the doc, see {@link ComplexFieldFunction#getLeafBreakdownFunction}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoreBreakdown implements ScoreSink {
+
+    private String category;
+    private boolean configured;
+    private final List<Map<String, Object>> fields = new ArrayList<>();
+    private Map<String, Object> sort;
+    private final Map<String, Object> blend = new LinkedHashMap<>();
+
+    @Override
+    public void category(DocOrdinals categoryOrdinals, boolean configured) throws IOException {
+        // the first term, null if the doc has no category
+        String[] terms = categoryOrdinals.toStrings();
+        this.category = terms == null ? null : terms[0];
+        this.configured = configured;
+    }
+
+    @Override
+    public void field(LeafFieldRule fieldRule, double score) {
+        addField(fieldRule.getRule().getField(), fieldRule.currentValue(), score, fieldRule.isUsingMissing());
+    }
+
+    @Override
+    public void fieldScores(String source, double score) {
+        addField(source, null, score, false);
+    }
+
+    /**
+     * @param value the value read from the doc or the missing value, null when not known
+     */
+    private void addField(String field, Object value, double score, boolean missing) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("field", field);
+        if (value instanceof GeoPoint) {
+            GeoPoint point = (GeoPoint) value;
+            entry.put("value", point.lat() + "," + point.lon());
+        } else if (value != null) {
+            entry.put("value", value);
+        }
+        entry.put("score", score);
+        entry.put("missing", missing);
+        fields.add(entry);
+    }
+
+    @Override
+    public void fieldScoreTotal(double fieldScoreTotal) {
+        // part of the blend
+    }
+
+    @Override
+    public void sortRule(int index, SortOrdMatcher matcher, int docId) {
+        sort = new LinkedHashMap<>();
+        sort.put("rule", index);
+        sort.put("weight", matcher.getRule().getWeight());
+        sort.put("tier", matcher.getRule().getTierScore());
+    }
+
+    @Override
+    public void sortTier(String source, double tierScore) {
+        sort = new LinkedHashMap<>();
+        sort.put("tier", tierScore);
+    }
+
+    @Override
+    public void sortScoreTotal(double sortScoreTotal) {
+        // part of the blend
+    }
+
+    @Override
+    public void blend(double funcScoreFactor, double fieldScoreTotal, double originalScoreFactor, float subScore, double sortScoreTotal) {
+        blend.put("func_score_factor", funcScoreFactor);
+        blend.put("field_score_total", fieldScoreTotal);
+        blend.put("original_score_factor", originalScoreFactor);
+        blend.put("sub_score", subScore);
+        blend.put("sort_score_total", sortScoreTotal);
+        blend.put("score", funcScoreFactor * fieldScoreTotal + originalScoreFactor * subScore + sortScoreTotal);
+    }
+
+    /**
+     * @return the breakdown as plain maps and lists, so it can be sent as a hit field.
+     */
+    public Map<String, Object> asMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("category", category);
+        map.put("configured", configured);
+        map.put("fields", fields);
+        if (sort != null) {
+            map.put("sort", sort);
+        }
+        map.put("blend", blend);
+        return map;
+    }
+}
@@ -0,0 +1,61 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import java.io.IOException;
+
+/**
+ * Receives the parts of the score of one doc while the segment scorer computes it. <br>
+ * Score, explain and breakdown run the same evaluation of {@link ComplexFieldFunction}, scoring without a sink,
+ * so an explained or broken down score is the score of the query, caches included.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+interface ScoreSink {
+
+    /**
+     * @param categoryOrdinals the category field positioned on the doc
+     * @param configured       true if the category has rules
+     */
+    void category(DocOrdinals categoryOrdinals, boolean configured) throws IOException;
+
+    /**
+     * a field rule computed for the doc, the rule is positioned on the doc.
+     */
+    void field(LeafFieldRule fieldRule, double score);
+
+    /**
+     * field rules merged ahead of time and read for the doc.
+     *
+     * @param source where the merged score is read from
+     */
+    void fieldScores(String source, double score);
+
+    /**
+     * the merged score of the field rules, after the last field.
+     */
+    void fieldScoreTotal(double fieldScoreTotal);
+
+    /**
+     * the first sort rule the doc matches.
+     *
+     * @param index the position of the rule in the sort rules of the category
+     */
+    void sortRule(int index, SortOrdMatcher matcher, int docId) throws IOException;
+
+    /**
+     * a sort tier matched ahead of time and read for the doc, the matched rule is not known.
+     *
+     * @param source where the tier is read from
+     */
+    void sortTier(String source, double tierScore);
+
+    /**
+     * the sort score of the doc, after the sort rules.
+     */
+    void sortScoreTotal(double sortScoreTotal);
+
+    /**
+     * the final blend, {@code funcScoreFactor * fieldScoreTotal + originalScoreFactor * subScore + sortScoreTotal}.
+     */
+    void blend(double funcScoreFactor, double fieldScoreTotal, double originalScoreFactor, float subScore, double sortScoreTotal);
+}
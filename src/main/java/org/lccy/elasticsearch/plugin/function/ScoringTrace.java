@@ -0,0 +1,114 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.lccy.elasticsearch.plugin.stats.ScoringCounters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the complex_field_score functions of one shard level query phase cost, read by the slow log. <br>
+ * The trace is bound to the search thread between the start and the end of the query phase, the segments bound by a
+ * function on the thread report into it. The docs are counted by the scorers of the segments anyway, the phases are
+ * timed on the sampled docs only, so a trace costs nothing per doc. Not thread safe, the query phase of a shard
+ * runs on one thread.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoringTrace {
+
+    private static final ThreadLocal<ScoringTrace> CURRENT = new ThreadLocal<>();
+
+    private final Set<String> fingerprints = new LinkedHashSet<>();
+    private final List<LeafScoreStats> segments = new ArrayList<>();
+    private long fieldDataNanos;
+    private long fieldScoringNanos;
+    private long sortMatchingNanos;
+    private long geoDecayNanos;
+
+    private ScoringTrace() {
+    }
+
+    /**
+     * bind a new trace to the thread.
+     */
+    public static void start() {
+        CURRENT.set(new ScoringTrace());
+    }
+
+    /**
+     * @return the trace of the thread, null when none was started. The thread has no trace afterwards.
+     */
+    public static ScoringTrace finish() {
+        ScoringTrace trace = CURRENT.get();
+        if (trace != null) {
+            CURRENT.remove();
+        }
+        return trace;
+    }
+
+    static ScoringTrace current() {
+        return CURRENT.get();
+    }
+
+    void segmentBound(String fingerprint, LeafScoreStats segment, long nanos) {
+        fingerprints.add(fingerprint);
+        segments.add(segment);
+        fieldDataNanos += nanos;
+    }
+
+    /**
+     * @param nanos the time of a sampled doc
+     */
+    void fieldScoring(boolean geo, long nanos) {
+        if (geo) {
+            geoDecayNanos += nanos * ScoringCounters.SAMPLE_INTERVAL;
+        } else {
+            fieldScoringNanos += nanos * ScoringCounters.SAMPLE_INTERVAL;
+        }
+    }
+
+    void sortMatching(long nanos) {
+        sortMatchingNanos += nanos * ScoringCounters.SAMPLE_INTERVAL;
+    }
+
+    /**
+     * @return the fingerprints of the plans that scored on the shard.
+     */
+    public Set<String> getFingerprints() {
+        return fingerprints;
+    }
+
+    public int getSegments() {
+        return segments.size();
+    }
+
+    public long getDocsScored() {
+        long docs = 0;
+        for (LeafScoreStats segment : segments) {
+            docs += segment.docsScored();
+        }
+        return docs;
+    }
+
+    /**
+     * @return the time binding the functions to the segments: the doc values, the rules resolved and the segment caches.
+     */
+    public long getFieldDataNanos() {
+        return fieldDataNanos;
+    }
+
+    public long getFieldScoringNanos() {
+        return fieldScoringNanos;
+    }
+
+    public long getSortMatchingNanos() {
+        return sortMatchingNanos;
+    }
+
+    public long getGeoDecayNanos() {
+        return geoDecayNanos;
+    }
+}
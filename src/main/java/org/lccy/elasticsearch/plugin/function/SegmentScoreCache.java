@@ -0,0 +1,112 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level cache of values precomputed for every doc of a segment, keyed by segment core and rule fingerprint. <br>
+ * Entries are dropped when their segment is closed, and evicted LRU above the memory limit of the cache
+ * or when the {@link ComplexScoreCircuitBreaker} needs memory. A cached entry is charged to the breaker,
+ * an estimate before it's built, see {@link AccountedCache}. A segment the breaker can't hold is scored uncached.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SegmentScoreCache<V extends Accountable> {
+
+    private final AccountedCache<Key, V> cache;
+    // segments whose close listener is registered
+    private final Set<IndexReader.CacheKey> segments = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param size the memory setting of the cache, 0 disables the cache
+     */
+    public SegmentScoreCache(Setting<ByteSizeValue> size, Settings settings, ComplexScoreCircuitBreaker breaker, String label) {
+        this.cache = new AccountedCache<>(size.get(settings).getBytes(), true, breaker, label);
+    }
+
+    /**
+     * @param estimate the bytes of the values of the segment, charged before they are built
+     * @param builder  computes the values of the segment, only called on a cache miss
+     * @return null if the values of the segment can't be cached
+     */
+    public V getOrBuild(LeafReaderContext ctx, String fingerprint, long estimate, CheckedSupplier<V, IOException> builder) throws IOException {
+        if (!cache.isEnabled()) {
+            return null;
+        }
+        IndexReader.CacheHelper cacheHelper = ctx.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+        IndexReader.CacheKey coreKey = cacheHelper.getKey();
+        if (segments.add(coreKey)) {
+            cacheHelper.addClosedListener(this::onClose);
+        }
+        try {
+            return cache.computeIfAbsent(new Key(coreKey, fingerprint), estimate, key -> builder.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CircuitBreakingException) {
+                // the breaker can't hold the segment, it's scored without the cache
+                return null;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchException("Failed to build segment cache for " + ComplexFieldFunctionBuilder.NAME, cause);
+        }
+    }
+
+    private void onClose(IndexReader.CacheKey coreKey) {
+        segments.remove(coreKey);
+        cache.invalidateIf(key -> key.coreKey == coreKey);
+    }
+
+    public long count() {
+        return cache.count();
+    }
+
+    public long ramBytesUsed() {
+        return cache.weight();
+    }
+
+    private static final class Key {
+        private final IndexReader.CacheKey coreKey;
+        private final String fingerprint;
+
+        private Key(IndexReader.CacheKey coreKey, String fingerprint) {
+            this.coreKey = coreKey;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return coreKey == key.coreKey && Objects.equals(fingerprint, key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coreKey, fingerprint);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.BytesRef;
+import org.lccy.elasticsearch.plugin.function.plan.SortCondition;
+import org.lccy.elasticsearch.plugin.function.plan.SortOperator;
+import org.lccy.elasticsearch.plugin.function.plan.SortRange;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A sort_score rule resolved against one segment. <br>
+ * The expected values are looked up to ordinals once per segment, so a doc is matched
+ * by comparing ordinals without any allocation. Range conditions compare the numeric doc values with the bounds
+ * parsed at compile time.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SortOrdMatcher {
+
+    private static final long[] NO_ORDS = new long[0];
+
+    private static final class Condition {
+        private final SortOperator operator;
+        private final DocOrdinals ordinals;
+        private final boolean hasExpect;
+        private final long[] expectOrds;
+        // the values and bounds of a range condition, null otherwise
+        private final DocNumerics numerics;
+        private final SortRange range;
+
+        private Condition(SortOperator operator, DocOrdinals ordinals, boolean hasExpect, long[] expectOrds) {
+            this.operator = operator;
+            this.ordinals = ordinals;
+            this.hasExpect = hasExpect;
+            this.expectOrds = expectOrds;
+            this.numerics = null;
+            this.range = null;
+        }
+
+        private Condition(SortOperator operator, DocNumerics numerics, SortRange range) {
+            this.operator = operator;
+            this.ordinals = null;
+            this.hasExpect = range != null;
+            this.expectOrds = NO_ORDS;
+            this.numerics = numerics;
+            this.range = range;
+        }
+
+        private boolean match(int docId) throws IOException {
+            if (numerics != null) {
+                numerics.advance(docId);
+                return hasExpect && numerics.anyBetween(range.getMin(), range.getMax());
+            }
+            ordinals.advance(docId);
+            switch (operator) {
+                case EXISTS:
+                    return ordinals.exists();
+                case NOT_EXISTS:
+                    return !ordinals.exists();
+                case NOT:
+                case NOT_IN:
+                    return hasExpect && (!ordinals.exists() || !ordinals.containsAny(expectOrds));
+                case IN:
+                case EQUAL:
+                default:
+                    return hasExpect && ordinals.exists() && ordinals.containsAny(expectOrds);
+            }
+        }
+    }
+
+    private final SortRule rule;
+    private final Condition[] conditions;
+
+    private SortOrdMatcher(SortRule rule, Condition[] conditions) {
+        this.rule = rule;
+        this.conditions = conditions;
+    }
+
+    /**
+     * resolve the rule's expected values against the segment.
+     *
+     * @param rule      the compiled sort rule
+     * @param docValues the doc values of the segment, the per field ordinals and numerics are shared
+     */
+    public static SortOrdMatcher resolve(SortRule rule, LeafDocValues docValues) throws IOException {
+        SortCondition[] sortConditions = rule.getConditions();
+        Condition[] conditions = new Condition[sortConditions.length];
+        for (int i = 0; i < sortConditions.length; i++) {
+            SortCondition condition = sortConditions[i];
+            if (condition.getOperator().isRange()) {
+                conditions[i] = new Condition(condition.getOperator(), docValues.numerics(condition.getField()), condition.getRange());
+                continue;
+            }
+            DocOrdinals docOrdinals = docValues.ordinals(condition.getField());
+            long[] expectOrds = condition.hasExpect() && !condition.getOperator().isPresence()
+                    ? lookupOrds(docOrdinals, condition.getExpectValues()) : NO_ORDS;
+            conditions[i] = new Condition(condition.getOperator(), docOrdinals, condition.hasExpect(), expectOrds);
+        }
+        return new SortOrdMatcher(rule, conditions);
+    }
+
+    private static long[] lookupOrds(DocOrdinals ordinals, String[] expects) throws IOException {
+        if (ordinals.getValues() == null) {
+            return NO_ORDS;
+        }
+        long[] ords = new long[expects.length];
+        int size = 0;
+        for (String expect : expects) {
+            long ord = ordinals.getValues().lookupTerm(new BytesRef(expect));
+            if (ord >= 0) {
+                ords[size++] = ord;
+            }
+        }
+        if (size == 0) {
+            return NO_ORDS;
+        }
+        ords = Arrays.copyOf(ords, size);
+        Arrays.sort(ords);
+        return ords;
+    }
+
+    public SortRule getRule() {
+        return rule;
+    }
+
+    public boolean isAny() {
+        return rule.isAny();
+    }
+
+    public boolean match(int docId) throws IOException {
+        for (Condition condition : conditions) {
+            if (!condition.match(docId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the values of every tested field of the doc, only used by explain.
+     */
+    public String describeValues(int docId) throws IOException {
+        StringBuilder fVals = new StringBuilder();
+        for (Condition condition : conditions) {
+            if (fVals.length() != 0) {
+                fVals.append(Constants.SPLIT);
+            }
+            if (condition.numerics != null) {
+                condition.numerics.advance(docId);
+                fVals.append(Arrays.toString(condition.numerics.toStrings()));
+            } else {
+                condition.ordinals.advance(docId);
+                fVals.append(Arrays.toString(condition.ordinals.toStrings()));
+            }
+        }
+        return fVals.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sort tier score of every doc of a segment. <br>
+ * The tier only depends on doc values and the sort rules, so it is computed in one pass over the segment
+ * and shared by every query with the same sort rules, see {@link SegmentScoreCache}. Each doc keeps a byte
+ * (or short when there are more than 255 distinct tiers) code into the distinct tier scores.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SortTiers implements Accountable {
+
+    /**
+     * memory used by the cached sort tiers of a node, 0 (the default) disables the cache. The tiers of a segment are built
+     * with a pass over all its docs, worth it when the same sort rules score most docs of the segments again and again.
+     */
+    public static final Setting<ByteSizeValue> SORT_TIER_CACHE_SIZE = Setting.memorySizeSetting("complex_score.sort_tier_cache.size", "0b", Setting.Property.NodeScope);
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(SortTiers.class);
+    private static final int MAX_BYTE_CODES = 1 << 8;
+    private static final int MAX_SHORT_CODES = 1 << 16;
+    // docs per block of the block max scores
+    private static final int BLOCK_SHIFT = 7;
+
+    // by code, code 0 is "no rule matched"
+    private final double[] scores;
+    private final byte[] byteCodes;
+    private final short[] shortCodes;
+    // max tier score of every block of 128 docs
+    private final double[] blockMax;
+
+    private SortTiers(double[] scores, byte[] byteCodes, short[] shortCodes, double[] blockMax) {
+        this.scores = scores;
+        this.byteCodes = byteCodes;
+        this.shortCodes = shortCodes;
+        this.blockMax = blockMax;
+    }
+
+    /**
+     * @return true if the plan's distinct tier scores fit the per doc codes.
+     */
+    public static boolean supports(ScorePlan plan) {
+        return plan.getSortFingerprint() != null && plan.getSortTierCount() <= MAX_SHORT_CODES;
+    }
+
+    public double score(int docId) {
+        return scores[byteCodes != null ? byteCodes[docId] & 0xFF : shortCodes[docId] & 0xFFFF];
+    }
+
+    /**
+     * @return the max tier score of every block of 128 docs.
+     */
+    public double[] getBlockMax() {
+        return blockMax;
+    }
+
+    /**
+     * @return the max tier score of the docs between the two docs, both included.
+     */
+    public static double maxScore(double[] blockMax, int fromDoc, int toDoc) {
+        int toBlock = Math.min(toDoc >>> BLOCK_SHIFT, blockMax.length - 1);
+        double max = 0;
+        for (int block = fromDoc >>> BLOCK_SHIFT; block <= toBlock; block++) {
+            max = Math.max(max, blockMax[block]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the last doc of the block of the doc.
+     */
+    public static int blockEnd(int docId) {
+        return docId | ((1 << BLOCK_SHIFT) - 1);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(scores) + RamUsageEstimator.sizeOf(blockMax)
+                + (byteCodes != null ? RamUsageEstimator.sizeOf(byteCodes) : RamUsageEstimator.sizeOf(shortCodes));
+    }
+
+    /**
+     * @return the bytes of the tiers of a segment, charged before they are built: the per doc codes and the block max scores.
+     */
+    public static long estimate(ScorePlan plan, int maxDoc) {
+        int codes = plan.getSortTierCount() + 1;
+        long codeBytes = RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (codes <= MAX_BYTE_CODES ? 1L : Short.BYTES) * maxDoc;
+        long blocks = (maxDoc + (1L << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.alignObjectSize(codeBytes)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Double.BYTES * blocks)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Double.BYTES * codes);
+    }
+
+    /**
+     * match the sort rules of every doc of the segment.
+     *
+     * @param maxDoc           the segment's max doc
+     * @param categoryOrdinals the category field of the segment, not shared with a scorer
+     * @param docValues        the doc values of the segment, not shared with a scorer
+     */
+    public static SortTiers build(ScorePlan plan, int maxDoc, DocOrdinals categoryOrdinals, LeafDocValues docValues) throws IOException {
+        List<Double> scores = new ArrayList<>();
+        CategoryOrdTable<TierMatchers> table = matchers(plan, categoryOrdinals, docValues, scores);
+
+        byte[] byteCodes = scores.size() <= MAX_BYTE_CODES ? new byte[maxDoc] : null;
+        short[] shortCodes = byteCodes == null ? new short[maxDoc] : null;
+        if (!table.isEmpty()) {
+            for (int docId = 0; docId < maxDoc; docId++) {
+                int code = match(table, categoryOrdinals, docId);
+                if (byteCodes != null) {
+                    byteCodes[docId] = (byte) code;
+                } else {
+                    shortCodes[docId] = (short) code;
+                }
+            }
+        }
+
+        double[] tierScores = toArray(scores);
+        double[] blockMax = new double[blockCount(maxDoc)];
+        for (int docId = 0; docId < maxDoc; docId++) {
+            int code = byteCodes != null ? byteCodes[docId] & 0xFF : shortCodes[docId] & 0xFFFF;
+            int block = docId >>> BLOCK_SHIFT;
+            blockMax[block] = Math.max(blockMax[block], tierScores[code]);
+        }
+        return new SortTiers(tierScores, byteCodes, shortCodes, blockMax);
+    }
+
+    /**
+     * the max tier score of every block of the segment without the per doc codes, for a query when the tiers are not cached.
+     * A block is left as soon as one of its docs has the highest tier.
+     */
+    public static double[] buildBlockMax(ScorePlan plan, int maxDoc, DocOrdinals categoryOrdinals, LeafDocValues docValues) throws IOException {
+        List<Double> scores = new ArrayList<>();
+        CategoryOrdTable<TierMatchers> table = matchers(plan, categoryOrdinals, docValues, scores);
+        double[] blockMax = new double[blockCount(maxDoc)];
+        if (table.isEmpty()) {
+            return blockMax;
+        }
+        double[] tierScores = toArray(scores);
+        double highest = 0;
+        for (double score : tierScores) {
+            highest = Math.max(highest, score);
+        }
+        for (int docId = 0; docId < maxDoc; docId++) {
+            int block = docId >>> BLOCK_SHIFT;
+            blockMax[block] = Math.max(blockMax[block], tierScores[match(table, categoryOrdinals, docId)]);
+            if (blockMax[block] >= highest) {
+                docId = blockEnd(docId);
+            }
+        }
+        return blockMax;
+    }
+
+    private static int blockCount(int maxDoc) {
+        return (maxDoc + (1 << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+    }
+
+    private static double[] toArray(List<Double> scores) {
+        double[] array = new double[scores.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = scores.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @param scores receives the distinct tier scores by code, code 0 is "no rule matched"
+     * @return the matchers of the sort rules of each category and the codes of their tier scores
+     */
+    private static CategoryOrdTable<TierMatchers> matchers(ScorePlan plan, DocOrdinals categoryOrdinals, LeafDocValues docValues,
+                                                           List<Double> scores) throws IOException {
+        // one code per distinct tier score
+        Map<Double, Integer> codeByScore = new HashMap<>();
+        codeByScore.put(0d, 0);
+        scores.add(0d);
+        Map<SortRule, Integer> codeByRule = new IdentityHashMap<>();
+        for (CategoryPlan categoryPlan : plan.getCategoryPlans().values()) {
+            for (SortRule rule : categoryPlan.getSortRules()) {
+                if (!codeByRule.containsKey(rule)) {
+                    Integer code = codeByScore.get(rule.getTierScore());
+                    if (code == null) {
+                        code = scores.size();
+                        codeByScore.put(rule.getTierScore(), code);
+                        scores.add(rule.getTierScore());
+                    }
+                    codeByRule.put(rule, code);
+                }
+            }
+        }
+
+        final Map<SortRule[], TierMatchers> resolved = new IdentityHashMap<>();
+        return CategoryOrdTable.build(categoryOrdinals.getValues(), plan.getCategoryPlans(), categoryPlan -> {
+            SortRule[] sortRules = categoryPlan.getSortRules();
+            TierMatchers matchers = resolved.get(sortRules);
+            if (matchers == null) {
+                matchers = new TierMatchers(new SortOrdMatcher[sortRules.length], new int[sortRules.length]);
+                for (int i = 0; i < sortRules.length; i++) {
+                    matchers.matchers[i] = SortOrdMatcher.resolve(sortRules[i], docValues);
+                    matchers.codes[i] = codeByRule.get(sortRules[i]);
+                }
+                resolved.put(sortRules, matchers);
+            }
+            return matchers;
+        });
+    }
+
+    /**
+     * @return the code of the tier of the doc, docs are matched in order.
+     */
+    private static int match(CategoryOrdTable<TierMatchers> table, DocOrdinals categoryOrdinals, int docId) throws IOException {
+        categoryOrdinals.advance(docId);
+        TierMatchers matchers = table.get(categoryOrdinals.firstOrd());
+        if (matchers == null) {
+            return 0;
+        }
+        for (int i = 0; i < matchers.matchers.length; i++) {
+            if (matchers.matchers[i].match(docId)) {
+                return matchers.codes[i];
+            }
+        }
+        return 0;
+    }
+
+    private static final class TierMatchers {
+        private final SortOrdMatcher[] matchers;
+        private final int[] codes;
+
+        private TierMatchers(SortOrdMatcher[] matchers, int[] codes) {
+            this.matchers = matchers;
+            this.codes = codes;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.elasticsearch.index.fielddata.MultiGeoPointValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.elasticsearch.script.ScoreScriptUtils;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.FieldMergeMode;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Scorer specialized for one plan, used with [execution: specialized]. <br>
+ * Every rule is composed into its own lambda with the modifier, the constants, the merge mode and
+ * the missing value score inlined, so the per doc path has no generic rule interpretation left.
+ * The segment independent part only depends on the rules, so it's shared by the overrides of a plan and cached by
+ * the node by base fingerprint, see {@link SpecializedScorerCache}. The factors and the geo origins are read from the
+ * plan of the request when a segment is bound.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SpecializedScorer implements Accountable {
+
+    // sizes for the breaker estimate
+    private static final long BASE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(SpecializedScorer.class);
+    // a hash map entry: hash, key, value, next and the slot of the table
+    private static final long CODE_ENTRY_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + Integer.BYTES + 3L * RamUsageEstimator.NUM_BYTES_OBJECT_REF) + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    private static final long TEMPLATE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(CategoryTemplate.class);
+    // a factory and its kernel, lambdas capturing the constants of the rule
+    private static final long FIELD_TERM_RAM_BYTES = 2 * RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + 8L * Double.BYTES);
+
+    /**
+     * merge one field rule into the running field score total of a doc.
+     */
+    @FunctionalInterface
+    private interface FieldTerm {
+        double apply(int docId, double total) throws IOException;
+    }
+
+    /**
+     * bind a field rule to the doc values of a segment.
+     */
+    @FunctionalInterface
+    private interface FieldTermFactory {
+        /**
+         * @param rule the rule of the request, geo rules take their origin from it
+         */
+        FieldTerm bind(FieldRule rule, Object values);
+    }
+
+    /**
+     * sort tier score of a doc of one category.
+     */
+    @FunctionalInterface
+    private interface SortTerm {
+        double score(int docId) throws IOException;
+    }
+
+    /**
+     * score of a doc of one category.
+     */
+    @FunctionalInterface
+    private interface CategoryScorer {
+        double score(int docId, float subQueryScore) throws IOException;
+    }
+
+    private static final class CategoryTemplate {
+        private final FieldRule[] fieldRules;
+        private final FieldTermFactory[] fieldTerms;
+        private final SortRule[] sortRules;
+
+        private CategoryTemplate(FieldRule[] fieldRules, FieldTermFactory[] fieldTerms, SortRule[] sortRules) {
+            this.fieldRules = fieldRules;
+            this.fieldTerms = fieldTerms;
+            this.sortRules = sortRules;
+        }
+    }
+
+    private final String baseFingerprint;
+    private final Map<String, CategoryTemplate> templates;
+
+    SpecializedScorer(ScorePlan plan) {
+        this.baseFingerprint = plan.getBaseFingerprint();
+        DoubleBinaryOperator merge = merge(plan.getFieldMode());
+        Map<FieldRule[], FieldTermFactory[]> fieldTerms = new IdentityHashMap<>();
+        // codes configured together share one template, so a segment binds it once
+        Map<FieldRule[], Map<SortRule[], CategoryTemplate>> shared = new IdentityHashMap<>();
+        Map<String, CategoryTemplate> templates = new HashMap<>();
+        for (Map.Entry<String, CategoryPlan> entry : plan.getCategoryPlans().entrySet()) {
+            FieldRule[] fieldRules = entry.getValue().getFieldRules();
+            SortRule[] sortRules = entry.getValue().getSortRules();
+            FieldTermFactory[] terms = fieldTerms.get(fieldRules);
+            if (terms == null) {
+                terms = new FieldTermFactory[fieldRules.length];
+                for (int i = 0; i < fieldRules.length; i++) {
+                    terms[i] = fieldTerm(fieldRules[i], merge);
+                }
+                fieldTerms.put(fieldRules, terms);
+            }
+            Map<SortRule[], CategoryTemplate> bySorts = shared.computeIfAbsent(fieldRules, k -> new IdentityHashMap<>());
+            CategoryTemplate template = bySorts.get(sortRules);
+            if (template == null) {
+                template = new CategoryTemplate(fieldRules, terms, sortRules);
+                bySorts.put(sortRules, template);
+            }
+            templates.put(entry.getKey(), template);
+        }
+        this.templates = templates;
+    }
+
+    /**
+     * @return the estimated heap held by the scorer, the rules are held by the plan and not counted.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = BASE_RAM_BYTES;
+        Map<Object, Boolean> shared = new IdentityHashMap<>();
+        for (CategoryTemplate template : templates.values()) {
+            bytes += CODE_ENTRY_RAM_BYTES;
+            if (shared.put(template, Boolean.TRUE) == null) {
+                bytes += TEMPLATE_RAM_BYTES;
+            }
+            if (shared.put(template.fieldTerms, Boolean.TRUE) == null) {
+                bytes += RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                        + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * template.fieldTerms.length)
+                        + FIELD_TERM_RAM_BYTES * template.fieldTerms.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * bind the scorer to a segment.
+     *
+     * @param plan             the plan of the request, an override of the plan the scorer was built from
+     * @param categoryOrdinals the category field of the segment
+     * @param categoryPlans    the configured categories of the segment by ordinal
+     * @param docValues        the doc values of the segment
+     * @param fieldScores      the cached numeric field scores of the segment, null to compute every field rule per doc
+     * @param tiers            the cached sort tiers of the segment, null to match the sort rules per doc
+     * @param stats            times the rules of the sampled docs
+     * @param explainer        builds the interpreted function of the segment, explain is delegated to it
+     */
+    public LeafScoreFunction bind(ScorePlan plan, DocOrdinals categoryOrdinals, CategoryOrdTable<CategoryPlan> categoryPlans, LeafDocValues docValues, FieldScores fieldScores, SortTiers tiers,
+                                  LeafScoreStats stats, CheckedSupplier<LeafScoreFunction, IOException> explainer) throws IOException {
+        assert baseFingerprint.equals(plan.getBaseFingerprint()) : "scorer of another config";
+        final double originalScoreFactor = plan.getOriginalScoreFactor();
+        final Map<SortRule[], SortOrdMatcher[]> resolvedSorts = new IdentityHashMap<>();
+        final Map<CategoryTemplate, CategoryScorer> boundTemplates = new IdentityHashMap<>();
+        final CategoryOrdTable<CategoryScorer> scorers = categoryPlans.map(categoryPlan -> {
+            CategoryTemplate template = templates.get(categoryPlan.getCategoryCode());
+            CategoryScorer bound = boundTemplates.get(template);
+            if (bound == null) {
+                // the overrides move the rule arrays of the codes of a template together
+                bound = bind(plan, template, categoryPlan.getFieldRules(), docValues, fieldScores, tiers, stats, resolvedSorts);
+                boundTemplates.put(template, bound);
+            }
+            return bound;
+        });
+
+        return new LeafScoreFunction() {
+            private LeafScoreFunction interpreted;
+
+            @Override
+            public double score(int docId, float subQueryScore) throws IOException {
+                categoryOrdinals.advance(docId);
+                long categoryOrd = categoryOrdinals.firstOrd();
+                stats.scored(categoryOrd);
+                CategoryScorer scorer = scorers.get(categoryOrd);
+                if (scorer == null) {
+                    return originalScoreFactor * subQueryScore;
+                }
+                return scorer.score(docId, subQueryScore);
+            }
+
+            @Override
+            public Explanation explainScore(int docId, Explanation subQueryScore) throws IOException {
+                if (interpreted == null) {
+                    interpreted = explainer.get();
+                }
+                return interpreted.explainScore(docId, subQueryScore);
+            }
+        };
+    }
+
+    /**
+     * bind the rules of a template to the segment.
+     *
+     * @param fieldRules the field rules of the request for the codes of the template
+     */
+    private static CategoryScorer bind(ScorePlan plan, CategoryTemplate template, FieldRule[] fieldRules, LeafDocValues docValues,
+                                       FieldScores fieldScores, SortTiers tiers, LeafScoreStats stats,
+                                       Map<SortRule[], SortOrdMatcher[]> resolvedSorts) throws IOException {
+        List<FieldTerm> bound = new ArrayList<>(template.fieldTerms.length + 1);
+        boolean numeric = false;
+        for (int i = 0; i < template.fieldTerms.length; i++) {
+            if (fieldScores != null && !fieldRules[i].isGeo()) {
+                numeric = true;
+                continue;
+            }
+            bound.add(timed(template.fieldTerms[i].bind(fieldRules[i], docValues.get(fieldRules[i].getField())), fieldRules[i].isGeo(), stats));
+        }
+        if (numeric) {
+            // the cached total of the numeric rules starts the merge of the geo rules
+            bound.add(0, timed((docId, total) -> fieldScores.score(docId), false, stats));
+        }
+        FieldTerm[] terms = bound.toArray(new FieldTerm[0]);
+        if (tiers != null) {
+            return categoryScorer(plan, terms, template.sortRules.length == 0 ? null : timed(tiers::score, stats));
+        }
+        SortOrdMatcher[] matchers = resolvedSorts.get(template.sortRules);
+        if (matchers == null) {
+            matchers = new SortOrdMatcher[template.sortRules.length];
+            for (int i = 0; i < matchers.length; i++) {
+                matchers[i] = SortOrdMatcher.resolve(template.sortRules[i], docValues);
+            }
+            resolvedSorts.put(template.sortRules, matchers);
+        }
+        final SortOrdMatcher[] sortMatchers = matchers;
+        return categoryScorer(plan, terms, sortMatchers.length == 0 ? null : timed(docId -> sortScore(sortMatchers, docId), stats));
+    }
+
+    /**
+     * @return the term timing the sampled docs, the term itself when the stats are disabled.
+     */
+    private static FieldTerm timed(FieldTerm term, boolean geo, LeafScoreStats stats) {
+        if (!stats.isEnabled()) {
+            return term;
+        }
+        return (docId, total) -> {
+            if (!stats.sampling()) {
+                return term.apply(docId, total);
+            }
+            long start = System.nanoTime();
+            double result = term.apply(docId, total);
+            stats.fieldScoring(geo, System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    private static SortTerm timed(SortTerm term, LeafScoreStats stats) {
+        if (!stats.isEnabled()) {
+            return term;
+        }
+        return docId -> {
+            if (!stats.sampling()) {
+                return term.score(docId);
+            }
+            long start = System.nanoTime();
+            double result = term.score(docId);
+            stats.sortMatching(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    private static CategoryScorer categoryScorer(ScorePlan plan, FieldTerm[] terms, SortTerm sortTerm) {
+        final double funcScoreFactor = plan.getFuncScoreFactor();
+        final double originalScoreFactor = plan.getOriginalScoreFactor();
+        if (sortTerm == null) {
+            if (terms.length == 1) {
+                final FieldTerm term = terms[0];
+                return (docId, subQueryScore) -> funcScoreFactor * term.apply(docId, 0) + originalScoreFactor * subQueryScore;
+            }
+            return (docId, subQueryScore) -> funcScoreFactor * fieldScore(terms, docId) + originalScoreFactor * subQueryScore;
+        }
+        if (terms.length == 0) {
+            return (docId, subQueryScore) -> originalScoreFactor * subQueryScore + sortTerm.score(docId);
+        }
+        return (docId, subQueryScore) -> funcScoreFactor * fieldScore(terms, docId) + originalScoreFactor * subQueryScore + sortTerm.score(docId);
+    }
+
+    private static double fieldScore(FieldTerm[] terms, int docId) throws IOException {
+        double total = 0;
+        for (FieldTerm term : terms) {
+            total = term.apply(docId, total);
+        }
+        return total;
+    }
+
+    private static double sortScore(SortOrdMatcher[] matchers, int docId) throws IOException {
+        for (SortOrdMatcher matcher : matchers) {
+            if (matcher.match(docId)) {
+                return matcher.getRule().getTierScore();
+            }
+        }
+        return 0;
+    }
+
+    private static DoubleBinaryOperator merge(FieldMergeMode mode) {
+        switch (mode) {
+            case MULT:
+                return (total, target) -> target < 0 ? total : total * target;
+            case MAX:
+                return (total, target) -> target < 0 ? total : (total < target ? target : total);
+            case MIN:
+                return (total, target) -> target < 0 ? total : (total > target ? target : total);
+            case SUM:
+            default:
+                return (total, target) -> target < 0 ? total : total + target;
+        }
+    }
+
+    /**
+     * the rule's modifier with its constants inlined, same as {@link FieldRule#score(double)}.
+     */
+    private static DoubleUnaryOperator kernel(FieldRule rule) {
+        final double addNum = rule.getAddNum();
+        final double factor = rule.getFactor();
+        final double weight = rule.getWeight();
+        switch (rule.getModifier()) {
+            case NONE:
+                return v -> (addNum + factor * v) * weight;
+            case LOG:
+                return v -> (addNum + factor * Math.log10(v)) * weight;
+            case LOG1P:
+                return v -> (addNum + factor * Math.log10(v + 1)) * weight;
+            case LOG2P:
+                return v -> (addNum + factor * Math.log10(v + 2)) * weight;
+            case LN:
+                return v -> (addNum + factor * Math.log(v)) * weight;
+            case LN1P:
+                return v -> (addNum + factor * Math.log1p(v)) * weight;
+            case LN2P:
+                return v -> (addNum + factor * Math.log1p(v + 1)) * weight;
+            case SQUARE:
+                return v -> (addNum + factor * Math.pow(v, 2)) * weight;
+            case SQRT:
+                return v -> (addNum + factor * Math.sqrt(v)) * weight;
+            case RECIPROCAL:
+                return v -> (addNum + factor * (1.0 / v)) * weight;
+            default:
+                return rule::score;
+        }
+    }
+
+    private static FieldTermFactory fieldTerm(FieldRule rule, DoubleBinaryOperator merge) {
+        final String field = rule.getField();
+        final boolean require = rule.isRequire();
+        final boolean hasMissing = rule.hasMissing();
+        if (rule.isGeo()) {
+            final double addNum = rule.getAddNum();
+            final double factor = rule.getFactor();
+            final double weight = rule.getWeight();
+            return (requestRule, values) -> {
+                // the origin may be overridden by the request
+                final ScoreScriptUtils.DecayGeoExp decay = requestRule.getDecayGeoExp();
+                final double missingScore = hasMissing ? requestRule.score(requestRule.getMissingPoint()) : 0;
+                final MultiGeoPointValues geo = (MultiGeoPointValues) values;
+                if (geo == null) {
+                    return absentTerm(field, require, hasMissing, missingScore, merge);
+                }
+                if (!require) {
+                    return (docId, total) -> geo.advanceExact(docId)
+                            ? merge.applyAsDouble(total, (addNum + factor * decay.decayGeoExp(geo.nextValue())) * weight) : total;
+                }
+                if (!hasMissing) {
+                    return (docId, total) -> {
+                        if (geo.advanceExact(docId)) {
+                            return merge.applyAsDouble(total, (addNum + factor * decay.decayGeoExp(geo.nextValue())) * weight);
+                        }
+                        throw requireException(field);
+                    };
+                }
+                return (docId, total) -> merge.applyAsDouble(total, geo.advanceExact(docId)
+                        ? (addNum + factor * decay.decayGeoExp(geo.nextValue())) * weight : missingScore);
+            };
+        }
+
+        final DoubleUnaryOperator kernel = kernel(rule);
+        final double missingScore = hasMissing ? kernel.applyAsDouble(rule.getMissingValue()) : 0;
+        return (requestRule, values) -> {
+            final SortedNumericDoubleValues numeric = (SortedNumericDoubleValues) values;
+            if (numeric == null) {
+                return absentTerm(field, require, hasMissing, missingScore, merge);
+            }
+            if (!require) {
+                return (docId, total) -> numeric.advanceExact(docId)
+                        ? merge.applyAsDouble(total, kernel.applyAsDouble(numeric.nextValue())) : total;
+            }
+            if (!hasMissing) {
+                return (docId, total) -> {
+                    if (numeric.advanceExact(docId)) {
+                        return merge.applyAsDouble(total, kernel.applyAsDouble(numeric.nextValue()));
+                    }
+                    throw requireException(field);
+                };
+            }
+            return (docId, total) -> merge.applyAsDouble(total, numeric.advanceExact(docId)
+                    ? kernel.applyAsDouble(numeric.nextValue()) : missingScore);
+        };
+    }
+
+    /**
+     * the field has no doc values in the segment, every doc behaves as missing.
+     */
+    private static FieldTerm absentTerm(String field, boolean require, boolean hasMissing, double missingScore, DoubleBinaryOperator merge) {
+        if (!require) {
+            return (docId, total) -> total;
+        }
+        if (!hasMissing) {
+            return (docId, total) -> {
+                throw requireException(field);
+            };
+        }
+        return (docId, total) -> merge.applyAsDouble(total, missingScore);
+    }
+
+    private static IllegalArgumentException requireException(String field) {
+        return new IllegalArgumentException("require field " + field + "must has a value or has a missing value");
+    }
+}
@@ -0,0 +1,48 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level LRU cache from base plan fingerprint to {@link SpecializedScorer}. <br>
+ * The overrides of a profile share the scorer of the profile's config, see {@link ScorePlan#getBaseFingerprint()}.
+ * A cached scorer is charged to the {@link ComplexScoreCircuitBreaker}, see {@link AccountedCache}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SpecializedScorerCache {
+
+    /**
+     * max number of specialized scorers kept by the node, 0 disables the cache.
+     */
+    public static final Setting<Integer> SPECIALIZED_CACHE_SIZE = Setting.intSetting("complex_score.specialized_cache.size", 256, 0, Setting.Property.NodeScope);
+
+    private final AccountedCache<String, SpecializedScorer> cache;
+
+    public SpecializedScorerCache(Settings settings, ComplexScoreCircuitBreaker breaker) {
+        this.cache = new AccountedCache<>(SPECIALIZED_CACHE_SIZE.get(settings), false, breaker, "specialized_scorer");
+    }
+
+    /**
+     * @return the scorer of the plan's config, built on a cache miss.
+     */
+    public SpecializedScorer getOrBuild(ScorePlan plan) {
+        if (!cache.isEnabled()) {
+            return new SpecializedScorer(plan);
+        }
+        try {
+            return cache.computeIfAbsent(plan.getBaseFingerprint(), 0, key -> new SpecializedScorer(plan));
+        } catch (ExecutionException e) {
+            throw new ElasticsearchException("Failed to build specialized scorer for " + ComplexFieldFunctionBuilder.NAME, e.getCause());
+        }
+    }
+
+    public long count() {
+        return cache.count();
+    }
+}
@@ -1,11 +1,16 @@
 package org.lccy.elasticsearch.plugin.function.bo;
 
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.CheckedFunction;
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.xcontent.XContentLocation;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
 import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.plan.PlanFingerprint;
 import org.lccy.elasticsearch.plugin.util.CommonUtil;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -23,6 +28,17 @@ public class CategoryScoreWapper {
     public static final String FIELDS_SCORE = "fields_score";
     public static final String SORT_BASE_SCORE = "sort_base_score";
     public static final String SORT_SCORE = "sort_score";
+    public static final String EXECUTION = "execution";
+
+    // sizes for the heap estimate of a config
+    private static final long MAP_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(LinkedHashMap.class);
+    // a linked hash map entry: hash, key, value, next, before, after
+    private static final long MAP_ENTRY_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + Integer.BYTES + 5L * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+    private static final long LIST_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(ArrayList.class);
+    private static final long STRING_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(String.class);
+    private static final long BOXED_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + Long.BYTES);
+
     // wrap data
     private Map<String, Object> categorys;
 
@@ -31,60 +47,85 @@ public class CategoryScoreWapper {
     private String categoryField;
     private String fieldMode;
     private Double sortBaseScore;
+    private String execution;
 
+    private Map<String, List<FieldScoreComputeWapper>> fieldScoreGroups;
+    private Map<String, List<SortScoreComputeWapper>> scoreComputeGroups;
     private Map<String, List<FieldScoreComputeWapper>> fieldScoreWapperMap;
     private Map<String, List<SortScoreComputeWapper>> scoreComputeWapperMap;
     private Map<String, Boolean> allFiled;
+    private Set<String> categoryCodes;
+    private String fingerprint;
 
     public CategoryScoreWapper(XContentParser parser, Map<String, Object> categorys) {
-        if (categorys.get(FUNC_SCORE_FACTOR) == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query must has field [func_score_factor]");
-        } else {
-            funcScoreFactor = Double.parseDouble(categorys.get(FUNC_SCORE_FACTOR).toString());
+        this(parser == null ? null : parser.getTokenLocation(),
+                categorys.get(FUNC_SCORE_FACTOR) == null ? null : Double.parseDouble(categorys.get(FUNC_SCORE_FACTOR).toString()),
+                categorys.get(ORIGINAL_SCORE_FACTOR) == null ? null : Double.parseDouble(categorys.get(ORIGINAL_SCORE_FACTOR).toString()),
+                categorys.get(CATEGORY_FIELD) == null ? null : CommonUtil.toString(categorys.get(CATEGORY_FIELD)),
+                CommonUtil.toString(categorys.get(FIELD_MODE)),
+                categorys.get(SORT_BASE_SCORE) == null ? null : Double.parseDouble(categorys.get(SORT_BASE_SCORE).toString()),
+                CommonUtil.toString(categorys.get(EXECUTION)),
+                fieldRules(parser, (Map<String, Object>) categorys.get(FIELDS_SCORE)),
+                sortRules(parser, (Map<String, Object>) categorys.get(SORT_SCORE)));
+        this.categorys = categorys;
+    }
+
+    /**
+     * build from typed values, errors are reported at the location when it is known.
+     *
+     * @param fieldsScore rules of [fields_score] keyed by the comma separated category codes as written in the request
+     * @param sortScore   rules of [sort_score] keyed by the comma separated category codes as written in the request
+     */
+    public CategoryScoreWapper(XContentLocation location, Double funcScoreFactor, Double originalScoreFactor, String categoryField,
+                               String fieldMode, Double sortBaseScore, String execution,
+                               Map<String, List<FieldScoreComputeWapper>> fieldsScore, Map<String, List<SortScoreComputeWapper>> sortScore) {
+        if (funcScoreFactor == null) {
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query must has field [func_score_factor]");
         }
-        if (categorys.get(ORIGINAL_SCORE_FACTOR) == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query must has field [original_score_factor]");
-        } else {
-            originalScoreFactor = Double.parseDouble(categorys.get(ORIGINAL_SCORE_FACTOR).toString());
+        if (originalScoreFactor == null) {
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query must has field [original_score_factor]");
         }
         if (funcScoreFactor < 0 || originalScoreFactor < 0) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [original_score_factor] or [func_score_factor] must be greater than 0.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [original_score_factor] or [func_score_factor] must be greater than 0.");
         }
-        if(categorys.get(CATEGORY_FIELD) == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query must has field [category_field]");
-        } else {
-            categoryField = CommonUtil.toString(categorys.get(CATEGORY_FIELD));
+        if(categoryField == null) {
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query must has field [category_field]");
         }
 
-        String fieldMode = CommonUtil.toString(categorys.get(FIELD_MODE));
-        Map<String, Object> fieldsScore = (Map<String, Object>) categorys.get(FIELDS_SCORE);
-        Double sortBaseScore = categorys.get(SORT_BASE_SCORE) == null ? null : Double.parseDouble(categorys.get(SORT_BASE_SCORE).toString());
-        Map<String, Object> sortScore = (Map<String, Object>) categorys.get(SORT_SCORE);
+        fieldMode = CommonUtil.toString(fieldMode);
         if(CommonUtil.isEmpty(fieldsScore) && CommonUtil.isEmpty(sortScore)) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query must has [name] and [fields_score] or [sort_score], please check.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query must has [name] and [fields_score] or [sort_score], please check.");
         }
         if(!CommonUtil.isEmpty(fieldsScore) && CommonUtil.isEmpty(fieldMode)) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [fields_score] must has sibling element [field_mode], please check.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [fields_score] must has sibling element [field_mode], please check.");
         }
         if(!CommonUtil.isEmpty(sortScore) && sortBaseScore == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [sort_score] must has sibling element [sort_base_score], please check.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [sort_score] must has sibling element [sort_base_score], please check.");
+        }
+        if (CommonUtil.isEmpty(execution)) {
+            execution = Constants.ExecutionMode.INTERPRETED;
+        } else if (!Constants.ExecutionMode.INTERPRETED.equals(execution) && !Constants.ExecutionMode.SPECIALIZED.equals(execution)
+                && !Constants.ExecutionMode.PRECOMPUTED.equals(execution)) {
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [execution] must be one of [interpreted, specialized, precomputed], please check.");
         }
+        this.funcScoreFactor = funcScoreFactor;
+        this.originalScoreFactor = originalScoreFactor;
+        this.categoryField = categoryField;
         this.fieldMode = fieldMode;
         this.sortBaseScore = sortBaseScore;
+        this.execution = execution;
 
         this.allFiled = new HashMap<>();
         this.allFiled.put(categoryField, true);
         if (!CommonUtil.isEmpty(fieldsScore)) {
+            this.fieldScoreGroups = new LinkedHashMap<>();
             this.fieldScoreWapperMap = new HashMap<>();
-            for (String cateCodes : fieldsScore.keySet()) {
-                List<Map> value = (List<Map>) fieldsScore.get(cateCodes);
-                if(CommonUtil.isEmpty(value)) {
-                    throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [fields_score] must has attributes, please check.");
+            for (Map.Entry<String, List<FieldScoreComputeWapper>> entry : fieldsScore.entrySet()) {
+                if(CommonUtil.isEmpty(entry.getValue())) {
+                    throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [fields_score] must has attributes, please check.");
                 }
-                List<FieldScoreComputeWapper> fieldScoreComputeWappers = new ArrayList<>();
-                value.stream().forEach(x -> {
-                    FieldScoreComputeWapper fscw = new FieldScoreComputeWapper(parser, x);
-                    fieldScoreComputeWappers.add(fscw);
+                List<FieldScoreComputeWapper> fieldScoreComputeWappers = new ArrayList<>(entry.getValue());
+                for (FieldScoreComputeWapper fscw : fieldScoreComputeWappers) {
                     String field = fscw.getField();
                     boolean require = fscw.getRequire() && fscw.getMissing() == null;
                     // 多个字段
@@ -96,26 +137,24 @@ public class CategoryScoreWapper {
                     } else {
                         this.allFiled.put(field, require);
                     }
+                }
 
-                });
-
-                for (String cateCode : cateCodes.split(",", -1)) {
+                this.fieldScoreGroups.put(entry.getKey(), fieldScoreComputeWappers);
+                for (String cateCode : entry.getKey().split(",", -1)) {
                     this.fieldScoreWapperMap.put(cateCode, fieldScoreComputeWappers);
                 }
             }
         }
 
         if (!CommonUtil.isEmpty(sortScore)) {
+            this.scoreComputeGroups = new LinkedHashMap<>();
             this.scoreComputeWapperMap = new HashMap<>();
-            for (String cateCodes : sortScore.keySet()) {
-                List<Map> value = (List<Map>) sortScore.get(cateCodes);
-                if(CommonUtil.isEmpty(value)) {
-                    throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [sort_score] must has attributes, please check.");
+            for (Map.Entry<String, List<SortScoreComputeWapper>> entry : sortScore.entrySet()) {
+                if(CommonUtil.isEmpty(entry.getValue())) {
+                    throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [sort_score] must has attributes, please check.");
                 }
-                List<SortScoreComputeWapper> scoreComputeWappers = new ArrayList<>();
-                value.stream().forEach(x -> {
-                    SortScoreComputeWapper sscw = new SortScoreComputeWapper(parser, x);
-                    scoreComputeWappers.add(sscw);
+                List<SortScoreComputeWapper> scoreComputeWappers = new ArrayList<>(entry.getValue());
+                for (SortScoreComputeWapper sscw : scoreComputeWappers) {
                     String field = sscw.getField();
                     // 多个字段
                     if(field.indexOf(Constants.SPLIT) > 0) {
@@ -126,19 +165,105 @@ public class CategoryScoreWapper {
                     } else {
                         this.allFiled.put(field, false);
                     }
-                });
-
-                if(!CommonUtil.isEmpty(scoreComputeWappers)) {
-                    scoreComputeWappers.sort(Comparator.comparingInt(SortScoreComputeWapper::getWeight).reversed());
                 }
+                scoreComputeWappers.sort(Comparator.comparingInt(SortScoreComputeWapper::getWeight).reversed());
 
-                for (String cateCode : cateCodes.split(",", -1)) {
+                this.scoreComputeGroups.put(entry.getKey(), scoreComputeWappers);
+                for (String cateCode : entry.getKey().split(",", -1)) {
                     this.scoreComputeWapperMap.put(cateCode, scoreComputeWappers);
                 }
             }
         }
 
-        this.categorys = categorys;
+        this.categoryCodes = new HashSet<>();
+        if (this.fieldScoreWapperMap != null) {
+            this.categoryCodes.addAll(this.fieldScoreWapperMap.keySet());
+        }
+        if (this.scoreComputeWapperMap != null) {
+            this.categoryCodes.addAll(this.scoreComputeWapperMap.keySet());
+        }
+    }
+
+    private static Map<String, List<FieldScoreComputeWapper>> fieldRules(XContentParser parser, Map<String, Object> fieldsScore) {
+        if (fieldsScore == null) {
+            return null;
+        }
+        Map<String, List<FieldScoreComputeWapper>> rules = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : fieldsScore.entrySet()) {
+            List<FieldScoreComputeWapper> fieldScoreComputeWappers = new ArrayList<>();
+            List<Map> value = (List<Map>) entry.getValue();
+            if (value != null) {
+                value.forEach(x -> fieldScoreComputeWappers.add(new FieldScoreComputeWapper(parser, x)));
+            }
+            rules.put(entry.getKey(), fieldScoreComputeWappers);
+        }
+        return rules;
+    }
+
+    private static Map<String, List<SortScoreComputeWapper>> sortRules(XContentParser parser, Map<String, Object> sortScore) {
+        if (sortScore == null) {
+            return null;
+        }
+        Map<String, List<SortScoreComputeWapper>> rules = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : sortScore.entrySet()) {
+            List<SortScoreComputeWapper> scoreComputeWappers = new ArrayList<>();
+            List<Map> value = (List<Map>) entry.getValue();
+            if (value != null) {
+                value.forEach(x -> scoreComputeWappers.add(new SortScoreComputeWapper(parser, x)));
+            }
+            rules.put(entry.getKey(), scoreComputeWappers);
+        }
+        return rules;
+    }
+
+    /**
+     * parse [fields_score] or [sort_score] from the token stream, the parser is on the start object.
+     *
+     * @param field      the param name, used by error messages
+     * @param ruleParser parse one rule, the parser is on the rule's start object
+     */
+    public static <T> Map<String, List<T>> parseRules(XContentParser parser, String field, CheckedFunction<XContentParser, T, IOException> ruleParser) throws IOException {
+        if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+            throw new ParsingException(parser.getTokenLocation(), ComplexFieldFunctionBuilder.NAME + " query param [" + field + "] must be an object, please check.");
+        }
+        Map<String, List<T>> rules = new LinkedHashMap<>();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                continue;
+            }
+            String cateCodes = parser.currentName();
+            XContentLocation location = parser.getTokenLocation();
+            if (parser.nextToken() != XContentParser.Token.START_ARRAY) {
+                throw new ParsingException(location, ComplexFieldFunctionBuilder.NAME + " query param [" + field + "] of [" + cateCodes + "] must be an array, please check.");
+            }
+            List<T> values = new ArrayList<>();
+            while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                if (token != XContentParser.Token.START_OBJECT) {
+                    throw new ParsingException(parser.getTokenLocation(), ComplexFieldFunctionBuilder.NAME + " query param [" + field + "] of [" + cateCodes + "] must only contain objects, please check.");
+                }
+                values.add(ruleParser.apply(parser));
+            }
+            if (values.isEmpty()) {
+                throw new ParsingException(location, ComplexFieldFunctionBuilder.NAME + " query param [" + field + "] must has attributes, please check.");
+            }
+            rules.put(cateCodes, values);
+        }
+        return rules;
+    }
+
+    /**
+     * read a number or a numeric string, a parse error is reported at the value.
+     */
+    public static Double doubleValue(XContentParser parser, String field) throws IOException {
+        if (parser.currentToken() == XContentParser.Token.VALUE_NULL) {
+            return null;
+        }
+        try {
+            return parser.doubleValue();
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(parser.getTokenLocation(), ComplexFieldFunctionBuilder.NAME + " query param [" + field + "] must be a number, found [" + parser.text() + "]", e);
+        }
     }
 
     public Double getFuncScoreFactor() {
@@ -161,10 +286,67 @@ public class CategoryScoreWapper {
         return sortBaseScore;
     }
 
+    public String getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return the request as parsed, or rendered from the typed values when it was streamed.
+     */
     public Map<String, Object> unwrap() {
+        if (categorys == null) {
+            categorys = toMap();
+        }
         return categorys;
     }
 
+    /**
+     * @return stable hash of the typed rules, see {@link PlanFingerprint}. A streamed, a map and a transport
+     * decoded request of the same config have the same fingerprint.
+     */
+    public String fingerprint() {
+        if (fingerprint == null) {
+            fingerprint = PlanFingerprint.of(toMap());
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the request rendered from the typed values, category codes keep the grouping they were written with.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(FUNC_SCORE_FACTOR, funcScoreFactor);
+        map.put(ORIGINAL_SCORE_FACTOR, originalScoreFactor);
+        map.put(CATEGORY_FIELD, categoryField);
+        if (CommonUtil.isNotEmpty(fieldMode)) {
+            map.put(FIELD_MODE, fieldMode);
+        }
+        map.put(EXECUTION, execution);
+        if (fieldScoreGroups != null) {
+            Map<String, Object> fieldsScore = new LinkedHashMap<>();
+            for (Map.Entry<String, List<FieldScoreComputeWapper>> entry : fieldScoreGroups.entrySet()) {
+                List<Map<String, Object>> rules = new ArrayList<>();
+                entry.getValue().forEach(x -> rules.add(x.toMap()));
+                fieldsScore.put(entry.getKey(), rules);
+            }
+            map.put(FIELDS_SCORE, fieldsScore);
+        }
+        if (sortBaseScore != null) {
+            map.put(SORT_BASE_SCORE, sortBaseScore);
+        }
+        if (scoreComputeGroups != null) {
+            Map<String, Object> sortScore = new LinkedHashMap<>();
+            for (Map.Entry<String, List<SortScoreComputeWapper>> entry : scoreComputeGroups.entrySet()) {
+                List<Map<String, Object>> rules = new ArrayList<>();
+                entry.getValue().forEach(x -> rules.add(x.toMap()));
+                sortScore.put(entry.getKey(), rules);
+            }
+            map.put(SORT_SCORE, sortScore);
+        }
+        return map;
+    }
+
     public List<FieldScoreComputeWapper> getFieldScoreWappers(String cateCode) {
         return fieldScoreWapperMap == null ? null : fieldScoreWapperMap.get(cateCode);
     }
@@ -173,12 +355,33 @@ public class CategoryScoreWapper {
         return scoreComputeWapperMap == null ? null : scoreComputeWapperMap.get(cateCode);
     }
 
+    /**
+     * all category codes configured in [fields_score] or [sort_score].
+     */
+    public Set<String> getCategoryCodes() {
+        return categoryCodes;
+    }
+
     public Map<String, Boolean> getAllFiled() {
         return allFiled;
     }
 
     public Map<String, Object> getCategorys() {
-        return categorys;
+        return unwrap();
+    }
+
+    /**
+     * rules of [fields_score] keyed by the category codes as written in the request.
+     */
+    public Map<String, List<FieldScoreComputeWapper>> getFieldScoreGroups() {
+        return fieldScoreGroups;
+    }
+
+    /**
+     * rules of [sort_score] keyed by the category codes as written in the request, ordered by weight desc.
+     */
+    public Map<String, List<SortScoreComputeWapper>> getScoreComputeGroups() {
+        return scoreComputeGroups;
     }
 
     public Map<String, List<FieldScoreComputeWapper>> getFieldScoreWapperMap() {
@@ -189,9 +392,51 @@ public class CategoryScoreWapper {
         return scoreComputeWapperMap;
     }
 
-    private void throwsException(XContentParser parser, String msg) {
-        if (parser != null) {
-            throw new ParsingException(parser.getTokenLocation(), msg);
+    /**
+     * @return the estimated heap held by the config: the request as parsed, the typed rules, which weigh about what
+     * they render to, and the rules by category code.
+     */
+    public long ramBytesUsed() {
+        long bytes = sizeOf(categorys) + sizeOf(toMap()) + sizeOf(allFiled) + sizeOf(categoryCodes);
+        // the by code maps share the rule lists of the groups
+        bytes += fieldScoreWapperMap == null ? 0 : sizeOf(fieldScoreWapperMap.keySet());
+        bytes += scoreComputeWapperMap == null ? 0 : sizeOf(scoreComputeWapperMap.keySet());
+        return bytes;
+    }
+
+    /**
+     * size of a parsed config value: maps, collections, strings and boxed values.
+     */
+    private static long sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            // the table is at most twice as large as the entries at the default load factor
+            long bytes = MAP_RAM_BYTES + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                    + 2L * RamUsageEstimator.NUM_BYTES_OBJECT_REF * map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += MAP_ENTRY_RAM_BYTES + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+            return bytes;
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            long bytes = LIST_RAM_BYTES + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                    + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * collection.size());
+            for (Object element : collection) {
+                bytes += sizeOf(element);
+            }
+            return bytes;
+        } else if (value instanceof CharSequence) {
+            return STRING_RAM_BYTES + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                    + 2L * ((CharSequence) value).length());
+        }
+        return BOXED_RAM_BYTES;
+    }
+
+    private void throwsException(XContentLocation location, String msg) {
+        if (location != null) {
+            throw new ParsingException(location, msg);
         } else {
             throw new IllegalArgumentException(msg);
         }
@@ -202,11 +447,11 @@ public class CategoryScoreWapper {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         CategoryScoreWapper that = (CategoryScoreWapper) o;
-        return Objects.equals(categorys, that.categorys);
+        return Objects.equals(fingerprint(), that.fingerprint());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(categorys);
+        return fingerprint().hashCode();
     }
 }
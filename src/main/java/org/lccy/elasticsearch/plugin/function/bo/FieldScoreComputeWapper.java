@@ -6,12 +6,14 @@ import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.XContentLocation;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.script.ScoreScriptUtils;
 import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
 import org.lccy.elasticsearch.plugin.util.CommonUtil;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -49,35 +51,132 @@ public class FieldScoreComputeWapper {
     private String scale;
     private String offset;
     private Double decay;
+    private ScoreScriptUtils.DecayGeoExp decayGeoExp;
 
     public FieldScoreComputeWapper(XContentParser parser, Map<String, Object> fd) {
-        String field = CommonUtil.toString(fd.get(FIELD));
-        Double factor = fd.get(FACTOR) == null ? null : Double.parseDouble(fd.get(FACTOR).toString());
-        String modifier = CommonUtil.toString(fd.get(MODIFIER));
+        this(parser == null ? null : parser.getTokenLocation(), CommonUtil.toString(fd.get(FIELD)),
+                fd.get(FACTOR) == null ? null : Double.parseDouble(fd.get(FACTOR).toString()),
+                CommonUtil.toString(fd.get(MODIFIER)),
+                fd.get(WEIGHT) == null ? null : Double.parseDouble(fd.get(WEIGHT).toString()),
+                fd.get(ADD_NUM) == null ? null : Double.parseDouble(fd.get(ADD_NUM).toString()),
+                CommonUtil.toString(fd.get(MISSING)), (Boolean) fd.get(REQUIRE),
+                CommonUtil.toString(fd.get(ORIGIN)), CommonUtil.toString(fd.get(SCALE)), CommonUtil.toString(fd.get(OFFSET)),
+                fd.get(DECAY) == null ? null : Double.parseDouble(fd.get(DECAY).toString()));
+        this.fieldScore = fd;
+    }
+
+    /**
+     * build from typed values, errors are reported at the location when it is known.
+     */
+    public FieldScoreComputeWapper(XContentLocation location, String field, Double factor, String modifier, Double weight, Double addNum,
+                                   String missing, Boolean require, String origin, String scale, String offset, Double decay) {
+        field = CommonUtil.toString(field);
+        modifier = CommonUtil.toString(modifier);
         if (CommonUtil.isEmpty(field) || CommonUtil.isEmpty(modifier) || Modifier.checkExist(modifier) || factor == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [categorys.fields_score] set error, please check.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys.fields_score] set error, please check.");
         }
         if (Modifier.DECAYGEOEXP.toString().equals(modifier)) {
-            String origin = CommonUtil.toString(fd.get(ORIGIN));
-            String scale = CommonUtil.toString(fd.get(SCALE));
-            String offset = CommonUtil.toString(fd.get(OFFSET));
-            Double decay = fd.get(DECAY) == null ? null : Double.parseDouble(fd.get(DECAY).toString());
+            origin = CommonUtil.toString(origin);
+            scale = CommonUtil.toString(scale);
+            offset = CommonUtil.toString(offset);
             if (CommonUtil.isEmpty(origin) || CommonUtil.isEmpty(scale) || CommonUtil.isEmpty(offset) || decay == null) {
-                throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [categorys.fields_score.modifier.decaygeoexp] set error, please check.");
+                throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys.fields_score.modifier.decaygeoexp] set error, please check.");
             }
             this.origin = origin;
             this.scale = scale;
             this.offset = offset;
             this.decay = decay;
+            this.decayGeoExp = new ScoreScriptUtils.DecayGeoExp(origin, scale, offset, decay);
         }
-        this.fieldScore = fd;
         this.field = field;
         this.factor = factor;
         this.modifier = Modifier.fromString(modifier);
-        this.weight = fd.get(WEIGHT) == null ? 1 : Double.parseDouble(fd.get(WEIGHT).toString());
-        this.addNum = fd.get(ADD_NUM) == null ? 0 : Double.parseDouble(fd.get(ADD_NUM).toString());
-        this.missing = CommonUtil.toString(fd.get(MISSING));
-        this.require = fd.get(REQUIRE) == null ? false : (Boolean) fd.get(REQUIRE);
+        this.weight = weight == null ? 1 : weight;
+        this.addNum = addNum == null ? 0 : addNum;
+        this.missing = CommonUtil.toString(missing);
+        this.require = require == null ? false : require;
+    }
+
+    /**
+     * parse one rule of [fields_score] from the token stream, the parser is on the rule's start object.
+     */
+    public static FieldScoreComputeWapper fromXContent(XContentParser parser) throws IOException {
+        XContentLocation location = parser.getTokenLocation();
+        String field = null, modifier = null, missing = null, origin = null, scale = null, offset = null;
+        Double factor = null, weight = null, addNum = null, decay = null;
+        Boolean require = null;
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token.isValue() || token == XContentParser.Token.VALUE_NULL) {
+                switch (currentName) {
+                    case FIELD:
+                        field = parser.textOrNull();
+                        break;
+                    case FACTOR:
+                        factor = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case MODIFIER:
+                        modifier = parser.textOrNull();
+                        break;
+                    case WEIGHT:
+                        weight = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case ADD_NUM:
+                        addNum = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    case MISSING:
+                        missing = parser.textOrNull();
+                        break;
+                    case REQUIRE:
+                        require = token == XContentParser.Token.VALUE_NULL ? null : parser.booleanValue();
+                        break;
+                    case ORIGIN:
+                        origin = parser.textOrNull();
+                        break;
+                    case SCALE:
+                        scale = parser.textOrNull();
+                        break;
+                    case OFFSET:
+                        offset = parser.textOrNull();
+                        break;
+                    case DECAY:
+                        decay = CategoryScoreWapper.doubleValue(parser, currentName);
+                        break;
+                    default:
+                        // unknown params were always ignored
+                        break;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new FieldScoreComputeWapper(location, field, factor, modifier, weight, addNum, missing, require, origin, scale, offset, decay);
+    }
+
+    /**
+     * @return the rule as a map, rendered from the typed values.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(FIELD, field);
+        map.put(FACTOR, factor);
+        map.put(MODIFIER, modifier.toString());
+        map.put(WEIGHT, weight);
+        map.put(ADD_NUM, addNum);
+        if (CommonUtil.isNotEmpty(missing)) {
+            map.put(MISSING, missing);
+        }
+        map.put(REQUIRE, require);
+        if (Modifier.DECAYGEOEXP == modifier) {
+            map.put(ORIGIN, origin);
+            map.put(SCALE, scale);
+            map.put(OFFSET, offset);
+            map.put(DECAY, decay);
+        }
+        return map;
     }
 
     public String getField() {
@@ -130,9 +229,13 @@ public class FieldScoreComputeWapper {
         return decay;
     }
 
-    private void throwsException(XContentParser parser, String msg) {
-        if (parser != null) {
-            throw new ParsingException(parser.getTokenLocation(), msg);
+    public ScoreScriptUtils.DecayGeoExp getDecayGeoExp() {
+        return decayGeoExp;
+    }
+
+    private void throwsException(XContentLocation location, String msg) {
+        if (location != null) {
+            throw new ParsingException(location, msg);
         } else {
             throw new IllegalArgumentException(msg);
         }
@@ -151,7 +254,7 @@ public class FieldScoreComputeWapper {
     public double computeScore(Object value) {
         double fieldScore;
         if (value instanceof GeoPoint) {
-            fieldScore = new ScoreScriptUtils.DecayGeoExp(getOrigin(), getScale(), getOffset(), getDecay()).decayGeoExp((GeoPoint) value);
+            fieldScore = decayGeoExp.decayGeoExp((GeoPoint) value);
         } else {
             fieldScore = this.getModifier().apply((Double) value);
         }
@@ -266,11 +369,15 @@ public class FieldScoreComputeWapper {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FieldScoreComputeWapper that = (FieldScoreComputeWapper) o;
-        return Objects.equals(fieldScore, that.fieldScore);
+        return Objects.equals(unwrap(), that.unwrap());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(fieldScore);
+        return Objects.hash(unwrap());
+    }
+
+    private Map<String, Object> unwrap() {
+        return fieldScore == null ? toMap() : fieldScore;
     }
 }
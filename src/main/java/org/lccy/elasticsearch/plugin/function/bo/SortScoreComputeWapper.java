@@ -1,11 +1,17 @@
 package org.lccy.elasticsearch.plugin.function.bo;
 
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.xcontent.XContentLocation;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
 import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.plan.SortOperator;
+import org.lccy.elasticsearch.plugin.function.plan.SortRange;
 import org.lccy.elasticsearch.plugin.util.CommonUtil;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -30,27 +36,116 @@ public class SortScoreComputeWapper {
     private Integer weight;
 
     public SortScoreComputeWapper(XContentParser parser, Map<String, Object> st) {
-        Integer weight = st.get(WEIGHT) == null ? null : Integer.parseInt(st.get(WEIGHT).toString());
-        String field = CommonUtil.toString(st.get(FIELD));
-        String type = CommonUtil.toString(st.get(TYPE));
-        String value = CommonUtil.toString(st.get(VALUE));
+        this(parser == null ? null : parser.getTokenLocation(),
+                st.get(WEIGHT) == null ? null : Integer.parseInt(st.get(WEIGHT).toString()),
+                CommonUtil.toString(st.get(FIELD)), CommonUtil.toString(st.get(TYPE)), CommonUtil.toString(st.get(VALUE)));
+        this.sortScore = st;
+    }
+
+    /**
+     * build from typed values, errors are reported at the location when it is known.
+     */
+    public SortScoreComputeWapper(XContentLocation location, Integer weight, String field, String type, String value) {
+        field = CommonUtil.toString(field);
+        type = CommonUtil.toString(type);
+        value = CommonUtil.toString(value);
         if (weight == null) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score] must has [weight], please check.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score] must has [weight], please check.");
         }
         if(CommonUtil.isEmpty(field) && !Constants.SortValueType.ANY.equals(type)) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score], When the [type] is not [any], [field] must be set.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score], When the [type] is not [any], [field] must be set.");
         }
         if(CommonUtil.isEmpty(value) && !(Constants.SortValueType.ANY.equals(type) || Constants.SortValueType.EXISTS.equals(type) || Constants.SortValueType.NOT_EXISTS.equals(type))) {
-            throwsException(parser, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score], When the [type] is not [any, exists, not_exists], [value] must be set.");
+            throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score], When the [type] is not [any, exists, not_exists], [value] must be set.");
         }
+        checkRanges(location, type, value);
 
-        this.sortScore = st;
         this.field = field;
         this.type = type;
         this.value = value;
         this.weight = weight;
     }
 
+    /**
+     * the bounds of [gt, gte, lt, lte, between] must be numbers or dates, checked per field of a multi field rule.
+     */
+    private void checkRanges(XContentLocation location, String type, String value) {
+        if (CommonUtil.isEmpty(type) || value == null) {
+            return;
+        }
+        String[] types = type.split(Constants.SPLIT);
+        String[] values = value.split(Constants.SPLIT);
+        for (int i = 0; i < types.length && i < values.length; i++) {
+            SortOperator operator = SortOperator.fromString(types[i]);
+            if (operator.isRange()) {
+                try {
+                    SortRange.of(operator, values[i]);
+                } catch (IllegalArgumentException e) {
+                    throwsException(location, ComplexFieldFunctionBuilder.NAME + " query param [categorys] [sort_score], " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * parse one rule of [sort_score] from the token stream, the parser is on the rule's start object.
+     */
+    public static SortScoreComputeWapper fromXContent(XContentParser parser) throws IOException {
+        XContentLocation location = parser.getTokenLocation();
+        Integer weight = null;
+        String field = null, type = null, value = null;
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token.isValue() || token == XContentParser.Token.VALUE_NULL) {
+                switch (currentName) {
+                    case WEIGHT:
+                        try {
+                            weight = token == XContentParser.Token.VALUE_NULL ? null : parser.intValue();
+                        } catch (IllegalArgumentException e) {
+                            throw new ParsingException(parser.getTokenLocation(), ComplexFieldFunctionBuilder.NAME + " query param [" + currentName + "] must be an integer, found [" + parser.text() + "]", e);
+                        }
+                        break;
+                    case FIELD:
+                        field = parser.textOrNull();
+                        break;
+                    case TYPE:
+                        type = parser.textOrNull();
+                        break;
+                    case VALUE:
+                        value = parser.textOrNull();
+                        break;
+                    default:
+                        // unknown params were always ignored
+                        break;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new SortScoreComputeWapper(location, weight, field, type, value);
+    }
+
+    /**
+     * @return the rule as a map, rendered from the typed values.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(WEIGHT, weight);
+        if (CommonUtil.isNotEmpty(field)) {
+            map.put(FIELD, field);
+        }
+        if (CommonUtil.isNotEmpty(type)) {
+            map.put(TYPE, type);
+        }
+        if (CommonUtil.isNotEmpty(value)) {
+            map.put(VALUE, value);
+        }
+        return map;
+    }
+
     public Integer getWeight() {
         return weight;
     }
@@ -67,9 +162,9 @@ public class SortScoreComputeWapper {
         return value;
     }
 
-    private void throwsException(XContentParser parser, String msg) {
-        if (parser != null) {
-            throw new ParsingException(parser.getTokenLocation(), msg);
+    private void throwsException(XContentLocation location, String msg) {
+        if (location != null) {
+            throw new ParsingException(location, msg);
         } else {
             throw new IllegalArgumentException(msg);
         }
@@ -101,7 +196,7 @@ public class SortScoreComputeWapper {
                     if(val == null) {
                         continue;
                     }
-                    if (expectVal.indexOf(val) >= 0) {
+                    if (inValues(expectVal, val)) {
                         return true;
                     }
                 }
@@ -117,7 +212,7 @@ public class SortScoreComputeWapper {
                     if(val == null) {
                         continue;
                     }
-                    if (expectVal.indexOf(val) >= 0) {
+                    if (inValues(expectVal, val)) {
                         return false;
                     }
                 }
@@ -135,6 +230,15 @@ public class SortScoreComputeWapper {
                     }
                 }
                 return true;
+            case Constants.SortValueType.GT:
+            case Constants.SortValueType.GTE:
+            case Constants.SortValueType.LT:
+            case Constants.SortValueType.LTE:
+            case Constants.SortValueType.BETWEEN:
+                if(values == null || values.length == 0 || expectVal == null) {
+                    return false;
+                }
+                return SortRange.of(SortOperator.fromString(type), expectVal).containsAny(Arrays.asList(values));
             case Constants.SortValueType.EQUAL:
             default:
                 if(values == null || values.length == 0 || expectVal == null) {
@@ -149,16 +253,32 @@ public class SortScoreComputeWapper {
         }
     }
 
+    /**
+     * [in] and [not_in] expect a comma separated value list.
+     */
+    private static boolean inValues(String expectVal, String val) {
+        for (String expect : expectVal.split(",")) {
+            if (expect.trim().equals(val)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SortScoreComputeWapper that = (SortScoreComputeWapper) o;
-        return Objects.equals(sortScore, that.sortScore);
+        return Objects.equals(unwrap(), that.unwrap());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(sortScore);
+        return Objects.hash(unwrap());
+    }
+
+    private Map<String, Object> unwrap() {
+        return sortScore == null ? toMap() : sortScore;
     }
 }
@@ -0,0 +1,36 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+/**
+ * The compiled rules of one category code. Codes configured together share the same rule arrays.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class CategoryPlan {
+
+    private static final FieldRule[] NO_FIELD_RULES = new FieldRule[0];
+    private static final SortRule[] NO_SORT_RULES = new SortRule[0];
+
+    private final String categoryCode;
+    private final FieldRule[] fieldRules;
+    // ordered by weight desc, the first matching rule gives the sort tier
+    private final SortRule[] sortRules;
+
+    CategoryPlan(String categoryCode, FieldRule[] fieldRules, SortRule[] sortRules) {
+        this.categoryCode = categoryCode;
+        this.fieldRules = fieldRules == null ? NO_FIELD_RULES : fieldRules;
+        this.sortRules = sortRules == null ? NO_SORT_RULES : sortRules;
+    }
+
+    public String getCategoryCode() {
+        return categoryCode;
+    }
+
+    public FieldRule[] getFieldRules() {
+        return fieldRules;
+    }
+
+    public SortRule[] getSortRules() {
+        return sortRules;
+    }
+}
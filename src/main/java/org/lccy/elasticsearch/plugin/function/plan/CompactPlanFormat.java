@@ -0,0 +1,288 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed binary encoding of a complex_field_score config for the transport layer. <br>
+ * Field names, category codes and other strings are written once in a string table and referred to by index,
+ * numbers are varints when integral, modifiers and sort types are enum ordinals, and category codes configured
+ * together are written once with their rules, so no key string is repeated per rule.
+ * <p>
+ * Decoding gives back the config as a map, equal to the parsed request for everything the plan reads.
+ * Older builds of the plugin run on the same Elasticsearch version, so the format can't be negotiated by stream version:
+ * a node advertises the format it reads in the {@link #NODE_ATTRIBUTE} node attribute, and requests are only encoded
+ * when every node of the cluster reads the format, see {@link #readByEveryNode}. A change of the layout bumps {@link #FORMAT}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class CompactPlanFormat {
+
+    private static final byte FORMAT = 1;
+
+    /**
+     * the node attribute holding the format the node reads, absent on the nodes of older plugin builds.
+     */
+    public static final String NODE_ATTRIBUTE = "complex_score_plan_format";
+
+    // sort [type] ordinals, 0 is "not set", combined types of multi fields and the range types are written as strings
+    private static final String[] SORT_TYPES = {
+            Constants.SortValueType.EQUAL, Constants.SortValueType.NOT, Constants.SortValueType.ANY, Constants.SortValueType.EXISTS,
+            Constants.SortValueType.NOT_EXISTS, Constants.SortValueType.IN, Constants.SortValueType.NOT_IN};
+    private static final int SORT_TYPE_STRING = SORT_TYPES.length + 1;
+
+    private CompactPlanFormat() {
+    }
+
+    /**
+     * @return the node attribute setting advertising the format read by this node.
+     */
+    public static Settings nodeAttribute() {
+        return Settings.builder().put("node.attr." + NODE_ATTRIBUTE, FORMAT).build();
+    }
+
+    /**
+     * @return true if every node of the cluster reads the format, a request sent to a node that doesn't is written as a map.
+     */
+    public static boolean readByEveryNode(DiscoveryNodes nodes) {
+        String format = Byte.toString(FORMAT);
+        for (DiscoveryNode node : nodes) {
+            if (!format.equals(node.getAttributes().get(NODE_ATTRIBUTE))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static BytesReference encode(CategoryScoreWapper source) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        try (BytesStreamOutput body = new BytesStreamOutput(); BytesStreamOutput out = new BytesStreamOutput()) {
+            writeNumber(body, source.getFuncScoreFactor());
+            writeNumber(body, source.getOriginalScoreFactor());
+            writeString(body, strings, source.getCategoryField());
+            writeOptionalString(body, strings, source.getFieldMode());
+            writeString(body, strings, source.getExecution());
+            body.writeBoolean(source.getSortBaseScore() != null);
+            if (source.getSortBaseScore() != null) {
+                writeNumber(body, source.getSortBaseScore());
+            }
+
+            Map<String, List<FieldScoreComputeWapper>> fieldGroups = source.getFieldScoreGroups() == null
+                    ? Collections.emptyMap() : source.getFieldScoreGroups();
+            body.writeVInt(fieldGroups.size());
+            for (Map.Entry<String, List<FieldScoreComputeWapper>> group : fieldGroups.entrySet()) {
+                writeString(body, strings, group.getKey());
+                body.writeVInt(group.getValue().size());
+                for (FieldScoreComputeWapper rule : group.getValue()) {
+                    writeString(body, strings, rule.getField());
+                    writeNumber(body, rule.getFactor());
+                    rule.getModifier().writeTo(body);
+                    writeNumber(body, rule.getWeight());
+                    writeNumber(body, rule.getAddNum());
+                    writeOptionalString(body, strings, rule.getMissing());
+                    body.writeBoolean(rule.getRequire());
+                    if (FieldScoreComputeWapper.Modifier.DECAYGEOEXP == rule.getModifier()) {
+                        writeString(body, strings, rule.getOrigin());
+                        writeString(body, strings, rule.getScale());
+                        writeString(body, strings, rule.getOffset());
+                        writeNumber(body, rule.getDecay());
+                    }
+                }
+            }
+
+            Map<String, List<SortScoreComputeWapper>> sortGroups = source.getScoreComputeGroups() == null
+                    ? Collections.emptyMap() : source.getScoreComputeGroups();
+            body.writeVInt(sortGroups.size());
+            for (Map.Entry<String, List<SortScoreComputeWapper>> group : sortGroups.entrySet()) {
+                writeString(body, strings, group.getKey());
+                body.writeVInt(group.getValue().size());
+                for (SortScoreComputeWapper rule : group.getValue()) {
+                    body.writeZLong(rule.getWeight());
+                    writeOptionalString(body, strings, rule.getField());
+                    writeSortType(body, strings, rule.getType());
+                    writeOptionalString(body, strings, rule.getValue());
+                }
+            }
+
+            out.writeByte(FORMAT);
+            out.writeVInt(strings.size());
+            for (String string : strings.keySet()) {
+                out.writeString(string);
+            }
+            body.bytes().writeTo(out);
+            return new BytesArray(BytesReference.toBytes(out.bytes()));
+        }
+    }
+
+    public static Map<String, Object> decode(StreamInput in) throws IOException {
+        byte format = in.readByte();
+        if (format != FORMAT) {
+            throw new IllegalStateException("unknown " + CompactPlanFormat.class.getSimpleName() + " format [" + format + "]");
+        }
+        String[] strings = new String[in.readVInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+
+        Map<String, Object> request = new HashMap<>();
+        request.put(CategoryScoreWapper.FUNC_SCORE_FACTOR, readNumber(in));
+        request.put(CategoryScoreWapper.ORIGINAL_SCORE_FACTOR, readNumber(in));
+        request.put(CategoryScoreWapper.CATEGORY_FIELD, readString(in, strings));
+        putIfNotNull(request, CategoryScoreWapper.FIELD_MODE, readOptionalString(in, strings));
+        request.put(CategoryScoreWapper.EXECUTION, readString(in, strings));
+        if (in.readBoolean()) {
+            request.put(CategoryScoreWapper.SORT_BASE_SCORE, readNumber(in));
+        }
+
+        int fieldGroups = in.readVInt();
+        if (fieldGroups > 0) {
+            Map<String, Object> fieldsScore = new HashMap<>();
+            for (int g = 0; g < fieldGroups; g++) {
+                String codes = readString(in, strings);
+                int size = in.readVInt();
+                List<Map<String, Object>> rules = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Map<String, Object> rule = new HashMap<>();
+                    rule.put(FieldScoreComputeWapper.FIELD, readString(in, strings));
+                    rule.put(FieldScoreComputeWapper.FACTOR, readNumber(in));
+                    FieldScoreComputeWapper.Modifier modifier = FieldScoreComputeWapper.Modifier.readFromStream(in);
+                    rule.put(FieldScoreComputeWapper.MODIFIER, modifier.toString());
+                    rule.put(FieldScoreComputeWapper.WEIGHT, readNumber(in));
+                    rule.put(FieldScoreComputeWapper.ADD_NUM, readNumber(in));
+                    putIfNotNull(rule, FieldScoreComputeWapper.MISSING, readOptionalString(in, strings));
+                    rule.put(FieldScoreComputeWapper.REQUIRE, in.readBoolean());
+                    if (FieldScoreComputeWapper.Modifier.DECAYGEOEXP == modifier) {
+                        rule.put(FieldScoreComputeWapper.ORIGIN, readString(in, strings));
+                        rule.put(FieldScoreComputeWapper.SCALE, readString(in, strings));
+                        rule.put(FieldScoreComputeWapper.OFFSET, readString(in, strings));
+                        rule.put(FieldScoreComputeWapper.DECAY, readNumber(in));
+                    }
+                    rules.add(rule);
+                }
+                fieldsScore.put(codes, rules);
+            }
+            request.put(CategoryScoreWapper.FIELDS_SCORE, fieldsScore);
+        }
+
+        int sortGroups = in.readVInt();
+        if (sortGroups > 0) {
+            Map<String, Object> sortScore = new HashMap<>();
+            for (int g = 0; g < sortGroups; g++) {
+                String codes = readString(in, strings);
+                int size = in.readVInt();
+                List<Map<String, Object>> rules = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Map<String, Object> rule = new HashMap<>();
+                    rule.put(SortScoreComputeWapper.WEIGHT, in.readZLong());
+                    putIfNotNull(rule, SortScoreComputeWapper.FIELD, readOptionalString(in, strings));
+                    putIfNotNull(rule, SortScoreComputeWapper.TYPE, readSortType(in, strings));
+                    putIfNotNull(rule, SortScoreComputeWapper.VALUE, readOptionalString(in, strings));
+                    rules.add(rule);
+                }
+                sortScore.put(codes, rules);
+            }
+            request.put(CategoryScoreWapper.SORT_SCORE, sortScore);
+        }
+        return request;
+    }
+
+    private static void writeString(StreamOutput out, Map<String, Integer> strings, String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.put(value, index);
+        }
+        out.writeVInt(index);
+    }
+
+    private static String readString(StreamInput in, String[] strings) throws IOException {
+        return strings[in.readVInt()];
+    }
+
+    // index + 1, 0 is null
+    private static void writeOptionalString(StreamOutput out, Map<String, Integer> strings, String value) throws IOException {
+        if (value == null) {
+            out.writeVInt(0);
+        } else {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            out.writeVInt(index + 1);
+        }
+    }
+
+    private static String readOptionalString(StreamInput in, String[] strings) throws IOException {
+        int index = in.readVInt();
+        return index == 0 ? null : strings[index - 1];
+    }
+
+    private static void writeSortType(StreamOutput out, Map<String, Integer> strings, String type) throws IOException {
+        if (type == null) {
+            out.writeVInt(0);
+            return;
+        }
+        for (int i = 0; i < SORT_TYPES.length; i++) {
+            if (SORT_TYPES[i].equals(type)) {
+                out.writeVInt(i + 1);
+                return;
+            }
+        }
+        out.writeVInt(SORT_TYPE_STRING);
+        writeString(out, strings, type);
+    }
+
+    private static String readSortType(StreamInput in, String[] strings) throws IOException {
+        int type = in.readVInt();
+        if (type == 0) {
+            return null;
+        } else if (type == SORT_TYPE_STRING) {
+            return readString(in, strings);
+        }
+        return SORT_TYPES[type - 1];
+    }
+
+    /**
+     * integral values (weights, add_num, most factors) are written as a zig-zag varint, others as a double.
+     */
+    private static void writeNumber(StreamOutput out, double value) throws IOException {
+        long integral = (long) value;
+        if (integral == value && Math.abs(integral) < (1L << 53)) {
+            out.writeBoolean(true);
+            out.writeZLong(integral);
+        } else {
+            out.writeBoolean(false);
+            out.writeDouble(value);
+        }
+    }
+
+    private static Object readNumber(StreamInput in) throws IOException {
+        return in.readBoolean() ? (Object) in.readZLong() : (Object) in.readDouble();
+    }
+
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+}
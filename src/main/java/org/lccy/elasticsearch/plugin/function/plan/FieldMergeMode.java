@@ -0,0 +1,66 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.lccy.elasticsearch.plugin.function.Constants;
+
+/**
+ * How the scores of the fields_score rules of a category are merged, resolved from [field_mode] at parse time. <br>
+ * A negative rule score never takes part in the merge.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public enum FieldMergeMode {
+    SUM {
+        @Override
+        protected double apply(double total, double target) {
+            return total + target;
+        }
+    },
+    MULT {
+        @Override
+        protected double apply(double total, double target) {
+            return total * target;
+        }
+    },
+    MAX {
+        @Override
+        protected double apply(double total, double target) {
+            return total < target ? target : total;
+        }
+    },
+    MIN {
+        @Override
+        protected double apply(double total, double target) {
+            return total > target ? target : total;
+        }
+    };
+
+    protected abstract double apply(double total, double target);
+
+    public double merge(double total, double target) {
+        if (target < 0) {
+            return total;
+        }
+        return apply(total, target);
+    }
+
+    /**
+     * unknown or empty mode falls back to [sum].
+     */
+    public static FieldMergeMode fromString(String fieldMode) {
+        if (fieldMode == null) {
+            return SUM;
+        }
+        switch (fieldMode) {
+            case Constants.FieldMode.MULT:
+                return MULT;
+            case Constants.FieldMode.MAX:
+                return MAX;
+            case Constants.FieldMode.MIN:
+                return MIN;
+            case Constants.FieldMode.SUM:
+            default:
+                return SUM;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.script.ScoreScriptUtils;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+/**
+ * A compiled fields_score rule, the missing value and the geo decay function are prepared at parse time.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class FieldRule {
+
+    private final FieldScoreComputeWapper source;
+    private final String field;
+    private final FieldScoreComputeWapper.Modifier modifier;
+    private final boolean geo;
+    private final double factor;
+    private final double weight;
+    private final double addNum;
+    private final boolean require;
+    private final boolean hasMissing;
+    private final double missingValue;
+    private final GeoPoint missingPoint;
+    private final ScoreScriptUtils.DecayGeoExp decayGeoExp;
+
+    FieldRule(FieldScoreComputeWapper source) {
+        this.source = source;
+        this.field = source.getField();
+        this.modifier = source.getModifier();
+        this.geo = FieldScoreComputeWapper.Modifier.DECAYGEOEXP == source.getModifier();
+        this.factor = source.getFactor();
+        this.weight = source.getWeight();
+        this.addNum = source.getAddNum();
+        this.require = source.getRequire();
+        this.hasMissing = CommonUtil.isNotEmpty(source.getMissing());
+        if (geo) {
+            this.decayGeoExp = source.getDecayGeoExp();
+            this.missingValue = 0;
+            if (hasMissing) {
+                GeoPoint missing = new GeoPoint();
+                missing.resetFromString(source.getMissing());
+                this.missingPoint = missing;
+            } else {
+                this.missingPoint = null;
+            }
+        } else {
+            this.decayGeoExp = null;
+            this.missingPoint = null;
+            this.missingValue = hasMissing ? Double.parseDouble(source.getMissing()) : 0;
+        }
+    }
+
+    private FieldRule(FieldRule other, ScoreScriptUtils.DecayGeoExp decayGeoExp) {
+        this.source = other.source;
+        this.field = other.field;
+        this.modifier = other.modifier;
+        this.geo = other.geo;
+        this.factor = other.factor;
+        this.weight = other.weight;
+        this.addNum = other.addNum;
+        this.require = other.require;
+        this.hasMissing = other.hasMissing;
+        this.missingValue = other.missingValue;
+        this.missingPoint = other.missingPoint;
+        this.decayGeoExp = decayGeoExp;
+    }
+
+    /**
+     * @return the same rule decaying from another origin, numeric rules are returned as they are.
+     */
+    FieldRule withOrigin(String origin) {
+        if (!geo) {
+            return this;
+        }
+        return new FieldRule(this, new ScoreScriptUtils.DecayGeoExp(origin, source.getScale(), source.getOffset(), source.getDecay()));
+    }
+
+    public FieldScoreComputeWapper getSource() {
+        return source;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public FieldScoreComputeWapper.Modifier getModifier() {
+        return modifier;
+    }
+
+    public boolean isGeo() {
+        return geo;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public double getAddNum() {
+        return addNum;
+    }
+
+    public boolean isRequire() {
+        return require;
+    }
+
+    public boolean hasMissing() {
+        return hasMissing;
+    }
+
+    public double getMissingValue() {
+        return missingValue;
+    }
+
+    public GeoPoint getMissingPoint() {
+        return missingPoint;
+    }
+
+    public ScoreScriptUtils.DecayGeoExp getDecayGeoExp() {
+        return decayGeoExp;
+    }
+
+    /**
+     * score of a numeric value
+     */
+    public double score(double value) {
+        return (addNum + factor * modifier.apply(value)) * weight;
+    }
+
+    /**
+     * score of a geo point
+     */
+    public double score(GeoPoint point) {
+        return (addNum + factor * decayGeoExp.decayGeoExp(point)) * weight;
+    }
+}
@@ -0,0 +1,69 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.common.hash.MessageDigests;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stable fingerprint of a complex_field_score request. <br>
+ * Map keys are sorted before hashing, so the same config gives the same fingerprint on every node
+ * whatever the key order of the request was.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class PlanFingerprint {
+
+    private PlanFingerprint() {
+    }
+
+    public static String of(Map<String, Object> request) {
+        StringBuilder canonical = new StringBuilder();
+        append(canonical, request);
+        byte[] digest = MessageDigests.sha256().digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+        return MessageDigests.toHexString(digest);
+    }
+
+    /**
+     * fingerprint of a plan derived from a compiled plan with per request overrides.
+     */
+    public static String of(String planFingerprint, Map<String, Object> overrides) {
+        Map<String, Object> key = new HashMap<>();
+        key.put("plan", planFingerprint);
+        key.put("overrides", overrides);
+        return of(key);
+    }
+
+    private static void append(StringBuilder out, Object value) {
+        if (value instanceof Map) {
+            out.append('{');
+            for (Map.Entry<?, ?> entry : new TreeMap<>((Map<?, ?>) value).entrySet()) {
+                appendString(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                append(out, entry.getValue());
+                out.append(',');
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            for (Object item : (List<?>) value) {
+                append(out, item);
+                out.append(',');
+            }
+            out.append(']');
+        } else if (value instanceof String) {
+            appendString(out, (String) value);
+        } else {
+            // numbers and booleans keep their type, so 1 and "1" differ
+            out.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"').append(value.length()).append(':').append(value).append('"');
+    }
+}
@@ -0,0 +1,367 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.script.ScoreScriptUtils;
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable typed scoring plan compiled from {@link CategoryScoreWapper} at parse time. <br>
+ * Everything that only depends on the request is prepared here, the scorer runs primitive arithmetic per doc.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScorePlan implements Accountable {
+
+    // sizes for the breaker estimate
+    private static final long BASE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(ScorePlan.class);
+    // a hash map entry: hash, key, value, next and the slot of the table
+    private static final long CATEGORY_ENTRY_RAM_BYTES = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + Integer.BYTES + 3L * RamUsageEstimator.NUM_BYTES_OBJECT_REF) + RamUsageEstimator.NUM_BYTES_OBJECT_REF
+            + RamUsageEstimator.shallowSizeOfInstance(CategoryPlan.class);
+    private static final long FIELD_RULE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(FieldRule.class);
+    private static final long GEO_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(ScoreScriptUtils.DecayGeoExp.class);
+    private static final long SORT_RULE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(SortRule.class);
+    private static final long SORT_CONDITION_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(SortCondition.class);
+
+    private final CategoryScoreWapper source;
+    private final String fingerprint;
+    // the fingerprint of the config without the per request overrides
+    private final String baseFingerprint;
+    private final boolean specialized;
+    private final boolean precomputed;
+    private final Map<String, Boolean> allFields;
+    private final double funcScoreFactor;
+    private final double originalScoreFactor;
+    private final String categoryField;
+    private final FieldMergeMode fieldMode;
+    private final double sortBaseScore;
+    private final Map<String, CategoryPlan> categoryPlans;
+    // stable hash of what the sort tiers depend on, null when no category has sort rules
+    private final String sortFingerprint;
+    // distinct tier scores including 0
+    private final int sortTierCount;
+    // stable hash of what the numeric field scores depend on, null when they can't be precomputed
+    private final String fieldFingerprint;
+
+    private ScorePlan(CategoryScoreWapper source, Map<String, CategoryPlan> categoryPlans) {
+        this.source = source;
+        this.fingerprint = source.fingerprint();
+        this.baseFingerprint = fingerprint;
+        this.specialized = Constants.ExecutionMode.SPECIALIZED.equals(source.getExecution());
+        this.precomputed = Constants.ExecutionMode.PRECOMPUTED.equals(source.getExecution());
+        Map<String, Boolean> allFields = new HashMap<>(source.getAllFiled());
+        if (precomputed) {
+            // written by the ingest processor, a doc without them keeps its original score
+            allFields.putIfAbsent(Constants.PrecomputedField.FIELD_SCORE, false);
+            allFields.putIfAbsent(Constants.PrecomputedField.SORT_TIER, false);
+        }
+        this.allFields = Collections.unmodifiableMap(allFields);
+        this.funcScoreFactor = source.getFuncScoreFactor();
+        this.originalScoreFactor = source.getOriginalScoreFactor();
+        this.categoryField = source.getCategoryField();
+        this.fieldMode = FieldMergeMode.fromString(source.getFieldMode());
+        this.sortBaseScore = source.getSortBaseScore() == null ? 0 : source.getSortBaseScore();
+        this.categoryPlans = Collections.unmodifiableMap(categoryPlans);
+        Set<Double> tierScores = new HashSet<>();
+        tierScores.add(0d);
+        for (CategoryPlan categoryPlan : categoryPlans.values()) {
+            for (SortRule sortRule : categoryPlan.getSortRules()) {
+                tierScores.add(sortRule.getTierScore());
+            }
+        }
+        this.sortTierCount = tierScores.size();
+        if (source.getScoreComputeGroups() == null) {
+            this.sortFingerprint = null;
+        } else {
+            Map<String, Object> typed = source.toMap();
+            Map<String, Object> sortKey = new HashMap<>();
+            sortKey.put(CategoryScoreWapper.CATEGORY_FIELD, typed.get(CategoryScoreWapper.CATEGORY_FIELD));
+            sortKey.put(CategoryScoreWapper.SORT_BASE_SCORE, typed.get(CategoryScoreWapper.SORT_BASE_SCORE));
+            sortKey.put(CategoryScoreWapper.SORT_SCORE, typed.get(CategoryScoreWapper.SORT_SCORE));
+            this.sortFingerprint = PlanFingerprint.of(sortKey);
+        }
+        this.fieldFingerprint = precomputable(categoryPlans) ? fieldFingerprint(source) : null;
+    }
+
+    private ScorePlan(ScorePlan base, String fingerprint, double funcScoreFactor, double originalScoreFactor, Map<String, CategoryPlan> categoryPlans) {
+        this.source = base.source;
+        this.fingerprint = fingerprint;
+        this.baseFingerprint = base.baseFingerprint;
+        this.specialized = base.specialized;
+        this.precomputed = base.precomputed;
+        this.allFields = base.allFields;
+        this.funcScoreFactor = funcScoreFactor;
+        this.originalScoreFactor = originalScoreFactor;
+        this.categoryField = base.categoryField;
+        this.fieldMode = base.fieldMode;
+        this.sortBaseScore = base.sortBaseScore;
+        this.categoryPlans = categoryPlans;
+        // overrides never change the sort rules
+        this.sortFingerprint = base.sortFingerprint;
+        this.sortTierCount = base.sortTierCount;
+        // only geo origins are overridden, they are never precomputed
+        this.fieldFingerprint = base.fieldFingerprint;
+    }
+
+    /**
+     * numeric rules can be merged ahead of the query unless a required field without missing value fails on a doc.
+     */
+    private static boolean precomputable(Map<String, CategoryPlan> categoryPlans) {
+        boolean numeric = false;
+        for (CategoryPlan categoryPlan : categoryPlans.values()) {
+            for (FieldRule fieldRule : categoryPlan.getFieldRules()) {
+                if (fieldRule.isGeo()) {
+                    continue;
+                }
+                if (fieldRule.isRequire() && !fieldRule.hasMissing()) {
+                    return false;
+                }
+                numeric = true;
+            }
+        }
+        return numeric;
+    }
+
+    private static String fieldFingerprint(CategoryScoreWapper source) {
+        Map<String, Object> typed = source.toMap();
+        Map<String, Object> fieldKey = new HashMap<>();
+        fieldKey.put(CategoryScoreWapper.CATEGORY_FIELD, typed.get(CategoryScoreWapper.CATEGORY_FIELD));
+        fieldKey.put(CategoryScoreWapper.FIELD_MODE, typed.get(CategoryScoreWapper.FIELD_MODE));
+        fieldKey.put(CategoryScoreWapper.FIELDS_SCORE, typed.get(CategoryScoreWapper.FIELDS_SCORE));
+        return PlanFingerprint.of(fieldKey);
+    }
+
+    /**
+     * compile the parsed request, rules shared by several category codes are compiled once.
+     */
+    public static ScorePlan compile(CategoryScoreWapper source) {
+        double sortBaseScore = source.getSortBaseScore() == null ? 0 : source.getSortBaseScore();
+        Map<List<FieldScoreComputeWapper>, FieldRule[]> fieldRules = new IdentityHashMap<>();
+        Map<List<SortScoreComputeWapper>, SortRule[]> sortRules = new IdentityHashMap<>();
+        Map<String, CategoryPlan> categoryPlans = new HashMap<>();
+        for (String cateCode : source.getCategoryCodes()) {
+            // blank code never matches, a doc without category only keeps the original score
+            if (CommonUtil.isEmpty(cateCode)) {
+                continue;
+            }
+            List<FieldScoreComputeWapper> fieldScores = source.getFieldScoreWappers(cateCode);
+            FieldRule[] fields = null;
+            if (!CommonUtil.isEmpty(fieldScores)) {
+                fields = fieldRules.get(fieldScores);
+                if (fields == null) {
+                    fields = new FieldRule[fieldScores.size()];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = new FieldRule(fieldScores.get(i));
+                    }
+                    fieldRules.put(fieldScores, fields);
+                }
+            }
+            List<SortScoreComputeWapper> sortScores = source.getScoreComputeWappers(cateCode);
+            SortRule[] sorts = null;
+            if (!CommonUtil.isEmpty(sortScores)) {
+                sorts = sortRules.get(sortScores);
+                if (sorts == null) {
+                    sorts = new SortRule[sortScores.size()];
+                    for (int i = 0; i < sorts.length; i++) {
+                        sorts[i] = new SortRule(sortScores.get(i), sortBaseScore);
+                    }
+                    sortRules.put(sortScores, sorts);
+                }
+            }
+            categoryPlans.put(cateCode, new CategoryPlan(cateCode, fields, sorts));
+        }
+        return new ScorePlan(source, categoryPlans);
+    }
+
+    /**
+     * derive a plan with per request overrides, only the geo rules are rebuilt when [origin] is given,
+     * every other rule is shared with this plan.
+     *
+     * @param overrides [origin], [func_score_factor] and [original_score_factor]
+     */
+    public ScorePlan withOverrides(Map<String, Object> overrides) {
+        if (CommonUtil.isEmpty(overrides)) {
+            return this;
+        }
+        double funcScoreFactor = overrides.get(CategoryScoreWapper.FUNC_SCORE_FACTOR) == null
+                ? this.funcScoreFactor : Double.parseDouble(overrides.get(CategoryScoreWapper.FUNC_SCORE_FACTOR).toString());
+        double originalScoreFactor = overrides.get(CategoryScoreWapper.ORIGINAL_SCORE_FACTOR) == null
+                ? this.originalScoreFactor : Double.parseDouble(overrides.get(CategoryScoreWapper.ORIGINAL_SCORE_FACTOR).toString());
+        if (funcScoreFactor < 0 || originalScoreFactor < 0) {
+            throw new IllegalArgumentException("param [original_score_factor] or [func_score_factor] must be greater than 0.");
+        }
+
+        Map<String, CategoryPlan> categoryPlans = this.categoryPlans;
+        String origin = CommonUtil.toString(overrides.get(FieldScoreComputeWapper.ORIGIN));
+        if (CommonUtil.isNotEmpty(origin)) {
+            Map<FieldRule[], FieldRule[]> moved = new IdentityHashMap<>();
+            Map<String, CategoryPlan> overridden = new HashMap<>();
+            for (Map.Entry<String, CategoryPlan> entry : this.categoryPlans.entrySet()) {
+                CategoryPlan categoryPlan = entry.getValue();
+                FieldRule[] fields = moved.get(categoryPlan.getFieldRules());
+                if (fields == null) {
+                    fields = new FieldRule[categoryPlan.getFieldRules().length];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = categoryPlan.getFieldRules()[i].withOrigin(origin);
+                    }
+                    moved.put(categoryPlan.getFieldRules(), fields);
+                }
+                overridden.put(entry.getKey(), new CategoryPlan(entry.getKey(), fields, categoryPlan.getSortRules()));
+            }
+            categoryPlans = Collections.unmodifiableMap(overridden);
+        }
+
+        return new ScorePlan(this, PlanFingerprint.of(fingerprint, overrides), funcScoreFactor, originalScoreFactor, categoryPlans);
+    }
+
+    public CategoryScoreWapper getSource() {
+        return source;
+    }
+
+    /**
+     * @return stable hash of the request, equal configs have the same fingerprint on every node.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the config the plan was compiled from, the same for every override of a profile.
+     * What depends only on the rules and the fields is keyed on it.
+     */
+    public String getBaseFingerprint() {
+        return baseFingerprint;
+    }
+
+    /**
+     * @return true if the request asks for [execution: specialized].
+     */
+    public boolean isSpecialized() {
+        return specialized;
+    }
+
+    /**
+     * @return true if the request asks for [execution: precomputed], the numeric field score and the sort tier are
+     * read from the fields written by the ingest processor.
+     */
+    public boolean isPrecomputed() {
+        return precomputed;
+    }
+
+    public double getFuncScoreFactor() {
+        return funcScoreFactor;
+    }
+
+    public double getOriginalScoreFactor() {
+        return originalScoreFactor;
+    }
+
+    public String getCategoryField() {
+        return categoryField;
+    }
+
+    public FieldMergeMode getFieldMode() {
+        return fieldMode;
+    }
+
+    public double getSortBaseScore() {
+        return sortBaseScore;
+    }
+
+    public Map<String, CategoryPlan> getCategoryPlans() {
+        return categoryPlans;
+    }
+
+    /**
+     * @return stable hash of the category field, sort_base_score and sort_score, null when there is no sort rule.
+     */
+    public String getSortFingerprint() {
+        return sortFingerprint;
+    }
+
+    /**
+     * @return the number of distinct sort tier scores, "no rule matched" included.
+     */
+    public int getSortTierCount() {
+        return sortTierCount;
+    }
+
+    /**
+     * @return stable hash of the category field, field_mode and fields_score, null when the numeric field scores
+     * can't be precomputed.
+     */
+    public String getFieldFingerprint() {
+        return fieldFingerprint;
+    }
+
+    /**
+     * @return every field the plan reads, the value tells whether the field's mapping must exist.
+     */
+    public Map<String, Boolean> getAllFields() {
+        return allFields;
+    }
+
+    /**
+     * @return the estimated heap held by the plan, the categories of a group share their rules. The config a plan
+     * was compiled from is counted with the plan, the overrides of a plan share it with their base plan.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = BASE_RAM_BYTES;
+        Map<Object, Boolean> rules = new IdentityHashMap<>();
+        for (CategoryPlan categoryPlan : categoryPlans.values()) {
+            bytes += CATEGORY_ENTRY_RAM_BYTES;
+            FieldRule[] fieldRules = categoryPlan.getFieldRules();
+            if (rules.put(fieldRules, Boolean.TRUE) == null) {
+                bytes += sizeOfArray(fieldRules.length);
+                for (FieldRule fieldRule : fieldRules) {
+                    bytes += FIELD_RULE_RAM_BYTES + (fieldRule.isGeo() ? GEO_RAM_BYTES : 0);
+                }
+            }
+            SortRule[] sortRules = categoryPlan.getSortRules();
+            if (rules.put(sortRules, Boolean.TRUE) == null) {
+                bytes += sizeOfArray(sortRules.length);
+                for (SortRule sortRule : sortRules) {
+                    bytes += SORT_RULE_RAM_BYTES + sizeOfArray(sortRule.getConditions().length)
+                            + SORT_CONDITION_RAM_BYTES * sortRule.getConditions().length;
+                }
+            }
+        }
+        if (fingerprint.equals(baseFingerprint)) {
+            bytes += source.ramBytesUsed();
+        }
+        return bytes;
+    }
+
+    private static long sizeOfArray(int length) {
+        return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ScorePlan that = (ScorePlan) o;
+        return Objects.equals(fingerprint, that.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
+    }
+}
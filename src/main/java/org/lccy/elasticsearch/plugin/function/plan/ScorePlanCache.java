@@ -0,0 +1,80 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.lccy.elasticsearch.plugin.function.AccountedCache;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreCircuitBreaker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level LRU cache from plan fingerprint to compiled plan. <br>
+ * Requests with a known fingerprint reuse the plan instead of re-parsing and re-validating the config.
+ * A cached plan is charged to the {@link ComplexScoreCircuitBreaker}, which may evict the least recently used plans,
+ * see {@link AccountedCache}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScorePlanCache {
+
+    /**
+     * max number of compiled plans kept by the node, 0 disables the cache.
+     */
+    public static final Setting<Integer> PLAN_CACHE_SIZE = Setting.intSetting("complex_score.plan_cache.size", 256, 0, Setting.Property.NodeScope);
+
+    private final AccountedCache<String, ScorePlan> cache;
+
+    public ScorePlanCache(Settings settings, ComplexScoreCircuitBreaker breaker) {
+        this.cache = new AccountedCache<>(PLAN_CACHE_SIZE.get(settings), false, breaker, "score_plan");
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the config
+     * @param compiler    parse and compile the config, only called on a cache miss
+     */
+    public ScorePlan getOrCompile(String fingerprint, CheckedSupplier<ScorePlan, IOException> compiler) throws IOException {
+        if (!cache.isEnabled()) {
+            return compiler.get();
+        }
+        try {
+            // the size of a plan is only known once the config is parsed, the plan is charged once compiled
+            return cache.computeIfAbsent(fingerprint, 0, key -> compiler.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                // keep parse errors as they are, so the user sees the validation message
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchException("Failed to compile " + ComplexFieldFunctionBuilder.NAME + " plan", cause);
+        }
+    }
+
+    public long count() {
+        return cache.count();
+    }
+
+    public long hits() {
+        return cache.hits();
+    }
+
+    public long misses() {
+        return cache.misses();
+    }
+
+    /**
+     * @return the plans evicted above the cache size or for the breaker.
+     */
+    public long evictions() {
+        return cache.evictions();
+    }
+}
@@ -0,0 +1,92 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import java.util.Collection;
+
+/**
+ * One field condition of a sort_score rule, multi-field rules are split into conditions at parse time.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SortCondition {
+
+    private final String field;
+    private final SortOperator operator;
+    // null when the rule sets no value for this condition
+    private final String[] expectValues;
+    // the parsed bounds of a range operator, null otherwise
+    private final SortRange range;
+
+    public SortCondition(String field, SortOperator operator, String value) {
+        this.field = field;
+        this.operator = operator;
+        if (value == null) {
+            this.expectValues = null;
+        } else if (operator.isList()) {
+            String[] values = value.split(",");
+            for (int i = 0; i < values.length; i++) {
+                values[i] = values[i].trim();
+            }
+            this.expectValues = values;
+        } else {
+            this.expectValues = new String[]{value};
+        }
+        this.range = value != null && operator.isRange() ? SortRange.of(operator, value) : null;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public SortOperator getOperator() {
+        return operator;
+    }
+
+    public boolean hasExpect() {
+        return expectValues != null;
+    }
+
+    public String[] getExpectValues() {
+        return expectValues;
+    }
+
+    public SortRange getRange() {
+        return range;
+    }
+
+    /**
+     * match the values of a doc's source, same as matching its ordinals.
+     *
+     * @param values the values of the field, empty when the doc has none
+     */
+    public boolean matches(Collection<String> values) {
+        switch (operator) {
+            case EXISTS:
+                return !values.isEmpty();
+            case NOT_EXISTS:
+                return values.isEmpty();
+            case NOT:
+            case NOT_IN:
+                return hasExpect() && (values.isEmpty() || !containsAny(values));
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+            case BETWEEN:
+                return range != null && range.containsAny(values);
+            case IN:
+            case EQUAL:
+            default:
+                return hasExpect() && !values.isEmpty() && containsAny(values);
+        }
+    }
+
+    private boolean containsAny(Collection<String> values) {
+        for (String expect : expectValues) {
+            if (values.contains(expect)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,70 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+/**
+ * The [type] of one sort_score condition, resolved at parse time. <br>
+ * [any] is handled at rule level, see {@link SortRule#isAny()}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public enum SortOperator {
+    EQUAL, NOT, EXISTS, NOT_EXISTS, IN, NOT_IN, GT, GTE, LT, LTE, BETWEEN;
+
+    /**
+     * @return true if the operator tests the presence of the field only.
+     */
+    public boolean isPresence() {
+        return this == EXISTS || this == NOT_EXISTS;
+    }
+
+    /**
+     * @return true if the operator expects a comma separated value list.
+     */
+    public boolean isList() {
+        return this == IN || this == NOT_IN;
+    }
+
+    /**
+     * @return true if the operator compares the numeric values of the field, see {@link SortRange}.
+     */
+    public boolean isRange() {
+        return this == GT || this == GTE || this == LT || this == LTE || this == BETWEEN;
+    }
+
+    /**
+     * empty or unknown type falls back to [equal].
+     */
+    public static SortOperator fromString(String type) {
+        if (CommonUtil.isEmpty(type)) {
+            return EQUAL;
+        }
+        switch (type) {
+            case Constants.SortValueType.EXISTS:
+                return EXISTS;
+            case Constants.SortValueType.NOT_EXISTS:
+                return NOT_EXISTS;
+            case Constants.SortValueType.IN:
+                return IN;
+            case Constants.SortValueType.NOT_IN:
+                return NOT_IN;
+            case Constants.SortValueType.NOT:
+                return NOT;
+            case Constants.SortValueType.GT:
+                return GT;
+            case Constants.SortValueType.GTE:
+                return GTE;
+            case Constants.SortValueType.LT:
+                return LT;
+            case Constants.SortValueType.LTE:
+                return LTE;
+            case Constants.SortValueType.BETWEEN:
+                return BETWEEN;
+            case Constants.SortValueType.EQUAL:
+            default:
+                return EQUAL;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.common.time.DateFormatters;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * The bounds of a [gt], [gte], [lt], [lte] or [between] sort_score condition, parsed once at compile time. <br>
+ * A bound is a number or a date, dates are compared as epoch millis like the doc values of a date field.
+ * Exclusive bounds are moved to the next double, so a value matches when it's in [min, max].
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SortRange {
+
+    private static final DateFormatter DATE_FORMATTER = DateFormatter.forPattern("strict_date_optional_time");
+
+    private final double min;
+    private final double max;
+
+    private SortRange(double min, double max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param value one bound, [between] expects [from,to] with both bounds included
+     */
+    public static SortRange of(SortOperator operator, String value) {
+        switch (operator) {
+            case GT:
+                return new SortRange(Math.nextUp(parseBound(value)), Double.POSITIVE_INFINITY);
+            case GTE:
+                return new SortRange(parseBound(value), Double.POSITIVE_INFINITY);
+            case LT:
+                return new SortRange(Double.NEGATIVE_INFINITY, Math.nextDown(parseBound(value)));
+            case LTE:
+                return new SortRange(Double.NEGATIVE_INFINITY, parseBound(value));
+            case BETWEEN:
+                String[] bounds = value.split(",");
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException(String.format(Locale.ROOT, "sort_score type [between] expects [from,to], found [%s].", value));
+                }
+                double from = parseBound(bounds[0]), to = parseBound(bounds[1]);
+                if (from > to) {
+                    throw new IllegalArgumentException(String.format(Locale.ROOT, "sort_score type [between] [from] must not be greater than [to], found [%s].", value));
+                }
+                return new SortRange(from, to);
+            default:
+                throw new IllegalArgumentException("sort_score type [" + operator + "] is not a range.");
+        }
+    }
+
+    /**
+     * @return the number, or the epoch millis of the date.
+     */
+    public static double parseBound(String value) {
+        String text = value.trim();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            // not a number, try a date
+        }
+        try {
+            return DateFormatters.from(DATE_FORMATTER.parse(text)).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "sort_score range value [%s] must be a number or a date.", value), e);
+        }
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean contains(double value) {
+        return value >= min && value <= max;
+    }
+
+    /**
+     * match the values of a doc's source, a value that is neither a number nor a date never matches.
+     */
+    public boolean containsAny(Collection<String> values) {
+        for (String value : values) {
+            double parsed;
+            try {
+                parsed = parseBound(value);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (contains(parsed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
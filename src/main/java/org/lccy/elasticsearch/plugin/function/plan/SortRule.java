@@ -0,0 +1,81 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.bo.SortScoreComputeWapper;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * A compiled sort_score rule, the doc matches when every condition matches.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class SortRule {
+
+    private final SortScoreComputeWapper source;
+    private final int weight;
+    // weight * sort_base_score, a negative tier never wins the sort merge
+    private final double tierScore;
+    private final boolean any;
+    private final SortCondition[] conditions;
+
+    SortRule(SortScoreComputeWapper source, double sortBaseScore) {
+        this.source = source;
+        this.weight = source.getWeight();
+        this.tierScore = Math.max(0, source.getWeight() * sortBaseScore);
+        this.any = Constants.SortValueType.ANY.equals(source.getType());
+        String field = source.getField();
+        if (any) {
+            this.conditions = new SortCondition[0];
+        } else if (field.indexOf(Constants.SPLIT) > 0) {
+            // 多个字段时，按照Constants.SPLIT后处理
+            String[] fields = field.split(Constants.SPLIT);
+            String[] types = source.getType().split(Constants.SPLIT);
+            String[] values = source.getValue().split(Constants.SPLIT);
+            this.conditions = new SortCondition[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                String type = types.length > i ? types[i] : null;
+                String value = values.length > i ? values[i] : null;
+                this.conditions[i] = new SortCondition(fields[i], SortOperator.fromString(type), value);
+            }
+        } else {
+            this.conditions = new SortCondition[]{new SortCondition(field, SortOperator.fromString(source.getType()), source.getValue())};
+        }
+    }
+
+    public SortScoreComputeWapper getSource() {
+        return source;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public double getTierScore() {
+        return tierScore;
+    }
+
+    public boolean isAny() {
+        return any;
+    }
+
+    public SortCondition[] getConditions() {
+        return conditions;
+    }
+
+    /**
+     * match the values of a doc's source, used when the tier is computed at index time.
+     *
+     * @param values the values of a field of the doc, empty when the doc has none
+     */
+    public boolean matches(Function<String, Collection<String>> values) {
+        for (SortCondition condition : conditions) {
+            if (!condition.matches(values.apply(condition.getField()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+package org.lccy.elasticsearch.plugin.ingest;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.plan.CategoryPlan;
+import org.lccy.elasticsearch.plugin.function.plan.FieldRule;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRange;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@code complex_score} ingest processor, writes the static parts of a complex_field_score config into the doc:
+ * the merged score of the numeric fields_score rules into [complex_field_score] and the sort tier into [complex_sort_tier].
+ * A query with [execution: precomputed] reads them instead of evaluating the rules, geo rules are still computed at query time.
+ * <pre>
+ * "complex_score": {"profile": "goods_default"}
+ * "complex_score": {"config": {the complex_field_score params}}
+ * </pre>
+ * A doc whose category is not configured has both fields removed, a score written for its previous category is never read. <br>
+ * A numeric rule reads a number or a date in the default date format, a date as its epoch millis like the doc values of a date field.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "complex_score";
+
+    private final String profile;
+    private final ScorePlan plan;
+    private final ComplexScoreServices services;
+
+    ComplexScoreProcessor(String tag, String profile, ScorePlan plan, ComplexScoreServices services) {
+        super(tag);
+        this.profile = profile;
+        this.plan = plan;
+        this.services = services;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        // a profile is resolved per doc, so a profile update applies to the following docs
+        ScorePlan plan = profile == null ? this.plan : services.getProfiles().resolve(Collections.singletonMap(ScoringProfile.PROFILE, profile));
+        String category = firstTerm(values(document, plan.getCategoryField()));
+        CategoryPlan categoryPlan = category == null ? null : plan.getCategoryPlans().get(category);
+        if (categoryPlan == null) {
+            removeField(document, Constants.PrecomputedField.FIELD_SCORE);
+            removeField(document, Constants.PrecomputedField.SORT_TIER);
+            return document;
+        }
+
+        double fieldScoreTotal = 0;
+        for (FieldRule fieldRule : categoryPlan.getFieldRules()) {
+            if (fieldRule.isGeo()) {
+                continue;
+            }
+            Double value = firstNumber(fieldRule.getField(), values(document, fieldRule.getField()));
+            if (value == null) {
+                if (!fieldRule.isRequire()) {
+                    continue;
+                }
+                if (!fieldRule.hasMissing()) {
+                    throw new IllegalArgumentException("require field " + fieldRule.getField() + "must has a value or has a missing value");
+                }
+                value = fieldRule.getMissingValue();
+            }
+            fieldScoreTotal = plan.getFieldMode().merge(fieldScoreTotal, fieldRule.score(value));
+        }
+
+        double sortScoreTotal = 0;
+        Map<String, List<String>> sortValues = new HashMap<>();
+        for (SortRule sortRule : categoryPlan.getSortRules()) {
+            if (sortRule.matches(field -> sortValues.computeIfAbsent(field, f -> values(document, f)))) {
+                sortScoreTotal = sortRule.getTierScore();
+                break;
+            }
+        }
+
+        document.setFieldValue(Constants.PrecomputedField.FIELD_SCORE, fieldScoreTotal);
+        document.setFieldValue(Constants.PrecomputedField.SORT_TIER, sortScoreTotal);
+        return document;
+    }
+
+    /**
+     * @return the values of the field as indexed in a keyword field, empty if the doc has none.
+     */
+    private static List<String> values(IngestDocument document, String field) {
+        Object value = document.getFieldValue(field, Object.class, true);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (item != null) {
+                    values.add(item.toString());
+                }
+            }
+        } else {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    /**
+     * @return the smallest term, the first ordinal of the doc values.
+     */
+    private static String firstTerm(List<String> values) {
+        BytesRef first = null;
+        for (String value : values) {
+            BytesRef term = new BytesRef(value);
+            if (first == null || term.compareTo(first) < 0) {
+                first = term;
+            }
+        }
+        return first == null ? null : first.utf8ToString();
+    }
+
+    /**
+     * @return the smallest value, the first value of the numeric doc values.
+     */
+    private static Double firstNumber(String field, List<String> values) {
+        Double first = null;
+        for (String value : values) {
+            double number;
+            try {
+                number = SortRange.parseBound(value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT, "[%s] field [%s] value [%s] must be a number or a date.",
+                        TYPE, field, value), e);
+            }
+            if (first == null || number < first) {
+                first = number;
+            }
+        }
+        return first;
+    }
+
+    private static void removeField(IngestDocument document, String field) {
+        if (document.hasField(field)) {
+            document.removeField(field);
+        }
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        private final ComplexScoreServices services;
+
+        public Factory(ComplexScoreServices services) {
+            this.services = services;
+        }
+
+        @Override
+        public ComplexScoreProcessor create(Map<String, Processor.Factory> processorFactories, String tag, Map<String, Object> config) {
+            String profile = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, ScoringProfile.PROFILE);
+            Map<String, Object> inline = ConfigurationUtils.readOptionalMap(TYPE, tag, config, ScoringProfile.CONFIG);
+            if ((profile == null) == (inline == null)) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, ScoringProfile.PROFILE, "either [profile] or [config] must be set");
+            }
+            if (profile != null) {
+                // the profiles may not be applied yet when the pipelines are loaded, a missing profile fails at execute
+                return new ComplexScoreProcessor(tag, profile, null, services);
+            }
+            ScorePlan plan;
+            try {
+                plan = ScorePlan.compile(new CategoryScoreWapper(null, inline));
+            } catch (RuntimeException e) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, ScoringProfile.CONFIG, e.getMessage());
+            }
+            return new ComplexScoreProcessor(tag, null, plan, services);
+        }
+    }
+}
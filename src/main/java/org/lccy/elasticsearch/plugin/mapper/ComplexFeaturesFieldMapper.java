@@ -0,0 +1,427 @@
+package org.lccy.elasticsearch.plugin.mapper;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.geo.GeoEncodingUtils;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.geo.GeoUtils;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.query.QueryShardContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@code complex_features} field, packs the ranking features of a doc into one binary doc value,
+ * so a complex_field_score function reads every feature of a doc with a single doc values seek.
+ * <pre>
+ * "features": {
+ *     "type": "complex_features",
+ *     "features": {"price": "double", "category": "keyword", "location": "geo_point"}
+ * }
+ * </pre>
+ * A doc sets it as an object, {@code "features": {"price": 12.5, "category": ["phone", "5g"], "location": "31.23,121.47"}},
+ * and the rules refer to a feature by its path, {@code features.price}. <br>
+ * Per doc: a vlong mask of the present features, then for each present feature in name order a vint count and the values
+ * in ascending order, 8 bytes per double, the 64 bits murmur3 hash of a keyword, or the encoded lat and lon of a point.
+ * The features can't be changed once the field is created.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexFeaturesFieldMapper extends FieldMapper {
+
+    public static final String CONTENT_TYPE = "complex_features";
+    public static final String FEATURES = "features";
+    // the presence mask of a doc is a vlong, which must not be negative, so the sign bit is never a feature
+    public static final int MAX_FEATURES = 63;
+
+    public enum FeatureType {
+        DOUBLE("double"),
+        KEYWORD("keyword"),
+        GEO_POINT("geo_point");
+
+        private final String type;
+
+        FeatureType(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public static FeatureType of(String type) {
+            for (FeatureType featureType : values()) {
+                if (featureType.type.equals(type)) {
+                    return featureType;
+                }
+            }
+            throw new IllegalArgumentException("[" + CONTENT_TYPE + "] feature type [" + type + "] is not supported, must be one of [double, keyword, geo_point]");
+        }
+    }
+
+    public static class Defaults {
+        public static final MappedFieldType FIELD_TYPE = new FeaturesFieldType();
+
+        static {
+            FIELD_TYPE.setTokenized(false);
+            FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+            FIELD_TYPE.setHasDocValues(true);
+            FIELD_TYPE.setOmitNorms(true);
+            FIELD_TYPE.freeze();
+        }
+    }
+
+    public static class Builder extends FieldMapper.Builder<Builder, ComplexFeaturesFieldMapper> {
+
+        public Builder(String name) {
+            super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+            builder = this;
+        }
+
+        @Override
+        public FeaturesFieldType fieldType() {
+            return (FeaturesFieldType) super.fieldType();
+        }
+
+        public Builder features(Map<String, FeatureType> features) {
+            fieldType().setFeatures(features);
+            return this;
+        }
+
+        @Override
+        public ComplexFeaturesFieldMapper build(BuilderContext context) {
+            setupFieldType(context);
+            return new ComplexFeaturesFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+                    multiFieldsBuilder.build(this, context), copyTo);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
+            Builder builder = new Builder(name);
+            for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, Object> entry = iterator.next();
+                if (FEATURES.equals(entry.getKey())) {
+                    if (!(entry.getValue() instanceof Map)) {
+                        throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name + "] [features] must be an object of feature name to type");
+                    }
+                    Map<String, FeatureType> features = new TreeMap<>();
+                    for (Map.Entry<String, Object> feature : XContentMapValues.nodeMapValue(entry.getValue(), FEATURES).entrySet()) {
+                        try {
+                            features.put(feature.getKey(), FeatureType.of(XContentMapValues.nodeStringValue(feature.getValue(), null)));
+                        } catch (IllegalArgumentException e) {
+                            throw new MapperParsingException(e.getMessage());
+                        }
+                    }
+                    builder.features(features);
+                    iterator.remove();
+                }
+            }
+            if (builder.fieldType().names.length == 0) {
+                throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name + "] requires [features]");
+            }
+            if (builder.fieldType().names.length > MAX_FEATURES) {
+                throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name + "] can't have more than [" + MAX_FEATURES + "] features");
+            }
+            return builder;
+        }
+    }
+
+    public static final class FeaturesFieldType extends MappedFieldType {
+
+        // in name order, the index of a feature is its bit in the presence mask
+        private String[] names = new String[0];
+        private FeatureType[] types = new FeatureType[0];
+
+        public FeaturesFieldType() {
+            setIndexAnalyzer(Lucene.KEYWORD_ANALYZER);
+            setSearchAnalyzer(Lucene.KEYWORD_ANALYZER);
+        }
+
+        protected FeaturesFieldType(FeaturesFieldType ref) {
+            super(ref);
+            this.names = ref.names;
+            this.types = ref.types;
+        }
+
+        void setFeatures(Map<String, FeatureType> features) {
+            checkIfFrozen();
+            this.names = features.keySet().toArray(new String[0]);
+            this.types = features.values().toArray(new FeatureType[0]);
+        }
+
+        /**
+         * @return the index of the feature, -1 if the field has no such feature.
+         */
+        public int featureIndex(String feature) {
+            int index = Arrays.binarySearch(names, feature);
+            return index >= 0 ? index : -1;
+        }
+
+        public FeatureType featureType(int index) {
+            return types[index];
+        }
+
+        public int featureCount() {
+            return names.length;
+        }
+
+        @Override
+        public FeaturesFieldType clone() {
+            return new FeaturesFieldType(this);
+        }
+
+        @Override
+        public String typeName() {
+            return CONTENT_TYPE;
+        }
+
+        @Override
+        public Query existsQuery(QueryShardContext context) {
+            return new DocValuesFieldExistsQuery(name());
+        }
+
+        @Override
+        public Query termQuery(Object value, QueryShardContext context) {
+            throw new IllegalArgumentException("[" + CONTENT_TYPE + "] field [" + name() + "] can't be queried, it's only read by complex_field_score");
+        }
+
+        @Override
+        public void checkCompatibility(MappedFieldType other, List<String> conflicts) {
+            super.checkCompatibility(other, conflicts);
+            FeaturesFieldType otherType = (FeaturesFieldType) other;
+            if (!Arrays.equals(names, otherType.names) || !Arrays.equals(types, otherType.types)) {
+                conflicts.add("mapper [" + name() + "] has different [features], the features can't be changed");
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) {
+                return false;
+            }
+            FeaturesFieldType that = (FeaturesFieldType) o;
+            return Arrays.equals(names, that.names) && Arrays.equals(types, that.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(super.hashCode(), Arrays.hashCode(names), Arrays.hashCode(types));
+        }
+    }
+
+    private ComplexFeaturesFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+                                       Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+        super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+    }
+
+    @Override
+    public FeaturesFieldType fieldType() {
+        return (FeaturesFieldType) super.fieldType();
+    }
+
+    @Override
+    protected ComplexFeaturesFieldMapper clone() {
+        return (ComplexFeaturesFieldMapper) super.clone();
+    }
+
+    /**
+     * @return the 64 bits hash a keyword value is packed as.
+     */
+    public static long hash(BytesRef term) {
+        return MurmurHash3.hash128(term.bytes, term.offset, term.length, 0, new MurmurHash3.Hash128()).h1;
+    }
+
+    @Override
+    public void parse(ParseContext context) throws IOException {
+        // Don't use parseCreateField as we need to parse the object
+        if (context.externalValueSet()) {
+            throw new IllegalArgumentException("[" + CONTENT_TYPE + "] field [" + name() + "] can't be used in multi-fields or copy_to");
+        }
+        XContentParser parser = context.parser();
+        if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("[" + CONTENT_TYPE + "] field [" + name() + "] must be a json object, expected a START_OBJECT but got: " + parser.currentToken());
+        }
+        if (context.doc().getByKey(name()) != null) {
+            throw new IllegalArgumentException("[" + CONTENT_TYPE + "] field [" + name() + "] can't be multi-valued");
+        }
+
+        FeaturesFieldType fieldType = fieldType();
+        Object[] values = new Object[fieldType.featureCount()];
+        String feature = null;
+        for (XContentParser.Token token = parser.nextToken(); token != XContentParser.Token.END_OBJECT; token = parser.nextToken()) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                feature = parser.currentName();
+                continue;
+            }
+            int index = fieldType.featureIndex(feature);
+            if (index < 0) {
+                throw new IllegalArgumentException("[" + CONTENT_TYPE + "] field [" + name() + "] has no feature [" + feature + "]");
+            }
+            if (token == XContentParser.Token.VALUE_NULL) {
+                continue;
+            }
+            values[index] = parseFeature(parser, fieldType.featureType(index), feature);
+        }
+
+        BinaryDocValuesField field = new BinaryDocValuesField(fieldType.name(), encode(fieldType, values));
+        context.doc().addWithKey(name(), field);
+    }
+
+    private Object parseFeature(XContentParser parser, FeatureType type, String feature) throws IOException {
+        switch (type) {
+            case DOUBLE: {
+                TreeSet<Double> values = new TreeSet<>();
+                if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                            values.add(parser.doubleValue());
+                        }
+                    }
+                } else {
+                    values.add(parser.doubleValue());
+                }
+                return values.isEmpty() ? null : values;
+            }
+            case KEYWORD: {
+                // the term order, the first value is the smallest term like the first ordinal of a keyword field
+                TreeSet<BytesRef> values = new TreeSet<>();
+                if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                        if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                            values.add(new BytesRef(parser.text()));
+                        }
+                    }
+                } else {
+                    values.add(new BytesRef(parser.text()));
+                }
+                return values.isEmpty() ? null : values;
+            }
+            case GEO_POINT:
+            default: {
+                List<GeoPoint> values = new ArrayList<>();
+                if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+                    if (parser.nextToken() == XContentParser.Token.VALUE_NUMBER) {
+                        // [lon, lat]
+                        double lon = parser.doubleValue();
+                        parser.nextToken();
+                        double lat = parser.doubleValue();
+                        while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                            // ignore the z value
+                        }
+                        values.add(new GeoPoint(lat, lon));
+                    } else {
+                        for (; parser.currentToken() != XContentParser.Token.END_ARRAY; parser.nextToken()) {
+                            if (parser.currentToken() != XContentParser.Token.VALUE_NULL) {
+                                values.add(GeoUtils.parseGeoPoint(parser, new GeoPoint()));
+                            }
+                        }
+                    }
+                } else {
+                    values.add(GeoUtils.parseGeoPoint(parser, new GeoPoint()));
+                }
+                for (GeoPoint point : values) {
+                    if (point.lat() < -90 || point.lat() > 90 || point.lon() < -180 || point.lon() > 180) {
+                        throw new IllegalArgumentException(String.format(Locale.ROOT, "[%s] field [%s] feature [%s] has an invalid point [%s]",
+                                CONTENT_TYPE, name(), feature, point));
+                    }
+                }
+                return values.isEmpty() ? null : values;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static BytesRef encode(FeaturesFieldType fieldType, Object[] values) throws IOException {
+        long mask = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                mask |= 1L << i;
+            }
+        }
+        ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+        out.writeVLong(mask);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            switch (fieldType.featureType(i)) {
+                case DOUBLE: {
+                    TreeSet<Double> doubles = (TreeSet<Double>) values[i];
+                    out.writeVInt(doubles.size());
+                    for (double value : doubles) {
+                        out.writeLong(Double.doubleToLongBits(value));
+                    }
+                    break;
+                }
+                case KEYWORD: {
+                    TreeSet<BytesRef> terms = (TreeSet<BytesRef>) values[i];
+                    out.writeVInt(terms.size());
+                    for (BytesRef term : terms) {
+                        out.writeLong(hash(term));
+                    }
+                    break;
+                }
+                case GEO_POINT:
+                default: {
+                    List<GeoPoint> points = (List<GeoPoint>) values[i];
+                    out.writeVInt(points.size());
+                    for (GeoPoint point : points) {
+                        out.writeInt(GeoEncodingUtils.encodeLatitude(point.lat()));
+                        out.writeInt(GeoEncodingUtils.encodeLongitude(point.lon()));
+                    }
+                    break;
+                }
+            }
+        }
+        return new BytesRef(out.toArrayCopy());
+    }
+
+    @Override
+    protected void parseCreateField(ParseContext context, List<IndexableField> fields) {
+        throw new AssertionError("parse is implemented directly");
+    }
+
+    @Override
+    protected String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+        FeaturesFieldType fieldType = fieldType();
+        builder.startObject(FEATURES);
+        for (int i = 0; i < fieldType.featureCount(); i++) {
+            builder.field(fieldType.names[i], fieldType.types[i].getType());
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,20 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+
+/**
+ * Remove a scoring profile.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class DeleteScoringProfileAction extends ActionType<AcknowledgedResponse> {
+
+    public static final DeleteScoringProfileAction INSTANCE = new DeleteScoringProfileAction();
+    public static final String NAME = "cluster:admin/complex_score/profile/delete";
+
+    private DeleteScoringProfileAction() {
+        super(NAME, AcknowledgedResponse::new);
+    }
+}
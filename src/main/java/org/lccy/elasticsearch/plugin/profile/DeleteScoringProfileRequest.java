@@ -0,0 +1,47 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.master.AcknowledgedRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class DeleteScoringProfileRequest extends AcknowledgedRequest<DeleteScoringProfileRequest> {
+
+    private String name;
+
+    public DeleteScoringProfileRequest(String name) {
+        this.name = name;
+    }
+
+    public DeleteScoringProfileRequest(StreamInput in) throws IOException {
+        super(in);
+        this.name = in.readString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(name);
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        if (CommonUtil.isEmpty(name)) {
+            return addValidationError("profile name is missing", null);
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,20 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+
+/**
+ * Register or replace a scoring profile.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class PutScoringProfileAction extends ActionType<AcknowledgedResponse> {
+
+    public static final PutScoringProfileAction INSTANCE = new PutScoringProfileAction();
+    public static final String NAME = "cluster:admin/complex_score/profile/put";
+
+    private PutScoringProfileAction() {
+        super(NAME, AcknowledgedResponse::new);
+    }
+}
@@ -0,0 +1,72 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.master.AcknowledgedRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class PutScoringProfileRequest extends AcknowledgedRequest<PutScoringProfileRequest> {
+
+    private String name;
+    // 0 means the next version of the registered profile
+    private long version;
+    private Map<String, Object> config;
+
+    public PutScoringProfileRequest(String name, long version, Map<String, Object> config) {
+        this.name = name;
+        this.version = version;
+        this.config = config;
+    }
+
+    public PutScoringProfileRequest(StreamInput in) throws IOException {
+        super(in);
+        this.name = in.readString();
+        this.version = in.readVLong();
+        this.config = in.readMap();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(name);
+        out.writeVLong(version);
+        out.writeMap(config);
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = null;
+        if (CommonUtil.isEmpty(name)) {
+            validationException = addValidationError("profile name is missing", validationException);
+        }
+        if (version < 0) {
+            validationException = addValidationError("profile version must be greater than 0", validationException);
+        }
+        if (CommonUtil.isEmpty(config)) {
+            validationException = addValidationError("profile [" + ScoringProfile.CONFIG + "] is missing", validationException);
+        }
+        return validationException;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Object> getConfig() {
+        return config;
+    }
+}
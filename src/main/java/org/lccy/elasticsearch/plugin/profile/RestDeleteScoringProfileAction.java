@@ -0,0 +1,33 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+/**
+ * {@code DELETE /_complex_score/profile/{name}}
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class RestDeleteScoringProfileAction extends BaseRestHandler {
+
+    public RestDeleteScoringProfileAction(RestController controller) {
+        controller.registerHandler(RestRequest.Method.DELETE, "/_complex_score/profile/{name}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "complex_score_delete_profile_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        DeleteScoringProfileRequest deleteRequest = new DeleteScoringProfileRequest(request.param("name"));
+        deleteRequest.masterNodeTimeout(request.paramAsTime("master_timeout", deleteRequest.masterNodeTimeout()));
+        deleteRequest.timeout(request.paramAsTime("timeout", deleteRequest.timeout()));
+        return channel -> client.execute(DeleteScoringProfileAction.INSTANCE, deleteRequest, new RestToXContentListener<>(channel));
+    }
+}
@@ -0,0 +1,58 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestBuilderListener;
+
+/**
+ * {@code GET /_complex_score/profile} and {@code GET /_complex_score/profile/{name}}, read from the cluster state.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class RestGetScoringProfileAction extends BaseRestHandler {
+
+    public RestGetScoringProfileAction(RestController controller) {
+        controller.registerHandler(RestRequest.Method.GET, "/_complex_score/profile", this);
+        controller.registerHandler(RestRequest.Method.GET, "/_complex_score/profile/{name}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "complex_score_get_profile_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String name = request.param("name");
+        ClusterStateRequest stateRequest = new ClusterStateRequest().clear().metaData(true);
+        stateRequest.local(request.paramAsBoolean("local", stateRequest.local()));
+        return channel -> client.admin().cluster().state(stateRequest, new RestBuilderListener<ClusterStateResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(ClusterStateResponse response, XContentBuilder builder) throws Exception {
+                ScoringProfileMetaData metaData = response.getState().metaData().custom(ScoringProfileMetaData.TYPE);
+                if (metaData == null) {
+                    metaData = ScoringProfileMetaData.EMPTY;
+                }
+                builder.startObject();
+                for (ScoringProfile profile : metaData.getProfiles().values()) {
+                    if (name == null || name.equals(profile.getName())) {
+                        builder.field(profile.getName());
+                        profile.toXContent(builder, request);
+                    }
+                }
+                builder.endObject();
+                RestStatus status = name != null && !metaData.getProfiles().containsKey(name) ? RestStatus.NOT_FOUND : RestStatus.OK;
+                return new BytesRestResponse(status, builder);
+            }
+        });
+    }
+}
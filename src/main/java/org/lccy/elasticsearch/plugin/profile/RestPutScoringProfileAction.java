@@ -0,0 +1,44 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@code PUT /_complex_score/profile/{name}} with body {@code {"version": n, "config": {...}}}, version is optional.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class RestPutScoringProfileAction extends BaseRestHandler {
+
+    public RestPutScoringProfileAction(RestController controller) {
+        controller.registerHandler(RestRequest.Method.PUT, "/_complex_score/profile/{name}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "complex_score_put_profile_action";
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        Map<String, Object> body;
+        try (XContentParser parser = request.contentParser()) {
+            body = parser.map();
+        }
+        long version = body.get(ScoringProfile.VERSION) == null ? 0 : Long.parseLong(body.get(ScoringProfile.VERSION).toString());
+        PutScoringProfileRequest putRequest = new PutScoringProfileRequest(request.param("name"), version,
+                (Map<String, Object>) body.get(ScoringProfile.CONFIG));
+        putRequest.masterNodeTimeout(request.paramAsTime("master_timeout", putRequest.masterNodeTimeout()));
+        putRequest.timeout(request.paramAsTime("timeout", putRequest.timeout()));
+        return channel -> client.execute(PutScoringProfileAction.INSTANCE, putRequest, new RestToXContentListener<>(channel));
+    }
+}
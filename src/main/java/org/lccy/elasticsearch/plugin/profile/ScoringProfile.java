@@ -0,0 +1,119 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A named, versioned complex_field_score config stored in the cluster state. <br>
+ * A request refers to it by {@code {"profile": name, "version": n}} instead of shipping the whole config.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoringProfile implements Writeable, ToXContentObject {
+
+    public static final String PROFILE = "profile";
+    public static final String VERSION = "version";
+    public static final String CONFIG = "config";
+
+    // the only params a request may set next to [profile] and [version]
+    private static final Set<String> OVERRIDES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            FieldScoreComputeWapper.ORIGIN, CategoryScoreWapper.FUNC_SCORE_FACTOR, CategoryScoreWapper.ORIGINAL_SCORE_FACTOR)));
+
+    private final String name;
+    private final long version;
+    private final Map<String, Object> config;
+
+    public ScoringProfile(String name, long version, Map<String, Object> config) {
+        this.name = name;
+        this.version = version;
+        this.config = config;
+    }
+
+    public ScoringProfile(StreamInput in) throws IOException {
+        this.name = in.readString();
+        this.version = in.readVLong();
+        this.config = in.readMap();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(name);
+        out.writeVLong(version);
+        out.writeMap(config);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Object> getConfig() {
+        return config;
+    }
+
+    /**
+     * @return true if the complex_field_score request refers to a profile.
+     */
+    public static boolean isReference(Map<String, Object> request) {
+        return request.containsKey(PROFILE);
+    }
+
+    /**
+     * check a profile reference of a request, only [profile], [version] and the overrides are allowed.
+     */
+    public static void checkReference(Map<String, Object> request) {
+        if (CommonUtil.isEmpty(CommonUtil.toString(request.get(PROFILE)))) {
+            throw new IllegalArgumentException(ComplexFieldFunctionBuilder.NAME + " query param [profile] must not be empty, please check.");
+        }
+        for (String key : request.keySet()) {
+            if (!PROFILE.equals(key) && !VERSION.equals(key) && !OVERRIDES.contains(key)) {
+                throw new IllegalArgumentException(ComplexFieldFunctionBuilder.NAME + " query with [profile] only accepts "
+                        + OVERRIDES + " as overrides, found [" + key + "], please check.");
+            }
+        }
+        if (request.get(VERSION) != null) {
+            Long.parseLong(request.get(VERSION).toString());
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(VERSION, version);
+        builder.field(CONFIG, config);
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ScoringProfile that = (ScoringProfile) o;
+        return version == that.version && Objects.equals(name, that.name) && Objects.equals(config, that.config);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, version, config);
+    }
+}
@@ -0,0 +1,119 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.AbstractNamedDiffable;
+import org.elasticsearch.cluster.NamedDiff;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Custom cluster metadata holding every registered scoring profile by name.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoringProfileMetaData extends AbstractNamedDiffable<MetaData.Custom> implements MetaData.Custom {
+
+    public static final String TYPE = "complex_score_profiles";
+
+    public static final ScoringProfileMetaData EMPTY = new ScoringProfileMetaData(Collections.emptyMap());
+
+    private final Map<String, ScoringProfile> profiles;
+
+    public ScoringProfileMetaData(Map<String, ScoringProfile> profiles) {
+        this.profiles = Collections.unmodifiableMap(new TreeMap<>(profiles));
+    }
+
+    public ScoringProfileMetaData(StreamInput in) throws IOException {
+        int size = in.readVInt();
+        Map<String, ScoringProfile> profiles = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            ScoringProfile profile = new ScoringProfile(in);
+            profiles.put(profile.getName(), profile);
+        }
+        this.profiles = Collections.unmodifiableMap(profiles);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVInt(profiles.size());
+        for (ScoringProfile profile : profiles.values()) {
+            profile.writeTo(out);
+        }
+    }
+
+    public static NamedDiff<MetaData.Custom> readDiffFrom(StreamInput in) throws IOException {
+        return readDiffFrom(MetaData.Custom.class, TYPE, in);
+    }
+
+    public static ScoringProfileMetaData fromXContent(XContentParser parser) throws IOException {
+        Map<String, ScoringProfile> profiles = new TreeMap<>();
+        XContentParser.Token token = parser.currentToken();
+        if (token == null) {
+            parser.nextToken();
+        }
+        String name = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                name = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                Map<String, Object> profile = parser.map();
+                long version = Long.parseLong(profile.get(ScoringProfile.VERSION).toString());
+                @SuppressWarnings("unchecked")
+                Map<String, Object> config = (Map<String, Object>) profile.get(ScoringProfile.CONFIG);
+                profiles.put(name, new ScoringProfile(name, version, config));
+            }
+        }
+        return new ScoringProfileMetaData(profiles);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        for (ScoringProfile profile : profiles.values()) {
+            builder.field(profile.getName());
+            profile.toXContent(builder, params);
+        }
+        return builder;
+    }
+
+    public Map<String, ScoringProfile> getProfiles() {
+        return profiles;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return TYPE;
+    }
+
+    @Override
+    public Version getMinimalSupportedVersion() {
+        return Version.CURRENT.minimumCompatibilityVersion();
+    }
+
+    @Override
+    public EnumSet<MetaData.XContentContext> context() {
+        return MetaData.ALL_CONTEXTS;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Objects.equals(profiles, ((ScoringProfileMetaData) o).profiles);
+    }
+
+    @Override
+    public int hashCode() {
+        return profiles.hashCode();
+    }
+}
@@ -0,0 +1,129 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreCircuitBreaker;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.plan.PlanFingerprint;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlanCache;
+import org.lccy.elasticsearch.plugin.util.CommonUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Node level registry of the compiled scoring profiles. <br>
+ * Profiles are compiled when the cluster state is applied, so a request referring to a profile never parses its config.
+ * The compiled plans are charged to the {@link ComplexScoreCircuitBreaker} without tripping it, the cluster state
+ * can't be refused.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoringProfileService implements ClusterStateListener {
+
+    private static final Logger logger = LogManager.getLogger(ScoringProfileService.class);
+
+    private final ScorePlanCache planCache;
+    private final ComplexScoreCircuitBreaker breaker;
+    private volatile Map<String, CompiledProfile> profiles = Collections.emptyMap();
+
+    public ScoringProfileService(ScorePlanCache planCache, ComplexScoreCircuitBreaker breaker) {
+        this.planCache = planCache;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (!event.metaDataChanged()) {
+            return;
+        }
+        ScoringProfileMetaData metaData = event.state().metaData().custom(ScoringProfileMetaData.TYPE);
+        Map<String, ScoringProfile> registered = metaData == null ? Collections.emptyMap() : metaData.getProfiles();
+        Map<String, CompiledProfile> current = this.profiles;
+        Map<String, CompiledProfile> compiled = new HashMap<>();
+        for (ScoringProfile profile : registered.values()) {
+            CompiledProfile existing = current.get(profile.getName());
+            if (existing != null && existing.version == profile.getVersion()) {
+                compiled.put(profile.getName(), existing);
+                continue;
+            }
+            try {
+                CompiledProfile compiledProfile = new CompiledProfile(profile.getVersion(), compile(profile));
+                breaker.addWithoutBreaking(compiledProfile.bytes);
+                compiled.put(profile.getName(), compiledProfile);
+            } catch (RuntimeException e) {
+                // validated by the master already, a failure here only hides this profile on this node
+                logger.warn("failed to compile scoring profile [" + profile.getName() + "] version [" + profile.getVersion() + "]", e);
+            }
+        }
+        this.profiles = Collections.unmodifiableMap(compiled);
+        for (Map.Entry<String, CompiledProfile> entry : current.entrySet()) {
+            // replaced by a newer version or removed
+            if (compiled.get(entry.getKey()) != entry.getValue()) {
+                breaker.release(entry.getValue().bytes);
+            }
+        }
+    }
+
+    /**
+     * parse and compile the profile's config, throws the same errors as an inline config.
+     */
+    public static ScorePlan compile(ScoringProfile profile) {
+        return ScorePlan.compile(new CategoryScoreWapper(null, profile.getConfig()));
+    }
+
+    public boolean exists(String name) {
+        return profiles.containsKey(name);
+    }
+
+    /**
+     * resolve the profile a request refers to.
+     *
+     * @param request {@code {"profile": name, "version": n}} plus the overrides
+     */
+    public ScorePlan resolve(Map<String, Object> request) {
+        String name = CommonUtil.toString(request.get(ScoringProfile.PROFILE));
+        CompiledProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new ResourceNotFoundException("scoring profile [{}] does not exist", name);
+        }
+        Object version = request.get(ScoringProfile.VERSION);
+        if (version != null && Long.parseLong(version.toString()) != profile.version) {
+            throw new IllegalArgumentException("scoring profile [" + name + "] version [" + version
+                    + "] does not match the registered version [" + profile.version + "]");
+        }
+
+        Map<String, Object> overrides = new HashMap<>(request);
+        overrides.remove(ScoringProfile.PROFILE);
+        overrides.remove(ScoringProfile.VERSION);
+        if (overrides.isEmpty()) {
+            return profile.plan;
+        }
+        try {
+            return planCache.getOrCompile(PlanFingerprint.of(profile.plan.getFingerprint(), overrides), () -> profile.plan.withOverrides(overrides));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class CompiledProfile {
+        private final long version;
+        private final ScorePlan plan;
+        // the bytes charged to the breaker
+        private final long bytes;
+
+        private CompiledProfile(long version, ScorePlan plan) {
+            this.version = version;
+            this.plan = plan;
+            this.bytes = plan.ramBytesUsed();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.support.master.TransportMasterNodeAction;
+import org.elasticsearch.cluster.AckedClusterStateUpdateTask;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remove a scoring profile from the cluster state.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class TransportDeleteScoringProfileAction extends TransportMasterNodeAction<DeleteScoringProfileRequest, AcknowledgedResponse> {
+
+    @Inject
+    public TransportDeleteScoringProfileAction(TransportService transportService, ClusterService clusterService, ThreadPool threadPool,
+                                               ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(DeleteScoringProfileAction.NAME, transportService, clusterService, threadPool, actionFilters,
+                DeleteScoringProfileRequest::new, indexNameExpressionResolver);
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.SAME;
+    }
+
+    @Override
+    protected AcknowledgedResponse read(StreamInput in) throws IOException {
+        return new AcknowledgedResponse(in);
+    }
+
+    @Override
+    protected void masterOperation(Task task, DeleteScoringProfileRequest request, ClusterState state,
+                                   ActionListener<AcknowledgedResponse> listener) throws Exception {
+        clusterService.submitStateUpdateTask("delete-scoring-profile-" + request.getName(),
+                new AckedClusterStateUpdateTask<AcknowledgedResponse>(request, listener) {
+
+                    @Override
+                    protected AcknowledgedResponse newResponse(boolean acknowledged) {
+                        return new AcknowledgedResponse(acknowledged);
+                    }
+
+                    @Override
+                    public ClusterState execute(ClusterState currentState) {
+                        ScoringProfileMetaData metaData = currentState.metaData().custom(ScoringProfileMetaData.TYPE);
+                        if (metaData == null || !metaData.getProfiles().containsKey(request.getName())) {
+                            throw new ResourceNotFoundException("scoring profile [{}] does not exist", request.getName());
+                        }
+                        Map<String, ScoringProfile> profiles = new HashMap<>(metaData.getProfiles());
+                        profiles.remove(request.getName());
+                        MetaData.Builder metaDataBuilder = MetaData.builder(currentState.metaData())
+                                .putCustom(ScoringProfileMetaData.TYPE, new ScoringProfileMetaData(profiles));
+                        return ClusterState.builder(currentState).metaData(metaDataBuilder).build();
+                    }
+                });
+    }
+
+    @Override
+    protected ClusterBlockException checkBlock(DeleteScoringProfileRequest request, ClusterState state) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.METADATA_WRITE);
+    }
+}
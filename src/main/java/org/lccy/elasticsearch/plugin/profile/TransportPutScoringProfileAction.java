@@ -0,0 +1,91 @@
+package org.lccy.elasticsearch.plugin.profile;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.support.master.TransportMasterNodeAction;
+import org.elasticsearch.cluster.AckedClusterStateUpdateTask;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Validate the profile's config on the master and store it in the cluster state.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class TransportPutScoringProfileAction extends TransportMasterNodeAction<PutScoringProfileRequest, AcknowledgedResponse> {
+
+    @Inject
+    public TransportPutScoringProfileAction(TransportService transportService, ClusterService clusterService, ThreadPool threadPool,
+                                            ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(PutScoringProfileAction.NAME, transportService, clusterService, threadPool, actionFilters,
+                PutScoringProfileRequest::new, indexNameExpressionResolver);
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.SAME;
+    }
+
+    @Override
+    protected AcknowledgedResponse read(StreamInput in) throws IOException {
+        return new AcknowledgedResponse(in);
+    }
+
+    @Override
+    protected void masterOperation(Task task, PutScoringProfileRequest request, ClusterState state,
+                                   ActionListener<AcknowledgedResponse> listener) throws Exception {
+        // a broken config is rejected here instead of failing every node's compilation
+        ScoringProfileService.compile(new ScoringProfile(request.getName(), request.getVersion(), request.getConfig()));
+
+        clusterService.submitStateUpdateTask("put-scoring-profile-" + request.getName(),
+                new AckedClusterStateUpdateTask<AcknowledgedResponse>(request, listener) {
+
+                    @Override
+                    protected AcknowledgedResponse newResponse(boolean acknowledged) {
+                        return new AcknowledgedResponse(acknowledged);
+                    }
+
+                    @Override
+                    public ClusterState execute(ClusterState currentState) {
+                        ScoringProfileMetaData metaData = currentState.metaData().custom(ScoringProfileMetaData.TYPE);
+                        if (metaData == null) {
+                            metaData = ScoringProfileMetaData.EMPTY;
+                        }
+                        ScoringProfile existing = metaData.getProfiles().get(request.getName());
+                        long version = request.getVersion();
+                        if (version == 0) {
+                            version = existing == null ? 1 : existing.getVersion() + 1;
+                        } else if (existing != null && version <= existing.getVersion()) {
+                            throw new IllegalArgumentException("scoring profile [" + request.getName() + "] version [" + version
+                                    + "] must be greater than the registered version [" + existing.getVersion() + "]");
+                        }
+
+                        Map<String, ScoringProfile> profiles = new HashMap<>(metaData.getProfiles());
+                        profiles.put(request.getName(), new ScoringProfile(request.getName(), version, request.getConfig()));
+                        MetaData.Builder metaDataBuilder = MetaData.builder(currentState.metaData())
+                                .putCustom(ScoringProfileMetaData.TYPE, new ScoringProfileMetaData(profiles));
+                        return ClusterState.builder(currentState).metaData(metaDataBuilder).build();
+                    }
+                });
+    }
+
+    @Override
+    protected ClusterBlockException checkBlock(PutScoringProfileRequest request, ClusterState state) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.METADATA_WRITE);
+    }
+}
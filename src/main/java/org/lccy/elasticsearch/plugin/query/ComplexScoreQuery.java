@@ -0,0 +1,138 @@
+package org.lccy.elasticsearch.plugin.query;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunction;
+import org.lccy.elasticsearch.plugin.function.ScoreBounds;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Scores the docs of a sub query with a complex_field_score function, reporting the max score of blocks of docs
+ * so top-k collection skips the blocks that can't be competitive.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreQuery extends Query {
+
+    private final Query subQuery;
+    private final ComplexFieldFunction function;
+
+    public ComplexScoreQuery(Query subQuery, ComplexFieldFunction function) {
+        this.subQuery = Objects.requireNonNull(subQuery);
+        this.function = Objects.requireNonNull(function);
+    }
+
+    public Query getSubQuery() {
+        return subQuery;
+    }
+
+    public ComplexFieldFunction getFunction() {
+        return function;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = subQuery.rewrite(reader);
+        if (rewritten != subQuery) {
+            return new ComplexScoreQuery(rewritten, function);
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        subQuery.visit(visitor.getSubVisitor(BooleanClause.Occur.MUST, this));
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        if (!scoreMode.needsScores()) {
+            return searcher.createWeight(subQuery, scoreMode, boost);
+        }
+        // the sub query only skips docs when the top scores are collected
+        Weight subWeight = searcher.createWeight(subQuery, scoreMode == ScoreMode.TOP_SCORES ? ScoreMode.TOP_SCORES : ScoreMode.COMPLETE, 1f);
+        return new ComplexScoreWeight(subWeight, scoreMode, boost);
+    }
+
+    private final class ComplexScoreWeight extends Weight {
+        private final Weight subWeight;
+        private final ScoreMode scoreMode;
+        private final float boost;
+
+        private ComplexScoreWeight(Weight subWeight, ScoreMode scoreMode, float boost) {
+            super(ComplexScoreQuery.this);
+            this.subWeight = subWeight;
+            this.scoreMode = scoreMode;
+            this.boost = boost;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            subWeight.extractTerms(terms);
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            Scorer subScorer = subWeight.scorer(context);
+            if (subScorer == null) {
+                return null;
+            }
+            LeafScoreFunction leafFunction = function.getLeafScoreFunction(context);
+            ScoreBounds bounds = scoreMode == ScoreMode.TOP_SCORES ? function.getScoreBounds(context) : ScoreBounds.UNBOUNDED;
+            return new ComplexScoreScorer(this, subScorer, leafFunction, bounds, function.getPlan().getOriginalScoreFactor(),
+                    boost, context.reader().maxDoc(), scoreMode == ScoreMode.TOP_SCORES);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Explanation subExplain = subWeight.explain(context, doc);
+            if (!subExplain.isMatch()) {
+                return subExplain;
+            }
+            Explanation functionExplain = function.getLeafScoreFunction(context).explainScore(doc, subExplain);
+            if (boost == 1f) {
+                return functionExplain;
+            }
+            return Explanation.match(functionExplain.getValue().floatValue() * boost, "product of:",
+                    functionExplain, Explanation.match(boost, "boost"));
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext ctx) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "complex_score(" + subQuery.toString(field) + ", function: " + function.getPlan().getFingerprint() + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!sameClassAs(other)) {
+            return false;
+        }
+        ComplexScoreQuery that = (ComplexScoreQuery) other;
+        return subQuery.equals(that.subQuery) && function.equals(that.function);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), subQuery, function);
+    }
+}
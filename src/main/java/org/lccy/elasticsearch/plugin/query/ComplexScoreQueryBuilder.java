@@ -0,0 +1,161 @@
+package org.lccy.elasticsearch.plugin.query;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * {@code complex_score} query, scores a query with a complex_field_score function:
+ * <pre>
+ * "complex_score": {
+ *     "query": {...},
+ *     "function": {the complex_field_score params}
+ * }
+ * </pre>
+ * The score equals a function_score query with the function and [boost_mode: replace], but the max score of blocks
+ * of docs is known, so top-k searches skip the docs that can't make the top hits.
+ * The [weight] of the function is not used, use [boost] instead.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreQueryBuilder extends AbstractQueryBuilder<ComplexScoreQueryBuilder> {
+    public static final String NAME = "complex_score";
+
+    public static final ParseField QUERY_FIELD = new ParseField("query");
+    public static final ParseField FUNCTION_FIELD = new ParseField("function");
+
+    private final QueryBuilder query;
+    private final ComplexFieldFunctionBuilder function;
+
+    public ComplexScoreQueryBuilder(QueryBuilder query, ComplexFieldFunctionBuilder function) {
+        if (query == null || function == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a query and a function.");
+        }
+        this.query = query;
+        this.function = function;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public ComplexScoreQueryBuilder(StreamInput in) throws IOException {
+        this(in, null);
+    }
+
+    public ComplexScoreQueryBuilder(StreamInput in, ComplexScoreServices services) throws IOException {
+        super(in);
+        this.query = in.readNamedWriteable(QueryBuilder.class);
+        this.function = new ComplexFieldFunctionBuilder(in, services);
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(query);
+        function.writeTo(out);
+    }
+
+    public QueryBuilder query() {
+        return query;
+    }
+
+    public ComplexFieldFunctionBuilder function() {
+        return function;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(QUERY_FIELD.getPreferredName());
+        query.toXContent(builder, params);
+        builder.field(FUNCTION_FIELD.getPreferredName(), function.getParams());
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static ComplexScoreQueryBuilder fromXContent(XContentParser parser) throws IOException {
+        return fromXContent(parser, null);
+    }
+
+    public static ComplexScoreQueryBuilder fromXContent(XContentParser parser, ComplexScoreServices services) throws IOException {
+        QueryBuilder query = null;
+        ComplexFieldFunctionBuilder function = null;
+        float boost = DEFAULT_BOOST;
+        String queryName = null;
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (QUERY_FIELD.match(currentName, parser.getDeprecationHandler())) {
+                    query = parseInnerQueryBuilder(parser);
+                } else if (FUNCTION_FIELD.match(currentName, parser.getDeprecationHandler())) {
+                    function = ComplexFieldFunctionBuilder.fromXContent(parser, services);
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentName + "]");
+                }
+            } else if (token.isValue()) {
+                if (BOOST_FIELD.match(currentName, parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else if (NAME_FIELD.match(currentName, parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unexpected token [" + token + "]");
+            }
+        }
+        if (function == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires a [" + FUNCTION_FIELD.getPreferredName() + "]");
+        }
+        if (query == null) {
+            query = new MatchAllQueryBuilder();
+        }
+        return new ComplexScoreQueryBuilder(query, function).boost(boost).queryName(queryName);
+    }
+
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext queryRewriteContext) throws IOException {
+        QueryBuilder rewritten = query.rewrite(queryRewriteContext);
+        if (rewritten != query) {
+            return new ComplexScoreQueryBuilder(rewritten, function);
+        }
+        return this;
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        return new ComplexScoreQuery(query.toQuery(context), function.toComplexFieldFunction(context));
+    }
+
+    @Override
+    protected boolean doEquals(ComplexScoreQueryBuilder other) {
+        return Objects.equals(query, other.query) && Objects.equals(function, other.function);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(query, function);
+    }
+}
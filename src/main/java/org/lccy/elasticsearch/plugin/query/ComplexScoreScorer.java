@@ -0,0 +1,170 @@
+package org.lccy.elasticsearch.plugin.query;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.lccy.elasticsearch.plugin.function.ScoreBounds;
+import org.lccy.elasticsearch.plugin.function.SortTiers;
+
+import java.io.IOException;
+
+/**
+ * Scorer of {@link ComplexScoreQuery}. <br>
+ * The max score of a block is {@code original_score_factor * sub max score + function bound}. When the top scores are
+ * collected, blocks below the min competitive score are skipped, and the min competitive score left for the sub query
+ * is passed on to it.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+final class ComplexScoreScorer extends Scorer {
+
+    // keeps the bounds above the float rounding of the scores
+    private static final double BOUND_SLACK = 1e-6;
+
+    private final Scorer subScorer;
+    private final DocIdSetIterator subIterator;
+    private final LeafScoreFunction function;
+    private final ScoreBounds bounds;
+    private final double originalScoreFactor;
+    private final float boost;
+    private final int maxDoc;
+    private final double maxFunctionScore;
+    private final DocIdSetIterator iterator;
+
+    private float minCompetitiveScore;
+    private float subMinCompetitiveScore;
+    // target of the last shallow advance
+    private int shallowTarget = -1;
+    // the last checked block and its max score
+    private int blockEnd = -1;
+    private float blockMaxScore;
+
+    ComplexScoreScorer(Weight weight, Scorer subScorer, LeafScoreFunction function, ScoreBounds bounds,
+                       double originalScoreFactor, float boost, int maxDoc, boolean topScores) {
+        super(weight);
+        this.subScorer = subScorer;
+        this.subIterator = subScorer.iterator();
+        this.function = function;
+        this.bounds = bounds;
+        this.originalScoreFactor = originalScoreFactor;
+        this.boost = boost;
+        this.maxDoc = maxDoc;
+        this.maxFunctionScore = bounds.maxFunctionScore(0, maxDoc - 1);
+        this.iterator = topScores ? new BlockMaxIterator() : subIterator;
+    }
+
+    @Override
+    public int docID() {
+        return subIterator.docID();
+    }
+
+    @Override
+    public float score() throws IOException {
+        return (float) (function.score(subIterator.docID(), subScorer.score()) * boost);
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return iterator;
+    }
+
+    @Override
+    public TwoPhaseIterator twoPhaseIterator() {
+        // the block max iterator wraps the matching docs of the sub query
+        return iterator == subIterator ? subScorer.twoPhaseIterator() : null;
+    }
+
+    @Override
+    public int advanceShallow(int target) throws IOException {
+        shallowTarget = target;
+        return Math.min(subScorer.advanceShallow(target), SortTiers.blockEnd(target));
+    }
+
+    @Override
+    public float getMaxScore(int upTo) throws IOException {
+        double functionScore = bounds.maxFunctionScore(Math.max(docID(), shallowTarget), upTo);
+        // sub scores are never negative
+        double subScore = originalScoreFactor > 0 ? originalScoreFactor * subScorer.getMaxScore(upTo) : 0;
+        return upperBound((functionScore + subScore) * boost);
+    }
+
+    @Override
+    public void setMinCompetitiveScore(float minScore) throws IOException {
+        this.minCompetitiveScore = minScore;
+        if (originalScoreFactor <= 0 || boost <= 0 || Double.isInfinite(maxFunctionScore)) {
+            return;
+        }
+        // a doc with a lower sub score can't reach the min score whatever its function score
+        double subMinScore = (minScore / boost * (1 - BOUND_SLACK) - maxFunctionScore) / originalScoreFactor;
+        if (subMinScore > 0) {
+            float subMin = Math.nextDown((float) subMinScore);
+            if (subMin > subMinCompetitiveScore) {
+                subMinCompetitiveScore = subMin;
+                subScorer.setMinCompetitiveScore(subMin);
+            }
+        }
+    }
+
+    private static float upperBound(double score) {
+        if (Double.isNaN(score) || Double.isInfinite(score)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.nextUp((float) (score + Math.abs(score) * BOUND_SLACK));
+    }
+
+    /**
+     * @return the first doc from the target in a block that may be competitive.
+     */
+    private int competitiveTarget(int target) throws IOException {
+        while (minCompetitiveScore > 0 && target != NO_MORE_DOCS) {
+            if (target > blockEnd) {
+                blockEnd = advanceShallow(target);
+                blockMaxScore = getMaxScore(blockEnd);
+            }
+            if (blockMaxScore >= minCompetitiveScore) {
+                return target;
+            }
+            if (blockEnd >= maxDoc - 1) {
+                return NO_MORE_DOCS;
+            }
+            target = blockEnd + 1;
+        }
+        return target;
+    }
+
+    private final class BlockMaxIterator extends DocIdSetIterator {
+
+        @Override
+        public int docID() {
+            return subIterator.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(subIterator.docID() + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            while (true) {
+                int doc = subIterator.advance(competitiveTarget(target));
+                if (doc == NO_MORE_DOCS || minCompetitiveScore <= 0 || doc <= blockEnd) {
+                    return doc;
+                }
+                // the doc is in a block that wasn't checked yet
+                target = competitiveTarget(doc);
+                if (target == doc) {
+                    return doc;
+                }
+            }
+        }
+
+        @Override
+        public long cost() {
+            return subIterator.cost();
+        }
+    }
+}
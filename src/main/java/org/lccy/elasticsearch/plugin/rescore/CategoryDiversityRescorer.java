@@ -0,0 +1,186 @@
+package org.lccy.elasticsearch.plugin.rescore;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.PriorityQueue;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reorders the top [window_size] hits of a shard greedily by category: the next hit is the best hit of the category
+ * whose next hit scores the most, its score times [decay] per hit of the category ranked before.
+ * A category with [max_per_category] ranked hits stops, its other hits follow every capped hit in score order. <br>
+ * The categories are the first global ordinal of the docs, a doc without category is a category of its own.
+ * The categories are grouped once, then each ranked hit costs a heap update, O(window · log categories). <br>
+ * The scores are rewritten to be descending so the coordinating node keeps the order,
+ * the diversity is per shard, the merged hits of several shards may hold more than [max_per_category] hits of a category.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class CategoryDiversityRescorer implements Rescorer {
+
+    public static final CategoryDiversityRescorer INSTANCE = new CategoryDiversityRescorer();
+
+    private static final long NO_CATEGORY = Long.MAX_VALUE >>> 32;
+
+    private static final Comparator<ScoreDoc> SCORE_ORDER = (a, b) -> {
+        int cmp = Float.compare(b.score, a.score);
+        return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+    };
+
+    private CategoryDiversityRescorer() {
+    }
+
+    /**
+     * The category field resolved for the shard.
+     */
+    public static final class Context extends RescoreContext {
+        // null when the field has no mapping on the shard
+        private final IndexOrdinalsFieldData fieldData;
+        private final int maxPerCategory;
+        private final float decay;
+
+        Context(int windowSize, IndexOrdinalsFieldData fieldData, int maxPerCategory, float decay) {
+            super(windowSize, INSTANCE);
+            this.fieldData = fieldData;
+            this.maxPerCategory = maxPerCategory;
+            this.decay = decay;
+        }
+    }
+
+    /**
+     * The hits of a category in the window, in score order.
+     */
+    private static final class Category {
+        private final int[] hits;
+        private final int uncapped;
+        private int next;
+        private float factor = 1;
+
+        private Category(int[] hits, int maxPerCategory) {
+            this.hits = hits;
+            this.uncapped = Math.min(hits.length, maxPerCategory);
+        }
+
+        private int head() {
+            return hits[next];
+        }
+    }
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+        Context context = (Context) rescoreContext;
+        if (topDocs == null || topDocs.scoreDocs.length == 0 || context.fieldData == null) {
+            return topDocs;
+        }
+        ScoreDoc[] hits = topDocs.scoreDocs.clone();
+        int window = Math.min(rescoreContext.getWindowSize(), hits.length);
+        ScoreDoc[] head = Arrays.copyOf(hits, window);
+        Arrays.sort(head, SCORE_ORDER);
+
+        // category in the high bits, score rank in the low bits: sorted, the hits of a category are adjacent in score order
+        long[] keys = categories(head, searcher, context.fieldData);
+        for (int i = 0; i < window; i++) {
+            keys[i] = (keys[i] == NO_CATEGORY ? NO_CATEGORY + i : keys[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        PriorityQueue<Category> queue = new PriorityQueue<Category>(window) {
+            @Override
+            protected boolean lessThan(Category a, Category b) {
+                float scoreA = head[a.head()].score * a.factor;
+                float scoreB = head[b.head()].score * b.factor;
+                return scoreA == scoreB ? a.head() > b.head() : scoreA < scoreB;
+            }
+        };
+        for (int from = 0; from < window; ) {
+            int to = from + 1;
+            while (to < window && keys[to] >>> 32 == keys[from] >>> 32) {
+                to++;
+            }
+            int[] ranks = new int[to - from];
+            for (int i = from; i < to; i++) {
+                ranks[i - from] = (int) keys[i];
+            }
+            queue.add(new Category(ranks, context.maxPerCategory));
+            from = to;
+        }
+
+        ScoreDoc[] ranked = new ScoreDoc[window];
+        int count = 0;
+        // the hits over the cap, by score rank
+        boolean[] overCap = new boolean[window];
+        while (queue.size() > 0) {
+            Category category = queue.top();
+            ScoreDoc hit = head[category.head()];
+            ranked[count++] = new ScoreDoc(hit.doc, hit.score * category.factor, hit.shardIndex);
+            category.next++;
+            category.factor *= context.decay;
+            if (category.next < category.uncapped) {
+                queue.updateTop();
+                continue;
+            }
+            queue.pop();
+            for (int i = category.next; i < category.hits.length; i++) {
+                overCap[category.hits[i]] = true;
+            }
+        }
+        float last = count == 0 ? Float.POSITIVE_INFINITY : ranked[count - 1].score;
+        for (int i = 0; i < window; i++) {
+            if (overCap[i]) {
+                last = Math.min(head[i].score, Math.nextDown(last));
+                ranked[count++] = new ScoreDoc(head[i].doc, last, head[i].shardIndex);
+            }
+        }
+
+        System.arraycopy(ranked, 0, hits, 0, window);
+        return new TopDocs(topDocs.totalHits, hits);
+    }
+
+    /**
+     * @return the first global ordinal of the category field of each hit, {@link #NO_CATEGORY} when the doc has none.
+     */
+    private static long[] categories(ScoreDoc[] head, IndexSearcher searcher, IndexOrdinalsFieldData fieldData) throws IOException {
+        IndexOrdinalsFieldData global = fieldData.loadGlobal((DirectoryReader) searcher.getIndexReader());
+        // walk the window in doc order, so the doc values of each segment are read forward once
+        Integer[] byDoc = new Integer[head.length];
+        for (int i = 0; i < head.length; i++) {
+            byDoc[i] = i;
+        }
+        Arrays.sort(byDoc, Comparator.comparingInt(i -> head[i].doc));
+
+        long[] categories = new long[head.length];
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        SortedSetDocValues ords = null;
+        for (int i : byDoc) {
+            int doc = head[i].doc;
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                ords = global.load(leaf).getOrdinalsValues();
+            }
+            categories[i] = ords.advanceExact(doc - leaf.docBase) ? ords.nextOrd() : NO_CATEGORY;
+        }
+        return categories;
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+                               Explanation sourceExplanation) {
+        // the rank depends on the other hits of the window, it's not explained per hit
+        return sourceExplanation;
+    }
+}
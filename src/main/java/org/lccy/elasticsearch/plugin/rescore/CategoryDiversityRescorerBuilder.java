@@ -0,0 +1,175 @@
+package org.lccy.elasticsearch.plugin.rescore;
+
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * {@code category_diversity} rescorer, reorders the top hits of each shard so no category dominates them:
+ * <pre>
+ * "rescore": [
+ *     {"window_size": 200, "complex_score": {the complex_field_score params}},
+ *     {"window_size": 50, "category_diversity": {"category_field": "categoryCode", "max_per_category": 2, "decay": 0.8}}
+ * ]
+ * </pre>
+ * At least one of [max_per_category] and [decay] is required.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class CategoryDiversityRescorerBuilder extends RescorerBuilder<CategoryDiversityRescorerBuilder> {
+    public static final String NAME = "category_diversity";
+
+    public static final String MAX_PER_CATEGORY = "max_per_category";
+    public static final String DECAY = "decay";
+
+    private final String categoryField;
+    private final int maxPerCategory;
+    private final float decay;
+
+    /**
+     * @param maxPerCategory hits of a category before the others, {@link Integer#MAX_VALUE} for no cap
+     * @param decay          factor applied to the score once per hit of the same category ranked before, 1 for no decay
+     */
+    public CategoryDiversityRescorerBuilder(String categoryField, int maxPerCategory, float decay) {
+        if (categoryField == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [" + CategoryScoreWapper.CATEGORY_FIELD + "].");
+        }
+        if (maxPerCategory <= 0) {
+            throw new IllegalArgumentException("[" + NAME + "] [" + MAX_PER_CATEGORY + "] must be greater than 0, found [" + maxPerCategory + "].");
+        }
+        if (!(decay > 0 && decay <= 1)) {
+            throw new IllegalArgumentException("[" + NAME + "] [" + DECAY + "] must be in (0, 1], found [" + decay + "].");
+        }
+        if (maxPerCategory == Integer.MAX_VALUE && decay == 1) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [" + MAX_PER_CATEGORY + "] or [" + DECAY + "].");
+        }
+        this.categoryField = categoryField;
+        this.maxPerCategory = maxPerCategory;
+        this.decay = decay;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public CategoryDiversityRescorerBuilder(StreamInput in) throws IOException {
+        super(in);
+        this.categoryField = in.readString();
+        this.maxPerCategory = in.readVInt();
+        this.decay = in.readFloat();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(categoryField);
+        out.writeVInt(maxPerCategory);
+        out.writeFloat(decay);
+    }
+
+    public String categoryField() {
+        return categoryField;
+    }
+
+    public int maxPerCategory() {
+        return maxPerCategory;
+    }
+
+    public float decay() {
+        return decay;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(CategoryScoreWapper.CATEGORY_FIELD, categoryField);
+        if (maxPerCategory != Integer.MAX_VALUE) {
+            builder.field(MAX_PER_CATEGORY, maxPerCategory);
+        }
+        if (decay != 1) {
+            builder.field(DECAY, decay);
+        }
+        builder.endObject();
+    }
+
+    public static CategoryDiversityRescorerBuilder fromXContent(XContentParser parser) throws IOException {
+        String categoryField = null;
+        int maxPerCategory = Integer.MAX_VALUE;
+        float decay = 1;
+        String currentName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentName = parser.currentName();
+            } else if (token.isValue()) {
+                if (CategoryScoreWapper.CATEGORY_FIELD.equals(currentName)) {
+                    categoryField = parser.text();
+                } else if (MAX_PER_CATEGORY.equals(currentName)) {
+                    maxPerCategory = parser.intValue();
+                } else if (DECAY.equals(currentName)) {
+                    decay = parser.floatValue();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown param [" + currentName + "].");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unexpected token [" + token + "] for [" + currentName + "].");
+            }
+        }
+        try {
+            return new CategoryDiversityRescorerBuilder(categoryField, maxPerCategory, decay);
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(parser.getTokenLocation(), e.getMessage());
+        }
+    }
+
+    @Override
+    public CategoryDiversityRescorerBuilder rewrite(QueryRewriteContext ctx) {
+        return this;
+    }
+
+    @Override
+    protected RescoreContext innerBuildContext(int windowSize, QueryShardContext context) {
+        MappedFieldType fieldType = context.fieldMapper(categoryField);
+        IndexOrdinalsFieldData fieldData = null;
+        if (fieldType != null) {
+            IndexFieldData<?> indexFieldData = context.getForField(fieldType);
+            if (!(indexFieldData instanceof IndexOrdinalsFieldData)) {
+                throw new IllegalArgumentException("[" + NAME + "] [" + CategoryScoreWapper.CATEGORY_FIELD + "] [" + categoryField
+                        + "] must be a keyword field, found [" + fieldType.typeName() + "].");
+            }
+            fieldData = (IndexOrdinalsFieldData) indexFieldData;
+        }
+        return new CategoryDiversityRescorer.Context(windowSize, fieldData, maxPerCategory, decay);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        CategoryDiversityRescorerBuilder other = (CategoryDiversityRescorerBuilder) obj;
+        return categoryField.equals(other.categoryField) && maxPerCategory == other.maxPerCategory && decay == other.decay;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), categoryField, maxPerCategory, decay);
+    }
+}
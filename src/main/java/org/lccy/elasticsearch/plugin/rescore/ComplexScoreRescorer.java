@@ -0,0 +1,96 @@
+package org.lccy.elasticsearch.plugin.rescore;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rescores the top [window_size] hits of a shard with a complex_field_score function, the first pass score is the
+ * subQueryScore of the function, so the score is {@code func_score_factor * fieldScoreTotal + original_score_factor * score + sortScoreTotal}.
+ * The hits after the window keep their first pass score and order.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreRescorer implements Rescorer {
+
+    public static final ComplexScoreRescorer INSTANCE = new ComplexScoreRescorer();
+
+    private static final Comparator<ScoreDoc> DOC_ORDER = Comparator.comparingInt(hit -> hit.doc);
+    private static final Comparator<ScoreDoc> SCORE_ORDER = (a, b) -> {
+        int cmp = Float.compare(b.score, a.score);
+        return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+    };
+
+    private ComplexScoreRescorer() {
+    }
+
+    /**
+     * The function resolved for the shard.
+     */
+    public static final class Context extends RescoreContext {
+        private final ComplexFieldFunction function;
+
+        Context(int windowSize, ComplexFieldFunction function) {
+            super(windowSize, INSTANCE);
+            this.function = function;
+        }
+
+        public ComplexFieldFunction getFunction() {
+            return function;
+        }
+    }
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+        if (topDocs == null || topDocs.scoreDocs.length == 0) {
+            return topDocs;
+        }
+        ComplexFieldFunction function = ((Context) rescoreContext).function;
+        ScoreDoc[] hits = topDocs.scoreDocs.clone();
+        int window = Math.min(rescoreContext.getWindowSize(), hits.length);
+        ScoreDoc[] head = Arrays.copyOf(hits, window);
+
+        // walk the window in doc order, so the doc values of each segment are read forward once
+        Arrays.sort(head, DOC_ORDER);
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        LeafScoreFunction leafFunction = null;
+        for (int i = 0; i < head.length; i++) {
+            ScoreDoc hit = head[i];
+            if (leaf == null || hit.doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+                leafFunction = function.getLeafScoreFunction(leaf);
+            }
+            head[i] = new ScoreDoc(hit.doc, (float) leafFunction.score(hit.doc - leaf.docBase, hit.score), hit.shardIndex);
+        }
+
+        Arrays.sort(head, SCORE_ORDER);
+        System.arraycopy(head, 0, hits, 0, window);
+        return new TopDocs(topDocs.totalHits, hits);
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+                               Explanation sourceExplanation) throws IOException {
+        if (sourceExplanation == null || !sourceExplanation.isMatch()) {
+            return sourceExplanation;
+        }
+        ComplexFieldFunction function = ((Context) rescoreContext).function;
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId, leaves));
+        return function.getLeafScoreFunction(leaf).explainScore(topLevelDocId - leaf.docBase, sourceExplanation);
+    }
+}
@@ -0,0 +1,104 @@
+package org.lccy.elasticsearch.plugin.rescore;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * {@code complex_score} rescorer, applies a complex_field_score function to the top hits of each shard only:
+ * <pre>
+ * "rescore": {
+ *     "window_size": 200,
+ *     "complex_score": {the complex_field_score params}
+ * }
+ * </pre>
+ * The [weight] of the function is not used.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreRescorerBuilder extends RescorerBuilder<ComplexScoreRescorerBuilder> {
+    public static final String NAME = "complex_score";
+
+    private final ComplexFieldFunctionBuilder function;
+
+    public ComplexScoreRescorerBuilder(ComplexFieldFunctionBuilder function) {
+        if (function == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires a function.");
+        }
+        this.function = function;
+    }
+
+    /**
+     * Read from a stream.
+     */
+    public ComplexScoreRescorerBuilder(StreamInput in) throws IOException {
+        this(in, null);
+    }
+
+    public ComplexScoreRescorerBuilder(StreamInput in, ComplexScoreServices services) throws IOException {
+        super(in);
+        this.function = new ComplexFieldFunctionBuilder(in, services);
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        function.writeTo(out);
+    }
+
+    public ComplexFieldFunctionBuilder function() {
+        return function;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field(NAME, function.getParams());
+    }
+
+    public static ComplexScoreRescorerBuilder fromXContent(XContentParser parser) throws IOException {
+        return fromXContent(parser, null);
+    }
+
+    public static ComplexScoreRescorerBuilder fromXContent(XContentParser parser, ComplexScoreServices services) throws IOException {
+        return new ComplexScoreRescorerBuilder(ComplexFieldFunctionBuilder.fromXContent(parser, services));
+    }
+
+    @Override
+    public ComplexScoreRescorerBuilder rewrite(QueryRewriteContext ctx) {
+        return this;
+    }
+
+    @Override
+    protected RescoreContext innerBuildContext(int windowSize, QueryShardContext context) {
+        return new ComplexScoreRescorer.Context(windowSize, function.toComplexFieldFunction(context));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        ComplexScoreRescorerBuilder other = (ComplexScoreRescorerBuilder) obj;
+        return Objects.equals(function, other.function);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), function);
+    }
+}
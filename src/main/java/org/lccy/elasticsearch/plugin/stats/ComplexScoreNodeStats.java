@@ -0,0 +1,87 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.indices.breaker.CircuitBreakerStats;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The scoring stats of one node: the plan cache, the complex_score breaker and the counters of every index scored on the node.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreNodeStats extends BaseNodeResponse implements ToXContentFragment {
+
+    private final long planCacheCount;
+    private final long planCacheHits;
+    private final long planCacheMisses;
+    private final long planCacheEvictions;
+    private final CircuitBreakerStats breaker;
+    private final Map<String, IndexScoringStats> indices;
+
+    public ComplexScoreNodeStats(DiscoveryNode node, long planCacheCount, long planCacheHits, long planCacheMisses,
+                                 long planCacheEvictions, CircuitBreakerStats breaker, Map<String, IndexScoringStats> indices) {
+        super(node);
+        this.planCacheCount = planCacheCount;
+        this.planCacheHits = planCacheHits;
+        this.planCacheMisses = planCacheMisses;
+        this.planCacheEvictions = planCacheEvictions;
+        this.breaker = breaker;
+        this.indices = indices;
+    }
+
+    public ComplexScoreNodeStats(StreamInput in) throws IOException {
+        super(in);
+        this.planCacheCount = in.readVLong();
+        this.planCacheHits = in.readVLong();
+        this.planCacheMisses = in.readVLong();
+        this.planCacheEvictions = in.readVLong();
+        this.breaker = new CircuitBreakerStats(in);
+        this.indices = in.readMap(StreamInput::readString, IndexScoringStats::new);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(planCacheCount);
+        out.writeVLong(planCacheHits);
+        out.writeVLong(planCacheMisses);
+        out.writeVLong(planCacheEvictions);
+        breaker.writeTo(out);
+        out.writeMap(indices, StreamOutput::writeString, (o, stats) -> stats.writeTo(o));
+    }
+
+    public Map<String, IndexScoringStats> getIndices() {
+        return indices;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("name", getNode().getName());
+        builder.startObject("plan_cache");
+        builder.field("count", planCacheCount);
+        builder.field("hits", planCacheHits);
+        builder.field("misses", planCacheMisses);
+        builder.field("evictions", planCacheEvictions);
+        builder.endObject();
+        builder.startObject("breakers");
+        breaker.toXContent(builder, params);
+        builder.endObject();
+        builder.startObject("indices");
+        for (Map.Entry<String, IndexScoringStats> entry : new TreeMap<>(indices).entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
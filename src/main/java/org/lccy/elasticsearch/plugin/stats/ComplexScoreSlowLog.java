@@ -0,0 +1,107 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.search.internal.SearchContext;
+import org.lccy.elasticsearch.plugin.function.ScoringTrace;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slow log of the shard level query phases scored by complex_field_score, with thresholds in dynamic index settings:
+ * <pre>
+ * PUT /my_index/_settings
+ * {"index.complex_score.slowlog.threshold.warn": "500ms", "index.complex_score.slowlog.threshold.info": "200ms"}
+ * </pre>
+ * A query phase over a threshold logs the plan fingerprints, the docs scored, the segments and the time by phase.
+ * The phases of the docs are timed on 1 of {@link ScoringCounters#SAMPLE_INTERVAL} docs and scaled up,
+ * nothing is traced while every threshold is disabled.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreSlowLog implements SearchOperationListener {
+
+    private static final String PREFIX = "index.complex_score.slowlog.threshold.";
+
+    public static final Setting<TimeValue> THRESHOLD_WARN = threshold("warn");
+    public static final Setting<TimeValue> THRESHOLD_INFO = threshold("info");
+    public static final Setting<TimeValue> THRESHOLD_DEBUG = threshold("debug");
+    public static final Setting<TimeValue> THRESHOLD_TRACE = threshold("trace");
+
+    private static final Logger logger = LogManager.getLogger("index.complex_score.slowlog");
+
+    private volatile long warnNanos;
+    private volatile long infoNanos;
+    private volatile long debugNanos;
+    private volatile long traceNanos;
+
+    public ComplexScoreSlowLog(IndexSettings indexSettings) {
+        indexSettings.getScopedSettings().addSettingsUpdateConsumer(THRESHOLD_WARN, value -> warnNanos = value.nanos());
+        indexSettings.getScopedSettings().addSettingsUpdateConsumer(THRESHOLD_INFO, value -> infoNanos = value.nanos());
+        indexSettings.getScopedSettings().addSettingsUpdateConsumer(THRESHOLD_DEBUG, value -> debugNanos = value.nanos());
+        indexSettings.getScopedSettings().addSettingsUpdateConsumer(THRESHOLD_TRACE, value -> traceNanos = value.nanos());
+        this.warnNanos = indexSettings.getValue(THRESHOLD_WARN).nanos();
+        this.infoNanos = indexSettings.getValue(THRESHOLD_INFO).nanos();
+        this.debugNanos = indexSettings.getValue(THRESHOLD_DEBUG).nanos();
+        this.traceNanos = indexSettings.getValue(THRESHOLD_TRACE).nanos();
+    }
+
+    private static Setting<TimeValue> threshold(String level) {
+        return Setting.timeSetting(PREFIX + level, TimeValue.timeValueNanos(-1), TimeValue.timeValueMillis(-1),
+                Setting.Property.Dynamic, Setting.Property.IndexScope);
+    }
+
+    public static List<Setting<?>> getSettings() {
+        return Arrays.asList(THRESHOLD_WARN, THRESHOLD_INFO, THRESHOLD_DEBUG, THRESHOLD_TRACE);
+    }
+
+    private boolean enabled() {
+        return warnNanos >= 0 || infoNanos >= 0 || debugNanos >= 0 || traceNanos >= 0;
+    }
+
+    @Override
+    public void onPreQueryPhase(SearchContext searchContext) {
+        if (enabled()) {
+            ScoringTrace.start();
+        }
+    }
+
+    @Override
+    public void onFailedQueryPhase(SearchContext searchContext) {
+        ScoringTrace.finish();
+    }
+
+    @Override
+    public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+        ScoringTrace trace = ScoringTrace.finish();
+        if (trace == null || trace.getSegments() == 0) {
+            return;
+        }
+        if (warnNanos >= 0 && tookInNanos >= warnNanos) {
+            logger.warn("{}", message(searchContext, trace, tookInNanos));
+        } else if (infoNanos >= 0 && tookInNanos >= infoNanos) {
+            logger.info("{}", message(searchContext, trace, tookInNanos));
+        } else if (debugNanos >= 0 && tookInNanos >= debugNanos) {
+            logger.debug("{}", message(searchContext, trace, tookInNanos));
+        } else if (traceNanos >= 0 && tookInNanos >= traceNanos) {
+            logger.trace("{}", message(searchContext, trace, tookInNanos));
+        }
+    }
+
+    private static String message(SearchContext context, ScoringTrace trace, long tookInNanos) {
+        return String.format(Locale.ROOT, "%s took[%s], took_millis[%d], plans%s, docs_scored[%d], segments[%d], "
+                        + "field_data_load[%s], field_scoring[%s], sort_matching[%s], geo_decay[%s]",
+                context.indexShard().shardId(), TimeValue.timeValueNanos(tookInNanos), TimeUnit.NANOSECONDS.toMillis(tookInNanos),
+                trace.getFingerprints(), trace.getDocsScored(), trace.getSegments(),
+                TimeValue.timeValueNanos(trace.getFieldDataNanos()), TimeValue.timeValueNanos(trace.getFieldScoringNanos()),
+                TimeValue.timeValueNanos(trace.getSortMatchingNanos()), TimeValue.timeValueNanos(trace.getGeoDecayNanos()));
+    }
+}
@@ -0,0 +1,33 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The scoring counters of the node by index, the counters of an index are dropped when the index is removed from the node.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ComplexScoreStats {
+
+    private final ConcurrentMap<String, ScoringCounters> indices = new ConcurrentHashMap<>();
+
+    public ScoringCounters forIndex(String index) {
+        return indices.computeIfAbsent(index, name -> new ScoringCounters());
+    }
+
+    public void remove(String index) {
+        indices.remove(index);
+    }
+
+    public Map<String, IndexScoringStats> snapshot() {
+        Map<String, IndexScoringStats> stats = new HashMap<>();
+        for (Map.Entry<String, ScoringCounters> entry : indices.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+}
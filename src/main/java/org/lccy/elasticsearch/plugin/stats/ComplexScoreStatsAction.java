@@ -0,0 +1,19 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.action.ActionType;
+
+/**
+ * Collect the complex_field_score scoring stats of the nodes.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreStatsAction extends ActionType<ComplexScoreStatsResponse> {
+
+    public static final ComplexScoreStatsAction INSTANCE = new ComplexScoreStatsAction();
+    public static final String NAME = "cluster:monitor/complex_score/stats";
+
+    private ComplexScoreStatsAction() {
+        super(NAME, ComplexScoreStatsResponse::new);
+    }
+}
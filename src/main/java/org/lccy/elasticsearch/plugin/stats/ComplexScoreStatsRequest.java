@@ -0,0 +1,37 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+
+/**
+ * Request of {@link ComplexScoreStatsAction}, the nodes to collect from.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreStatsRequest extends BaseNodesRequest<ComplexScoreStatsRequest> {
+
+    public ComplexScoreStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+
+    public ComplexScoreStatsRequest(StreamInput in) throws IOException {
+        super(in);
+    }
+
+    /**
+     * The request sent to each node.
+     */
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        public NodeRequest(StreamInput in) throws IOException {
+            super(in);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response of {@link ComplexScoreStatsAction}, the stats of each node and of each index summed over the nodes.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreStatsResponse extends BaseNodesResponse<ComplexScoreNodeStats> implements ToXContentFragment {
+
+    public ComplexScoreStatsResponse(StreamInput in) throws IOException {
+        super(in);
+    }
+
+    public ComplexScoreStatsResponse(ClusterName clusterName, List<ComplexScoreNodeStats> nodes, List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    protected List<ComplexScoreNodeStats> readNodesFrom(StreamInput in) throws IOException {
+        return in.readList(ComplexScoreNodeStats::new);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out, List<ComplexScoreNodeStats> nodes) throws IOException {
+        out.writeList(nodes);
+    }
+
+    /**
+     * @return the stats of each index summed over the nodes.
+     */
+    public Map<String, IndexScoringStats> getIndices() {
+        Map<String, IndexScoringStats> indices = new TreeMap<>();
+        for (ComplexScoreNodeStats node : getNodes()) {
+            for (Map.Entry<String, IndexScoringStats> entry : node.getIndices().entrySet()) {
+                indices.merge(entry.getKey(), entry.getValue(), IndexScoringStats::add);
+            }
+        }
+        return indices;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("indices");
+        for (Map.Entry<String, IndexScoringStats> entry : getIndices().entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.startObject("nodes");
+        for (ComplexScoreNodeStats node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            node.toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,113 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The scoring stats of one index, of a node or summed over the nodes.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class IndexScoringStats implements Writeable, ToXContentFragment {
+
+    public static final IndexScoringStats EMPTY = new IndexScoringStats(0, 0, 0, 0, 0, 0, Collections.emptyMap());
+
+    private final long docsScored;
+    private final long segmentsVisited;
+    private final long fieldScoringNanos;
+    private final long sortMatchingNanos;
+    private final long geoDecayNanos;
+    private final long explains;
+    private final Map<String, Long> categoryHits;
+
+    public IndexScoringStats(long docsScored, long segmentsVisited, long fieldScoringNanos, long sortMatchingNanos,
+                             long geoDecayNanos, long explains, Map<String, Long> categoryHits) {
+        this.docsScored = docsScored;
+        this.segmentsVisited = segmentsVisited;
+        this.fieldScoringNanos = fieldScoringNanos;
+        this.sortMatchingNanos = sortMatchingNanos;
+        this.geoDecayNanos = geoDecayNanos;
+        this.explains = explains;
+        this.categoryHits = categoryHits;
+    }
+
+    public IndexScoringStats(StreamInput in) throws IOException {
+        this.docsScored = in.readVLong();
+        this.segmentsVisited = in.readVLong();
+        this.fieldScoringNanos = in.readVLong();
+        this.sortMatchingNanos = in.readVLong();
+        this.geoDecayNanos = in.readVLong();
+        this.explains = in.readVLong();
+        this.categoryHits = in.readMap(StreamInput::readString, StreamInput::readVLong);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(docsScored);
+        out.writeVLong(segmentsVisited);
+        out.writeVLong(fieldScoringNanos);
+        out.writeVLong(sortMatchingNanos);
+        out.writeVLong(geoDecayNanos);
+        out.writeVLong(explains);
+        out.writeMap(categoryHits, StreamOutput::writeString, StreamOutput::writeVLong);
+    }
+
+    /**
+     * @return the sum of both stats.
+     */
+    public IndexScoringStats add(IndexScoringStats other) {
+        Map<String, Long> hits = new HashMap<>(categoryHits);
+        for (Map.Entry<String, Long> entry : other.categoryHits.entrySet()) {
+            hits.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        return new IndexScoringStats(docsScored + other.docsScored, segmentsVisited + other.segmentsVisited,
+                fieldScoringNanos + other.fieldScoringNanos, sortMatchingNanos + other.sortMatchingNanos,
+                geoDecayNanos + other.geoDecayNanos, explains + other.explains, hits);
+    }
+
+    public long getDocsScored() {
+        return docsScored;
+    }
+
+    public long getSegmentsVisited() {
+        return segmentsVisited;
+    }
+
+    public long getExplains() {
+        return explains;
+    }
+
+    public Map<String, Long> getCategoryHits() {
+        return categoryHits;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("docs_scored", docsScored);
+        builder.field("segments_visited", segmentsVisited);
+        timeField(builder, "field_scoring_time", fieldScoringNanos);
+        timeField(builder, "sort_matching_time", sortMatchingNanos);
+        timeField(builder, "geo_decay_time", geoDecayNanos);
+        builder.field("explains", explains);
+        builder.field("category_hits", new TreeMap<>(categoryHits));
+        return builder;
+    }
+
+    private static void timeField(XContentBuilder builder, String name, long nanos) throws IOException {
+        if (builder.humanReadable()) {
+            builder.field(name, TimeValue.timeValueNanos(nanos).toString());
+        }
+        builder.field(name + "_in_nanos", nanos);
+    }
+}
@@ -0,0 +1,34 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * {@code GET /_nodes/complex_score/stats} and {@code GET /_nodes/{nodeId}/complex_score/stats}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class RestComplexScoreStatsAction extends BaseRestHandler {
+
+    public RestComplexScoreStatsAction(RestController controller) {
+        controller.registerHandler(RestRequest.Method.GET, "/_nodes/complex_score/stats", this);
+        controller.registerHandler(RestRequest.Method.GET, "/_nodes/{nodeId}/complex_score/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "complex_score_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        ComplexScoreStatsRequest statsRequest = new ComplexScoreStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        return channel -> client.execute(ComplexScoreStatsAction.INSTANCE, statsRequest, new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
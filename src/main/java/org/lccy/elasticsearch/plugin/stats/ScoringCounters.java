@@ -0,0 +1,90 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live scoring counters of one index on a node. <br>
+ * Every counter is a {@link LongAdder}, so the search threads scoring docs at the same time don't contend on them.
+ * The times are measured on 1 of {@link #SAMPLE_INTERVAL} docs and scaled up.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public final class ScoringCounters {
+
+    // a power of 2, the phases of 1 of every 64 docs are timed
+    public static final int SAMPLE_INTERVAL = 64;
+
+    /**
+     * max number of category codes counted per index, the docs of the other codes are only counted as scored.
+     */
+    public static final int MAX_CATEGORIES = 1024;
+
+    // the scored docs that are not counted by a category hit counter, a scored doc increments a single counter
+    private final LongAdder uncountedDocs = new LongAdder();
+    private final LongAdder segmentsVisited = new LongAdder();
+    private final LongAdder fieldScoringNanos = new LongAdder();
+    private final LongAdder sortMatchingNanos = new LongAdder();
+    private final LongAdder geoDecayNanos = new LongAdder();
+    private final LongAdder explains = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> categoryHits = new ConcurrentHashMap<>();
+
+    /**
+     * @return the counter of the docs scored without a counted category, see {@link #categoryHits(String)}.
+     */
+    public LongAdder uncountedDocs() {
+        return uncountedDocs;
+    }
+
+    public void segmentVisited() {
+        segmentsVisited.increment();
+    }
+
+    public void explained() {
+        explains.increment();
+    }
+
+    /**
+     * @param nanos the time of a sampled doc
+     */
+    public void fieldScoring(long nanos) {
+        fieldScoringNanos.add(nanos * SAMPLE_INTERVAL);
+    }
+
+    public void sortMatching(long nanos) {
+        sortMatchingNanos.add(nanos * SAMPLE_INTERVAL);
+    }
+
+    public void geoDecay(long nanos) {
+        geoDecayNanos.add(nanos * SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @return the counter of the docs scored by the rules of the category, null once {@link #MAX_CATEGORIES} other
+     * codes are counted. A doc counted here is not counted by {@link #uncountedDocs()}.
+     */
+    public LongAdder categoryHits(String categoryCode) {
+        LongAdder hits = categoryHits.get(categoryCode);
+        if (hits != null || categoryHits.size() >= MAX_CATEGORIES) {
+            // the bound is checked without a lock, concurrent codes may go slightly above it
+            return hits;
+        }
+        return categoryHits.computeIfAbsent(categoryCode, code -> new LongAdder());
+    }
+
+    public IndexScoringStats snapshot() {
+        Map<String, Long> hits = new HashMap<>();
+        long docsScored = uncountedDocs.sum();
+        for (Map.Entry<String, LongAdder> entry : categoryHits.entrySet()) {
+            long sum = entry.getValue().sum();
+            hits.put(entry.getKey(), sum);
+            docsScored += sum;
+        }
+        return new IndexScoringStats(docsScored, segmentsVisited.sum(), fieldScoringNanos.sum(), sortMatchingNanos.sum(),
+                geoDecayNanos.sum(), explains.sum(), hits);
+    }
+}
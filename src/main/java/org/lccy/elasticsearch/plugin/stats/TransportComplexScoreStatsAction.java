@@ -0,0 +1,59 @@
+package org.lccy.elasticsearch.plugin.stats;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlanCache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Read the scoring counters of every node.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class TransportComplexScoreStatsAction extends TransportNodesAction<ComplexScoreStatsRequest, ComplexScoreStatsResponse,
+        ComplexScoreStatsRequest.NodeRequest, ComplexScoreNodeStats> {
+
+    private final ComplexScoreServices services;
+
+    @Inject
+    public TransportComplexScoreStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                            ActionFilters actionFilters, ComplexScoreServices services) {
+        super(ComplexScoreStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                ComplexScoreStatsRequest::new, ComplexScoreStatsRequest.NodeRequest::new, ThreadPool.Names.MANAGEMENT,
+                ComplexScoreNodeStats.class);
+        this.services = services;
+    }
+
+    @Override
+    protected ComplexScoreStatsResponse newResponse(ComplexScoreStatsRequest request, List<ComplexScoreNodeStats> responses,
+                                                    List<FailedNodeException> failures) {
+        return new ComplexScoreStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected ComplexScoreStatsRequest.NodeRequest newNodeRequest(ComplexScoreStatsRequest request) {
+        return new ComplexScoreStatsRequest.NodeRequest();
+    }
+
+    @Override
+    protected ComplexScoreNodeStats newNodeResponse(StreamInput in) throws IOException {
+        return new ComplexScoreNodeStats(in);
+    }
+
+    @Override
+    protected ComplexScoreNodeStats nodeOperation(ComplexScoreStatsRequest.NodeRequest request) {
+        ScorePlanCache planCache = services.getPlanCache();
+        return new ComplexScoreNodeStats(clusterService.localNode(), planCache.count(), planCache.hits(), planCache.misses(),
+                planCache.evictions(), services.getBreaker().stats(), services.getStats().snapshot());
+    }
+}
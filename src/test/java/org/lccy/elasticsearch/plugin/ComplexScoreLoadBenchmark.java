@@ -0,0 +1,266 @@
+package org.lccy.elasticsearch.plugin;
+
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load test on an embedded node: indexes a synthetic index shaped like the README schema, then replays a mix of
+ * complex_field_score queries at a fixed concurrency and reports the throughput and the latency percentiles,
+ * next to a plain function_score with the same rules and to the query without any function. <br>
+ * Not run by {@code mvn test}, run it with
+ * <pre>
+ * mvn test -Dtest=ComplexScoreLoadBenchmark -Dload.docs=200000 -Dload.categories=300 -Dload.concurrency=8
+ * </pre>
+ * The node runs in a temporary directory, without network access. The params:
+ * load.docs (100000), load.categories (300), load.shards (1), load.concurrency (8), load.requests (5000),
+ * load.warmup (1000), load.queries (64, the distinct queries of the mix).
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreLoadBenchmark {
+
+    private static final String INDEX = "complex_score_load";
+    private static final String[] WORDS = new String[64];
+    private static final String[] ORIGINS = {"31,121", "30.5,120.2", "31.8,121.6", "30.2,121.9"};
+
+    static {
+        for (int i = 0; i < WORDS.length; i++) {
+            WORDS[i] = "w" + i;
+        }
+    }
+
+    private final int docs = Integer.getInteger("load.docs", 100_000);
+    private final int categories = Integer.getInteger("load.categories", 300);
+    private final int shards = Integer.getInteger("load.shards", 1);
+    private final int concurrency = Integer.getInteger("load.concurrency", 8);
+    private final int requests = Integer.getInteger("load.requests", 5_000);
+    private final int warmup = Integer.getInteger("load.warmup", 1_000);
+    private final int queries = Integer.getInteger("load.queries", 64);
+
+    private CustomElasticsearchClusterRunner runner;
+
+    @Before
+    public void setUp() throws IOException {
+        runner = new CustomElasticsearchClusterRunner();
+        runner.build(newConfigs()
+                .basePath(Files.createTempDirectory("complex-score-load").toString())
+                .clusterName("complex-score-load")
+                .numOfNode(1)
+                .pluginTypes(ComplexFieldFunctionPlugin.class.getName()));
+        runner.ensureYellow();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        runner.close();
+        runner.clean();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        createIndex();
+        index();
+
+        Random random = new Random(42);
+        List<String> complex = new ArrayList<>();
+        List<String> functionScore = new ArrayList<>();
+        List<String> plain = new ArrayList<>();
+        for (int i = 0; i < queries; i++) {
+            String text = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            String origin = ORIGINS[random.nextInt(ORIGINS.length)];
+            String execution = i % 2 == 0 ? "interpreted" : "specialized";
+            complex.add(complexQuery(text, origin, execution));
+            functionScore.add(functionScoreQuery(text, origin));
+            plain.add(matchQuery(text));
+        }
+
+        System.out.printf(Locale.ROOT, "docs=%d categories=%d shards=%d concurrency=%d requests=%d warmup=%d queries=%d%n",
+                docs, categories, shards, concurrency, requests, warmup, queries);
+        System.out.printf(Locale.ROOT, "%-22s %12s %10s %10s %10s%n", "variant", "throughput/s", "p50 ms", "p99 ms", "p999 ms");
+        report("complex_field_score", complex);
+        report("function_score", functionScore);
+        report("no function", plain);
+    }
+
+    private void createIndex() {
+        String mapping = "{\"properties\":{"
+                + "\"title\":{\"type\":\"text\"},"
+                + "\"categoryCode\":{\"type\":\"keyword\"},"
+                + "\"exposure\":{\"type\":\"long\"},"
+                + "\"currentPrice\":{\"type\":\"float\"},"
+                + "\"clickQuantity\":{\"type\":\"long\"},"
+                + "\"location\":{\"type\":\"geo_point\"},"
+                + "\"cornerMark\":{\"type\":\"keyword\"},"
+                + "\"sourceProvCode\":{\"type\":\"keyword\"},"
+                + "\"iopType\":{\"type\":\"keyword\"}}}";
+        CreateIndexRequest request = new CreateIndexRequest(INDEX);
+        request.settings(Settings.builder().put("index.number_of_shards", shards).put("index.number_of_replicas", 0)
+                .put("index.refresh_interval", "-1"));
+        request.mapping("_doc", mapping, XContentType.JSON);
+        runner.createIndex(INDEX, request);
+        runner.ensureYellow(INDEX);
+    }
+
+    private void index() {
+        Random random = new Random(7);
+        Client client = runner.client();
+        BulkRequestBuilder bulk = client.prepareBulk();
+        for (int doc = 0; doc < docs; doc++) {
+            Map<String, Object> source = new HashMap<>();
+            StringBuilder title = new StringBuilder();
+            for (int w = 2 + random.nextInt(5); w > 0; w--) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            source.put("title", title.toString().trim());
+            // a fifth of the docs have a category that is not configured
+            source.put("categoryCode", category(random.nextInt(categories + categories / 4 + 1)));
+            source.put("exposure", random.nextInt(100_000));
+            if (random.nextInt(10) != 0) {
+                source.put("currentPrice", random.nextInt(10_000) / 10f);
+            }
+            source.put("clickQuantity", random.nextInt(10_000));
+            source.put("location", (30 + random.nextDouble() * 2) + "," + (120 + random.nextDouble() * 2));
+            source.put("cornerMark", Arrays.asList(String.valueOf(random.nextInt(4)), String.valueOf(random.nextInt(4))));
+            source.put("sourceProvCode", random.nextBoolean() ? "9999" : String.valueOf(random.nextInt(40)));
+            source.put("iopType", String.valueOf(random.nextInt(4)));
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(doc)).source(source));
+            if (bulk.numberOfActions() == 5_000 || doc == docs - 1) {
+                BulkResponse response = bulk.get();
+                if (response.hasFailures()) {
+                    throw new IllegalStateException(response.buildFailureMessage());
+                }
+                bulk = client.prepareBulk();
+            }
+        }
+        runner.refresh();
+    }
+
+    private void report(String variant, List<String> mix) throws InterruptedException {
+        run(mix, warmup);
+        long start = System.nanoTime();
+        long[] latencies = run(mix, requests);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        System.out.printf(Locale.ROOT, "%-22s %12.1f %10.2f %10.2f %10.2f%n", variant, requests / seconds,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    /**
+     * @return the latency of each request, in nanos.
+     */
+    private long[] run(List<String> mix, int count) throws InterruptedException {
+        long[] latencies = new long[count];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        for (int t = 0; t < concurrency; t++) {
+            executor.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    long start = System.nanoTime();
+                    SearchResponse response = runner.client().prepareSearch(INDEX)
+                            .setQuery(QueryBuilders.wrapperQuery(mix.get(i % mix.size())))
+                            .setSize(10)
+                            .get();
+                    latencies[i] = System.nanoTime() - start;
+                    if (response.getFailedShards() > 0) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        assertEquals("requests with failed shards", 0, failures.get());
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = Math.min(sorted.length - 1, Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1));
+        return sorted[index] / 1e6;
+    }
+
+    private static String category(int category) {
+        return String.format(Locale.ROOT, "C%04d", category);
+    }
+
+    private static String matchQuery(String text) {
+        return "{\"match\":{\"title\":\"" + text + "\"}}";
+    }
+
+    /**
+     * the README function: numeric and geo rules, sort rules on three keyword fields, categories configured by groups of 3.
+     */
+    private String complexQuery(String text, String origin, String execution) {
+        String fields = "{\"field\":\"exposure\",\"factor\":0.125,\"modifier\":\"log1p\",\"weight\":\"50\"},"
+                + "{\"field\":\"currentPrice\",\"factor\":-0.2,\"modifier\":\"log1p\",\"weight\":\"50\",\"add_num\":1,\"missing\":0},"
+                + "{\"field\":\"location\",\"factor\":1,\"modifier\":\"decaygeoexp\",\"weight\":\"50\""
+                + ",\"origin\":\"" + origin + "\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6}";
+        String sorts = "{\"weight\":1,\"field\":\"cornerMark\",\"value\":\"1\"},"
+                + "{\"weight\":2,\"field\":\"cornerMark\",\"value\":\"2\"},"
+                + "{\"weight\":3,\"field\":\"sourceProvCode\",\"value\":\"9999\"},"
+                + "{\"weight\":4,\"field\":\"sourceProvCode\",\"type\":\"not\",\"value\":\"9999\"},"
+                + "{\"weight\":5,\"field\":\"iopType\",\"value\":\"1\"},"
+                + "{\"weight\":9,\"field\":\"cornerMark&_&iopType\",\"type\":\"equal&_&not_in\",\"value\":\"1&_&2,3\"}";
+        StringBuilder fieldsScore = new StringBuilder();
+        StringBuilder sortScore = new StringBuilder();
+        for (int i = 0; i < categories; i += 3) {
+            StringBuilder key = new StringBuilder();
+            for (int c = i; c < Math.min(i + 3, categories); c++) {
+                key.append(key.length() == 0 ? "" : ",").append(category(c));
+            }
+            String sep = i == 0 ? "" : ",";
+            fieldsScore.append(sep).append('"').append(key).append("\":[").append(fields).append(']');
+            sortScore.append(sep).append('"').append(key).append("\":[").append(sorts).append(']');
+        }
+        String function = "{\"category_field\":\"categoryCode\",\"field_mode\":\"sum\",\"execution\":\"" + execution + "\""
+                + ",\"fields_score\":{" + fieldsScore + "},\"sort_base_score\":20000,\"sort_score\":{" + sortScore + "}"
+                + ",\"func_score_factor\":0.7,\"original_score_factor\":0.3}";
+        return "{\"function_score\":{\"query\":" + matchQuery(text) + ",\"functions\":[{\"complex_field_score\":" + function + "}]"
+                + ",\"score_mode\":\"sum\",\"boost_mode\":\"replace\"}}";
+    }
+
+    /**
+     * the same rules with the built-in functions, without the per category dispatch: a field_value_factor per numeric rule,
+     * an exp decay for the geo rule and a filter weight per sort rule.
+     */
+    private static String functionScoreQuery(String text, String origin) {
+        String functions = "{\"field_value_factor\":{\"field\":\"exposure\",\"factor\":0.125,\"modifier\":\"log1p\",\"missing\":0},\"weight\":50},"
+                + "{\"field_value_factor\":{\"field\":\"currentPrice\",\"factor\":0.2,\"modifier\":\"log1p\",\"missing\":0},\"weight\":50},"
+                + "{\"exp\":{\"location\":{\"origin\":\"" + origin + "\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6}},\"weight\":50},"
+                + "{\"filter\":{\"term\":{\"cornerMark\":\"1\"}},\"weight\":20000},"
+                + "{\"filter\":{\"term\":{\"cornerMark\":\"2\"}},\"weight\":40000},"
+                + "{\"filter\":{\"term\":{\"sourceProvCode\":\"9999\"}},\"weight\":60000},"
+                + "{\"filter\":{\"term\":{\"iopType\":\"1\"}},\"weight\":100000}";
+        return "{\"function_score\":{\"query\":" + matchQuery(text) + ",\"functions\":[" + functions + "]"
+                + ",\"score_mode\":\"sum\",\"boost_mode\":\"replace\"}}";
+    }
+}
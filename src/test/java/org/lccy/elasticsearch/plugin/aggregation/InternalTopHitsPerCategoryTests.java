@@ -0,0 +1,136 @@
+package org.lccy.elasticsearch.plugin.aggregation;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.aggregation.InternalTopHitsPerCategory.Bucket;
+import org.lccy.elasticsearch.plugin.aggregation.InternalTopHitsPerCategory.Hit;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The buckets of the shards are merged by category, their hits sorted by score then by index and _id and cut to [size]. <br>
+ * [include] is resolved once per shard to the global ordinals of the terms the shard has.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class InternalTopHitsPerCategoryTests {
+
+    private static final int SIZE = 2;
+
+    @Test
+    public void testReduce() {
+        InternalTopHitsPerCategory first = shard(
+                new Bucket("F1", 5, Arrays.asList(hit("4", 3), hit("2", 1))),
+                new Bucket("F2", 1, Collections.singletonList(hit("3", 2))));
+        InternalTopHitsPerCategory second = shard(
+                new Bucket("F1", 4, Arrays.asList(hit("1", 3), hit("5", 2.5f))),
+                new Bucket("F3", 2, Collections.singletonList(hit("6", 1.5f))));
+        InternalTopHitsPerCategory reduced = reduce(first, shard(), second);
+
+        List<Bucket> buckets = reduced.getBuckets();
+        assertEquals(3, buckets.size());
+        // the doc counts of every shard, the hits cut to [size], a tie broken by _id
+        assertBucket(buckets.get(0), "F1", 9, hit("1", 3), hit("4", 3));
+        assertBucket(buckets.get(1), "F2", 1, hit("3", 2));
+        assertBucket(buckets.get(2), "F3", 2, hit("6", 1.5f));
+    }
+
+    @Test
+    public void testReduceAcrossIndices() {
+        BytesArray source = new BytesArray("{\"title\":\"phone\"}");
+        InternalTopHitsPerCategory first = shard(new Bucket("F1", 1, Collections.singletonList(new Hit("goods_v2", "1", 2, null))));
+        InternalTopHitsPerCategory second = shard(new Bucket("F1", 2, Arrays.asList(new Hit("goods_v1", "1", 2, source), hit("2", 1))));
+        Bucket bucket = reduce(first, second).getBuckets().get(0);
+        assertBucket(bucket, "F1", 3, new Hit("goods_v1", "1", 2, source), new Hit("goods_v2", "1", 2, null));
+    }
+
+    @Test
+    public void testReduceEmpty() {
+        assertEquals(Collections.emptyList(), reduce(shard(), shard()).getBuckets());
+    }
+
+    @Test
+    public void testIncludeOrds() throws IOException {
+        // a segment per doc, the global ordinals span the segments
+        String[] categories = {"F3", "F1", "F2", "F1"};
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (String category : categories) {
+                Document document = new Document();
+                document.add(new SortedSetDocValuesField("category", new BytesRef(category)));
+                writer.addDocument(document);
+                writer.flush();
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(categories.length, reader.leaves().size());
+            IndexOrdinalsFieldData global = fieldData("category").loadGlobal(reader);
+            // any segment looks the terms of the others up
+            SortedSetDocValues lookup = global.load(reader.leaves().get(0)).getOrdinalsValues();
+
+            long[] ords = TopHitsPerCategoryAggregator.includeOrds(lookup, Arrays.asList("F3", "F404", "F1"));
+            assertEquals(2, ords.length);
+            assertEquals(new BytesRef("F1"), lookup.lookupOrd(ords[0]));
+            assertEquals(new BytesRef("F3"), lookup.lookupOrd(ords[1]));
+
+            assertEquals(0, TopHitsPerCategoryAggregator.includeOrds(lookup, Collections.singletonList("F404")).length);
+            assertNull(TopHitsPerCategoryAggregator.includeOrds(lookup, null));
+        }
+    }
+
+    private static InternalTopHitsPerCategory shard(Bucket... buckets) {
+        return new InternalTopHitsPerCategory("by_category", SIZE, Arrays.asList(buckets), Collections.emptyList(), null);
+    }
+
+    private static InternalTopHitsPerCategory reduce(InternalTopHitsPerCategory... shards) {
+        List<InternalAggregation> aggregations = Arrays.<InternalAggregation>asList(shards);
+        return (InternalTopHitsPerCategory) shards[0].doReduce(aggregations, null);
+    }
+
+    private static Hit hit(String id, float score) {
+        return new Hit("goods", id, score, null);
+    }
+
+    private static void assertBucket(Bucket bucket, String key, long docCount, Hit... hits) {
+        assertEquals(key, bucket.getKey());
+        assertEquals("doc_count of [" + key + "]", docCount, bucket.getDocCount());
+        assertEquals("hits of [" + key + "]", Arrays.asList(hits), bucket.getHits());
+    }
+
+    private static IndexOrdinalsFieldData fieldData(String field) {
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("aggregation").settings(settings).build(), Settings.EMPTY);
+        return new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, field,
+                new NoneCircuitBreakerService(), AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION);
+    }
+}
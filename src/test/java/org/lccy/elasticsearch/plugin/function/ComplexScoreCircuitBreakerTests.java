@@ -0,0 +1,49 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The charges of a search phase are held until the phase ends, and never outlive it.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreCircuitBreakerTests {
+
+    private final ComplexScoreCircuitBreaker breaker = new ComplexScoreCircuitBreaker(Settings.EMPTY);
+
+    @After
+    public void unbind() {
+        ComplexScoreCircuitBreaker.endRequest();
+    }
+
+    @Test
+    public void testPhaseCharges() {
+        ComplexScoreCircuitBreaker.chargeRequest(ComplexScoreCircuitBreaker.MIN_CHARGE, "outside");
+        assertEquals("not charged outside of a search phase", 0, breaker.getUsed());
+
+        breaker.startRequest();
+        ComplexScoreCircuitBreaker.chargeRequest(ComplexScoreCircuitBreaker.MIN_CHARGE, "table");
+        ComplexScoreCircuitBreaker.chargeRequest(ComplexScoreCircuitBreaker.MIN_CHARGE - 1, "small");
+        ComplexScoreCircuitBreaker.chargeRequest(2 * ComplexScoreCircuitBreaker.MIN_CHARGE, "table");
+        assertEquals(3 * ComplexScoreCircuitBreaker.MIN_CHARGE, breaker.getUsed());
+        ComplexScoreCircuitBreaker.endRequest();
+        assertEquals(0, breaker.getUsed());
+    }
+
+    @Test
+    public void testUnfinishedPhase() {
+        breaker.startRequest();
+        ComplexScoreCircuitBreaker.chargeRequest(ComplexScoreCircuitBreaker.MIN_CHARGE, "query");
+        // the next phase on the thread, the end of the first one was never reported
+        breaker.startRequest();
+        assertEquals(0, breaker.getUsed());
+        ComplexScoreCircuitBreaker.chargeRequest(ComplexScoreCircuitBreaker.MIN_CHARGE, "fetch");
+        ComplexScoreCircuitBreaker.endRequest();
+        assertEquals(0, breaker.getUsed());
+    }
+}
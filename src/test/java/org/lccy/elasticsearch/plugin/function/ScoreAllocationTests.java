@@ -0,0 +1,227 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LatLonDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.lucene.search.function.LeafScoreFunction;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractLatLonPointDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedNumericDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.bo.FieldScoreComputeWapper;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The per doc scoring path must not allocate: each rule type is scored over an in memory segment once the scorer is
+ * warmed up, and the bytes allocated by the thread while scoring are divided by the scored docs. <br>
+ * Binding the function to the segment allocates and is not measured. A boxed value, a String[] or a GeoPoint per doc
+ * shows up as at least 16 bytes per doc, the constant cost of the measure itself rounds down to 0.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ScoreAllocationTests {
+
+    private static final int DOCS = 20_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final String[] EXECUTIONS = {Constants.ExecutionMode.INTERPRETED, Constants.ExecutionMode.SPECIALIZED};
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static DirectoryReader reader;
+    private static Map<String, IndexFieldData> fieldData;
+
+    @BeforeClass
+    public static void buildIndex() throws IOException {
+        Random random = new Random(42);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int doc = 0; doc < DOCS; doc++) {
+                Document document = new Document();
+                // C3 is not configured
+                document.add(new SortedSetDocValuesField("category", new BytesRef("C" + random.nextInt(4))));
+                document.add(new SortedNumericDocValuesField("price", NumericUtils.doubleToSortableLong(1 + random.nextInt(1000))));
+                // a third of the docs miss stock and location
+                if (random.nextInt(3) != 0) {
+                    document.add(new SortedNumericDocValuesField("stock", NumericUtils.doubleToSortableLong(random.nextInt(100))));
+                    document.add(new SortedNumericDocValuesField("stock", NumericUtils.doubleToSortableLong(random.nextInt(100))));
+                    document.add(new LatLonDocValuesField("location", 30 + random.nextDouble() * 2, 120 + random.nextDouble() * 2));
+                }
+                document.add(new SortedSetDocValuesField("mark", new BytesRef(String.valueOf(random.nextInt(4)))));
+                if (random.nextBoolean()) {
+                    document.add(new SortedSetDocValuesField("prov", new BytesRef(String.valueOf(random.nextInt(4)))));
+                    document.add(new SortedSetDocValuesField("prov", new BytesRef("9999")));
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("allocation").settings(settings).build(), Settings.EMPTY);
+        Index index = indexSettings.getIndex();
+        fieldData = new HashMap<>();
+        for (String keyword : new String[]{"category", "mark", "prov"}) {
+            fieldData.put(keyword, new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, keyword,
+                    new NoneCircuitBreakerService(), AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION));
+        }
+        for (String numeric : new String[]{"price", "stock"}) {
+            fieldData.put(numeric, new SortedNumericDVIndexFieldData(index, numeric, IndexNumericFieldData.NumericType.DOUBLE));
+        }
+        fieldData.put("location", new AbstractLatLonPointDVIndexFieldData.LatLonPointDVIndexFieldData(index, "location"));
+    }
+
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testNumericModifiers() throws IOException {
+        for (FieldScoreComputeWapper.Modifier modifier : FieldScoreComputeWapper.Modifier.values()) {
+            if (modifier == FieldScoreComputeWapper.Modifier.DECAYGEOEXP) {
+                continue;
+            }
+            String fields = "{\"field\":\"price\",\"factor\":0.5,\"modifier\":\"" + modifier + "\",\"weight\":10,\"add_num\":1}";
+            assertNoAllocation(modifier.toString(), fields, "");
+        }
+    }
+
+    @Test
+    public void testNumericMissing() throws IOException {
+        String fields = "{\"field\":\"stock\",\"factor\":0.5,\"modifier\":\"ln2p\",\"weight\":10,\"require\":true,\"missing\":0}";
+        assertNoAllocation("missing", fields, "");
+    }
+
+    @Test
+    public void testGeoDecay() throws IOException {
+        String fields = "{\"field\":\"location\",\"factor\":1,\"modifier\":\"decaygeoexp\",\"weight\":50"
+                + ",\"origin\":\"31,121\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6}";
+        assertNoAllocation("decaygeoexp", fields, "");
+        String missing = "{\"field\":\"location\",\"factor\":1,\"modifier\":\"decaygeoexp\",\"weight\":50"
+                + ",\"origin\":\"31,121\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6,\"require\":true,\"missing\":\"30,120\"}";
+        assertNoAllocation("decaygeoexp missing", missing, "");
+    }
+
+    @Test
+    public void testSortTypes() throws IOException {
+        String[][] rules = {
+                {"equal", "mark", "1"},
+                {"not", "prov", "9999"},
+                {"in", "mark", "1,2"},
+                {"not_in", "prov", "2,3"},
+                {"exists", "prov", null},
+                {"not_exists", "prov", null},
+                {"any", null, null},
+                {"gt", "stock", "50"},
+                {"gte", "stock", "50"},
+                {"lt", "price", "500"},
+                {"lte", "price", "500"},
+                {"between", "stock", "10,60"}
+        };
+        for (String[] rule : rules) {
+            StringBuilder sort = new StringBuilder("{\"weight\":3,\"type\":\"").append(rule[0]).append('"');
+            if (rule[1] != null) {
+                sort.append(",\"field\":\"").append(rule[1]).append('"');
+            }
+            if (rule[2] != null) {
+                sort.append(",\"value\":\"").append(rule[2]).append('"');
+            }
+            sort.append('}');
+            // a rule that never matches first, so the tested rule is reached
+            String sorts = "{\"weight\":9,\"field\":\"mark\",\"value\":\"404\"}," + sort;
+            assertNoAllocation(rule[0], "", sorts);
+        }
+    }
+
+    @Test
+    public void testMultiFieldRules() throws IOException {
+        String fields = "{\"field\":\"price\",\"factor\":0.125,\"modifier\":\"log1p\",\"weight\":50},"
+                + "{\"field\":\"stock\",\"factor\":-0.2,\"modifier\":\"ln1p\",\"weight\":50,\"add_num\":1}";
+        String sorts = "{\"weight\":5,\"field\":\"mark&_&prov&_&stock\",\"type\":\"equal&_&not_in&_&gte\",\"value\":\"1&_&2,3&_&10\"},"
+                + "{\"weight\":4,\"field\":\"mark&_&price\",\"type\":\"not&_&between\",\"value\":\"1&_&100,800\"},"
+                + "{\"weight\":1,\"type\":\"any\"}";
+        assertNoAllocation("&_&", fields, sorts);
+    }
+
+    private static void assertNoAllocation(String ruleType, String fields, String sorts) throws IOException {
+        Assume.assumeTrue("the JVM doesn't measure the allocated bytes per thread", THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        for (String execution : EXECUTIONS) {
+            ComplexFieldFunction function = new ComplexFieldFunction(plan(execution, fields, sorts), fieldData);
+            LeafReaderContext leaf = reader.leaves().get(0);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                scoreAll(function.getLeafScoreFunction(leaf));
+            }
+            LeafScoreFunction leafFunction = function.getLeafScoreFunction(leaf);
+            long threadId = Thread.currentThread().getId();
+            long before = THREADS.getThreadAllocatedBytes(threadId);
+            double total = scoreAll(leafFunction);
+            long allocated = THREADS.getThreadAllocatedBytes(threadId) - before;
+            assertEquals("bytes allocated per doc by [" + ruleType + "] with the [" + execution + "] execution, total score " + total,
+                    0, allocated / DOCS);
+        }
+    }
+
+    private static double scoreAll(LeafScoreFunction leafFunction) throws IOException {
+        double total = 0;
+        for (int doc = 0; doc < DOCS; doc++) {
+            total += leafFunction.score(doc, 1.5f);
+        }
+        return total;
+    }
+
+    private static ScorePlan plan(String execution, String fields, String sorts) {
+        String categories = "C0,C1,C2";
+        StringBuilder config = new StringBuilder("{\"category_field\":\"category\",\"field_mode\":\"sum\"")
+                .append(",\"execution\":\"").append(execution).append('"')
+                .append(",\"func_score_factor\":0.7,\"original_score_factor\":0.3");
+        if (!fields.isEmpty()) {
+            config.append(",\"fields_score\":{\"").append(categories).append("\":[").append(fields).append("]}");
+        }
+        if (!sorts.isEmpty()) {
+            config.append(",\"sort_base_score\":20000,\"sort_score\":{\"").append(categories).append("\":[").append(sorts).append("]}");
+        }
+        config.append('}');
+        Map<String, Object> params = XContentHelper.convertToMap(new BytesArray(config.toString()), true, XContentType.JSON).v2();
+        return ScorePlan.compile(new CategoryScoreWapper(null, params));
+    }
+}
@@ -0,0 +1,262 @@
+package org.lccy.elasticsearch.plugin.function;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedNumericDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.function.plan.SortRange;
+import org.lccy.elasticsearch.plugin.function.plan.SortRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A sort_score rule matches the same docs on the segment ordinals and on the doc's source values. <br>
+ * [in] and [not_in] match the comma separated values exactly, a value is never matched as a substring of the list.
+ * The range types match the numeric doc values and the source values at their bounds, dates as epoch millis.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class SortOrdMatcherTests {
+
+    // the [mark] values of each doc, a doc without values has no [mark]
+    private static final String[][] MARKS = {
+            {"1"},
+            {"11", "2"},
+            {"2", "3"},
+            {},
+            {"11"}
+    };
+    // the [price] values of each doc, the second one is just above 10
+    private static final double[][] PRICES = {
+            {10},
+            {Math.nextUp(10d)},
+            {9.99, 20},
+            {},
+            {20, 30}
+    };
+    // the [updated] values of each doc as written in the source, indexed as epoch millis
+    private static final String[][] DATES = {
+            {"2023-07-04"},
+            {"2023-07-04T00:00:00.001Z"},
+            {"2023-07-03T23:59:59.999Z"},
+            {},
+            {"2023-07-05T08:00:00+08:00"}
+    };
+    // 2023-07-04T00:00:00Z
+    private static final long JULY_4TH = 1688428800000L;
+    private static final long[][] DATE_MILLIS = {
+            {JULY_4TH},
+            {JULY_4TH + 1},
+            {JULY_4TH - 1},
+            {},
+            {JULY_4TH + 24 * 3600 * 1000}
+    };
+
+    private static DirectoryReader reader;
+    private static Map<String, IndexFieldData> fieldData;
+
+    @BeforeClass
+    public static void buildIndex() throws IOException {
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int doc = 0; doc < MARKS.length; doc++) {
+                Document document = new Document();
+                for (String mark : MARKS[doc]) {
+                    document.add(new SortedSetDocValuesField("mark", new BytesRef(mark)));
+                }
+                for (double price : PRICES[doc]) {
+                    document.add(new SortedNumericDocValuesField("price", NumericUtils.doubleToSortableLong(price)));
+                }
+                for (long millis : DATE_MILLIS[doc]) {
+                    document.add(new SortedNumericDocValuesField("updated", millis));
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("sort").settings(settings).build(), Settings.EMPTY);
+        Index index = indexSettings.getIndex();
+        fieldData = new HashMap<>();
+        fieldData.put("mark", new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, "mark",
+                new NoneCircuitBreakerService(), AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION));
+        fieldData.put("price", new SortedNumericDVIndexFieldData(index, "price", IndexNumericFieldData.NumericType.DOUBLE));
+        fieldData.put("updated", new SortedNumericDVIndexFieldData(index, "updated", IndexNumericFieldData.NumericType.DATE));
+    }
+
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testEqual() throws IOException {
+        assertMatches("equal", "1", true, false, false, false, false);
+        assertMatches("equal", "11", false, true, false, false, true);
+        assertMatches("equal", "404", false, false, false, false, false);
+    }
+
+    @Test
+    public void testNot() throws IOException {
+        assertMatches("not", "2", true, false, false, true, true);
+        assertMatches("not", "404", true, true, true, true, true);
+    }
+
+    @Test
+    public void testIn() throws IOException {
+        // [1] is a substring of [11,3] but not one of its values
+        assertMatches("in", "11,3", false, true, true, false, true);
+        assertMatches("in", "11, 2", false, true, true, false, true);
+        assertMatches("in", "1", true, false, false, false, false);
+        assertMatches("in", "404,405", false, false, false, false, false);
+    }
+
+    @Test
+    public void testNotIn() throws IOException {
+        assertMatches("not_in", "11,3", true, false, false, true, false);
+        assertMatches("not_in", "1", false, true, true, true, true);
+        assertMatches("not_in", "404", true, true, true, true, true);
+    }
+
+    @Test
+    public void testExists() throws IOException {
+        assertMatches("exists", null, true, true, true, false, true);
+        assertMatches("not_exists", null, false, false, false, true, false);
+    }
+
+    @Test
+    public void testAny() throws IOException {
+        assertMatches("any", null, true, true, true, true, true);
+    }
+
+    @Test
+    public void testNumericRanges() throws IOException {
+        // an exclusive bound is moved to the next double, the doc just above 10 is greater than 10
+        assertMatches("price", "gt", "10", false, true, true, false, true);
+        assertMatches("price", "gte", "10", true, true, true, false, true);
+        assertMatches("price", "lt", "10", false, false, true, false, false);
+        assertMatches("price", "lte", "10", true, false, true, false, false);
+        assertMatches("price", "lt", Double.toString(Math.nextUp(10d)), true, false, true, false, false);
+        assertMatches("price", "between", "10,20", true, true, true, false, true);
+        assertMatches("price", "between", "20.5,29.5", false, false, false, false, false);
+        assertMatches("price", "gte", "30", false, false, false, false, true);
+    }
+
+    @Test
+    public void testDateRanges() throws IOException {
+        // strict_date_optional_time, a date without time is its first milli in UTC
+        assertMatches("updated", "gt", "2023-07-04", false, true, false, false, true);
+        assertMatches("updated", "gte", "2023-07-04", true, true, false, false, true);
+        assertMatches("updated", "gte", Long.toString(JULY_4TH), true, true, false, false, true);
+        assertMatches("updated", "lt", "2023-07-04T00:00:00.001Z", true, false, true, false, false);
+        assertMatches("updated", "lte", "2023-07-04T08:00:00+08:00", true, false, true, false, false);
+        assertMatches("updated", "between", "2023-07-04,2023-07-05", true, true, false, false, true);
+        assertMatches("updated", "between", "2023-07-04T00:00:00.002Z,2023-07-04T23:59:59.999Z", false, false, false, false, false);
+    }
+
+    @Test
+    public void testRangeBoundFormat() {
+        assertEquals(JULY_4TH, SortRange.parseBound("2023-07-04T00:00:00Z"), 0);
+        assertEquals(JULY_4TH, SortRange.parseBound(" 2023-07-04 "), 0);
+        for (String bound : new String[]{"2023/07/04", "07-04-2023", "2023-07-04 00:00:00", "ten"}) {
+            try {
+                SortRange.parseBound(bound);
+                fail("[" + bound + "] is not a number or a strict_date_optional_time date");
+            } catch (IllegalArgumentException e) {
+                assertEquals("sort_score range value [" + bound + "] must be a number or a date.", e.getMessage());
+            }
+        }
+    }
+
+    private static void assertMatches(String type, String value, boolean... expected) throws IOException {
+        assertMatches("mark", type, value, expected);
+    }
+
+    private static void assertMatches(String field, String type, String value, boolean... expected) throws IOException {
+        SortRule rule = rule(field, type, value);
+        SortOrdMatcher matcher = SortOrdMatcher.resolve(rule, new LeafDocValues(reader.leaves().get(0), fieldData));
+        boolean[] onOrdinals = new boolean[MARKS.length];
+        boolean[] onSource = new boolean[MARKS.length];
+        for (int doc = 0; doc < MARKS.length; doc++) {
+            onOrdinals[doc] = matcher.match(doc);
+            Map<String, List<String>> source = source(doc);
+            onSource[doc] = rule.matches(name -> source.getOrDefault(name, Collections.emptyList()));
+        }
+        String message = "[" + field + "] [" + type + "] [" + value + "]";
+        assertArrayEquals(message + " on the doc values", expected, onOrdinals);
+        assertArrayEquals(message + " on the source", expected, onSource);
+    }
+
+    /**
+     * @return the values of the doc as read from its source
+     */
+    private static Map<String, List<String>> source(int doc) {
+        Map<String, List<String>> source = new HashMap<>();
+        source.put("mark", Arrays.asList(MARKS[doc]));
+        List<String> prices = new ArrayList<>();
+        for (double price : PRICES[doc]) {
+            prices.add(Double.toString(price));
+        }
+        source.put("price", prices);
+        source.put("updated", Arrays.asList(DATES[doc]));
+        return source;
+    }
+
+    private static SortRule rule(String field, String type, String value) {
+        StringBuilder sort = new StringBuilder("{\"weight\":1,\"type\":\"").append(type).append('"');
+        if (!"any".equals(type)) {
+            sort.append(",\"field\":\"").append(field).append('"');
+        }
+        if (value != null) {
+            sort.append(",\"value\":\"").append(value).append('"');
+        }
+        sort.append('}');
+        String config = "{\"category_field\":\"category\",\"func_score_factor\":1,\"original_score_factor\":1,\"sort_base_score\":100,\"sort_score\":{\"C0\":[" + sort + "]}}";
+        Map<String, Object> params = XContentHelper.convertToMap(new BytesArray(config), true, XContentType.JSON).v2();
+        SortRule[] rules = ScorePlan.compile(new CategoryScoreWapper(null, params)).getCategoryPlans().get("C0").getSortRules();
+        assertEquals(1, rules.length);
+        return rules[0];
+    }
+}
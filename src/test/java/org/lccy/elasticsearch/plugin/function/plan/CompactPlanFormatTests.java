@@ -0,0 +1,185 @@
+package org.lccy.elasticsearch.plugin.function.plan;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunctionBuilder;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * A config encoded with {@link CompactPlanFormat} decodes to the same typed rules, alone and inside the stream of
+ * a {@link ComplexFieldFunctionBuilder}.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class CompactPlanFormatTests {
+
+    // every modifier family, a geo rule, missing and require, every sort type family and a multi field sort rule
+    private static final String CONFIG = "{\"category_field\":\"category\",\"field_mode\":\"sum\",\"execution\":\"specialized\","
+            + "\"func_score_factor\":0.7,\"original_score_factor\":1,\"sort_base_score\":20000,"
+            + "\"fields_score\":{"
+            + "\"C0,C1\":["
+            + "{\"field\":\"price\",\"factor\":0.125,\"modifier\":\"log1p\",\"weight\":50,\"add_num\":1,\"missing\":0},"
+            + "{\"field\":\"stock\",\"factor\":-0.2,\"modifier\":\"sqrt\",\"weight\":3.5,\"require\":true,\"missing\":\"7\"},"
+            + "{\"field\":\"location\",\"factor\":1,\"modifier\":\"decaygeoexp\",\"weight\":50,"
+            + "\"origin\":\"31,121\",\"scale\":\"50km\",\"offset\":\"500m\",\"decay\":0.6}],"
+            + "\"C2\":[{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":1}]},"
+            + "\"sort_score\":{"
+            + "\"C0,C1\":["
+            + "{\"weight\":1,\"field\":\"mark\",\"value\":\"1\"},"
+            + "{\"weight\":2,\"field\":\"prov\",\"type\":\"not\",\"value\":\"9999\"},"
+            + "{\"weight\":3,\"field\":\"mark\",\"type\":\"in\",\"value\":\"2,3\"},"
+            + "{\"weight\":4,\"field\":\"price\",\"type\":\"between\",\"value\":\"10,20\"},"
+            + "{\"weight\":5,\"field\":\"mark&_&prov\",\"type\":\"equal&_&not_in\",\"value\":\"1&_&2,3\"},"
+            + "{\"weight\":6,\"field\":\"stock\",\"type\":\"not_exists\"},"
+            + "{\"weight\":7,\"type\":\"any\"}],"
+            + "\"C2\":[{\"weight\":-1,\"field\":\"price\",\"type\":\"gte\",\"value\":\"100\"}]}}";
+
+    private static CategoryScoreWapper source() {
+        Map<String, Object> request = XContentHelper.convertToMap(new BytesArray(CONFIG), true, XContentType.JSON).v2();
+        return new CategoryScoreWapper(null, request);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CategoryScoreWapper source = source();
+        BytesReference encoded = CompactPlanFormat.encode(source);
+        Map<String, Object> decoded;
+        try (StreamInput in = encoded.streamInput()) {
+            decoded = CompactPlanFormat.decode(in);
+            assertEquals("trailing bytes", 0, in.available());
+        }
+        CategoryScoreWapper read = new CategoryScoreWapper(null, decoded);
+        assertEquals(source.toMap(), read.toMap());
+        assertEquals(source.fingerprint(), read.fingerprint());
+        assertEquals(ScorePlan.compile(source).getCategoryPlans().keySet(), ScorePlan.compile(read).getCategoryPlans().keySet());
+    }
+
+    private static ComplexScoreServices compactServices() {
+        ComplexScoreServices services = new ComplexScoreServices(Settings.EMPTY);
+        services.setCompactPlanFormat(true);
+        return services;
+    }
+
+    @Test
+    public void testBuilderStream() throws IOException {
+        ComplexScoreServices services = compactServices();
+        ComplexFieldFunctionBuilder builder = new ComplexFieldFunctionBuilder(ScorePlan.compile(source()), services);
+        BytesReference written;
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            written = out.bytes();
+        }
+        ComplexFieldFunctionBuilder read;
+        try (StreamInput in = written.streamInput()) {
+            read = new ComplexFieldFunctionBuilder(in, services);
+        }
+        assertEquals(builder, read);
+        assertEquals(builder.getPlan().getFingerprint(), read.getPlan().getFingerprint());
+        assertEquals(builder.getParams(), read.getParams());
+
+        // a streamed builder writes the bytes it read
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            read.writeTo(out);
+            assertArrayEquals(BytesReference.toBytes(written), BytesReference.toBytes(out.bytes()));
+        }
+    }
+
+    @Test
+    public void testPlanCacheKey() throws IOException {
+        ComplexScoreServices services = compactServices();
+        ComplexFieldFunctionBuilder first = read(new ComplexFieldFunctionBuilder(ScorePlan.compile(source()), services), services);
+        ComplexFieldFunctionBuilder second = read(new ComplexFieldFunctionBuilder(ScorePlan.compile(source()), services), services);
+        assertSame(first.getPlan(), second.getPlan());
+        assertEquals(1, services.getPlanCache().hits());
+
+        // the cache key is computed from the decoded config, another config never gets the cached plan
+        Map<String, Object> other = XContentHelper.convertToMap(new BytesArray(CONFIG.replace("\"decay\":0.6", "\"decay\":0.5")),
+                true, XContentType.JSON).v2();
+        ComplexFieldFunctionBuilder third = read(new ComplexFieldFunctionBuilder(ScorePlan.compile(new CategoryScoreWapper(null, other)), services), services);
+        assertNotSame(first.getPlan(), third.getPlan());
+        assertEquals(new CategoryScoreWapper(null, other).fingerprint(), third.getPlan().getFingerprint());
+        assertEquals(2, services.getPlanCache().count());
+    }
+
+    private static ComplexFieldFunctionBuilder read(ComplexFieldFunctionBuilder builder, ComplexScoreServices services) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                return new ComplexFieldFunctionBuilder(in, services);
+            }
+        }
+    }
+
+    @Test
+    public void testMapFormat() throws IOException {
+        // a client, or a node while an older build is in the cluster, writes the map an older build reads
+        ComplexScoreServices services = new ComplexScoreServices(Settings.EMPTY);
+        ComplexFieldFunctionBuilder builder = new ComplexFieldFunctionBuilder(ScorePlan.compile(source()), services);
+        BytesReference written;
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            written = out.bytes();
+        }
+        try (StreamInput in = written.streamInput()) {
+            in.readOptionalFloat();
+            assertEquals(source().toMap(), new CategoryScoreWapper(null, in.readMap()).toMap());
+        }
+        ComplexFieldFunctionBuilder read;
+        try (StreamInput in = written.streamInput()) {
+            read = new ComplexFieldFunctionBuilder(in, compactServices());
+        }
+        assertEquals(builder.getPlan().getFingerprint(), read.getPlan().getFingerprint());
+
+        // the compact format is written once every node reads it
+        services.setCompactPlanFormat(true);
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                in.readOptionalFloat();
+                assertEquals("an older build reads an empty request", 0, in.readMap().size());
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentConfigs() throws IOException {
+        CategoryScoreWapper source = source();
+        Map<String, Object> other = XContentHelper.convertToMap(new BytesArray(CONFIG.replace("\"decay\":0.6", "\"decay\":0.5")),
+                true, XContentType.JSON).v2();
+        Map<String, Object> decoded;
+        try (StreamInput in = CompactPlanFormat.encode(new CategoryScoreWapper(null, other)).streamInput()) {
+            decoded = CompactPlanFormat.decode(in);
+        }
+        assertNotEquals(source.fingerprint(), new CategoryScoreWapper(null, decoded).fingerprint());
+    }
+
+    @Test
+    public void testUnknownFormat() throws IOException {
+        byte[] bytes = BytesReference.toBytes(CompactPlanFormat.encode(source()));
+        bytes[0] = 42;
+        try (StreamInput in = new BytesArray(bytes).streamInput()) {
+            CompactPlanFormat.decode(in);
+            fail("an unknown format must not be decoded");
+        } catch (IllegalStateException e) {
+            assertEquals("unknown CompactPlanFormat format [42]", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.lccy.elasticsearch.plugin.ingest;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.ingest.IngestDocument;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.Constants;
+import org.lccy.elasticsearch.plugin.profile.ScoringProfile;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * The processor writes the score and the tier the interpreted execution computes from the same source values.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreProcessorTests {
+
+    // 2023-07-04T00:00:00Z
+    private static final double JULY_4TH = 1688428800000d;
+
+    @Test
+    public void testScore() {
+        ComplexScoreProcessor processor = processor("{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":2}");
+        // the smallest value is read like the first value of the doc values
+        IngestDocument document = execute(processor, "category", "C0", "price", Arrays.asList(12.5, "4"), "mark", "1");
+        assertEquals(8d, document.getFieldValue(Constants.PrecomputedField.FIELD_SCORE, Double.class), 0);
+        assertEquals(300d, document.getFieldValue(Constants.PrecomputedField.SORT_TIER, Double.class), 0);
+
+        document = execute(processor, "category", "C0", "price", 3, "mark", "2");
+        assertEquals(6d, document.getFieldValue(Constants.PrecomputedField.FIELD_SCORE, Double.class), 0);
+        assertEquals(100d, document.getFieldValue(Constants.PrecomputedField.SORT_TIER, Double.class), 0);
+    }
+
+    @Test
+    public void testDate() {
+        ComplexScoreProcessor processor = processor("{\"field\":\"updated\",\"factor\":1,\"modifier\":\"none\",\"weight\":1}");
+        for (Object updated : new Object[]{"2023-07-04", "2023-07-04T08:00:00+08:00", (long) JULY_4TH, Long.toString((long) JULY_4TH)}) {
+            IngestDocument document = execute(processor, "category", "C0", "updated", updated);
+            assertEquals("epoch millis of [" + updated + "]", JULY_4TH,
+                    document.getFieldValue(Constants.PrecomputedField.FIELD_SCORE, Double.class), 0);
+        }
+    }
+
+    @Test
+    public void testNotANumber() {
+        ComplexScoreProcessor processor = processor("{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":2}");
+        for (Object price : new Object[]{"cheap", "07/04/2023", true}) {
+            try {
+                execute(processor, "category", "C0", "price", price);
+                fail("[" + price + "] must not be read as a number");
+            } catch (IllegalArgumentException e) {
+                assertEquals("[complex_score] field [price] value [" + price + "] must be a number or a date.", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCategoryNotConfigured() {
+        ComplexScoreProcessor processor = processor("{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":2}");
+        // the scores written while the doc was in a configured category
+        IngestDocument document = execute(processor, "category", "C9", "price", 3,
+                Constants.PrecomputedField.FIELD_SCORE, 6d, Constants.PrecomputedField.SORT_TIER, 300d);
+        assertFalse(document.hasField(Constants.PrecomputedField.FIELD_SCORE));
+        assertFalse(document.hasField(Constants.PrecomputedField.SORT_TIER));
+        assertEquals(3, (int) document.getFieldValue("price", Integer.class));
+
+        document = execute(processor, "price", 3);
+        assertFalse(document.hasField(Constants.PrecomputedField.FIELD_SCORE));
+        assertFalse(document.hasField(Constants.PrecomputedField.SORT_TIER));
+    }
+
+    private static ComplexScoreProcessor processor(String fields) {
+        String config = "{\"category_field\":\"category\",\"field_mode\":\"sum\",\"func_score_factor\":1,\"original_score_factor\":1,"
+                + "\"sort_base_score\":100,\"fields_score\":{\"C0\":[" + fields + "]},"
+                + "\"sort_score\":{\"C0\":[{\"weight\":3,\"field\":\"mark\",\"value\":\"1\"},{\"weight\":1,\"type\":\"any\"}]}}";
+        Map<String, Object> processorConfig = new HashMap<>();
+        processorConfig.put(ScoringProfile.CONFIG, XContentHelper.convertToMap(new BytesArray(config), true, XContentType.JSON).v2());
+        return new ComplexScoreProcessor.Factory(null).create(new HashMap<>(), "tag", processorConfig);
+    }
+
+    /**
+     * @param fields the field names and values of the source
+     */
+    private static IngestDocument execute(ComplexScoreProcessor processor, Object... fields) {
+        Map<String, Object> source = new HashMap<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            source.put((String) fields[i], fields[i + 1]);
+        }
+        return processor.execute(new IngestDocument("goods", "1", null, null, VersionType.INTERNAL, source));
+    }
+}
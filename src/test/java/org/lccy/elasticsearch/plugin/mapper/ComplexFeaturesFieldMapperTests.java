@@ -0,0 +1,172 @@
+package org.lccy.elasticsearch.plugin.mapper;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.index.fielddata.MultiGeoPointValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.KeywordOrdinals;
+import org.lccy.elasticsearch.plugin.function.PackedFeatures;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper.FeatureType;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper.FeaturesFieldType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The features a doc is encoded with are read back through the {@link PackedFeatures} views the rules read.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexFeaturesFieldMapperTests {
+
+    private static final double GEO_DELTA = 1e-6;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, FeatureType> features = new TreeMap<>();
+        features.put("category", FeatureType.KEYWORD);
+        features.put("location", FeatureType.GEO_POINT);
+        features.put("price", FeatureType.DOUBLE);
+        FeaturesFieldType fieldType = fieldType(features);
+
+        // in name order: category, location, price
+        Object[][] docs = {
+                {terms("phone", "5g"), Arrays.asList(new GeoPoint(31.23, 121.47), new GeoPoint(-33.9, 151.2)), doubles(12.5, -3, 0)},
+                {null, null, doubles(7)},
+                {terms("book"), null, null},
+                {null, null, null}
+        };
+        try (ByteBuffersDirectory directory = new ByteBuffersDirectory();
+             DirectoryReader reader = index(directory, fieldType, docs)) {
+            LeafReader leaf = reader.leaves().get(0).reader();
+            PackedFeatures packed = new PackedFeatures(leaf.getBinaryDocValues("features"), fieldType.featureCount());
+            KeywordOrdinals category = (KeywordOrdinals) packed.view(feature(fieldType, "category"));
+            MultiGeoPointValues location = (MultiGeoPointValues) packed.view(feature(fieldType, "location"));
+            SortedNumericDoubleValues price = (SortedNumericDoubleValues) packed.view(feature(fieldType, "price"));
+
+            // the first keyword of a doc is the smallest term, the category of the doc
+            long fiveG = category.lookupTerm(new BytesRef("5g"));
+            long phone = category.lookupTerm(new BytesRef("phone"));
+            assertTrue(category.advanceExact(0));
+            assertEquals(fiveG, category.nextOrd());
+            assertEquals(phone, category.nextOrd());
+            assertEquals(KeywordOrdinals.NO_MORE_ORDS, category.nextOrd());
+            assertEquals(new BytesRef("5g"), category.lookupOrd(fiveG));
+
+            assertTrue(location.advanceExact(0));
+            assertEquals(2, location.docValueCount());
+            GeoPoint first = location.nextValue();
+            assertEquals(31.23, first.lat(), GEO_DELTA);
+            assertEquals(121.47, first.lon(), GEO_DELTA);
+            GeoPoint second = location.nextValue();
+            assertEquals(-33.9, second.lat(), GEO_DELTA);
+            assertEquals(151.2, second.lon(), GEO_DELTA);
+
+            assertTrue(price.advanceExact(0));
+            assertEquals(3, price.docValueCount());
+            assertEquals(-3, price.nextValue(), 0);
+            assertEquals(0, price.nextValue(), 0);
+            assertEquals(12.5, price.nextValue(), 0);
+
+            assertFalse(category.advanceExact(1));
+            assertFalse(location.advanceExact(1));
+            assertTrue(price.advanceExact(1));
+            assertEquals(1, price.docValueCount());
+            assertEquals(7, price.nextValue(), 0);
+
+            assertTrue(category.advanceExact(2));
+            assertEquals(category.lookupTerm(new BytesRef("book")), category.nextOrd());
+            assertFalse(location.advanceExact(2));
+            assertFalse(price.advanceExact(2));
+
+            assertFalse(category.advanceExact(3));
+            assertFalse(location.advanceExact(3));
+            assertFalse(price.advanceExact(3));
+        }
+    }
+
+    @Test
+    public void testMaxFeatures() throws IOException {
+        Map<String, FeatureType> features = new TreeMap<>();
+        for (int i = 0; i < ComplexFeaturesFieldMapper.MAX_FEATURES; i++) {
+            features.put(String.format(Locale.ROOT, "f%02d", i), FeatureType.DOUBLE);
+        }
+        FeaturesFieldType fieldType = fieldType(features);
+        int last = ComplexFeaturesFieldMapper.MAX_FEATURES - 1;
+        Object[] values = new Object[features.size()];
+        values[0] = doubles(1);
+        values[last] = doubles(2);
+        try (ByteBuffersDirectory directory = new ByteBuffersDirectory();
+             DirectoryReader reader = index(directory, fieldType, new Object[][]{values})) {
+            LeafReader leaf = reader.leaves().get(0).reader();
+            PackedFeatures packed = new PackedFeatures(leaf.getBinaryDocValues("features"), fieldType.featureCount());
+            SortedNumericDoubleValues first = (SortedNumericDoubleValues) packed.view(feature(fieldType, "f00"));
+            SortedNumericDoubleValues middle = (SortedNumericDoubleValues) packed.view(feature(fieldType, "f31"));
+            SortedNumericDoubleValues highest = (SortedNumericDoubleValues) packed.view(feature(fieldType, "f" + last));
+            assertTrue(first.advanceExact(0));
+            assertEquals(1, first.nextValue(), 0);
+            assertFalse(middle.advanceExact(0));
+            assertTrue(highest.advanceExact(0));
+            assertEquals(2, highest.nextValue(), 0);
+        }
+    }
+
+    private static FeaturesFieldType fieldType(Map<String, FeatureType> features) {
+        FeaturesFieldType fieldType = new FeaturesFieldType();
+        fieldType.setName("features");
+        fieldType.setFeatures(features);
+        return fieldType;
+    }
+
+    private static PackedFeatures.Feature feature(FeaturesFieldType fieldType, String name) {
+        int index = fieldType.featureIndex(name);
+        return new PackedFeatures.Feature(fieldType.name(), index, fieldType.featureType(index), fieldType.featureCount());
+    }
+
+    private static DirectoryReader index(ByteBuffersDirectory directory, FeaturesFieldType fieldType, Object[][] docs) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (Object[] values : docs) {
+                Document document = new Document();
+                if (Arrays.stream(values).anyMatch(v -> v != null)) {
+                    document.add(new BinaryDocValuesField(fieldType.name(), ComplexFeaturesFieldMapper.encode(fieldType, values)));
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        return DirectoryReader.open(directory);
+    }
+
+    private static TreeSet<BytesRef> terms(String... terms) {
+        TreeSet<BytesRef> values = new TreeSet<>();
+        for (String term : terms) {
+            values.add(new BytesRef(term));
+        }
+        return values;
+    }
+
+    private static TreeSet<Double> doubles(double... doubles) {
+        TreeSet<Double> values = new TreeSet<>();
+        for (double value : doubles) {
+            values.add(value);
+        }
+        return values;
+    }
+}
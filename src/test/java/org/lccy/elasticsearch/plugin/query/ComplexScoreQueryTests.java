@@ -0,0 +1,212 @@
+package org.lccy.elasticsearch.plugin.query;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexNumericFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedNumericDVIndexFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lccy.elasticsearch.plugin.function.ComplexFieldFunction;
+import org.lccy.elasticsearch.plugin.function.ComplexScoreServices;
+import org.lccy.elasticsearch.plugin.function.PackedFeatures;
+import org.lccy.elasticsearch.plugin.function.SortTiers;
+import org.lccy.elasticsearch.plugin.function.bo.CategoryScoreWapper;
+import org.lccy.elasticsearch.plugin.function.plan.ScorePlan;
+import org.lccy.elasticsearch.plugin.mapper.ComplexFeaturesFieldMapper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The top hits of {@link ComplexScoreQuery} collected with skipping are the ones collected by scoring every doc. <br>
+ * Docs [0, 20) and {@link #BEST_DOC} have the top sort tier, so the blocks of 128 docs without them can't be competitive.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class ComplexScoreQueryTests {
+
+    private static final int DOCS = 3000;
+    // the only doc with a high packed price
+    private static final int BEST_DOC = 2500;
+
+    private static final int TOP_TIER_DOCS = 20;
+    private static final Map<String, Function<byte[], Number>> POINT_DECODERS =
+            Collections.singletonMap("price", point -> DoublePoint.decodeDimension(point, 0));
+
+    private static DirectoryReader reader;
+    private static Map<String, IndexFieldData> fieldData;
+
+    @BeforeClass
+    public static void buildIndex() throws IOException {
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int doc = 0; doc < DOCS; doc++) {
+                Document document = new Document();
+                document.add(new SortedSetDocValuesField("category", new BytesRef("C0")));
+                document.add(new BinaryDocValuesField("features", packedPrice(doc == BEST_DOC ? 1000 : 1)));
+                double price = (doc * 37) % 1000;
+                document.add(new DoublePoint("price", price));
+                document.add(new SortedNumericDocValuesField("price", NumericUtils.doubleToSortableLong(price)));
+                String mark = doc < TOP_TIER_DOCS || doc == BEST_DOC ? "1" : "2";
+                document.add(new SortedSetDocValuesField("mark", new BytesRef(mark)));
+                StringBuilder title = new StringBuilder();
+                for (int i = 0; i <= doc % 5; i++) {
+                    title.append("phone ");
+                }
+                for (int i = 0; i < doc % 3; i++) {
+                    title.append("case ");
+                }
+                document.add(new TextField("title", title.toString(), Field.Store.NO));
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("query").settings(settings).build(), Settings.EMPTY);
+        Index index = indexSettings.getIndex();
+        fieldData = new HashMap<>();
+        for (String keyword : new String[]{"category", "mark"}) {
+            fieldData.put(keyword, new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, keyword,
+                    new NoneCircuitBreakerService(), AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION));
+        }
+        fieldData.put("price", new SortedNumericDVIndexFieldData(index, "price", IndexNumericFieldData.NumericType.DOUBLE));
+    }
+
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testPackedFeature() throws IOException {
+        String fields = "{\"field\":\"features.price\",\"factor\":1,\"modifier\":\"none\",\"weight\":1}";
+        // a complex_features field with the single feature [price]
+        Map<String, PackedFeatures.Feature> features = Collections.singletonMap("features.price",
+                new PackedFeatures.Feature("features", 0, ComplexFeaturesFieldMapper.FeatureType.DOUBLE, 1));
+        ComplexFieldFunction function = new ComplexFieldFunction(plan(1, fields, ""), fieldData, features, Collections.emptyMap(), null);
+        ComplexScoreQuery query = new ComplexScoreQuery(new MatchAllDocsQuery(), function);
+
+        TopDocs complete = search(query, 1, Integer.MAX_VALUE);
+        TopDocs topScores = search(query, 1, 1);
+        assertEquals(BEST_DOC, complete.scoreDocs[0].doc);
+        assertSameHits(complete, topScores);
+    }
+
+    @Test
+    public void testBlockMaxTiers() throws IOException {
+        String fields = "{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":0.01}";
+        String sorts = "{\"weight\":3,\"field\":\"mark\",\"value\":\"1\"},{\"weight\":1,\"type\":\"any\"}";
+        ScorePlan plan = plan(1, fields, ",\"sort_base_score\":100,\"sort_score\":{\"C0\":[" + sorts + "]}");
+        Settings cached = Settings.builder().put(SortTiers.SORT_TIER_CACHE_SIZE.getKey(), "1mb").build();
+        // the block max tiers built for the query, then read from the cached sort tiers
+        for (ComplexScoreServices services : new ComplexScoreServices[]{null, new ComplexScoreServices(Settings.EMPTY), new ComplexScoreServices(cached)}) {
+            ComplexScoreQuery query = new ComplexScoreQuery(new MatchAllDocsQuery(),
+                    new ComplexFieldFunction(plan, fieldData, POINT_DECODERS, services));
+            TopDocs complete = search(query, 10, Integer.MAX_VALUE);
+            TopDocs topScores = search(query, 10, 1);
+            assertSameHits(complete, topScores);
+            assertEquals(BEST_DOC, complete.scoreDocs[0].doc);
+            assertTrue("the blocks without a doc of the top tier are skipped, collected " + topScores.totalHits,
+                    topScores.totalHits.value <= 3 * 128);
+        }
+    }
+
+    @Test
+    public void testSubQueryMinCompetitiveScore() throws IOException {
+        // the function adds at most 4, the sub query score decides the top hits and the sub query skips by itself
+        String fields = "{\"field\":\"price\",\"factor\":1,\"modifier\":\"none\",\"weight\":0.001}";
+        String sorts = "{\"weight\":3,\"field\":\"mark\",\"value\":\"1\"},{\"weight\":1,\"type\":\"any\"}";
+        ScorePlan plan = plan(100, fields, ",\"sort_base_score\":1,\"sort_score\":{\"C0\":[" + sorts + "]}");
+        Query subQuery = new TermQuery(new Term("title", "phone"));
+        ComplexScoreQuery query = new ComplexScoreQuery(subQuery, new ComplexFieldFunction(plan, fieldData, POINT_DECODERS, null));
+        assertSameHits(search(query, 10, Integer.MAX_VALUE), search(query, 10, 1));
+    }
+
+    /**
+     * @param totalHitsThreshold the hits counted before the collector skips docs, {@code Integer.MAX_VALUE} scores every doc
+     */
+    private static TopDocs search(ComplexScoreQuery query, int size, int totalHitsThreshold) throws IOException {
+        TopScoreDocCollector collector = TopScoreDocCollector.create(size, totalHitsThreshold);
+        new IndexSearcher(reader).search(query, collector);
+        return collector.topDocs();
+    }
+
+    private static void assertSameHits(TopDocs expected, TopDocs actual) {
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            ScoreDoc hit = expected.scoreDocs[i];
+            assertEquals("doc of hit [" + i + "]", hit.doc, actual.scoreDocs[i].doc);
+            assertEquals("score of hit [" + i + "]", hit.score, actual.scoreDocs[i].score, 0f);
+        }
+    }
+
+    /**
+     * @return the bytes of a complex_features field whose only feature is the price.
+     */
+    private static BytesRef packedPrice(double price) throws IOException {
+        ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+        // presence mask, value count, value
+        out.writeVLong(1);
+        out.writeVInt(1);
+        out.writeLong(Double.doubleToLongBits(price));
+        return new BytesRef(out.toArrayCopy());
+    }
+
+    /**
+     * @param sorts the sort_score params with a leading comma, empty for none
+     */
+    private static ScorePlan plan(double originalScoreFactor, String fields, String sorts) {
+        String config = "{\"category_field\":\"category\",\"field_mode\":\"sum\",\"func_score_factor\":1,"
+                + "\"original_score_factor\":" + originalScoreFactor + ","
+                + "\"fields_score\":{\"C0\":[" + fields + "]}" + sorts + "}";
+        Map<String, Object> params = XContentHelper.convertToMap(new BytesArray(config), true, XContentType.JSON).v2();
+        return ScorePlan.compile(new CategoryScoreWapper(null, params));
+    }
+}
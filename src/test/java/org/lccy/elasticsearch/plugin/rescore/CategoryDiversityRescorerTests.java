@@ -0,0 +1,160 @@
+package org.lccy.elasticsearch.plugin.rescore;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.AbstractAtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.plain.SortedSetDVOrdinalsIndexFieldData;
+import org.elasticsearch.indices.breaker.NoneCircuitBreakerService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The window is ranked greedily by the decayed scores of the categories, the hits over the cap follow in score order
+ * and every rewritten score is below the one ranked before it.
+ *
+ * @author liuchen <br>
+ * @date 2023-07-11
+ */
+public class CategoryDiversityRescorerTests {
+
+    // the [category] values of each doc, the category of a doc is its smallest term
+    private static final String[][] CATEGORIES = {
+            {"A"},
+            {"A"},
+            {"A"},
+            {"B"},
+            {"B"},
+            {},
+            {},
+            {"C", "A"}
+    };
+
+    private static DirectoryReader reader;
+    private static IndexOrdinalsFieldData fieldData;
+
+    @BeforeClass
+    public static void buildIndex() throws IOException {
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (String[] categories : CATEGORIES) {
+                Document document = new Document();
+                for (String category : categories) {
+                    document.add(new SortedSetDocValuesField("category", new BytesRef(category)));
+                }
+                writer.addDocument(document);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+
+        Settings settings = Settings.builder()
+                .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .build();
+        IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("rescore").settings(settings).build(), Settings.EMPTY);
+        fieldData = new SortedSetDVOrdinalsIndexFieldData(indexSettings, IndexFieldDataCache.NONE, "category",
+                new NoneCircuitBreakerService(), AbstractAtomicOrdinalsFieldData.DEFAULT_SCRIPT_FUNCTION);
+    }
+
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testDecay() throws IOException {
+        TopDocs rescored = rescore(10, 10, 0.5f, hit(0, 10), hit(1, 9), hit(2, 8), hit(3, 7), hit(4, 6));
+        // A 10, then B 7 over A 9 * 0.5, A 4.5 over B 6 * 0.5, B 3 over A 8 * 0.25
+        assertHits(rescored, hit(0, 10), hit(3, 7), hit(1, 4.5f), hit(4, 3), hit(2, 2));
+    }
+
+    @Test
+    public void testNoDecay() throws IOException {
+        TopDocs rescored = rescore(10, 10, 1, hit(3, 7), hit(0, 10), hit(4, 7), hit(1, 9));
+        // the score order, a tie broken by doc
+        assertHits(rescored, hit(0, 10), hit(1, 9), hit(3, 7), hit(4, 7));
+    }
+
+    @Test
+    public void testCapTail() throws IOException {
+        TopDocs rescored = rescore(10, 1, 1, hit(0, 10), hit(1, 9), hit(2, 8), hit(5, 7), hit(6, 6.5f), hit(3, 5));
+        // the docs without category are ranked each on its own, A 9 and A 8 follow below the last ranked hit
+        float tail = Math.nextDown(5f);
+        assertHits(rescored, hit(0, 10), hit(5, 7), hit(6, 6.5f), hit(3, 5), hit(1, tail), hit(2, Math.nextDown(tail)));
+    }
+
+    @Test
+    public void testCapTailKeepsLowerScores() throws IOException {
+        TopDocs rescored = rescore(10, 1, 1, hit(0, 10), hit(1, 1), hit(3, 5), hit(4, 4));
+        // B 4 and A 1 are over the cap but already below the hits ranked before them
+        assertHits(rescored, hit(0, 10), hit(3, 5), hit(4, 4), hit(1, 1));
+    }
+
+    @Test
+    public void testFirstCategory() throws IOException {
+        // the doc of [C, A] is capped with the docs of A
+        TopDocs rescored = rescore(10, 1, 1, hit(0, 10), hit(7, 9), hit(3, 5));
+        assertHits(rescored, hit(0, 10), hit(3, 5), hit(7, Math.nextDown(5f)));
+    }
+
+    @Test
+    public void testWindow() throws IOException {
+        TopDocs rescored = rescore(3, 1, 1, hit(0, 10), hit(1, 9), hit(3, 8), hit(2, 7), hit(4, 6));
+        // the hits after the window are left as they are
+        assertHits(rescored, hit(0, 10), hit(3, 8), hit(1, Math.nextDown(8f)), hit(2, 7), hit(4, 6));
+    }
+
+    @Test
+    public void testUnmappedField() throws IOException {
+        TopDocs topDocs = topDocs(hit(0, 10), hit(1, 9));
+        CategoryDiversityRescorer.Context context = new CategoryDiversityRescorer.Context(10, null, 1, 0.5f);
+        assertSame(topDocs, CategoryDiversityRescorer.INSTANCE.rescore(topDocs, new IndexSearcher(reader), context));
+    }
+
+    private static TopDocs rescore(int windowSize, int maxPerCategory, float decay, ScoreDoc... hits) throws IOException {
+        CategoryDiversityRescorer.Context context = new CategoryDiversityRescorer.Context(windowSize, fieldData, maxPerCategory, decay);
+        return CategoryDiversityRescorer.INSTANCE.rescore(topDocs(hits), new IndexSearcher(reader), context);
+    }
+
+    private static TopDocs topDocs(ScoreDoc... hits) {
+        return new TopDocs(new TotalHits(hits.length, TotalHits.Relation.EQUAL_TO), hits);
+    }
+
+    private static ScoreDoc hit(int doc, float score) {
+        return new ScoreDoc(doc, score);
+    }
+
+    private static void assertHits(TopDocs actual, ScoreDoc... expected) {
+        assertEquals(expected.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("doc of hit [" + i + "]", expected[i].doc, actual.scoreDocs[i].doc);
+            assertEquals("score of hit [" + i + "]", expected[i].score, actual.scoreDocs[i].score, 0f);
+            if (i > 0) {
+                assertTrue("scores descending at hit [" + i + "]", actual.scoreDocs[i].score <= actual.scoreDocs[i - 1].score);
+            }
+        }
+    }
+}